@@ -27,6 +27,7 @@ import pl.openmc.bungee.auth.database.mysql.modes.StoreMySQL;
 import pl.openmc.bungee.auth.listeners.AuthServerListener;
 import pl.openmc.bungee.auth.listeners.BigListener;
 import pl.openmc.bungee.auth.listeners.ChannelListener;
+import pl.openmc.bungee.auth.listeners.HandoffListener;
 import pl.openmc.bungee.auth.managers.QueueManager;
 import pl.openmc.bungee.auth.managers.UserManager;
 import pl.openmc.bungee.auth.utils.AESUtil;
@@ -323,6 +324,8 @@ public class Main extends Plugin {
     new AuthServerListener(this);
     proxy.getPluginManager().registerListener(this, new ChannelListener());
     proxy.registerChannel(CHANNEL_NAME);
+    proxy.getPluginManager().registerListener(this, new HandoffListener());
+    proxy.registerChannel(HandoffListener.HANDOFF_CHANNEL);
     // proxy.registerChannel(FREEZE_CHANNEL);
     logger.info("Event listeners registered");
   }
@@ -0,0 +1,103 @@
+package pl.openmc.bungee.auth.listeners;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.connection.Server;
+import net.md_5.bungee.api.event.PluginMessageEvent;
+import net.md_5.bungee.api.event.ServerConnectEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+
+/**
+ * Relays player data between backend servers when a player switches servers.
+ * The server the player leaves is asked for a snapshot of their data, and the
+ * snapshot it answers with is passed on to the server they join, so the two
+ * do not race each other through the database.
+ */
+public class HandoffListener implements Listener {
+  // Constants
+  public static final String HANDOFF_CHANNEL = "openmc:handoff";
+  private static final String REQUEST_TYPE = "request";
+  private static final String SNAPSHOT_TYPE = "snapshot";
+
+  // Logger
+  private static final Logger LOGGER = ProxyServer.getInstance().getLogger();
+
+  /**
+   * Asks the current server of a switching player for their data. Runs last,
+   * so connections cancelled or redirected by other listeners are seen as
+   * they end up.
+   *
+   * @param event The server connect event
+   */
+  @EventHandler(priority = EventPriority.HIGHEST)
+  public void onServerConnect(ServerConnectEvent event) {
+    ProxiedPlayer player = event.getPlayer();
+    Server current = player.getServer();
+    if (event.isCancelled() || current == null || current.getInfo().equals(event.getTarget())) {
+      return;
+    }
+
+    try (ByteArrayOutputStream stream = new ByteArrayOutputStream();
+         DataOutputStream out = new DataOutputStream(stream)) {
+
+      out.writeUTF(REQUEST_TYPE);
+      out.writeUTF(player.getUniqueId().toString());
+      out.writeUTF(event.getTarget().getName());
+
+      current.sendData(HANDOFF_CHANNEL, stream.toByteArray());
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Error sending handoff request for player: " + player.getName(), e);
+    }
+  }
+
+  /**
+   * Passes snapshots on to the server named in them. Messages on the handoff
+   * channel never reach clients, and players cannot send any.
+   *
+   * @param event The plugin message event
+   */
+  @EventHandler
+  public void onPluginMessage(PluginMessageEvent event) {
+    if (!HANDOFF_CHANNEL.equals(event.getTag())) {
+      return;
+    }
+
+    event.setCancelled(true);
+    if (!(event.getSender() instanceof Server)) {
+      return;
+    }
+
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(event.getData()))) {
+      String type = in.readUTF();
+      in.readUTF();
+      String target = in.readUTF();
+
+      if (!SNAPSHOT_TYPE.equals(type)) {
+        return;
+      }
+
+      ServerInfo server = ProxyServer.getInstance().getServerInfo(target);
+      if (server == null) {
+        LOGGER.warning("Cannot hand over player data to unknown server: " + target);
+        return;
+      }
+
+      // Queued until the player's connection to the server is up if nobody
+      // else is online there
+      server.sendData(HANDOFF_CHANNEL, event.getData(), true);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Error reading handoff message", e);
+    }
+  }
+}
@@ -5,10 +5,12 @@ import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 import pl.openmc.paper.core.api.CoreAPI;
 import pl.openmc.paper.core.api.CoreAPIImpl;
+import pl.openmc.paper.core.config.DatabaseConfig;
 import pl.openmc.paper.core.database.PlayerDataStore;
-import pl.openmc.paper.core.database.StoreMode;
 import pl.openmc.paper.core.managers.CommandManager;
 import pl.openmc.paper.core.managers.ConfigManager;
+import pl.openmc.paper.core.managers.HandoffManager;
+import pl.openmc.paper.core.managers.LeaderboardManager;
 import pl.openmc.paper.core.managers.ListenerManager;
 import pl.openmc.paper.core.managers.MessageManager;
 import pl.openmc.paper.core.managers.ModuleManager;
@@ -23,7 +25,10 @@ public final class Main extends JavaPlugin {
   private ModuleManager moduleManager;
   private MessageManager messageManager;
   private PlayerDataManager playerDataManager;
+  private LeaderboardManager leaderboardManager;
+  private HandoffManager handoffManager;
   private PlayerDataStore playerDataStore;
+  private DatabaseConfig databaseConfig;
   private CoreAPI coreAPI;
   private LoggerUtil logger;
 
@@ -39,23 +44,19 @@ public final class Main extends JavaPlugin {
     this.messageManager = new MessageManager(this);
 
     // Initialize database store
-    boolean useMySQL = getConfig().getBoolean("database.mysql.enabled", false);
-    if (useMySQL) {
-      String host = getConfig().getString("database.mysql.host", "localhost");
-      int port = getConfig().getInt("database.mysql.port", 3306);
-      String database = getConfig().getString("database.mysql.database", "minecraft");
-      String username = getConfig().getString("database.mysql.username", "root");
-      String password = getConfig().getString("database.mysql.password", "");
-      String prefix = getConfig().getString("database.mysql.prefix", "");
-
-      this.playerDataStore = new PlayerDataStore(this, StoreMode.MYSQL, host, port, database, username, password,
-          prefix);
-    } else {
-      this.playerDataStore = new PlayerDataStore(this);
-    }
+    this.databaseConfig = new DatabaseConfig(this);
+    databaseConfig.load();
+    this.playerDataStore = new PlayerDataStore(this, databaseConfig);
 
-    // Initialize player data manager
+    // Initialize player data manager and the leaderboard
+    this.leaderboardManager = new LeaderboardManager(this);
     this.playerDataManager = new PlayerDataManager(this);
+    leaderboardManager.seed(playerDataStore);
+
+    // Take over player data handed from other servers behind the proxy
+    if (databaseConfig.getHandoffSettings().isEnabled()) {
+      this.handoffManager = new HandoffManager(this);
+    }
 
     // Get LuckPerms API
     RegisteredServiceProvider<LuckPerms> provider = getServer().getServicesManager().getRegistration(LuckPerms.class);
@@ -94,6 +95,10 @@ public final class Main extends JavaPlugin {
     configManager.saveConfigs();
     moduleManager.unloadModules();
 
+    if (handoffManager != null) {
+      handoffManager.shutdown();
+    }
+
     // Save all player data
     if (playerDataManager != null) {
       playerDataManager.shutdown();
@@ -104,6 +109,11 @@ public final class Main extends JavaPlugin {
       playerDataStore.shutdown();
     }
 
+    // Close the journal once the database has confirmed the final writes
+    if (playerDataManager != null) {
+      playerDataManager.closeJournal();
+    }
+
     logger.info("Core unloaded");
   }
 
@@ -139,6 +149,10 @@ public final class Main extends JavaPlugin {
     return playerDataManager;
   }
 
+  public LeaderboardManager getLeaderboardManager() {
+    return leaderboardManager;
+  }
+
   public CoreAPI getCoreAPI() {
     return coreAPI;
   }
@@ -146,4 +160,8 @@ public final class Main extends JavaPlugin {
   public PlayerDataStore getPlayerDataStore() {
     return playerDataStore;
   }
+
+  public DatabaseConfig getDatabaseConfig() {
+    return databaseConfig;
+  }
 }
\ No newline at end of file
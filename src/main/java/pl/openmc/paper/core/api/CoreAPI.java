@@ -1,13 +1,19 @@
 package pl.openmc.paper.core.api;
 
 import org.bukkit.entity.Player;
+import pl.openmc.paper.core.database.PlayerDataColumn;
 import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.StoreMode;
+import pl.openmc.paper.core.models.player.LeaderboardEntry;
 import pl.openmc.paper.core.models.player.PlayerData;
 
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 /**
  * Public API for the OpenMC Core plugin.
@@ -31,6 +37,27 @@ public interface CoreAPI {
    */
   PlayerData getPlayerData(UUID uuid);
 
+  /**
+   * Gets player data for any player, online or not. Offline players are read
+   * from a cache in front of the database, so repeated lookups are cheap.
+   * Offline data is a snapshot; changes to it are not saved.
+   *
+   * @param uuid The player's UUID
+   * @return A CompletableFuture that will be completed with the player's data,
+   *         or null if the player is unknown
+   */
+  CompletableFuture<PlayerData> getOfflinePlayerData(UUID uuid);
+
+  /**
+   * Gets a future completed once the player's data is loaded. Modules should
+   * use this on join instead of reading the data directly. The future is
+   * completed on the main thread, or right away if the data is already loaded.
+   *
+   * @param uuid The player's UUID
+   * @return A CompletableFuture that will be completed with the player's data
+   */
+  CompletableFuture<PlayerData> whenPlayerDataLoaded(UUID uuid);
+
   /**
    * Gets the LuckPerms API wrapper.
    *
@@ -116,10 +143,48 @@ public interface CoreAPI {
    */
   int getPoints(Player player);
 
+  /**
+   * Gets the players with the most points, online or not.
+   *
+   * @param count The maximum number of players
+   * @return The top players, highest first
+   */
+  List<LeaderboardEntry> getTopPlayers(int count);
+
+  /**
+   * Gets a player's rank by points. Players with equal points get consecutive
+   * ranks.
+   *
+   * @param uuid The player's UUID
+   * @return The rank starting at 1, or -1 if the player is not ranked
+   */
+  int getRank(UUID uuid);
+
+  /**
+   * Gets a player and the players ranked directly above and below them.
+   *
+   * @param uuid  The player's UUID
+   * @param range The number of players to include on each side
+   * @return The entries in rank order, or an empty list if the player is not
+   *         ranked
+   */
+  List<LeaderboardEntry> getAround(UUID uuid, int range);
+
+  /**
+   * Gets how player data is stored. Check it before calling
+   * {@link #getDatabaseStore()}, which has no store to return in
+   * {@link StoreMode#FILE}.
+   *
+   * @return The store mode
+   */
+  StoreMode getStoreMode();
+
   /**
    * Gets the database store.
    *
    * @return The database store
+   * @throws IllegalStateException If player data is kept in a file, see
+   *                               {@link #getStoreMode()}
    */
   Store getDatabaseStore();
 
@@ -141,13 +206,37 @@ public interface CoreAPI {
   CompletableFuture<Void> savePlayerDataToDatabase(PlayerData playerData);
 
   /**
-   * Gets all player data from the database.
+   * Gets all player data from the database. The whole table is held in memory;
+   * use {@link #exportPlayerData} for large tables.
    *
    * @return A CompletableFuture that will be completed with a list of all
    *         PlayerData
    */
   CompletableFuture<List<PlayerData>> getAllPlayerDataFromDatabase();
 
+  /**
+   * Streams all player data from the database in chunks, holding at most one
+   * chunk in memory. The consumer is called on an async thread.
+   *
+   * @param chunkSize The number of players per chunk
+   * @param consumer  The consumer receiving each chunk
+   * @return A CompletableFuture that will be completed with the number of
+   *         players read
+   */
+  CompletableFuture<Long> forEachPlayerDataInDatabase(int chunkSize, Consumer<List<PlayerData>> consumer);
+
+  /**
+   * Publishes all player data from the database with backpressure. Rows are
+   * read page by page as the subscriber requests them, using keyset pagination,
+   * and only the given columns are read. Signals arrive on async threads.
+   *
+   * @param columns  The columns to read besides the UUID; fields of columns not
+   *                 read keep their defaults
+   * @param pageSize The number of rows read per query
+   * @return A publisher of the player data
+   */
+  Flow.Publisher<PlayerData> exportPlayerData(Set<PlayerDataColumn> columns, int pageSize);
+
   /**
    * Deletes player data from the database.
    *
@@ -3,15 +3,22 @@ package pl.openmc.paper.core.api;
 import net.luckperms.api.LuckPerms;
 import org.bukkit.entity.Player;
 import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.database.PlayerDataColumn;
 import pl.openmc.paper.core.database.PlayerDataStore;
 import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.StoreMode;
+import pl.openmc.paper.core.managers.LeaderboardManager;
 import pl.openmc.paper.core.managers.PlayerDataManager;
+import pl.openmc.paper.core.models.player.LeaderboardEntry;
 import pl.openmc.paper.core.models.player.PlayerData;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 /**
  * Implementation of the CoreAPI interface.
@@ -20,6 +27,7 @@ public class CoreAPIImpl implements CoreAPI {
   private final Main plugin;
   private final PlayerDataManager playerDataManager;
   private final PlayerDataStore playerDataStore;
+  private final LeaderboardManager leaderboardManager;
   private final LuckPermsAPI luckPermsAPI;
 
   /**
@@ -33,6 +41,7 @@ public class CoreAPIImpl implements CoreAPI {
     this.plugin = plugin;
     this.playerDataManager = playerDataManager;
     this.playerDataStore = plugin.getPlayerDataStore();
+    this.leaderboardManager = plugin.getLeaderboardManager();
     this.luckPermsAPI = new LuckPermsAPI(luckPerms);
   }
 
@@ -46,6 +55,16 @@ public class CoreAPIImpl implements CoreAPI {
     return playerDataManager.getPlayerData(uuid);
   }
 
+  @Override
+  public CompletableFuture<PlayerData> getOfflinePlayerData(UUID uuid) {
+    return playerDataManager.getOfflinePlayerData(uuid);
+  }
+
+  @Override
+  public CompletableFuture<PlayerData> whenPlayerDataLoaded(UUID uuid) {
+    return playerDataManager.whenLoaded(uuid);
+  }
+
   @Override
   public LuckPermsAPI getLuckPermsAPI() {
     return luckPermsAPI;
@@ -90,8 +109,7 @@ public class CoreAPIImpl implements CoreAPI {
   public int addPoints(Player player, int amount) {
     PlayerData playerData = getPlayerData(player);
     if (playerData != null) {
-      playerData.addPoints(amount);
-      return playerData.getPoints();
+      return playerData.addPoints(amount);
     }
     return 0;
   }
@@ -105,9 +123,34 @@ public class CoreAPIImpl implements CoreAPI {
     return 0;
   }
 
+  @Override
+  public List<LeaderboardEntry> getTopPlayers(int count) {
+    return leaderboardManager.getTop(count);
+  }
+
+  @Override
+  public int getRank(UUID uuid) {
+    return leaderboardManager.getRank(uuid);
+  }
+
+  @Override
+  public List<LeaderboardEntry> getAround(UUID uuid, int range) {
+    return leaderboardManager.getAround(uuid, range);
+  }
+
+  @Override
+  public StoreMode getStoreMode() {
+    return playerDataStore.getStoreMode();
+  }
+
   @Override
   public Store getDatabaseStore() {
-    return playerDataStore.getStore();
+    Store store = playerDataStore.getStore();
+    if (store == null) {
+      throw new IllegalStateException("Player data is stored in " + getStoreMode()
+          + " mode, there is no database store");
+    }
+    return store;
   }
 
   @Override
@@ -117,7 +160,12 @@ public class CoreAPIImpl implements CoreAPI {
 
   @Override
   public CompletableFuture<Void> savePlayerDataToDatabase(PlayerData playerData) {
-    return playerDataStore.savePlayerData(playerData);
+    return playerDataStore.savePlayerData(playerData).whenComplete((result, e) -> {
+      playerDataManager.invalidateOfflinePlayerData(playerData.getPlayerUUID());
+      if (e == null) {
+        leaderboardManager.update(playerData.getPlayerUUID(), playerData.getPlayerName(), playerData.getPoints());
+      }
+    });
   }
 
   @Override
@@ -125,8 +173,23 @@ public class CoreAPIImpl implements CoreAPI {
     return playerDataStore.getAllPlayerData();
   }
 
+  @Override
+  public CompletableFuture<Long> forEachPlayerDataInDatabase(int chunkSize, Consumer<List<PlayerData>> consumer) {
+    return playerDataStore.forEachPlayerData(chunkSize, consumer);
+  }
+
+  @Override
+  public Flow.Publisher<PlayerData> exportPlayerData(Set<PlayerDataColumn> columns, int pageSize) {
+    return playerDataStore.exportPlayerData(columns, pageSize);
+  }
+
   @Override
   public CompletableFuture<Boolean> deletePlayerDataFromDatabase(UUID uuid) {
-    return playerDataStore.deletePlayerData(uuid);
+    return playerDataStore.deletePlayerData(uuid).whenComplete((deleted, e) -> {
+      playerDataManager.invalidateOfflinePlayerData(uuid);
+      if (Boolean.TRUE.equals(deleted)) {
+        leaderboardManager.remove(uuid);
+      }
+    });
   }
 }
\ No newline at end of file
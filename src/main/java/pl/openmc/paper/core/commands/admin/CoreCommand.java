@@ -0,0 +1,176 @@
+package pl.openmc.paper.core.commands.admin;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.commands.BaseCommand;
+import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.metrics.LatencyHistogram;
+import pl.openmc.paper.core.database.metrics.QueryStats;
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class CoreCommand extends BaseCommand {
+  private static final int TOP_STATEMENTS = 8;
+  private static final int MAX_SQL_LENGTH = 60;
+
+  public CoreCommand(Main plugin) {
+    super(plugin, "core");
+    setPermission("openmc.admin.database");
+    setDescription("Statystyki bazy danych");
+    setUsage("/core db <stats|reset|export>");
+  }
+
+  @Override
+  public boolean execute(CommandSender sender, String[] args) {
+    if (args.length < 2 || !args[0].equalsIgnoreCase("db")) {
+      sendMessage(sender, "commands.database.usage", "%usage%", getUsage());
+      return true;
+    }
+
+    Store store = plugin.getPlayerDataStore().getStore();
+    if (store == null) {
+      sendMessage(sender, "commands.database.not_connected");
+      return true;
+    }
+
+    switch (args[1].toLowerCase()) {
+      case "stats":
+        showStats(sender, store);
+        break;
+
+      case "reset":
+        store.getMetrics().reset();
+        sendMessage(sender, "commands.database.reset");
+        break;
+
+      case "export":
+        export(sender, store.getMetrics());
+        break;
+
+      default:
+        sendMessage(sender, "commands.database.usage", "%usage%", getUsage());
+        break;
+    }
+
+    return true;
+  }
+
+  /**
+   * Shows the queue wait and the most time consuming statements.
+   *
+   * @param sender The command sender
+   * @param store  The store to report on
+   */
+  private void showStats(CommandSender sender, Store store) {
+    StoreMetrics metrics = store.getMetrics();
+    long minutes = (System.currentTimeMillis() - metrics.getSince()) / 60000L;
+
+    sendMessage(sender, "commands.database.stats.header", "%minutes%", String.valueOf(minutes));
+    sendMessage(sender, "commands.database.stats.cache",
+        "%hits%", String.valueOf(store.getStatementCacheHits()),
+        "%misses%", String.valueOf(store.getStatementCacheMisses()));
+
+    LatencyHistogram queueWait = metrics.getQueueWait();
+    sendMessage(sender, "commands.database.stats.queue_wait",
+        "%count%", String.valueOf(queueWait.getCount()),
+        "%p50%", formatMillis(queueWait.getPercentileMicros(50)),
+        "%p99%", formatMillis(queueWait.getPercentileMicros(99)),
+        "%max%", formatMillis(queueWait.getMaxMicros()));
+
+    for (Map.Entry<String, Long> gauge : metrics.getGauges().entrySet()) {
+      sendMessage(sender, "commands.database.stats.gauge",
+          "%name%", gauge.getKey(),
+          "%value%", String.valueOf(gauge.getValue()));
+    }
+
+    List<QueryStats> statements = metrics.getQueryStats();
+    if (statements.isEmpty()) {
+      sendMessage(sender, "commands.database.stats.no_queries");
+    }
+
+    for (QueryStats stats : statements.subList(0, Math.min(TOP_STATEMENTS, statements.size()))) {
+      LatencyHistogram latency = stats.getLatency();
+      sendMessage(sender, "commands.database.stats.query",
+          "%sql%", abbreviate(stats.getSql()),
+          "%count%", String.valueOf(stats.getCount()),
+          "%errors%", String.valueOf(stats.getErrors()),
+          "%slow%", String.valueOf(stats.getSlowCount()),
+          "%p50%", formatMillis(latency.getPercentileMicros(50)),
+          "%p95%", formatMillis(latency.getPercentileMicros(95)),
+          "%p99%", formatMillis(latency.getPercentileMicros(99)),
+          "%max%", formatMillis(latency.getMaxMicros()));
+    }
+
+    sendMessage(sender, "commands.database.stats.footer", "%count%", String.valueOf(statements.size()));
+  }
+
+  /**
+   * Writes the metrics as JSON into the plugin's metrics folder off the main
+   * thread.
+   *
+   * @param sender  The command sender
+   * @param metrics The metrics to export
+   */
+  private void export(CommandSender sender, StoreMetrics metrics) {
+    String json = metrics.toJson();
+    File folder = new File(plugin.getDataFolder(), "metrics");
+    File file = new File(folder, "db-stats-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+
+    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+      try {
+        Files.createDirectories(folder.toPath());
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        sendMessage(sender, "commands.database.export.success", "%file%", file.getPath());
+      } catch (IOException e) {
+        sendMessage(sender, "commands.database.export.failed");
+        plugin.getPluginLogger().severe("Error exporting database metrics: " + e.getMessage());
+      }
+    });
+  }
+
+  /**
+   * Formats a duration in microseconds as milliseconds.
+   *
+   * @param micros The duration in microseconds
+   * @return The formatted duration
+   */
+  private static String formatMillis(long micros) {
+    return String.format("%.2f", micros / 1000.0);
+  }
+
+  /**
+   * Shortens a statement so it fits in a chat line.
+   *
+   * @param sql The statement
+   * @return The shortened statement
+   */
+  private static String abbreviate(String sql) {
+    return sql.length() <= MAX_SQL_LENGTH ? sql : sql.substring(0, MAX_SQL_LENGTH - 3) + "...";
+  }
+
+  @Override
+  public List<String> tabComplete(CommandSender sender, String[] args) {
+    if (args.length == 1) {
+      return "db".startsWith(args[0].toLowerCase()) ? Arrays.asList("db") : new ArrayList<>();
+    } else if (args.length == 2 && args[0].equalsIgnoreCase("db")) {
+      return Arrays.asList("stats", "reset", "export")
+          .stream()
+          .filter(s -> s.startsWith(args[1].toLowerCase()))
+          .collect(Collectors.toList());
+    }
+
+    return new ArrayList<>();
+  }
+}
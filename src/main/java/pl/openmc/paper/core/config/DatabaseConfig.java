@@ -0,0 +1,295 @@
+package pl.openmc.paper.core.config;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.database.ShutdownFlushSettings;
+import pl.openmc.paper.core.database.StoreMode;
+import pl.openmc.paper.core.database.StoreSettings;
+import pl.openmc.paper.core.database.WriteRejectionPolicy;
+import pl.openmc.paper.core.database.cache.OfflineCacheSettings;
+import pl.openmc.paper.core.database.executor.ExecutorBackend;
+import pl.openmc.paper.core.database.executor.RejectionPolicy;
+import pl.openmc.paper.core.database.file.FileStoreSettings;
+import pl.openmc.paper.core.database.handoff.HandoffSettings;
+import pl.openmc.paper.core.database.journal.JournalSettings;
+import pl.openmc.paper.core.database.migration.LegacyImportSettings;
+import pl.openmc.paper.core.database.migration.UuidMigrationSettings;
+import pl.openmc.paper.core.database.mysql.ReplicaSettings;
+import pl.openmc.paper.core.database.pool.PoolSettings;
+import pl.openmc.paper.core.database.sqlite.SQLiteSettings;
+
+/**
+ * Configuration for the database layer, read from the "database" section of
+ * the main config.
+ */
+public class DatabaseConfig {
+  private final Main plugin;
+  private StoreMode storeMode;
+  private String host;
+  private int port;
+  private String database;
+  private String username;
+  private String password;
+  private String prefix;
+  private PoolSettings poolSettings;
+  private ReplicaSettings replicaSettings;
+  private StoreSettings storeSettings;
+  private SQLiteSettings sqliteSettings;
+  private FileStoreSettings fileStoreSettings;
+  private JournalSettings journalSettings;
+  private OfflineCacheSettings offlineCacheSettings;
+  private LegacyImportSettings legacyImportSettings;
+  private HandoffSettings handoffSettings;
+  private ShutdownFlushSettings shutdownFlushSettings;
+  private UuidMigrationSettings uuidMigrationSettings;
+
+  /**
+   * Creates a new DatabaseConfig instance.
+   *
+   * @param plugin The main plugin instance
+   */
+  public DatabaseConfig(Main plugin) {
+    this.plugin = plugin;
+  }
+
+  /**
+   * Loads the configuration from the main config file.
+   */
+  public void load() {
+    FileConfiguration config = plugin.getConfig();
+
+    // Load connection settings
+    if (config.getBoolean("database.mysql.enabled", false)) {
+      this.storeMode = StoreMode.MYSQL;
+    } else if (config.getBoolean("database.file.enabled", false)) {
+      this.storeMode = StoreMode.FILE;
+    } else {
+      this.storeMode = StoreMode.SQLITE;
+    }
+    this.host = config.getString("database.mysql.host", "localhost");
+    this.port = config.getInt("database.mysql.port", 3306);
+    this.database = config.getString("database.mysql.database", "minecraft");
+    this.username = config.getString("database.mysql.username", "root");
+    this.password = config.getString("database.mysql.password", "");
+    this.prefix = config.getString("database.mysql.prefix", "");
+
+    // Load connection pool settings
+    PoolSettings defaults = new PoolSettings();
+    this.poolSettings = new PoolSettings();
+    poolSettings.setMinimumIdle(config.getInt("database.mysql.pool.minimum-idle", defaults.getMinimumIdle()));
+    poolSettings.setMaximumPoolSize(
+        config.getInt("database.mysql.pool.maximum-pool-size", defaults.getMaximumPoolSize()));
+    poolSettings.setConnectionTimeout(
+        config.getLong("database.mysql.pool.connection-timeout", defaults.getConnectionTimeout()));
+    poolSettings.setValidationTimeout(
+        config.getLong("database.mysql.pool.validation-timeout", defaults.getValidationTimeout()));
+    poolSettings.setIdleTimeout(config.getLong("database.mysql.pool.idle-timeout", defaults.getIdleTimeout()));
+    poolSettings.setMaxLifetime(config.getLong("database.mysql.pool.max-lifetime", defaults.getMaxLifetime()));
+    poolSettings.setLeakDetectionThreshold(
+        config.getLong("database.mysql.pool.leak-detection-threshold", defaults.getLeakDetectionThreshold()));
+    poolSettings.setStatementCacheSize(
+        config.getInt("database.statement-cache-size", defaults.getStatementCacheSize()));
+
+    // Load read replica settings
+    ReplicaSettings replicaDefaults = new ReplicaSettings();
+    this.replicaSettings = new ReplicaSettings();
+    replicaSettings.setHosts(config.getStringList("database.mysql.replicas.hosts"));
+    replicaSettings.setStickyWindow(
+        config.getLong("database.mysql.replicas.sticky-window", replicaDefaults.getStickyWindow()));
+    replicaSettings.setHealthCheckInterval(
+        config.getLong("database.mysql.replicas.health-check-interval", replicaDefaults.getHealthCheckInterval()));
+    replicaSettings.setMaxLag(config.getInt("database.mysql.replicas.max-lag", replicaDefaults.getMaxLag()));
+
+    // Load write-behind settings
+    StoreSettings storeDefaults = new StoreSettings();
+    this.storeSettings = new StoreSettings();
+    storeSettings.setWriteBatchSize(
+        config.getInt("database.write-behind.batch-size", storeDefaults.getWriteBatchSize()));
+    storeSettings.setWriteMaxDelay(
+        config.getLong("database.write-behind.max-delay", storeDefaults.getWriteMaxDelay()));
+    storeSettings.setFetchSize(config.getInt("database.fetch-size", storeDefaults.getFetchSize()));
+    storeSettings.setSlowQueryThreshold(
+        config.getLong("database.slow-query-threshold", storeDefaults.getSlowQueryThreshold()));
+
+    // Load executor and circuit breaker settings
+    storeSettings.setExecutorThreads(config.getInt("database.executor.threads", storeDefaults.getExecutorThreads()));
+    storeSettings.setExecutorQueueDepth(
+        config.getInt("database.executor.queue-depth", storeDefaults.getExecutorQueueDepth()));
+    storeSettings.setWriteQueueCapacity(
+        config.getInt("database.write-behind.queue-capacity", storeDefaults.getWriteQueueCapacity()));
+    String rejectionPolicy = config.getString("database.executor.rejection-policy",
+        storeDefaults.getRejectionPolicy().name());
+    try {
+      storeSettings.setRejectionPolicy(RejectionPolicy.valueOf(rejectionPolicy.toUpperCase().replace('-', '_')));
+    } catch (IllegalArgumentException e) {
+      plugin.getPluginLogger().warning("Unknown database rejection policy " + rejectionPolicy + ", using "
+          + storeDefaults.getRejectionPolicy());
+    }
+    // The write queue used to block under caller-runs, so that stays the default
+    WriteRejectionPolicy writeDefault = storeSettings.getRejectionPolicy() == RejectionPolicy.CALLER_RUNS
+        ? WriteRejectionPolicy.BLOCK : storeDefaults.getWriteRejectionPolicy();
+    String writeRejectionPolicy = config.getString("database.write-behind.rejection-policy", writeDefault.name());
+    try {
+      storeSettings.setWriteRejectionPolicy(WriteRejectionPolicy.valueOf(writeRejectionPolicy.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      plugin.getPluginLogger().warning("Unknown write-behind rejection policy " + writeRejectionPolicy + ", using "
+          + writeDefault);
+      storeSettings.setWriteRejectionPolicy(writeDefault);
+    }
+    String executorBackend = config.getString("database.executor.backend",
+        storeDefaults.getExecutorBackend().name());
+    try {
+      storeSettings.setExecutorBackend(ExecutorBackend.valueOf(executorBackend.toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      plugin.getPluginLogger().warning("Unknown database executor backend " + executorBackend + ", using "
+          + storeDefaults.getExecutorBackend());
+    }
+    storeSettings.setBreakerFailureThreshold(
+        config.getInt("database.circuit-breaker.failure-threshold", storeDefaults.getBreakerFailureThreshold()));
+    storeSettings.setBreakerOpenDuration(
+        config.getLong("database.circuit-breaker.open-duration", storeDefaults.getBreakerOpenDuration()));
+    storeSettings.setSpoolCapacity(
+        config.getInt("database.circuit-breaker.spool-capacity", storeDefaults.getSpoolCapacity()));
+    storeSettings.setDurableSpool(
+        config.getBoolean("database.circuit-breaker.durable-spool", storeDefaults.isDurableSpool()));
+
+    // Load SQLite settings
+    SQLiteSettings sqliteDefaults = new SQLiteSettings();
+    this.sqliteSettings = new SQLiteSettings();
+    sqliteSettings.setWalEnabled(config.getBoolean("database.sqlite.wal", sqliteDefaults.isWalEnabled()));
+    sqliteSettings.setReaderConnections(
+        config.getInt("database.sqlite.reader-connections", sqliteDefaults.getReaderConnections()));
+    sqliteSettings.setCacheSize(config.getInt("database.sqlite.cache-size", sqliteDefaults.getCacheSize()));
+    sqliteSettings.setMmapSize(config.getLong("database.sqlite.mmap-size", sqliteDefaults.getMmapSize()));
+    sqliteSettings.setBusyTimeout(config.getInt("database.sqlite.busy-timeout", sqliteDefaults.getBusyTimeout()));
+
+    // Load file store settings
+    FileStoreSettings fileDefaults = new FileStoreSettings();
+    this.fileStoreSettings = new FileStoreSettings();
+    fileStoreSettings.setSyncInterval(config.getLong("database.file.sync-interval", fileDefaults.getSyncInterval()));
+    fileStoreSettings.setCompactionThreshold(
+        config.getInt("database.file.compaction-threshold", fileDefaults.getCompactionThreshold()));
+    fileStoreSettings.setCompactionMinSize(config.getLong("database.file.compaction-min-size",
+        fileDefaults.getCompactionMinSize() / (1024L * 1024L)) * 1024L * 1024L);
+
+    // Load journal settings
+    JournalSettings journalDefaults = new JournalSettings();
+    this.journalSettings = new JournalSettings();
+    journalSettings.setEnabled(config.getBoolean("database.journal.enabled", journalDefaults.isEnabled()));
+    journalSettings.setSegmentSize(config.getLong("database.journal.segment-size",
+        journalDefaults.getSegmentSize() / (1024L * 1024L)) * 1024L * 1024L);
+    journalSettings.setFsync(config.getBoolean("database.journal.fsync", journalDefaults.isFsync()));
+
+    // Load offline player cache settings
+    OfflineCacheSettings cacheDefaults = new OfflineCacheSettings();
+    this.offlineCacheSettings = new OfflineCacheSettings();
+    offlineCacheSettings.setMaximumSize(
+        config.getInt("database.offline-cache.maximum-size", cacheDefaults.getMaximumSize()));
+    offlineCacheSettings.setExpireAfter(
+        config.getLong("database.offline-cache.expire-after", cacheDefaults.getExpireAfter()));
+    offlineCacheSettings.setNegativeExpireAfter(
+        config.getLong("database.offline-cache.negative-expire-after", cacheDefaults.getNegativeExpireAfter()));
+
+    // Load legacy import settings
+    LegacyImportSettings importDefaults = new LegacyImportSettings();
+    this.legacyImportSettings = new LegacyImportSettings();
+    legacyImportSettings.setEnabled(config.getBoolean("database.legacy-import.enabled", importDefaults.isEnabled()));
+    legacyImportSettings.setThreads(config.getInt("database.legacy-import.threads", importDefaults.getThreads()));
+    legacyImportSettings.setBatchSize(
+        config.getInt("database.legacy-import.batch-size", importDefaults.getBatchSize()));
+
+    // Load handoff settings
+    HandoffSettings handoffDefaults = new HandoffSettings();
+    this.handoffSettings = new HandoffSettings();
+    handoffSettings.setEnabled(config.getBoolean("database.handoff.enabled", handoffDefaults.isEnabled()));
+    handoffSettings.setTimeout(config.getLong("database.handoff.timeout", handoffDefaults.getTimeout()));
+
+    // Load shutdown flush settings
+    ShutdownFlushSettings flushDefaults = new ShutdownFlushSettings();
+    this.shutdownFlushSettings = new ShutdownFlushSettings();
+    shutdownFlushSettings.setDeadline(
+        config.getLong("database.shutdown-flush.deadline", flushDefaults.getDeadline()));
+    shutdownFlushSettings.setConnections(
+        config.getInt("database.shutdown-flush.connections", flushDefaults.getConnections()));
+
+    // Load binary UUID migration settings
+    UuidMigrationSettings migrationDefaults = new UuidMigrationSettings();
+    this.uuidMigrationSettings = new UuidMigrationSettings();
+    uuidMigrationSettings.setChunkSize(
+        config.getInt("database.uuid-migration.chunk-size", migrationDefaults.getChunkSize()));
+    uuidMigrationSettings.setPause(config.getLong("database.uuid-migration.pause", migrationDefaults.getPause()));
+  }
+
+  // Getters
+  public StoreMode getStoreMode() {
+    return storeMode;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public String getDatabase() {
+    return database;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getPassword() {
+    return password;
+  }
+
+  public String getPrefix() {
+    return prefix;
+  }
+
+  public PoolSettings getPoolSettings() {
+    return poolSettings;
+  }
+
+  public ReplicaSettings getReplicaSettings() {
+    return replicaSettings;
+  }
+
+  public StoreSettings getStoreSettings() {
+    return storeSettings;
+  }
+
+  public SQLiteSettings getSQLiteSettings() {
+    return sqliteSettings;
+  }
+
+  public FileStoreSettings getFileStoreSettings() {
+    return fileStoreSettings;
+  }
+
+  public JournalSettings getJournalSettings() {
+    return journalSettings;
+  }
+
+  public OfflineCacheSettings getOfflineCacheSettings() {
+    return offlineCacheSettings;
+  }
+
+  public LegacyImportSettings getLegacyImportSettings() {
+    return legacyImportSettings;
+  }
+
+  public HandoffSettings getHandoffSettings() {
+    return handoffSettings;
+  }
+
+  public ShutdownFlushSettings getShutdownFlushSettings() {
+    return shutdownFlushSettings;
+  }
+
+  public UuidMigrationSettings getUuidMigrationSettings() {
+    return uuidMigrationSettings;
+  }
+}
@@ -0,0 +1,1272 @@
+package pl.openmc.paper.core.database;
+
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.database.executor.CircuitBreaker;
+import pl.openmc.paper.core.database.executor.ExecutorBackend;
+import pl.openmc.paper.core.database.executor.StoreExecutor;
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+import pl.openmc.paper.core.database.pool.ConnectionPool;
+import pl.openmc.paper.core.database.pool.ScopedResultSet;
+import pl.openmc.paper.core.database.spool.WriteSpool;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Base class for JDBC stores backed by a {@link ConnectionPool}.
+ * Every operation borrows its own connection, so concurrent callers run in
+ * parallel up to the pool size. Asynchronous work runs on a bounded
+ * {@link StoreExecutor}, and a {@link CircuitBreaker} makes every operation fail
+ * fast while the database cannot be reached. A thread running
+ * {@link #inTransaction} keeps one connection for all of its operations
+ * until the transaction ends.
+ */
+public abstract class BaseStore implements Store {
+  protected final String prefix;
+  protected final StoreSettings settings;
+  protected final LoggerUtil logger;
+  protected final StoreMetrics metrics;
+  protected final CircuitBreaker circuitBreaker;
+
+  // Connection and state management
+  private volatile ConnectionPool pool;
+  private volatile WriteBehindQueue writeQueue;
+  private volatile StoreExecutor executor;
+  private final Map<String, QueryTemplate> templates;
+  private final ThreadLocal<Transaction> transactions;
+  private final List<Runnable> connectListeners;
+
+  // Configuration constants
+  private static final long SHUTDOWN_DRAIN_TIMEOUT = 5;
+  private static final String COMMIT_STATEMENT = "COMMIT";
+  private static final ReadScope NO_READ_SCOPE = () -> {
+  };
+
+  /**
+   * Creates a new pooled store.
+   *
+   * @param prefix   The table prefix
+   * @param settings The store tuning settings
+   */
+  protected BaseStore(String prefix, StoreSettings settings) {
+    this.prefix = prefix != null ? prefix : "";
+    this.settings = settings != null ? settings : new StoreSettings();
+    this.logger = Main.getInstance().getPluginLogger();
+    this.metrics = new StoreMetrics(getDisplayName(), this.settings.getSlowQueryThreshold(), logger);
+    this.circuitBreaker = new CircuitBreaker(getDisplayName(), this.settings.getBreakerFailureThreshold(),
+        this.settings.getBreakerOpenDuration(), logger);
+    this.templates = new ConcurrentHashMap<>();
+    this.transactions = new ThreadLocal<>();
+    this.connectListeners = new CopyOnWriteArrayList<>();
+    registerGauges();
+  }
+
+  /**
+   * Exposes the executor, write queue and circuit breaker state as gauges.
+   */
+  private void registerGauges() {
+    metrics.registerGauge("executor.queue-depth", () -> {
+      StoreExecutor current = this.executor;
+      return current != null ? current.getQueueDepth() : 0;
+    });
+    metrics.registerGauge("executor.peak-queue-depth", () -> {
+      StoreExecutor current = this.executor;
+      return current != null ? current.getPeakQueueDepth() : 0;
+    });
+    metrics.registerGauge("executor.saturation-percent", () -> {
+      StoreExecutor current = this.executor;
+      return current != null ? current.getSaturation() : 0;
+    });
+    metrics.registerGauge("executor.active-threads", () -> {
+      StoreExecutor current = this.executor;
+      return current != null ? current.getActiveCount() : 0;
+    });
+    metrics.registerGauge("executor.rejected", () -> {
+      StoreExecutor current = this.executor;
+      return current != null ? current.getRejectedCount() : 0;
+    });
+    metrics.registerGauge("executor.caller-runs", () -> {
+      StoreExecutor current = this.executor;
+      return current != null ? current.getCallerRunsCount() : 0;
+    });
+    metrics.registerGauge("executor.virtual", () -> {
+      StoreExecutor current = this.executor;
+      return current != null && current.getBackend() == ExecutorBackend.VIRTUAL ? 1 : 0;
+    });
+    metrics.registerGauge("write-queue.pending", this::getPendingWrites);
+    metrics.registerGauge("write-queue.spooled", () -> {
+      WriteBehindQueue queue = this.writeQueue;
+      return queue != null ? queue.getSpoolSize() : 0;
+    });
+    metrics.registerGauge("write-queue.rejected", () -> {
+      WriteBehindQueue queue = this.writeQueue;
+      return queue != null ? queue.getRejectedCount() : 0;
+    });
+    metrics.registerGauge("write-queue.spool-age-ms", () -> {
+      WriteBehindQueue queue = this.writeQueue;
+      return queue != null ? queue.getSpoolAge() : 0;
+    });
+    metrics.registerGauge("write-queue.spool-bytes", () -> {
+      WriteBehindQueue queue = this.writeQueue;
+      return queue != null ? queue.getSpoolFileSize() : 0;
+    });
+    metrics.registerGauge("circuit-breaker.open", () -> circuitBreaker.getState() == CircuitBreaker.State.OPEN ? 1 : 0);
+    metrics.registerGauge("circuit-breaker.open-count", circuitBreaker::getOpenCount);
+  }
+
+  /**
+   * Gets the name of the database engine used in logs and thread names.
+   *
+   * @return The display name (e.g. "MySQL")
+   */
+  protected abstract String getDisplayName();
+
+  /**
+   * Starts a connection pool and installs it together with the write-behind
+   * queue for queued updates and the executor for asynchronous work.
+   *
+   * @param pool The connection pool to start
+   * @throws SQLException If the pool cannot open its first connection
+   */
+  protected void openPool(ConnectionPool pool) throws SQLException {
+    try {
+      pool.start();
+    } catch (SQLException e) {
+      pool.close();
+      throw e;
+    }
+
+    this.pool = pool;
+    this.executor = StoreExecutor.create(getDisplayName(), settings.getExecutorBackend(),
+        settings.getExecutorThreads(), getConnectionLimit(), settings.getExecutorQueueDepth(),
+        settings.getRejectionPolicy(), metrics, logger);
+    this.writeQueue = new WriteBehindQueue(getDisplayName(), this::borrowPooled, settings, logger, metrics,
+        circuitBreaker, openSpool());
+  }
+
+  /**
+   * Opens the file mirroring the write spool, if enabled.
+   *
+   * @return The open spool, or null to hold spooled writes in memory only
+   */
+  private WriteSpool openSpool() {
+    if (!settings.isDurableSpool() || settings.getSpoolCapacity() == 0) {
+      return null;
+    }
+
+    File directory = new File(Main.getInstance().getDataFolder(), "spool");
+    WriteSpool spool = new WriteSpool(new File(directory, getDisplayName().toLowerCase() + ".spool"), logger);
+    try {
+      spool.open();
+      return spool;
+    } catch (IOException e) {
+      logger.severe("Cannot open the " + getDisplayName() + " write spool, spooled writes are held in memory only: "
+          + e.getMessage());
+      spool.close();
+      return null;
+    }
+  }
+
+  /**
+   * Gets the number of connections asynchronous work can use at once, which
+   * limits the tasks a virtual thread executor runs concurrently.
+   *
+   * @return The maximum size of the connection pool
+   */
+  protected int getConnectionLimit() {
+    return pool.getSettings().getMaximumPoolSize();
+  }
+
+  /**
+   * Gets the active connection pool.
+   *
+   * @return The connection pool, or null if not connected
+   */
+  public ConnectionPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Gets the latency metrics of this store.
+   *
+   * @return The store metrics
+   */
+  @Override
+  public StoreMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Records how long a statement took.
+   *
+   * @param sql     The executed SQL
+   * @param raw     true if the SQL may contain literals and must be normalized
+   * @param start   The {@link System#nanoTime()} at which the statement started
+   * @param success true if the statement succeeded
+   */
+  private void record(String sql, boolean raw, long start, boolean success) {
+    long elapsed = System.nanoTime() - start;
+    if (raw) {
+      metrics.recordRaw(sql, elapsed, success);
+    } else {
+      metrics.record(sql, elapsed, success);
+    }
+  }
+
+  /**
+   * Replaces the table prefix placeholder in a query.
+   *
+   * @param query The query containing {P} placeholders
+   * @return The query with the prefix applied
+   */
+  protected String resolve(String query) {
+    return query.replace("{P}", this.prefix);
+  }
+
+  /**
+   * Registers a query, resolving its table prefix once.
+   *
+   * @param query The query containing {P} placeholders
+   * @return The registered query
+   */
+  @Override
+  public QueryTemplate template(String query) {
+    if (query == null || query.isEmpty()) {
+      throw new IllegalArgumentException("Query cannot be empty");
+    }
+    return templates.computeIfAbsent(query, raw -> new QueryTemplate(raw, resolve(raw)));
+  }
+
+  /**
+   * Borrows a connection from the pool, or the connection of the transaction
+   * open on the calling thread. Fails immediately while the circuit breaker is
+   * open.
+   *
+   * @return A pooled connection that must be closed by the caller
+   * @throws SQLException If not connected or no connection is available
+   */
+  protected Connection borrow() throws SQLException {
+    Connection bound = getTransactionConnection();
+    return bound != null ? bound : borrowPooled();
+  }
+
+  /**
+   * Gets the connection of the transaction open on the calling thread. Stores
+   * overriding {@link #borrowReader()} use it first, so reads made in a
+   * transaction see its writes.
+   *
+   * @return The transaction's connection, or null if no transaction is open
+   */
+  protected Connection getTransactionConnection() {
+    Transaction transaction = transactions.get();
+    return transaction != null ? transaction.handle : null;
+  }
+
+  /**
+   * Borrows a connection from the pool, even if a transaction is open on the
+   * calling thread. Fails immediately while the circuit breaker is open.
+   *
+   * @return A pooled connection that must be closed by the caller
+   * @throws SQLException If not connected or no connection is available
+   */
+  private Connection borrowPooled() throws SQLException {
+    ConnectionPool current = this.pool;
+    if (current == null) {
+      throw new SQLException(getDisplayName() + " store is not connected");
+    }
+
+    return borrowGuarded(current);
+  }
+
+  /**
+   * Borrows a connection from one of the store's pools through the circuit
+   * breaker. Fails immediately while the breaker is open, and tells it whether
+   * the database could be reached.
+   *
+   * @param pool The pool to borrow from
+   * @return A pooled connection that must be closed by the caller
+   * @throws SQLException If the breaker is open or no connection is available
+   */
+  protected Connection borrowGuarded(ConnectionPool pool) throws SQLException {
+    circuitBreaker.check();
+    try {
+      Connection connection = pool.getConnection();
+      circuitBreaker.recordSuccess();
+      return connection;
+    } catch (SQLException e) {
+      if (CircuitBreaker.isConnectionFailure(e)) {
+        circuitBreaker.recordFailure();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Runs a task on the store's bounded executor.
+   *
+   * @param task The task to run
+   * @throws RejectedExecutionException If the store is not connected or the
+   *                                    executor queue is full
+   */
+  @Override
+  public void execute(Runnable task) {
+    StoreExecutor current = this.executor;
+    if (current == null) {
+      throw new RejectedExecutionException(getDisplayName() + " store is not connected");
+    }
+    current.execute(task);
+  }
+
+  /**
+   * Does nothing, as reads and writes use the same database.
+   *
+   * @param owner The player whose data was written
+   */
+  @Override
+  public void markWritten(UUID owner) {
+  }
+
+  /**
+   * Returns a scope that does nothing, as reads and writes use the same
+   * database.
+   *
+   * @param owner The player whose data is read
+   * @return An empty scope
+   */
+  @Override
+  public ReadScope readingFor(UUID owner) {
+    return NO_READ_SCOPE;
+  }
+
+  /**
+   * Gets the circuit breaker guarding the database.
+   *
+   * @return The circuit breaker
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Borrows a connection for a read-only query. Stores with separate reader
+   * connections override this so reads do not queue behind writes.
+   *
+   * @return A pooled connection that must be closed by the caller
+   * @throws SQLException If not connected or no connection is available
+   */
+  protected Connection borrowReader() throws SQLException {
+    return borrow();
+  }
+
+  /**
+   * Executes an update and returns the generated keys.
+   *
+   * @param connection The connection to use
+   * @param query      The resolved query
+   * @return The result set with generated keys, or null if there are none
+   * @throws SQLException If the update fails
+   */
+  protected ResultSet executeWithGeneratedKeys(Connection connection, String query) throws SQLException {
+    Statement statement = connection.createStatement();
+    try {
+      statement.executeUpdate(query, Statement.RETURN_GENERATED_KEYS);
+      ResultSet rs = statement.getGeneratedKeys();
+      if (rs.next()) {
+        return ScopedResultSet.wrap(rs, statement, connection);
+      }
+      rs.close();
+    } catch (SQLException e) {
+      statement.close();
+      throw e;
+    }
+
+    statement.close();
+    return null;
+  }
+
+  /**
+   * Executes an update query on the database.
+   *
+   * @param immediate If true, executes the query immediately; otherwise, queues
+   *                  it for execution
+   * @param query     The SQL query to execute
+   */
+  @Override
+  public void update(boolean immediate, final String query) {
+    if (query == null || query.isEmpty()) {
+      logger.warning("Attempted to execute empty query");
+      return;
+    }
+
+    final String processedQuery = resolve(query);
+
+    if (!immediate) {
+      submitQueued(processedQuery, statement -> {
+      });
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean success = false;
+    boolean sent = false;
+    try (Connection connection = borrow();
+        Statement statement = connection.createStatement()) {
+      sent = true;
+      statement.executeUpdate(processedQuery);
+      success = true;
+    } catch (SQLException e) {
+      if (!sent && deferAfterConnectionFailure(e, processedQuery, statement -> {
+      })) {
+        return;
+      }
+      logger.warning("Error executing update query: " + processedQuery + " Error: " + e.getMessage());
+    } finally {
+      record(processedQuery, true, start, success);
+    }
+  }
+
+  /**
+   * Executes an update query and returns the generated keys.
+   *
+   * @param query The SQL query to execute
+   * @return The ResultSet containing generated keys, or null if no keys were
+   *         generated
+   */
+  @Override
+  public ResultSet update(String query) {
+    if (query == null || query.isEmpty()) {
+      logger.warning("Attempted to execute empty query");
+      return null;
+    }
+
+    final String processedQuery = resolve(query);
+    Connection connection = null;
+    long start = System.nanoTime();
+
+    try {
+      connection = borrow();
+      ResultSet rs = executeWithGeneratedKeys(connection, processedQuery);
+      record(processedQuery, true, start, true);
+      if (rs == null) {
+        connection.close();
+      }
+      return rs;
+    } catch (SQLException e) {
+      record(processedQuery, true, start, false);
+      ScopedResultSet.closeQuietly(connection);
+      logger
+          .warning("Error executing update query with generated keys: " + processedQuery + " Error: " + e.getMessage());
+    }
+
+    return null;
+  }
+
+  /**
+   * Closes the connection pool and releases resources.
+   */
+  @Override
+  public void disconnect() {
+    // Write queued updates before the pool goes away
+    WriteBehindQueue queue = this.writeQueue;
+    if (queue != null) {
+      this.writeQueue = null;
+      queue.shutdown(SHUTDOWN_DRAIN_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    // Let running tasks finish with the pool still open
+    StoreExecutor currentExecutor = this.executor;
+    if (currentExecutor != null) {
+      this.executor = null;
+      if (!currentExecutor.shutdown(SHUTDOWN_DRAIN_TIMEOUT, TimeUnit.SECONDS)) {
+        logger.warning(getDisplayName() + " executor shut down with tasks still running");
+      }
+    }
+
+    // Close the connection pool
+    ConnectionPool current = this.pool;
+    if (current != null) {
+      this.pool = null;
+      current.close();
+      logger.info(getDisplayName() + " connection pool closed successfully");
+    }
+  }
+
+  /**
+   * Reconnects to the database by closing the current pool and opening a new
+   * one.
+   */
+  @Override
+  public void reconnect() {
+    logger.info("Reconnecting to " + getDisplayName() + " database...");
+    disconnect();
+    connect();
+  }
+
+  /**
+   * Checks if the database connection is active.
+   *
+   * @return true if connected, false otherwise
+   */
+  @Override
+  public boolean isConnected() {
+    ConnectionPool current = this.pool;
+    return current != null && !current.isClosed() && current.isHealthy();
+  }
+
+  @Override
+  public void onConnect(Runnable listener) {
+    connectListeners.add(listener);
+    if (isConnected()) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Runs the connect listeners. Stores call this once they are connected.
+   */
+  protected void notifyConnected() {
+    for (Runnable listener : connectListeners) {
+      try {
+        listener.run();
+      } catch (RuntimeException e) {
+        logger.severe("Error in " + getDisplayName() + " connect listener: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Executes a query and returns the result set. The pooled connection is
+   * returned when the result set is closed.
+   *
+   * @param query The SQL query to execute
+   * @return The ResultSet containing the query results, or null if an error
+   *         occurred
+   */
+  @Override
+  public ResultSet query(String query) {
+    if (query == null || query.isEmpty()) {
+      logger.warning("Attempted to execute empty query");
+      return null;
+    }
+
+    final String processedQuery = resolve(query);
+    Connection connection = null;
+    Statement statement = null;
+    long start = System.nanoTime();
+
+    try {
+      connection = borrowReader();
+      statement = connection.createStatement(
+          ResultSet.TYPE_FORWARD_ONLY,
+          ResultSet.CONCUR_READ_ONLY);
+      ResultSet rs = statement.executeQuery(processedQuery);
+      record(processedQuery, true, start, true);
+      return ScopedResultSet.wrap(rs, statement, connection);
+    } catch (SQLException e) {
+      record(processedQuery, true, start, false);
+      ScopedResultSet.closeQuietly(statement, connection);
+      logger.warning("Error executing query: " + processedQuery + " Error: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Executes a query asynchronously and passes the result to a callback.
+   *
+   * @param query    The SQL query to execute
+   * @param callback The callback to handle the result
+   */
+  @Override
+  public void query(final String query, final Callback<ResultSet> callback) {
+    if (query == null || query.isEmpty()) {
+      logger.warning("Attempted to execute empty async query");
+      if (callback != null) {
+        callback.error(new IllegalArgumentException("Query cannot be empty"));
+      }
+      return;
+    }
+
+    if (callback == null) {
+      logger.warning("Callback cannot be null for async query");
+      return;
+    }
+
+    final String processedQuery = resolve(query);
+
+    Runnable task = () -> {
+      long start = System.nanoTime();
+      try (Connection connection = borrowReader();
+          Statement statement = connection.createStatement(
+              ResultSet.TYPE_FORWARD_ONLY,
+              ResultSet.CONCUR_READ_ONLY)) {
+        ResultSet rs = statement.executeQuery(processedQuery);
+        // Stop the clock before the callback runs, so only the database is timed
+        record(processedQuery, true, start, true);
+        callback.done(rs);
+      } catch (SQLException e) {
+        record(processedQuery, true, start, false);
+        logger.warning("Error executing async query: " + processedQuery + " Error: " + e.getMessage());
+        callback.error(e);
+      }
+    };
+
+    try {
+      execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.warning("Rejected async query: " + processedQuery + " Error: " + e.getMessage());
+      callback.error(e);
+    }
+  }
+
+  /**
+   * Executes a prepared statement query and returns the result set. The
+   * statement and pooled connection are released when the result set is closed.
+   *
+   * @param query    The SQL query to prepare
+   * @param callback The callback to set parameters on the prepared statement
+   * @return The ResultSet containing the query results, or null if an error
+   *         occurred
+   */
+  @Override
+  public ResultSet queryPrepared(String query, PreparedStatementCallback callback) {
+    if (query == null || query.isEmpty()) {
+      logger.warning("Attempted to execute empty prepared query");
+      return null;
+    }
+
+    return executeQuery(resolve(query), true, callback);
+  }
+
+  /**
+   * Executes a registered query and returns the result set. The statement and
+   * pooled connection are released when the result set is closed.
+   *
+   * @param template The registered query
+   * @param callback The callback to set parameters on the prepared statement
+   * @return The ResultSet containing the query results, or null if an error
+   *         occurred
+   */
+  @Override
+  public ResultSet queryPrepared(QueryTemplate template, PreparedStatementCallback callback) {
+    if (template == null) {
+      logger.warning("Attempted to execute empty prepared query");
+      return null;
+    }
+
+    return executeQuery(template.getSql(), false, callback);
+  }
+
+  /**
+   * Executes a resolved prepared query.
+   *
+   * @param processedQuery The resolved SQL query
+   * @param raw            true if the query may contain literals and must be
+   *                       normalized for the metrics
+   * @param callback       The callback to set parameters on the prepared
+   *                       statement
+   * @return The ResultSet containing the query results, or null if an error
+   *         occurred
+   */
+  private ResultSet executeQuery(String processedQuery, boolean raw, PreparedStatementCallback callback) {
+    if (callback == null) {
+      logger.warning("Callback cannot be null for prepared query");
+      return null;
+    }
+
+    Connection connection = null;
+    PreparedStatement statement = null;
+    long start = System.nanoTime();
+
+    try {
+      connection = borrowReader();
+      statement = connection.prepareStatement(processedQuery);
+      callback.process(statement);
+      ResultSet rs = statement.executeQuery();
+      record(processedQuery, raw, start, true);
+      return ScopedResultSet.wrap(rs, statement, connection);
+    } catch (Exception e) {
+      record(processedQuery, raw, start, false);
+      ScopedResultSet.closeQuietly(statement, connection);
+      logger.warning("Error executing prepared query: " + processedQuery + " Error: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Runs a registered query and maps its first row.
+   *
+   * @param template The registered query
+   * @param binder   The callback to set parameters, or null if there are none
+   * @param mapper   The row mapper
+   * @param <T>      The type the row is mapped to
+   * @return The mapped row, or null if the query returned no rows
+   * @throws SQLException If the query fails
+   */
+  @Override
+  public <T> T queryFirst(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper)
+      throws SQLException {
+    long start = System.nanoTime();
+    boolean success = false;
+    try (Connection connection = borrowReader();
+        PreparedStatement statement = connection.prepareStatement(template.getSql())) {
+      bind(statement, binder);
+      try (ResultSet rs = statement.executeQuery()) {
+        T row = rs.next() ? mapper.map(rs) : null;
+        success = true;
+        return row;
+      }
+    } finally {
+      record(template.getSql(), false, start, success);
+    }
+  }
+
+  /**
+   * Runs a registered query and maps every row into a list.
+   *
+   * @param template The registered query
+   * @param binder   The callback to set parameters, or null if there are none
+   * @param mapper   The row mapper
+   * @param <T>      The type the rows are mapped to
+   * @return The mapped rows
+   * @throws SQLException If the query fails
+   */
+  @Override
+  public <T> List<T> queryList(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper)
+      throws SQLException {
+    List<T> rows = new ArrayList<>();
+    long start = System.nanoTime();
+    boolean success = false;
+    try (Connection connection = borrowReader();
+        PreparedStatement statement = connection.prepareStatement(template.getSql())) {
+      bind(statement, binder);
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          rows.add(mapper.map(rs));
+        }
+      }
+      success = true;
+    } finally {
+      record(template.getSql(), false, start, success);
+    }
+    return rows;
+  }
+
+  /**
+   * Runs a registered query and streams its mapped rows. The connection is
+   * released once the stream is exhausted or closed. Only the time until the
+   * query returned its first rows is recorded in the metrics.
+   *
+   * @param template The registered query
+   * @param binder   The callback to set parameters, or null if there are none
+   * @param mapper   The row mapper
+   * @param <T>      The type the rows are mapped to
+   * @return A stream of mapped rows
+   * @throws SQLException If the query fails
+   */
+  @Override
+  public <T> Stream<T> stream(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper)
+      throws SQLException {
+    long start = System.nanoTime();
+    Connection connection;
+    try {
+      connection = borrowReader();
+    } catch (SQLException e) {
+      record(template.getSql(), false, start, false);
+      throw e;
+    }
+    PreparedStatement statement = null;
+
+    try {
+      statement = connection.prepareStatement(template.getSql());
+      statement.setFetchSize(settings.getFetchSize());
+      bind(statement, binder);
+      ResultSet rs = statement.executeQuery();
+      record(template.getSql(), false, start, true);
+
+      RowSpliterator<T> rows = new RowSpliterator<>(rs, mapper, statement, connection);
+      return StreamSupport.stream(rows, false).onClose(rows::close);
+    } catch (SQLException | RuntimeException e) {
+      record(template.getSql(), false, start, false);
+      ScopedResultSet.closeQuietly(statement, connection);
+      throw e;
+    }
+  }
+
+  /**
+   * Runs a registered query and hands its mapped rows to a consumer in chunks.
+   *
+   * @param template  The registered query
+   * @param binder    The callback to set parameters, or null if there are none
+   * @param mapper    The row mapper
+   * @param chunkSize The number of rows per chunk
+   * @param consumer  The consumer receiving each chunk
+   * @param <T>       The type the rows are mapped to
+   * @return The total number of rows read
+   * @throws SQLException If the query fails
+   */
+  @Override
+  public <T> long queryChunked(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper,
+      int chunkSize, Consumer<List<T>> consumer) throws SQLException {
+    int size = Math.max(1, chunkSize);
+    long total = 0;
+    long start = System.nanoTime();
+    boolean success = false;
+
+    try (Connection connection = borrowReader();
+        PreparedStatement statement = connection.prepareStatement(template.getSql())) {
+      statement.setFetchSize(settings.getFetchSize());
+      bind(statement, binder);
+
+      try (ResultSet rs = statement.executeQuery()) {
+        List<T> chunk = new ArrayList<>(size);
+        while (rs.next()) {
+          chunk.add(mapper.map(rs));
+          if (chunk.size() == size) {
+            total += chunk.size();
+            consumer.accept(chunk);
+            chunk = new ArrayList<>(size);
+          }
+        }
+
+        if (!chunk.isEmpty()) {
+          total += chunk.size();
+          consumer.accept(chunk);
+        }
+      }
+      success = true;
+    } finally {
+      record(template.getSql(), false, start, success);
+    }
+
+    return total;
+  }
+
+  /**
+   * Applies a parameter callback to a statement.
+   *
+   * @param statement The statement to bind
+   * @param binder    The callback to set parameters, or null if there are none
+   * @throws SQLException If binding fails
+   */
+  private void bind(PreparedStatement statement, PreparedStatementCallback binder) throws SQLException {
+    if (binder == null) {
+      return;
+    }
+
+    try {
+      binder.process(statement);
+    } catch (SQLException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new SQLException("Cannot bind query parameters: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Executes a prepared statement update.
+   *
+   * @param immediate If true, executes the query immediately; otherwise, queues
+   *                  it for execution
+   * @param query     The SQL query to prepare
+   * @param callback  The callback to set parameters on the prepared statement
+   */
+  @Override
+  public void updatePrepared(boolean immediate, String query, PreparedStatementCallback callback) {
+    if (query == null || query.isEmpty()) {
+      logger.warning("Attempted to execute empty prepared update");
+      return;
+    }
+
+    executeUpdate(immediate, resolve(query), true, callback);
+  }
+
+  /**
+   * Executes a registered update.
+   *
+   * @param immediate If true, executes the query immediately; otherwise, queues
+   *                  it for execution
+   * @param template  The registered query
+   * @param callback  The callback to set parameters on the prepared statement
+   */
+  @Override
+  public void updatePrepared(boolean immediate, QueryTemplate template, PreparedStatementCallback callback) {
+    if (template == null) {
+      logger.warning("Attempted to execute empty prepared update");
+      return;
+    }
+
+    executeUpdate(immediate, template.getSql(), false, callback);
+  }
+
+  /**
+   * Executes or queues a resolved prepared update.
+   *
+   * @param immediate      If true, executes the query immediately; otherwise,
+   *                       queues it for execution
+   * @param processedQuery The resolved SQL query
+   * @param raw            true if the query may contain literals and must be
+   *                       normalized for the metrics
+   * @param callback       The callback to set parameters on the prepared
+   *                       statement
+   */
+  private void executeUpdate(boolean immediate, String processedQuery, boolean raw,
+      PreparedStatementCallback callback) {
+    if (callback == null) {
+      logger.warning("Callback cannot be null for prepared update");
+      return;
+    }
+
+    if (!immediate) {
+      submitQueued(processedQuery, callback);
+      return;
+    }
+
+    long start = System.nanoTime();
+    boolean success = false;
+    boolean sent = false;
+    try (Connection connection = borrow();
+        PreparedStatement statement = connection.prepareStatement(processedQuery)) {
+      callback.process(statement);
+      sent = true;
+      statement.executeUpdate();
+      success = true;
+    } catch (Exception e) {
+      if (!sent && deferAfterConnectionFailure(e, processedQuery, callback)) {
+        return;
+      }
+      logger.warning("Error executing prepared update: " + processedQuery + " Error: " + e.getMessage());
+    } finally {
+      record(processedQuery, raw, start, success);
+    }
+  }
+
+  /**
+   * Hands an immediate update that could not reach the database to the
+   * write-behind queue, which spools it until the database is back instead of
+   * losing it. Only failures raised before the statement was executed may be
+   * passed here: once it was sent, an autocommit update can have been applied
+   * before the connection dropped, and replaying it would apply it twice.
+   * Updates made in a transaction are not deferred, as they belong to it.
+   *
+   * @param error          The failure of the immediate update
+   * @param processedQuery The resolved SQL query
+   * @param callback       The callback to set parameters on the prepared
+   *                       statement
+   * @return true if the update was queued
+   */
+  private boolean deferAfterConnectionFailure(Exception error, String processedQuery,
+      PreparedStatementCallback callback) {
+    if (!CircuitBreaker.isConnectionFailure(error) || getTransactionConnection() != null || writeQueue == null) {
+      return false;
+    }
+
+    submitQueued(processedQuery, callback);
+    return true;
+  }
+
+  /**
+   * Runs work in one transaction, or in a savepoint of the transaction already
+   * open on the calling thread.
+   *
+   * @param work The work to run, receiving the connection of the transaction
+   * @param <T>  The type of the result
+   * @return The result of the work
+   * @throws SQLException If the work or the commit fails; the transaction or
+   *                      savepoint has been rolled back
+   */
+  @Override
+  public <T> T inTransaction(TransactionWork<T> work) throws SQLException {
+    Transaction open = transactions.get();
+    if (open != null) {
+      return inSavepoint(open, work);
+    }
+
+    Connection connection = borrowPooled();
+    Transaction transaction = new Transaction(connection);
+    transactions.set(transaction);
+    try {
+      connection.setAutoCommit(false);
+      T result = work.run(transaction.handle);
+
+      long start = System.nanoTime();
+      boolean success = false;
+      try {
+        connection.commit();
+        success = true;
+      } finally {
+        record(COMMIT_STATEMENT, false, start, success);
+      }
+      return result;
+    } catch (Exception e) {
+      rollbackQuietly(connection, null);
+      throw asSQLException(e);
+    } finally {
+      transactions.remove();
+      restoreAutoCommit(connection);
+      ScopedResultSet.closeQuietly(connection);
+    }
+  }
+
+  /**
+   * Runs nested work in a savepoint of an open transaction.
+   *
+   * @param transaction The open transaction
+   * @param work        The work to run
+   * @param <T>         The type of the result
+   * @return The result of the work
+   * @throws SQLException If the work fails; its changes have been rolled back
+   */
+  private <T> T inSavepoint(Transaction transaction, TransactionWork<T> work) throws SQLException {
+    Savepoint savepoint = transaction.connection.setSavepoint();
+    try {
+      T result = work.run(transaction.handle);
+      transaction.connection.releaseSavepoint(savepoint);
+      return result;
+    } catch (Exception e) {
+      rollbackQuietly(transaction.connection, savepoint);
+      throw asSQLException(e);
+    }
+  }
+
+  /**
+   * Rolls back a transaction or savepoint, ignoring failures, as the
+   * connection may already be lost.
+   *
+   * @param connection The connection
+   * @param savepoint  The savepoint to roll back to, or null for the whole
+   *                   transaction
+   */
+  private static void rollbackQuietly(Connection connection, Savepoint savepoint) {
+    try {
+      if (savepoint != null) {
+        connection.rollback(savepoint);
+      } else {
+        connection.rollback();
+      }
+    } catch (SQLException ignored) {
+      // The original failure is more useful than this one
+    }
+  }
+
+  /**
+   * Turns auto-commit back on after a transaction, so the pool does not need
+   * another rollback to reset the connection. If this fails, the pool resets
+   * or discards the connection.
+   *
+   * @param connection The connection
+   */
+  private static void restoreAutoCommit(Connection connection) {
+    try {
+      connection.setAutoCommit(true);
+    } catch (SQLException ignored) {
+      // Handled by the pool when the connection is returned
+    }
+  }
+
+  /**
+   * Converts a failure of transaction work into the exception thrown to the
+   * caller. Unchecked exceptions are passed on unchanged.
+   *
+   * @param e The failure
+   * @return The exception to throw
+   */
+  private static SQLException asSQLException(Exception e) {
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    return e instanceof SQLException ? (SQLException) e : new SQLException(e.getMessage(), e);
+  }
+
+  /**
+   * Queues a prepared update for the write-behind pipeline.
+   *
+   * @param query    The SQL query to prepare
+   * @param callback The callback to set parameters on the prepared statement
+   * @return A future completed once the update has been committed
+   */
+  @Override
+  public CompletableFuture<Void> queueUpdate(String query, PreparedStatementCallback callback) {
+    if (query == null || query.isEmpty() || callback == null) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      future.completeExceptionally(new IllegalArgumentException("Query and callback cannot be empty"));
+      return future;
+    }
+
+    return submitQueued(resolve(query), callback);
+  }
+
+  /**
+   * Queues a registered update for the write-behind pipeline.
+   *
+   * @param template The registered query
+   * @param callback The callback to set parameters on the prepared statement
+   * @return A future completed once the update has been committed
+   */
+  @Override
+  public CompletableFuture<Void> queueUpdate(QueryTemplate template, PreparedStatementCallback callback) {
+    if (template == null || callback == null) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      future.completeExceptionally(new IllegalArgumentException("Query and callback cannot be empty"));
+      return future;
+    }
+
+    return submitQueued(template.getSql(), callback);
+  }
+
+  /**
+   * Hands a resolved update to the write-behind queue.
+   *
+   * @param processedQuery The resolved SQL query
+   * @param callback       The callback to set parameters on the prepared
+   *                       statement
+   * @return A future completed once the update has been committed
+   */
+  private CompletableFuture<Void> submitQueued(String processedQuery, PreparedStatementCallback callback) {
+    WriteBehindQueue queue = this.writeQueue;
+    if (queue == null) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      future.completeExceptionally(new IllegalStateException(getDisplayName() + " store is not connected"));
+      return future;
+    }
+
+    return queue.submit(processedQuery, callback);
+  }
+
+  /**
+   * Asks the write-behind queue to write everything queued so far.
+   */
+  @Override
+  public void flush() {
+    WriteBehindQueue queue = this.writeQueue;
+    if (queue != null) {
+      queue.flush();
+    }
+  }
+
+  /**
+   * Waits until every queued update has been written.
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The unit of the timeout
+   * @return true if the queue drained in time
+   */
+  @Override
+  public boolean awaitDrained(long timeout, TimeUnit unit) {
+    WriteBehindQueue queue = this.writeQueue;
+    return queue == null || queue.awaitDrained(timeout, unit);
+  }
+
+  /**
+   * Gets the number of queued updates that have not been written yet.
+   *
+   * @return The pending update count
+   */
+  public int getPendingWrites() {
+    WriteBehindQueue queue = this.writeQueue;
+    return queue != null ? queue.getPendingCount() : 0;
+  }
+
+  /**
+   * Gets how many prepared statements were served from the statement caches of
+   * the current pool.
+   *
+   * @return The statement cache hit count
+   */
+  @Override
+  public long getStatementCacheHits() {
+    ConnectionPool current = this.pool;
+    return current != null ? current.getStatementCacheHits() : 0L;
+  }
+
+  /**
+   * Gets how many prepared statements the current pool had to prepare.
+   *
+   * @return The statement cache miss count
+   */
+  @Override
+  public long getStatementCacheMisses() {
+    ConnectionPool current = this.pool;
+    return current != null ? current.getStatementCacheMisses() : 0L;
+  }
+
+  /**
+   * Borrows a connection from the pool. The caller must close it to return it
+   * to the pool.
+   *
+   * @return A pooled connection, or null if none could be obtained
+   */
+  @Override
+  public Connection getConnection() {
+    try {
+      return borrow();
+    } catch (SQLException e) {
+      logger.warning("Cannot obtain " + getDisplayName() + " connection: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * A transaction opened by {@link #inTransaction} and the handle given out for
+   * its connection. The handle ignores close() and refuses to end the
+   * transaction, so code running inside it cannot release or commit the
+   * connection early.
+   */
+  private static final class Transaction {
+    private final Connection connection;
+    private final Connection handle;
+
+    private Transaction(Connection connection) {
+      this.connection = connection;
+      this.handle = (Connection) Proxy.newProxyInstance(
+          Connection.class.getClassLoader(),
+          new Class<?>[] { Connection.class },
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "close":
+                return null;
+              case "commit":
+              case "setAutoCommit":
+                throw new SQLException("The transaction is committed by inTransaction");
+              case "rollback":
+                if (args == null) {
+                  throw new SQLException("The transaction is rolled back by inTransaction");
+                }
+                break;
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              default:
+                break;
+            }
+
+            try {
+              return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package pl.openmc.paper.core.database;
+
+/**
+ * The outcome of a shutdown flush.
+ */
+public final class FlushReport {
+  private final int rows;
+  private final int failed;
+  private final int connections;
+  private final long elapsedMillis;
+  private final boolean complete;
+
+  /**
+   * Creates a new report.
+   *
+   * @param rows          The number of players written
+   * @param failed        The number of players whose write failed or did not
+   *                      finish before the deadline
+   * @param connections   The number of connections used
+   * @param elapsedMillis The time the flush took, in milliseconds
+   * @param complete      true if every write finished before the deadline
+   */
+  public FlushReport(int rows, int failed, int connections, long elapsedMillis, boolean complete) {
+    this.rows = rows;
+    this.failed = failed;
+    this.connections = connections;
+    this.elapsedMillis = elapsedMillis;
+    this.complete = complete;
+  }
+
+  /**
+   * Gets the number of players written.
+   *
+   * @return The row count
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * Gets the number of players that were not written, because their
+   * transaction failed or ran past the deadline.
+   *
+   * @return The failed count
+   */
+  public int getFailed() {
+    return failed;
+  }
+
+  /**
+   * Gets the number of connections the players were split across.
+   *
+   * @return The connection count
+   */
+  public int getConnections() {
+    return connections;
+  }
+
+  /**
+   * Gets the time the flush took, in milliseconds.
+   *
+   * @return The elapsed time
+   */
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+
+  /**
+   * Checks whether every write finished before the deadline.
+   *
+   * @return true if the flush completed in time
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+}
@@ -0,0 +1,26 @@
+package pl.openmc.paper.core.database;
+
+/**
+ * Optional columns of the player data table, used to project bulk reads onto
+ * the columns a caller needs. The UUID is always read.
+ */
+public enum PlayerDataColumn {
+  NAME("name"),
+  POINTS("points"),
+  DATA("data");
+
+  private final String columnName;
+
+  PlayerDataColumn(String columnName) {
+    this.columnName = columnName;
+  }
+
+  /**
+   * Gets the name of the column in the table.
+   *
+   * @return The column name
+   */
+  public String getColumnName() {
+    return columnName;
+  }
+}
@@ -0,0 +1,212 @@
+package pl.openmc.paper.core.database;
+
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the stored players page by page. A page is only fetched once the
+ * subscriber has requested more rows than are buffered, so at most one page
+ * is held in memory and no connection or cursor stays open between pages.
+ * Every subscription walks the players independently, with its own
+ * {@link PageCursor}. Signals are delivered on the executor's threads, one at
+ * a time.
+ */
+final class PlayerDataPublisher implements Flow.Publisher<PlayerData> {
+  /**
+   * Reads the players of one subscription page by page.
+   */
+  @FunctionalInterface
+  interface PageCursor {
+    /**
+     * Reads the players following the last page.
+     *
+     * @param pageSize The maximum number of players to read
+     * @return The players; fewer than the page size once the end is reached
+     * @throws Exception If the players cannot be read
+     */
+    List<PlayerData> next(int pageSize) throws Exception;
+  }
+
+  private final Supplier<PageCursor> cursors;
+  private final int pageSize;
+  private final Executor executor;
+
+  /**
+   * Creates a new publisher.
+   *
+   * @param cursors  Opens a cursor for each subscription
+   * @param pageSize The number of rows per page
+   * @param executor The executor running the queries and delivering signals
+   */
+  PlayerDataPublisher(Supplier<PageCursor> cursors, int pageSize, Executor executor) {
+    this.cursors = cursors;
+    this.pageSize = pageSize;
+    this.executor = executor;
+  }
+
+  /**
+   * Opens cursors walking a table with keyset pagination on its id column.
+   *
+   * @param store     The store to read from
+   * @param pageQuery The page query, selecting id first and taking the last id
+   *                  and the page size as parameters
+   * @param mapper    Maps a row to player data
+   * @return The cursor supplier
+   */
+  static Supplier<PageCursor> keyset(Store store, QueryTemplate pageQuery, RowMapper<PlayerData> mapper) {
+    return () -> {
+      long[] lastId = new long[1];
+      return pageSize -> store.queryList(pageQuery, stmt -> {
+        stmt.setLong(1, lastId[0]);
+        stmt.setInt(2, pageSize);
+      }, rs -> {
+        lastId[0] = rs.getLong(1);
+        return mapper.map(rs);
+      });
+    };
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super PlayerData> subscriber) {
+    Objects.requireNonNull(subscriber, "subscriber");
+    subscriber.onSubscribe(new PageSubscription(subscriber));
+  }
+
+  /**
+   * A subscription walking the players from the start.
+   */
+  private final class PageSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super PlayerData> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+
+    // Only touched by the drain loop
+    private final ArrayDeque<PlayerData> buffer = new ArrayDeque<>();
+    private PageCursor cursor;
+    private boolean exhausted;
+    private boolean done;
+
+    private PageSubscription(Flow.Subscriber<? super PlayerData> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        this.invalidRequest = new IllegalArgumentException("Requested " + n + " rows, must be positive");
+      } else {
+        demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      this.cancelled = true;
+    }
+
+    /**
+     * Runs the drain loop on the executor unless it is already running.
+     */
+    private void schedule() {
+      if (pending.getAndIncrement() == 0) {
+        try {
+          executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+          // No drain loop is running, so the terminal signal can be sent here
+          if (!done && !cancelled) {
+            finish(e);
+          }
+          pending.set(0);
+        }
+      }
+    }
+
+    /**
+     * Emits buffered rows while there is demand, fetching pages as needed.
+     */
+    private void drain() {
+      int missed = 1;
+      do {
+        if (!done && !cancelled && invalidRequest != null) {
+          finish(invalidRequest);
+        }
+
+        while (!done && !cancelled) {
+          if (buffer.isEmpty()) {
+            if (exhausted) {
+              finish(null);
+              break;
+            }
+            if (demand.get() == 0) {
+              break;
+            }
+            try {
+              fetchPage();
+            } catch (Exception e) {
+              finish(e);
+            }
+            continue;
+          }
+
+          if (demand.get() == 0) {
+            break;
+          }
+          if (demand.get() != Long.MAX_VALUE) {
+            demand.decrementAndGet();
+          }
+          subscriber.onNext(buffer.poll());
+        }
+
+        if (cancelled) {
+          buffer.clear();
+        }
+        missed = pending.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    /**
+     * Fetches the rows following the last one read, opening the cursor on the
+     * first fetch.
+     *
+     * @throws Exception If the rows cannot be read
+     */
+    private void fetchPage() throws Exception {
+      if (cursor == null) {
+        this.cursor = cursors.get();
+      }
+
+      List<PlayerData> page = cursor.next(pageSize);
+      buffer.addAll(page);
+      if (page.size() < pageSize) {
+        this.exhausted = true;
+      }
+    }
+
+    /**
+     * Sends the terminal signal.
+     *
+     * @param error The failure, or null on completion
+     */
+    private void finish(Throwable error) {
+      this.done = true;
+      buffer.clear();
+      if (error != null) {
+        subscriber.onError(error);
+      } else {
+        subscriber.onComplete();
+      }
+    }
+  }
+}
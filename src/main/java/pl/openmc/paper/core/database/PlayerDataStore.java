@@ -1,119 +1,268 @@
 package pl.openmc.paper.core.database;
 
-import org.bukkit.Bukkit;
 import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.config.DatabaseConfig;
+import pl.openmc.paper.core.database.file.FilePlayerStore;
+import pl.openmc.paper.core.database.migration.UuidKeyMigration;
 import pl.openmc.paper.core.database.mysql.StoreMySQL;
 import pl.openmc.paper.core.database.sqlite.StoreSQLite;
 import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.models.player.PointsChange;
 import pl.openmc.paper.core.utils.LoggerUtil;
 
 import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
- * Handles database operations for player data.
+ * Handles database operations for player data. In file mode the players are
+ * kept in a {@link FilePlayerStore} instead and no database is used.
  */
 public class PlayerDataStore {
   private final Main plugin;
   private final LoggerUtil logger;
   private final Store store;
+  private final FilePlayerStore fileStore;
+  private final StoreMode storeMode;
+  private final UuidKeyMigration uuidMigration;
+  private final long flushDeadline;
+  private final int flushConnections;
+  private volatile KeyedQueries queries;
+  private volatile boolean textKeyColumn;
+  private boolean schemaReady;
   private static final String TABLE_NAME = "player_data";
+  private static final String DATA_COLUMNS = "name, points, data";
+  private static final String TOKEN_COLUMN = "save_token";
+  private static final String TEXT_KEY_COLUMN = "uuid";
+  private static final Set<PlayerDataColumn> ALL_COLUMNS = EnumSet.allOf(PlayerDataColumn.class);
+  private static final long SHUTDOWN_DRAIN_TIMEOUT = 10;
+
+  // New tables are keyed by the binary UUID from the start and have no text
+  // UUID column; BIN_TO_UUID(uuid_bin) shows it on MySQL, hex(uuid_bin) on
+  // SQLite
   private static final String TABLE_CREATION_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_NAME + "` (" +
       "`id` INTEGER PRIMARY KEY AUTO_INCREMENT, " +
-      "`uuid` VARCHAR(36) NOT NULL, " +
+      "`uuid_bin` BINARY(16) NOT NULL, " +
       "`name` VARCHAR(32) NOT NULL, " +
       "`points` INT NOT NULL DEFAULT 0, " +
       "`data` TEXT, " +
-      "UNIQUE (`uuid`), " +
-      "INDEX `idx_uuid` (`uuid`), " +
+      "`save_token` BIGINT NULL, " +
+      "UNIQUE INDEX `idx_uuid_bin` (`uuid_bin`), " +
       "INDEX `idx_name` (`name`)" +
       ");";
 
+  // Multi-row upserts are sent in power-of-two sizes up to this many rows, so
+  // only a handful of statements ever need to be prepared
+  private static final int MAX_UPSERT_ROWS = 128;
+
   private static final String SQLITE_TABLE_CREATION_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_NAME + "` (" +
       "`id` INTEGER PRIMARY KEY AUTOINCREMENT, " +
-      "`uuid` VARCHAR(36) NOT NULL UNIQUE, " +
+      "`uuid_bin` BLOB NOT NULL UNIQUE, " +
       "`name` VARCHAR(32) NOT NULL, " +
       "`points` INTEGER NOT NULL DEFAULT 0, " +
-      "`data` TEXT" +
+      "`data` TEXT, " +
+      "`save_token` INTEGER" +
       ");";
 
   /**
    * Creates a new PlayerDataStore with the specified database configuration.
    *
-   * @param plugin    The main plugin instance
-   * @param storeMode The database mode to use
-   * @param host      The database host (for MySQL)
-   * @param port      The database port (for MySQL)
-   * @param database  The database name (for MySQL)
-   * @param username  The database username (for MySQL)
-   * @param password  The database password (for MySQL)
-   * @param prefix    The table prefix
+   * @param plugin The main plugin instance
+   * @param config The database configuration
    */
-  public PlayerDataStore(Main plugin, StoreMode storeMode, String host, int port, String database,
-      String username, String password, String prefix) {
+  public PlayerDataStore(Main plugin, DatabaseConfig config) {
     this.plugin = plugin;
     this.logger = plugin.getPluginLogger();
+    this.storeMode = config.getStoreMode();
 
     // Create the appropriate store based on the mode
-    if (storeMode == StoreMode.MYSQL) {
-      this.store = new StoreMySQL(host, port, username, password, database, prefix);
+    if (storeMode == StoreMode.FILE) {
+      this.store = null;
+      this.fileStore = new FilePlayerStore(new File(plugin.getDataFolder(), "player-log"),
+          config.getFileStoreSettings(), logger);
+    } else if (storeMode == StoreMode.MYSQL) {
+      this.store = new StoreMySQL(config.getHost(), config.getPort(), config.getUsername(), config.getPassword(),
+          config.getDatabase(), config.getPrefix(), config.getPoolSettings(), config.getStoreSettings(),
+          config.getReplicaSettings());
+      this.fileStore = null;
     } else {
       File databaseFile = new File(plugin.getDataFolder(), "database.db");
-      this.store = new StoreSQLite(databaseFile, prefix);
+      this.store = new StoreSQLite(databaseFile, "", config.getPoolSettings(), config.getSQLiteSettings(),
+          config.getStoreSettings());
+      this.fileStore = null;
     }
 
-    // Connect to the database
-    if (this.store.connect()) {
-      logger.info("Connected to database successfully");
+    // Register the hot queries so they are resolved and parsed once. Which
+    // stage of the UUID migration applies is only known once the schema is
+    // inspected on the first connect
+    this.queries = new KeyedQueries(false, false, true);
 
-      // Create tables
-      try {
-        if (storeMode == StoreMode.MYSQL) {
-          this.store.update(true, TABLE_CREATION_SQL);
-        } else {
-          this.store.update(true, SQLITE_TABLE_CREATION_SQL);
-        }
-        logger.info("Database tables initialized");
-      } catch (Exception e) {
-        logger.severe("Failed to initialize database tables: " + e.getMessage());
+    // SQLite has a single writer, so more connections would only wait on it
+    ShutdownFlushSettings flushSettings = config.getShutdownFlushSettings();
+    this.flushDeadline = TimeUnit.MILLISECONDS.toNanos(flushSettings.getDeadline());
+    this.flushConnections = storeMode == StoreMode.MYSQL
+        ? Math.min(flushSettings.getConnections(), config.getPoolSettings().getMaximumPoolSize())
+        : 1;
+
+    if (fileStore != null) {
+      this.uuidMigration = null;
+      if (!fileStore.open()) {
+        logger.severe("Failed to open player data file");
       }
+      return;
+    }
+
+    // Move the key to the binary UUID column, backfilling it in the background
+    this.uuidMigration = new UuidKeyMigration(store, TABLE_NAME, storeMode, config.getUuidMigrationSettings(),
+        logger, () -> this.queries = stage(false), () -> this.queries = stage(true));
+
+    // Connect to the database; the schema is prepared on every connect until
+    // that succeeds once
+    store.onConnect(this::prepareSchema);
+    if (this.store.connect()) {
+      logger.info("Connected to database successfully");
     } else {
       logger.severe("Failed to connect to database");
     }
   }
 
   /**
-   * Creates a new PlayerDataStore with SQLite storage.
+   * Creates the queries of a migration stage once the binary column exists.
+   * A table without the text column was created keyed by the binary UUID.
    *
-   * @param plugin The main plugin instance
+   * @param binaryKey true if the binary column is indexed
+   * @return The queries
    */
-  public PlayerDataStore(Main plugin) {
-    this.plugin = plugin;
-    this.logger = plugin.getPluginLogger();
+  private KeyedQueries stage(boolean binaryKey) {
+    return new KeyedQueries(true, binaryKey || !textKeyColumn, textKeyColumn);
+  }
 
-    // Create SQLite store
-    File databaseFile = new File(plugin.getDataFolder(), "database.db");
-    this.store = new StoreSQLite(databaseFile, "");
+  /**
+   * Creates the player table if it is missing and picks the queries matching
+   * its schema. New tables are keyed by the binary UUID, older ones by the
+   * text UUID until the migration moved them, so no query can be built for
+   * sure before the table was inspected. Called each time the store connects
+   * until it succeeded once.
+   */
+  private synchronized void prepareSchema() {
+    if (schemaReady) {
+      return;
+    }
 
-    // Connect to the database
-    if (this.store.connect()) {
-      logger.info("Connected to SQLite database successfully");
+    try {
+      createTable();
+      logger.info("Database tables initialized");
+    } catch (SQLException e) {
+      logger.severe("Failed to initialize database tables: " + e.getMessage());
+      return;
+    }
+    this.schemaReady = uuidMigration.start();
+  }
 
-      // Create tables
-      try {
-        this.store.update(true, SQLITE_TABLE_CREATION_SQL);
-        logger.info("Database tables initialized");
-      } catch (Exception e) {
-        logger.severe("Failed to initialize database tables: " + e.getMessage());
+  /**
+   * Creates the player table, and adds the save token column to tables
+   * created before points changes carried a token. Existing rows start
+   * without a token. Also records whether the table still has the text UUID
+   * column, which only tables created before the binary key have.
+   * MySQL commits each DDL statement on its own, so the steps do not share a
+   * transaction; each one is skipped when already done, and a run interrupted
+   * between them is completed by the next one.
+   *
+   * @throws SQLException If the table cannot be created, inspected or altered
+   */
+  private void createTable() throws SQLException {
+    try (Connection connection = store.getConnection()) {
+      if (connection == null) {
+        throw new SQLException("No connection to create " + TABLE_NAME);
+      }
+
+      try (Statement statement = connection.createStatement()) {
+        statement.execute(storeMode == StoreMode.MYSQL ? TABLE_CREATION_SQL : SQLITE_TABLE_CREATION_SQL);
+      }
+
+      Set<String> columns = new HashSet<>();
+      try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, TABLE_NAME,
+          null)) {
+        while (rs.next()) {
+          columns.add(rs.getString("COLUMN_NAME").toLowerCase(Locale.ROOT));
+        }
+      }
+      this.textKeyColumn = columns.contains(TEXT_KEY_COLUMN);
+      if (columns.contains(TOKEN_COLUMN)) {
+        return;
+      }
+
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + TOKEN_COLUMN
+            + (storeMode == StoreMode.MYSQL ? " BIGINT NULL" : " INTEGER"));
       }
+      logger.info("Added save token column to " + TABLE_NAME);
+    }
+  }
+
+  /**
+   * Registers a query template with the database store.
+   *
+   * @param sql The query
+   * @return The template, or null in file mode
+   */
+  private QueryTemplate template(String sql) {
+    return store != null ? store.template(sql) : null;
+  }
+
+  /**
+   * Maps a player_data row holding only some of the columns. Fields whose
+   * column was not selected keep their defaults.
+   *
+   * @param keys    The queries the row was read with
+   * @param rs      The result set positioned on the row
+   * @param columns The selected columns besides the UUID
+   * @return The player data
+   * @throws SQLException If a column cannot be read
+   */
+  private static PlayerData mapPlayerData(KeyedQueries keys, ResultSet rs, Set<PlayerDataColumn> columns)
+      throws SQLException {
+    String name = columns.contains(PlayerDataColumn.NAME) ? rs.getString("name") : null;
+    PlayerData playerData = new PlayerData(keys.readKey(rs), name);
+    if (columns.contains(PlayerDataColumn.POINTS)) {
+      playerData.loadPoints(rs.getInt("points"));
     } else {
-      logger.severe("Failed to connect to SQLite database");
+      playerData.loadPoints(0);
     }
+
+    // Additional data is decoded lazily on first access
+    String data = columns.contains(PlayerDataColumn.DATA) ? rs.getString("data") : null;
+    if (data != null && !data.isEmpty()) {
+      try {
+        playerData.loadEncodedData(Base64.getDecoder().decode(data));
+      } catch (IllegalArgumentException e) {
+        throw new SQLException("Invalid additional data for player " + playerData.getPlayerUUID(), e);
+      }
+    }
+
+    playerData.markSaved(playerData.getVersion());
+    return playerData;
   }
 
   /**
@@ -123,35 +272,22 @@ public class PlayerDataStore {
    * @return A CompletableFuture that will be completed with the loaded PlayerData
    */
   public CompletableFuture<PlayerData> loadPlayerData(UUID uuid) {
+    if (fileStore != null) {
+      return fileStore.loadPlayerData(uuid);
+    }
+
     CompletableFuture<PlayerData> future = new CompletableFuture<>();
 
-    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-      try {
-        String query = "SELECT * FROM " + TABLE_NAME + " WHERE uuid = ?";
-        ResultSet rs = store.queryPrepared(query, stmt -> stmt.setString(1, uuid.toString()));
-
-        if (rs != null && rs.next()) {
-          String name = rs.getString("name");
-          int points = rs.getInt("points");
-
-          PlayerData playerData = new PlayerData(uuid, name);
-          playerData.setPoints(points);
-
-          // Process additional data if needed
-          // String dataJson = rs.getString("data");
-          // if (dataJson != null && !dataJson.isEmpty()) {
-          // // Parse JSON data and populate additionalData map
-          // }
-
-          future.complete(playerData);
-          logger.info("Loaded player data for " + name);
-        } else {
-          future.complete(null);
-        }
+    runAsync(future, () -> {
+      KeyedQueries keys = this.queries;
+      try (Store.ReadScope scope = store.readingFor(uuid)) {
+        PlayerData playerData = store.queryFirst(keys.select, stmt -> keys.bindKey(stmt, 1, uuid),
+            rs -> mapPlayerData(keys, rs, ALL_COLUMNS));
 
-        if (rs != null) {
-          rs.close();
+        if (playerData != null) {
+          logger.info("Loaded player data for " + playerData.getPlayerName());
         }
+        future.complete(playerData);
       } catch (SQLException e) {
         logger.severe("Error loading player data: " + e.getMessage());
         future.completeExceptionally(e);
@@ -162,83 +298,402 @@ public class PlayerDataStore {
   }
 
   /**
-   * Saves player data to the database.
+   * Saves player data to the database. The write goes through the store's
+   * write-behind queue, so saves issued close together share one batch. Points
+   * added since the last save are written as a delta.
    *
    * @param playerData The player data to save
    * @return A CompletableFuture that will be completed when the save operation is
    *         done
    */
   public CompletableFuture<Void> savePlayerData(PlayerData playerData) {
-    CompletableFuture<Void> future = new CompletableFuture<>();
+    if (fileStore != null) {
+      return fileStore.savePlayerData(playerData);
+    }
 
-    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-      try {
-        String query = "INSERT INTO " + TABLE_NAME + " (uuid, name, points) VALUES (?, ?, ?) " +
-            "ON DUPLICATE KEY UPDATE name = ?, points = ?";
-
-        // For SQLite, use a different query since it doesn't support ON DUPLICATE KEY
-        if (store.getStoreMode() == StoreMode.SQLITE) {
-          query = "INSERT OR REPLACE INTO " + TABLE_NAME + " (uuid, name, points) VALUES (?, ?, ?)";
-
-          store.updatePrepared(true, query, stmt -> {
-            stmt.setString(1, playerData.getPlayerUUID().toString());
-            stmt.setString(2, playerData.getPlayerName());
-            stmt.setInt(3, playerData.getPoints());
-          });
-        } else {
-          store.updatePrepared(true, query, stmt -> {
-            stmt.setString(1, playerData.getPlayerUUID().toString());
-            stmt.setString(2, playerData.getPlayerName());
-            stmt.setInt(3, playerData.getPoints());
-            stmt.setString(4, playerData.getPlayerName());
-            stmt.setInt(5, playerData.getPoints());
-          });
-        }
+    PlayerSnapshot snapshot = new PlayerSnapshot(queries, playerData);
+    store.markWritten(playerData.getPlayerUUID());
 
-        logger.info("Saved player data for " + playerData.getPlayerName());
-        future.complete(null);
-      } catch (Exception e) {
-        logger.severe("Error saving player data: " + e.getMessage());
-        future.completeExceptionally(e);
+    return store.queueUpdate(snapshot.templates()[0], stmt -> snapshot.bind(stmt, 0))
+        .whenComplete((result, e) -> {
+          snapshot.complete(e == null);
+          if (e != null) {
+            logger.severe("Error saving player data: " + e.getMessage());
+          } else {
+            // The write may have waited in the queue, so restart the window
+            store.markWritten(playerData.getPlayerUUID());
+            logger.info("Saved player data for " + playerData.getPlayerName());
+          }
+        });
+  }
+
+  /**
+   * Saves the players that changed since their last save, using multi-row
+   * upserts. Players that are not dirty are skipped, and players that fail to
+   * save stay dirty for the next attempt.
+   *
+   * @param players The players to consider
+   * @return A CompletableFuture that will be completed with the number of
+   *         players written
+   */
+  public CompletableFuture<Integer> saveDirtyPlayerData(Collection<PlayerData> players) {
+    if (fileStore != null) {
+      return fileStore.saveDirtyPlayerData(players);
+    }
+
+    KeyedQueries keys = this.queries;
+    List<PlayerSnapshot> absolute = new ArrayList<>();
+    List<PlayerSnapshot> delta = new ArrayList<>();
+    for (PlayerData playerData : players) {
+      if (playerData.isDirty()) {
+        PlayerSnapshot snapshot = new PlayerSnapshot(keys, playerData);
+        (snapshot.points.isAbsolute() ? absolute : delta).add(snapshot);
       }
-    });
+    }
 
-    return future;
+    int total = absolute.size() + delta.size();
+    if (total == 0) {
+      return CompletableFuture.completedFuture(0);
+    }
+
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    queueUpserts(absolute, keys.upserts, keys.parameters, futures);
+    queueUpserts(delta, keys.deltaUpserts, keys.parameters, futures);
+
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+        .thenApply(result -> total)
+        .whenComplete((saved, e) -> {
+          if (e != null) {
+            logger.severe("Error saving dirty player data: " + e.getMessage());
+          } else {
+            logger.info("Saved " + saved + " changed player data record(s)");
+          }
+        });
   }
 
   /**
-   * Gets all player data from the database.
+   * Writes the players that changed since their last save on the calling
+   * thread, for when the plugin is disabled and scheduled tasks no longer run.
+   * Saves already queued are written first, so they cannot land after newer
+   * values. The changed players are then split across a few connections, each
+   * writing its share with multi-row upserts in one transaction, and the call
+   * returns once all of them committed or the configured deadline passed.
+   * Players whose transaction failed or did not finish in time stay dirty.
    *
-   * @return A CompletableFuture that will be completed with a list of all
-   *         PlayerData
+   * @param players The players to consider
+   * @return The report of the flush
    */
-  public CompletableFuture<List<PlayerData>> getAllPlayerData() {
-    CompletableFuture<List<PlayerData>> future = new CompletableFuture<>();
+  public FlushReport flushPlayerData(Collection<PlayerData> players) {
+    long start = System.nanoTime();
+    long deadline = start + flushDeadline;
+
+    List<PlayerData> dirty = new ArrayList<>();
+    for (PlayerData playerData : players) {
+      if (playerData.isDirty()) {
+        dirty.add(playerData);
+      }
+    }
+
+    FlushReport report;
+    if (fileStore != null) {
+      // Appends to the log happen on the calling thread already
+      fileStore.saveDirtyPlayerData(dirty);
+      int failed = countDirty(dirty);
+      report = new FlushReport(dirty.size() - failed, failed, 0, elapsedMillis(start), true);
+    } else if (dirty.isEmpty()) {
+      report = new FlushReport(0, 0, 0, elapsedMillis(start), true);
+    } else {
+      // Leave at least half of the deadline for the players themselves
+      store.flush();
+      if (!store.awaitDrained(remaining(deadline) / 2, TimeUnit.NANOSECONDS)) {
+        logger.warning("Queued player data saves were still being written when the shutdown flush started");
+      }
+      report = flushShares(dirty, start, deadline);
+    }
 
-    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-      List<PlayerData> playerDataList = new ArrayList<>();
+    logger.info("Flushed " + report.getRows() + " player data record(s)"
+        + (report.getConnections() > 1 ? " on " + report.getConnections() + " connections" : "") + " in "
+        + report.getElapsedMillis() + " ms");
+    if (report.getFailed() > 0) {
+      logger.warning(report.getFailed() + " player data record(s) could not be written before shutdown"
+          + (report.isComplete() ? "" : ", the flush ran past its deadline"));
+    }
+    return report;
+  }
+
+  /**
+   * Splits the changed players across the flush connections and waits for
+   * their transactions until the deadline. The shares run on the store's
+   * executor, so a share still running at the deadline is waited for when the
+   * store disconnects instead of losing its connection mid-transaction.
+   *
+   * @param dirty    The changed players
+   * @param start    When the flush started, from {@link System#nanoTime()}
+   * @param deadline When the flush must be done, from {@link System#nanoTime()}
+   * @return The report of the flush
+   */
+  private FlushReport flushShares(List<PlayerData> dirty, long start, long deadline) {
+    // A share smaller than one full upsert is not worth its own connection
+    int connections = Math.min(flushConnections, (dirty.size() + MAX_UPSERT_ROWS - 1) / MAX_UPSERT_ROWS);
+    List<List<PlayerSnapshot>> shares = new ArrayList<>();
+    for (int i = 0; i < connections; i++) {
+      shares.add(new ArrayList<>());
+    }
+    KeyedQueries keys = this.queries;
+    for (int i = 0; i < dirty.size(); i++) {
+      shares.get(i % connections).add(new PlayerSnapshot(keys, dirty.get(i)));
+    }
 
+    List<CompletableFuture<Integer>> results = new ArrayList<>();
+    for (List<PlayerSnapshot> share : shares) {
+      CompletableFuture<Integer> result = new CompletableFuture<>();
+      Runnable task = () -> {
+        try {
+          result.complete(writeShare(keys, share, deadline));
+        } catch (SQLException | RuntimeException e) {
+          result.completeExceptionally(e);
+        }
+      };
+
+      // A share the executor has no room for is written on this thread
+      try {
+        store.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+      results.add(result);
+    }
+
+    int rows = 0;
+    boolean complete = true;
+    for (CompletableFuture<Integer> result : results) {
       try {
-        String query = "SELECT * FROM " + TABLE_NAME;
-        ResultSet rs = store.query(query);
+        rows += result.get(remaining(deadline), TimeUnit.NANOSECONDS);
+      } catch (ExecutionException e) {
+        logger.severe("Error flushing player data: " + e.getCause().getMessage());
+      } catch (TimeoutException e) {
+        complete = false;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        complete = false;
+        break;
+      }
+    }
+
+    return new FlushReport(rows, dirty.size() - rows, connections, elapsedMillis(start), complete);
+  }
+
+  /**
+   * Writes a share of the shutdown flush in one transaction. The snapshots
+   * are completed once the transaction committed or failed.
+   *
+   * @param keys     The queries the snapshots were taken for
+   * @param share    The snapshots to write
+   * @param deadline When the flush must be done, from {@link System#nanoTime()}
+   * @return The number of players written
+   * @throws SQLException If the transaction fails
+   */
+  private int writeShare(KeyedQueries keys, List<PlayerSnapshot> share, long deadline) throws SQLException {
+    List<PlayerSnapshot> absolute = new ArrayList<>();
+    List<PlayerSnapshot> delta = new ArrayList<>();
+    for (PlayerSnapshot snapshot : share) {
+      (snapshot.points.isAbsolute() ? absolute : delta).add(snapshot);
+    }
+
+    boolean success = false;
+    try {
+      store.inTransaction(connection -> {
+        writeUpserts(connection, absolute, keys.upserts, keys.parameters, deadline);
+        writeUpserts(connection, delta, keys.deltaUpserts, keys.parameters, deadline);
+        return null;
+      });
+      success = true;
+      return share.size();
+    } finally {
+      for (PlayerSnapshot snapshot : share) {
+        snapshot.complete(success);
+        if (success) {
+          store.markWritten(snapshot.playerData.getPlayerUUID());
+        }
+      }
+    }
+  }
 
-        if (rs != null) {
-          while (rs.next()) {
-            UUID uuid = UUID.fromString(rs.getString("uuid"));
-            String name = rs.getString("name");
-            int points = rs.getInt("points");
+  /**
+   * Writes a group of snapshots with multi-row upserts on a connection. Each
+   * statement may run until the deadline.
+   *
+   * @param connection The connection of the transaction
+   * @param snapshots  The snapshots to write
+   * @param templates  The upsert templates, indexed by the log2 of their rows
+   * @param parameters The number of parameters per row
+   * @param deadline   When the flush must be done, from
+   *                   {@link System#nanoTime()}
+   * @throws SQLException If a statement fails
+   */
+  private void writeUpserts(Connection connection, List<PlayerSnapshot> snapshots, QueryTemplate[] templates,
+      int parameters, long deadline) throws SQLException {
+    int offset = 0;
+    while (offset < snapshots.size()) {
+      int rows = Integer.highestOneBit(Math.min(snapshots.size() - offset, MAX_UPSERT_ROWS));
+      String sql = templates[Integer.numberOfTrailingZeros(rows)].getSql();
 
-            PlayerData playerData = new PlayerData(uuid, name);
-            playerData.setPoints(points);
+      long start = System.nanoTime();
+      boolean success = false;
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        statement.setQueryTimeout((int) Math.max(1L, TimeUnit.NANOSECONDS.toSeconds(remaining(deadline))));
+        for (int i = 0; i < rows; i++) {
+          snapshots.get(offset + i).bind(statement, i * parameters);
+        }
+        statement.executeUpdate();
+        success = true;
+      } finally {
+        store.getMetrics().record(sql, System.nanoTime() - start, success);
+      }
 
-            // Process additional data if needed
+      offset += rows;
+    }
+  }
 
-            playerDataList.add(playerData);
+  /**
+   * Counts the players that still have unsaved changes.
+   *
+   * @param players The players to check
+   * @return The number of dirty players
+   */
+  private static int countDirty(List<PlayerData> players) {
+    int count = 0;
+    for (PlayerData playerData : players) {
+      if (playerData.isDirty()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Gets the time left until a deadline.
+   *
+   * @param deadline The deadline, from {@link System#nanoTime()}
+   * @return The remaining nanoseconds, or 0 if it passed
+   */
+  private static long remaining(long deadline) {
+    return Math.max(0L, deadline - System.nanoTime());
+  }
+
+  /**
+   * Gets the milliseconds elapsed since a start time.
+   *
+   * @param start The start time, from {@link System#nanoTime()}
+   * @return The elapsed milliseconds
+   */
+  private static long elapsedMillis(long start) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  /**
+   * Inserts imported players in one transaction on the calling thread, or in
+   * a savepoint of the transaction it already has open. Players that already
+   * have a row are skipped, so the row written by a newer session is never
+   * replaced and an interrupted import can be run again.
+   *
+   * @param players The players to insert
+   * @return The number of players inserted
+   * @throws SQLException If the transaction fails, in which case nothing was
+   *                      inserted
+   */
+  public int importPlayerData(List<PlayerData> players) throws SQLException {
+    if (fileStore != null) {
+      try {
+        return fileStore.importPlayerData(players);
+      } catch (IOException e) {
+        throw new SQLException("Cannot write imported players: " + e.getMessage(), e);
+      }
+    }
+
+    KeyedQueries keys = this.queries;
+    long start = System.nanoTime();
+    boolean success = false;
+    try {
+      int inserted = store.inTransaction(connection -> {
+        try (PreparedStatement statement = connection.prepareStatement(keys.insert.getSql())) {
+          for (PlayerData playerData : players) {
+            byte[] encoded = playerData.getEncodedData();
+            keys.bindRow(statement, 0, playerData.getPlayerUUID(), playerData.getPlayerName(),
+                playerData.getPoints(), encoded != null ? Base64.getEncoder().encodeToString(encoded) : null, 0L);
+            statement.addBatch();
+          }
+
+          int count = 0;
+          for (int rows : statement.executeBatch()) {
+            // Drivers may report SUCCESS_NO_INFO (-2) instead of a row count
+            if (rows != 0) {
+              count++;
+            }
           }
+          return count;
+        }
+      });
+      success = true;
+      players.forEach(playerData -> store.markWritten(playerData.getPlayerUUID()));
+      return inserted;
+    } finally {
+      store.getMetrics().record(keys.insert.getSql(), System.nanoTime() - start, success);
+    }
+  }
+
+  /**
+   * Queues multi-row upserts for a group of snapshots. Each snapshot is marked
+   * saved once its chunk is written, or has its points change restored if the
+   * chunk fails.
+   *
+   * @param snapshots  The snapshots to write
+   * @param templates  The upsert templates, indexed by the log2 of their rows
+   * @param parameters The number of parameters per row
+   * @param futures    Receives the future of each chunk
+   */
+  private void queueUpserts(List<PlayerSnapshot> snapshots, QueryTemplate[] templates, int parameters,
+      List<CompletableFuture<Void>> futures) {
+    int offset = 0;
+    while (offset < snapshots.size()) {
+      int rows = Integer.highestOneBit(Math.min(snapshots.size() - offset, MAX_UPSERT_ROWS));
+      List<PlayerSnapshot> chunk = snapshots.subList(offset, offset + rows);
+      chunk.forEach(snapshot -> store.markWritten(snapshot.playerData.getPlayerUUID()));
 
-          rs.close();
+      futures.add(store.queueUpdate(templates[Integer.numberOfTrailingZeros(rows)], stmt -> {
+        for (int i = 0; i < chunk.size(); i++) {
+          chunk.get(i).bind(stmt, i * parameters);
+        }
+      }).whenComplete((result, e) -> chunk.forEach(snapshot -> {
+        snapshot.complete(e == null);
+        if (e == null) {
+          store.markWritten(snapshot.playerData.getPlayerUUID());
         }
+      })));
 
+      offset += rows;
+    }
+  }
+
+  /**
+   * Gets all player data from the database. This holds the whole table in
+   * memory; prefer {@link #forEachPlayerData} for scans over large tables.
+   *
+   * @return A CompletableFuture that will be completed with a list of all
+   *         PlayerData
+   */
+  public CompletableFuture<List<PlayerData>> getAllPlayerData() {
+    if (fileStore != null) {
+      return fileStore.getAllPlayerData();
+    }
+
+    CompletableFuture<List<PlayerData>> future = new CompletableFuture<>();
+
+    runAsync(future, () -> {
+      try {
+        KeyedQueries keys = this.queries;
+        List<PlayerData> playerDataList = store.queryList(keys.selectAll, null,
+            rs -> mapPlayerData(keys, rs, ALL_COLUMNS));
         future.complete(playerDataList);
         logger.info("Loaded " + playerDataList.size() + " player data records");
       } catch (SQLException e) {
@@ -250,6 +705,69 @@ public class PlayerDataStore {
     return future;
   }
 
+  /**
+   * Streams every stored player to a consumer in chunks, so the scan runs in
+   * constant memory regardless of the table size. The consumer is called on an
+   * async thread.
+   *
+   * @param chunkSize The number of players per chunk
+   * @param consumer  The consumer receiving each chunk
+   * @return A CompletableFuture that will be completed with the number of
+   *         players read
+   */
+  public CompletableFuture<Long> forEachPlayerData(int chunkSize, Consumer<List<PlayerData>> consumer) {
+    if (fileStore != null) {
+      return fileStore.forEachPlayerData(chunkSize, consumer);
+    }
+
+    CompletableFuture<Long> future = new CompletableFuture<>();
+
+    runAsync(future, () -> {
+      try {
+        KeyedQueries keys = this.queries;
+        future.complete(store.queryChunked(keys.selectAll, null, rs -> mapPlayerData(keys, rs, ALL_COLUMNS),
+            chunkSize, consumer));
+      } catch (SQLException | RuntimeException e) {
+        logger.severe("Error scanning player data: " + e.getMessage());
+        future.completeExceptionally(e);
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * Publishes the whole player table page by page. Pages are read with keyset
+   * pagination on the id column, and only once the subscriber requests more
+   * rows, so large tables can be walked without holding them in memory or
+   * keeping a long-running query open. In file mode each subscription walks
+   * the players stored when it fetches its first page.
+   *
+   * @param columns  The columns to read besides the UUID
+   * @param pageSize The number of rows read per query
+   * @return A publisher of the player data; each subscription walks the table
+   *         from the start
+   */
+  public Flow.Publisher<PlayerData> exportPlayerData(Set<PlayerDataColumn> columns, int pageSize) {
+    Set<PlayerDataColumn> projection = EnumSet.noneOf(PlayerDataColumn.class);
+    projection.addAll(columns);
+    if (fileStore != null) {
+      return new PlayerDataPublisher(() -> fileStore.openCursor(projection)::next, Math.max(1, pageSize),
+          fileStore::execute);
+    }
+
+    KeyedQueries keys = this.queries;
+    StringBuilder sql = new StringBuilder("SELECT id, ").append(keys.keyColumn);
+    for (PlayerDataColumn column : projection) {
+      sql.append(", ").append(column.getColumnName());
+    }
+    sql.append(" FROM ").append(TABLE_NAME).append(" WHERE id > ?").append(keys.keyFilter(" AND "))
+        .append(" ORDER BY id LIMIT ?");
+
+    return new PlayerDataPublisher(PlayerDataPublisher.keyset(store, store.template(sql.toString()),
+        rs -> mapPlayerData(keys, rs, projection)), Math.max(1, pageSize), store::execute);
+  }
+
   /**
    * Deletes player data from the database.
    *
@@ -258,15 +776,17 @@ public class PlayerDataStore {
    *         is done
    */
   public CompletableFuture<Boolean> deletePlayerData(UUID uuid) {
+    if (fileStore != null) {
+      return fileStore.deletePlayerData(uuid);
+    }
+
     CompletableFuture<Boolean> future = new CompletableFuture<>();
 
-    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+    runAsync(future, () -> {
       try {
-        String query = "DELETE FROM " + TABLE_NAME + " WHERE uuid = ?";
-
-        store.updatePrepared(true, query, stmt -> {
-          stmt.setString(1, uuid.toString());
-        });
+        KeyedQueries keys = this.queries;
+        store.updatePrepared(true, keys.delete, stmt -> keys.bindKey(stmt, 1, uuid));
+        store.markWritten(uuid);
 
         logger.info("Deleted player data for UUID " + uuid);
         future.complete(true);
@@ -280,21 +800,303 @@ public class PlayerDataStore {
   }
 
   /**
-   * Closes the database connection.
+   * Runs a task on the store's bounded executor, failing the future if the
+   * executor rejects it.
+   *
+   * @param future The future the task completes
+   * @param task   The task to run
+   */
+  private void runAsync(CompletableFuture<?> future, Runnable task) {
+    try {
+      store.execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.warning("Database task rejected: " + e.getMessage());
+      future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Writes all queued saves and closes the database connection.
    */
   public void shutdown() {
+    if (fileStore != null) {
+      fileStore.close();
+      logger.info("Player data file closed");
+    }
+    if (uuidMigration != null) {
+      uuidMigration.stop();
+    }
     if (store != null) {
+      if (!store.awaitDrained(SHUTDOWN_DRAIN_TIMEOUT, TimeUnit.SECONDS)) {
+        logger.warning("Not all queued player data saves were written before shutdown");
+      }
       store.disconnect();
       logger.info("Database connection closed");
     }
   }
 
+  /**
+   * Gets how player data is stored.
+   *
+   * @return The store mode
+   */
+  public StoreMode getStoreMode() {
+    return storeMode;
+  }
+
   /**
    * Gets the underlying store.
    *
-   * @return The database store
+   * @return The database store, or null in file mode
    */
   public Store getStore() {
     return store;
   }
-}
\ No newline at end of file
+
+  /**
+   * The values of a player taken when a save is queued, together with the
+   * version they belong to. Taking a snapshot takes the unsaved points, so it
+   * must be completed once its write finished. A points delta whose write
+   * failed is taken again by the next snapshot with the same token, which the
+   * upsert checks, so retrying it is safe even if the failed write was
+   * applied.
+   */
+  private final class PlayerSnapshot {
+    private final KeyedQueries keys;
+    private final PlayerData playerData;
+    private final long version;
+    private final String name;
+    private final PointsChange points;
+    private final String data;
+
+    private PlayerSnapshot(KeyedQueries keys, PlayerData playerData) {
+      // Read the version first so the values are at least that recent
+      this.keys = keys;
+      this.playerData = playerData;
+      this.version = playerData.getVersion();
+      this.name = playerData.getPlayerName();
+      this.points = playerData.takePointsChange();
+
+      byte[] encoded = playerData.getEncodedData();
+      this.data = encoded != null ? Base64.getEncoder().encodeToString(encoded) : null;
+    }
+
+    /**
+     * Gets the upsert templates matching the points change.
+     *
+     * @return The absolute or delta upsert templates
+     */
+    private QueryTemplate[] templates() {
+      return points.isAbsolute() ? keys.upserts : keys.deltaUpserts;
+    }
+
+    /**
+     * Binds the key, name, points, data and token parameters.
+     *
+     * @param statement The upsert statement
+     * @param offset    The number of parameters before this row
+     * @throws SQLException If a parameter cannot be set
+     */
+    private void bind(PreparedStatement statement, int offset) throws SQLException {
+      keys.bindRow(statement, offset, playerData.getPlayerUUID(), name, points.getValue(), data, points.getToken());
+    }
+
+    /**
+     * Marks the snapshot version as saved and its points change confirmed, or
+     * puts the points change back if the write failed.
+     *
+     * @param saved true if the write succeeded
+     */
+    private void complete(boolean saved) {
+      if (saved) {
+        playerData.markSaved(version);
+        playerData.confirmPointsChange(points);
+      } else {
+        playerData.restorePointsChange(points);
+      }
+    }
+  }
+
+  /**
+   * The player queries for one stage of the binary UUID migration. Before the
+   * binary column exists rows are written and looked up by their text UUID;
+   * while it is backfilled they are written with both and still looked up by
+   * text; once it is indexed the binary UUID is the key. Tables created keyed
+   * by the binary UUID have no text column, so it is neither written nor
+   * formatted.
+   */
+  private final class KeyedQueries {
+    private final boolean writeBinary;
+    private final boolean writeText;
+    private final boolean binaryKey;
+    private final String keyColumn;
+    private final int parameters;
+    private final QueryTemplate select;
+    private final QueryTemplate selectAll;
+    private final QueryTemplate[] upserts;
+    private final QueryTemplate[] deltaUpserts;
+    private final QueryTemplate delete;
+    private final QueryTemplate insert;
+
+    /**
+     * Registers the queries of a migration stage.
+     *
+     * @param writeBinary true if the binary column exists and is written
+     * @param binaryKey   true if the binary column is the key
+     * @param writeText   true if the text column exists and is written
+     */
+    private KeyedQueries(boolean writeBinary, boolean binaryKey, boolean writeText) {
+      this.writeBinary = writeBinary;
+      this.writeText = writeText;
+      this.binaryKey = binaryKey;
+      this.keyColumn = binaryKey ? UuidKeyMigration.KEY_COLUMN : TEXT_KEY_COLUMN;
+      this.parameters = 4 + (writeBinary ? 1 : 0) + (writeText ? 1 : 0);
+
+      String readColumns = keyColumn + ", " + DATA_COLUMNS;
+      this.select = template("SELECT " + readColumns + " FROM " + TABLE_NAME + " WHERE " + keyColumn + " = ?");
+      this.selectAll = template("SELECT " + readColumns + " FROM " + TABLE_NAME + keyFilter(" WHERE "));
+      this.upserts = new QueryTemplate[Integer.numberOfTrailingZeros(MAX_UPSERT_ROWS) + 1];
+      this.deltaUpserts = new QueryTemplate[upserts.length];
+      for (int i = 0; i < upserts.length; i++) {
+        upserts[i] = template(buildUpsertSql(1 << i, false));
+        deltaUpserts[i] = template(buildUpsertSql(1 << i, true));
+      }
+      this.delete = template("DELETE FROM " + TABLE_NAME + " WHERE " + keyColumn + " = ?");
+      this.insert = template((storeMode == StoreMode.MYSQL ? "INSERT IGNORE INTO " : "INSERT OR IGNORE INTO ")
+          + TABLE_NAME + " (" + writtenColumns() + ") VALUES " + placeholders());
+    }
+
+    /**
+     * Gets the columns written for each row.
+     *
+     * @return The column list
+     */
+    private String writtenColumns() {
+      return (writeText ? TEXT_KEY_COLUMN + ", " : "") + (writeBinary ? UuidKeyMigration.KEY_COLUMN + ", " : "")
+          + DATA_COLUMNS + ", " + TOKEN_COLUMN;
+    }
+
+    /**
+     * Gets the parameter placeholders of one row.
+     *
+     * @return The placeholders in parentheses
+     */
+    private String placeholders() {
+      StringBuilder row = new StringBuilder("(?");
+      for (int i = 1; i < parameters; i++) {
+        row.append(", ?");
+      }
+      return row.append(")").toString();
+    }
+
+    /**
+     * Gets the condition skipping rows whose binary key was never filled in
+     * because their text UUID is invalid.
+     *
+     * @param keyword The keyword joining the condition to the query
+     * @return The condition, or an empty string for the text key
+     */
+    private String keyFilter(String keyword) {
+      return binaryKey ? keyword + keyColumn + " IS NOT NULL" : "";
+    }
+
+    /**
+     * Builds an upsert writing the given number of players in one statement.
+     * A delta upsert adds the points to the stored value, so increments made
+     * by other servers in the meantime are kept, unless the row already
+     * carries the token of the change. That happens when a delta is sent again
+     * after a write that was applied but reported an error; a resend is only
+     * missed if another server wrote the row in between.
+     *
+     * @param rows  The number of rows
+     * @param delta true to add the points instead of replacing them
+     * @return The upsert SQL
+     */
+    private String buildUpsertSql(int rows, boolean delta) {
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(TABLE_NAME)
+          .append(" (").append(writtenColumns()).append(") VALUES ");
+      for (int i = 0; i < rows; i++) {
+        sql.append(i == 0 ? "" : ", ").append(placeholders());
+      }
+
+      // SQLite's INSERT OR REPLACE would delete the row and lose its other
+      // columns, so both engines update in place
+      // MySQL assigns left to right, so the token is replaced after the check
+      if (storeMode == StoreMode.MYSQL) {
+        sql.append(" ON DUPLICATE KEY UPDATE name = VALUES(name), points = ")
+            .append(delta ? "IF(" + TOKEN_COLUMN + " = VALUES(" + TOKEN_COLUMN + "), points, points + VALUES(points))"
+                : "VALUES(points)")
+            .append(", data = VALUES(data), ").append(TOKEN_COLUMN).append(" = VALUES(").append(TOKEN_COLUMN)
+            .append(")");
+      } else {
+        sql.append(" ON CONFLICT(").append(keyColumn).append(") DO UPDATE SET name = excluded.name, points = ")
+            .append(delta ? "CASE WHEN " + TOKEN_COLUMN + " = excluded." + TOKEN_COLUMN
+                + " THEN points ELSE points + excluded.points END" : "excluded.points")
+            .append(", data = excluded.data, ").append(TOKEN_COLUMN).append(" = excluded.").append(TOKEN_COLUMN);
+      }
+      return sql.toString();
+    }
+
+    /**
+     * Binds a UUID to a key parameter.
+     *
+     * @param statement The statement
+     * @param index     The parameter index
+     * @param uuid      The UUID
+     * @throws SQLException If the parameter cannot be set
+     */
+    private void bindKey(PreparedStatement statement, int index, UUID uuid) throws SQLException {
+      if (binaryKey) {
+        statement.setBytes(index, UuidCodec.toBytes(uuid));
+      } else {
+        statement.setString(index, uuid.toString());
+      }
+    }
+
+    /**
+     * Binds the columns of one written row.
+     *
+     * @param statement The insert or upsert statement
+     * @param offset    The number of parameters before this row
+     * @param uuid      The player's UUID
+     * @param name      The player's name
+     * @param points    The points, or the points delta
+     * @param data      The encoded additional data
+     * @param token     The token of the points change, or 0 for none
+     * @throws SQLException If a parameter cannot be set
+     */
+    private void bindRow(PreparedStatement statement, int offset, UUID uuid, String name, int points, String data,
+        long token) throws SQLException {
+      int index = offset + 1;
+      if (writeText) {
+        statement.setString(index++, uuid.toString());
+      }
+      if (writeBinary) {
+        statement.setBytes(index++, UuidCodec.toBytes(uuid));
+      }
+      statement.setString(index++, name);
+      statement.setInt(index++, points);
+      statement.setString(index++, data);
+      if (token != 0L) {
+        statement.setLong(index, token);
+      } else {
+        statement.setNull(index, Types.BIGINT);
+      }
+    }
+
+    /**
+     * Reads the UUID of a row selected by these queries.
+     *
+     * @param rs The result set positioned on the row
+     * @return The player's UUID
+     * @throws SQLException If the key cannot be read or is invalid
+     */
+    private UUID readKey(ResultSet rs) throws SQLException {
+      try {
+        return binaryKey ? UuidCodec.fromBytes(rs.getBytes(keyColumn)) : UUID.fromString(rs.getString(keyColumn));
+      } catch (IllegalArgumentException e) {
+        throw new SQLException("Invalid player UUID in " + TABLE_NAME + ": " + e.getMessage(), e);
+      }
+    }
+  }
+}
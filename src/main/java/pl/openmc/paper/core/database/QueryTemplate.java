@@ -0,0 +1,48 @@
+package pl.openmc.paper.core.database;
+
+import java.util.Objects;
+
+/**
+ * A SQL query registered with a store.
+ * The table prefix placeholder is resolved once at registration, and the
+ * resolved SQL is the key under which pooled connections cache the prepared
+ * statement.
+ */
+public final class QueryTemplate {
+  private final String query;
+  private final String sql;
+
+  /**
+   * Creates a new query template.
+   *
+   * @param query The query containing {P} placeholders
+   * @param sql   The query with the prefix applied
+   */
+  QueryTemplate(String query, String sql) {
+    this.query = Objects.requireNonNull(query, "Query cannot be null");
+    this.sql = Objects.requireNonNull(sql, "SQL cannot be null");
+  }
+
+  /**
+   * Gets the query as it was registered.
+   *
+   * @return The query containing {P} placeholders
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * Gets the resolved SQL.
+   *
+   * @return The query with the prefix applied
+   */
+  public String getSql() {
+    return sql;
+  }
+
+  @Override
+  public String toString() {
+    return sql;
+  }
+}
@@ -0,0 +1,21 @@
+package pl.openmc.paper.core.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object.
+ *
+ * @param <T> The type the rows are mapped to
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+  /**
+   * Maps the current row. Implementations must not move the cursor.
+   *
+   * @param rs The result set positioned on the row to map
+   * @return The mapped object
+   * @throws SQLException If a column cannot be read
+   */
+  T map(ResultSet rs) throws SQLException;
+}
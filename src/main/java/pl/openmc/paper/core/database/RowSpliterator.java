@@ -0,0 +1,70 @@
+package pl.openmc.paper.core.database;
+
+import pl.openmc.paper.core.database.pool.ScopedResultSet;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator reading mapped rows from an open result set.
+ * The result set and its owners are closed once the last row has been read,
+ * when a row fails to map, or when the stream is closed, whichever comes first.
+ *
+ * @param <T> The type the rows are mapped to
+ */
+final class RowSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+  private final ResultSet resultSet;
+  private final RowMapper<T> mapper;
+  private final AutoCloseable[] owners;
+  private boolean closed;
+
+  /**
+   * Creates a new row spliterator.
+   *
+   * @param resultSet The result set to read
+   * @param mapper    The row mapper
+   * @param owners    The statement and connection to close with the result set
+   */
+  RowSpliterator(ResultSet resultSet, RowMapper<T> mapper, AutoCloseable... owners) {
+    super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+    this.resultSet = resultSet;
+    this.mapper = mapper;
+    this.owners = owners;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (closed) {
+      return false;
+    }
+
+    T row;
+    try {
+      if (!resultSet.next()) {
+        close();
+        return false;
+      }
+      row = mapper.map(resultSet);
+    } catch (SQLException e) {
+      close();
+      throw new StoreException(e);
+    }
+
+    action.accept(row);
+    return true;
+  }
+
+  /**
+   * Releases the result set, statement and connection.
+   */
+  void close() {
+    if (!closed) {
+      closed = true;
+      ScopedResultSet.closeQuietly(resultSet);
+      ScopedResultSet.closeQuietly(owners);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package pl.openmc.paper.core.database;
+
+/**
+ * Settings for the final write of player data when the plugin is disabled.
+ * All durations are in milliseconds.
+ */
+public class ShutdownFlushSettings {
+  private long deadline = 10000L;
+  private int connections = 4;
+
+  /**
+   * Gets how long the shutdown flush may take in total. Saves not written by
+   * then are left to the journal.
+   *
+   * @return The deadline
+   */
+  public long getDeadline() {
+    return deadline;
+  }
+
+  /**
+   * Sets how long the shutdown flush may take in total.
+   *
+   * @param deadline The deadline
+   */
+  public void setDeadline(long deadline) {
+    this.deadline = Math.max(1000L, deadline);
+  }
+
+  /**
+   * Gets the number of connections the players are split across, each
+   * writing its share in one transaction. SQLite always uses one.
+   *
+   * @return The connection count
+   */
+  public int getConnections() {
+    return connections;
+  }
+
+  /**
+   * Sets the number of connections the players are split across.
+   *
+   * @param connections The connection count
+   */
+  public void setConnections(int connections) {
+    this.connections = Math.max(1, connections);
+  }
+}
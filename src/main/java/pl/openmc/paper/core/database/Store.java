@@ -1,8 +1,17 @@
 package pl.openmc.paper.core.database;
 
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Interface for database operations.
@@ -11,9 +20,11 @@ import java.sql.ResultSet;
  */
 public interface Store {
   /**
-   * Gets the database connection.
+   * Borrows a database connection. Connections are scoped: the caller must
+   * close the returned connection (ideally with try-with-resources), which hands
+   * it back to the store instead of closing the underlying link.
    *
-   * @return The active database connection
+   * @return A database connection, or null if none could be obtained
    */
   Connection getConnection();
 
@@ -25,7 +36,7 @@ public interface Store {
   boolean connect();
 
   /**
-   * Closes the database connection.
+   * Closes the database connection and releases all pooled connections.
    */
   void disconnect();
 
@@ -43,7 +54,17 @@ public interface Store {
   boolean isConnected();
 
   /**
-   * Executes a query and returns the result set.
+   * Registers a listener run on the connecting thread every time the store
+   * connects, including reconnects. If the store is connected already, the
+   * listener also runs right away.
+   *
+   * @param listener The listener
+   */
+  void onConnect(Runnable listener);
+
+  /**
+   * Executes a query and returns the result set. The caller must close the
+   * result set to release its connection.
    *
    * @param query The SQL query to execute
    * @return The ResultSet containing the query results, or null if an error
@@ -63,7 +84,7 @@ public interface Store {
    * Executes an update query on the database.
    *
    * @param immediate If true, executes the query immediately; otherwise, queues
-   *                  it for execution
+   *                  it for batched execution
    * @param query     The SQL query to execute
    */
   void update(boolean immediate, String query);
@@ -78,7 +99,8 @@ public interface Store {
   ResultSet update(String query);
 
   /**
-   * Executes a prepared statement query and returns the result set.
+   * Executes a prepared statement query and returns the result set. The caller
+   * must close the result set to release its statement and connection.
    *
    * @param query    The SQL query to prepare
    * @param callback The callback to set parameters on the prepared statement
@@ -87,16 +109,209 @@ public interface Store {
    */
   ResultSet queryPrepared(String query, PreparedStatementCallback callback);
 
+  /**
+   * Executes a registered query and returns the result set. The caller must
+   * close the result set to release its statement and connection.
+   *
+   * @param template The registered query
+   * @param callback The callback to set parameters on the prepared statement
+   * @return The ResultSet containing the query results, or null if an error
+   *         occurred
+   */
+  ResultSet queryPrepared(QueryTemplate template, PreparedStatementCallback callback);
+
+  /**
+   * Runs a registered query and maps its first row.
+   *
+   * @param template The registered query
+   * @param binder   The callback to set parameters, or null if there are none
+   * @param mapper   The row mapper
+   * @param <T>      The type the row is mapped to
+   * @return The mapped row, or null if the query returned no rows
+   * @throws SQLException If the query fails
+   */
+  <T> T queryFirst(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper)
+      throws SQLException;
+
+  /**
+   * Runs a registered query and maps every row into a list. Meant for small
+   * results; use {@link #stream} or {@link #queryChunked} for table scans.
+   *
+   * @param template The registered query
+   * @param binder   The callback to set parameters, or null if there are none
+   * @param mapper   The row mapper
+   * @param <T>      The type the rows are mapped to
+   * @return The mapped rows
+   * @throws SQLException If the query fails
+   */
+  <T> List<T> queryList(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper)
+      throws SQLException;
+
+  /**
+   * Runs a registered query and streams its mapped rows, fetching them from
+   * the database in chunks of the configured fetch size. The stream holds a
+   * pooled connection until it is exhausted or closed, so it must be used with
+   * try-with-resources. Failures while reading rows are thrown as
+   * {@link StoreException}.
+   *
+   * @param template The registered query
+   * @param binder   The callback to set parameters, or null if there are none
+   * @param mapper   The row mapper
+   * @param <T>      The type the rows are mapped to
+   * @return A stream of mapped rows
+   * @throws SQLException If the query fails
+   */
+  <T> Stream<T> stream(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper)
+      throws SQLException;
+
+  /**
+   * Runs a registered query and hands its mapped rows to a consumer in chunks,
+   * so at most one chunk is held in memory at a time. Resources are released
+   * before this method returns.
+   *
+   * @param template  The registered query
+   * @param binder    The callback to set parameters, or null if there are none
+   * @param mapper    The row mapper
+   * @param chunkSize The number of rows per chunk
+   * @param consumer  The consumer receiving each chunk
+   * @param <T>       The type the rows are mapped to
+   * @return The total number of rows read
+   * @throws SQLException If the query fails
+   */
+  <T> long queryChunked(QueryTemplate template, PreparedStatementCallback binder, RowMapper<T> mapper,
+      int chunkSize, Consumer<List<T>> consumer) throws SQLException;
+
   /**
    * Executes a prepared statement update.
    *
    * @param immediate If true, executes the query immediately; otherwise, queues
-   *                  it for execution
+   *                  it for batched execution (see {@link #queueUpdate})
    * @param query     The SQL query to prepare
    * @param callback  The callback to set parameters on the prepared statement
    */
   void updatePrepared(boolean immediate, String query, PreparedStatementCallback callback);
 
+  /**
+   * Executes a registered update.
+   *
+   * @param immediate If true, executes the query immediately; otherwise, queues
+   *                  it for batched execution
+   * @param template  The registered query
+   * @param callback  The callback to set parameters on the prepared statement
+   */
+  void updatePrepared(boolean immediate, QueryTemplate template, PreparedStatementCallback callback);
+
+  /**
+   * Queues a prepared update for write-behind execution. Queued updates are
+   * grouped by SQL into JDBC batches and committed together once the batch size
+   * or latency threshold is reached.
+   *
+   * @param query    The SQL query to prepare
+   * @param callback The callback to set parameters on the prepared statement
+   * @return A future completed once the update has been committed
+   */
+  CompletableFuture<Void> queueUpdate(String query, PreparedStatementCallback callback);
+
+  /**
+   * Queues a registered update for write-behind execution.
+   *
+   * @param template The registered query
+   * @param callback The callback to set parameters on the prepared statement
+   * @return A future completed once the update has been committed
+   */
+  CompletableFuture<Void> queueUpdate(QueryTemplate template, PreparedStatementCallback callback);
+
+  /**
+   * Runs work in one transaction on a single pooled connection. Immediate
+   * updates and queries the work makes through this store on the calling
+   * thread use that connection too, so they join the transaction and are
+   * committed together. Called again while a transaction is open on the
+   * thread, the work runs in a savepoint: if it fails, only its own changes
+   * are rolled back and the failure is passed to the enclosing work. Queued
+   * updates are written by the write-behind queue and are not part of the
+   * transaction.
+   *
+   * @param work The work to run, receiving the connection of the transaction
+   * @param <T>  The type of the result
+   * @return The result of the work
+   * @throws SQLException If the work or the commit fails; the transaction or
+   *                      savepoint has been rolled back
+   */
+  <T> T inTransaction(TransactionWork<T> work) throws SQLException;
+
+  /**
+   * Registers a query that is run often. The table prefix is resolved once and
+   * the prepared statement is cached by every pooled connection that runs it.
+   *
+   * @param query The query containing {P} placeholders
+   * @return The registered query
+   */
+  QueryTemplate template(String query);
+
+  /**
+   * Writes all queued updates without waiting for their batch to fill up.
+   */
+  void flush();
+
+  /**
+   * Flushes and waits until all queued updates have been written.
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The unit of the timeout
+   * @return true if all queued updates were written in time
+   */
+  boolean awaitDrained(long timeout, TimeUnit unit);
+
+  /**
+   * Gets how many prepared statements were served from the statement caches.
+   *
+   * @return The statement cache hit count
+   */
+  long getStatementCacheHits();
+
+  /**
+   * Gets how many prepared statements had to be prepared by the driver.
+   *
+   * @return The statement cache miss count
+   */
+  long getStatementCacheMisses();
+
+  /**
+   * Runs a task on the store's bounded executor.
+   *
+   * @param task The task to run
+   * @throws java.util.concurrent.RejectedExecutionException If the store is not
+   *                                                         connected or its
+   *                                                         queue is full
+   */
+  void execute(Runnable task);
+
+  /**
+   * Notes that the data of a player has just been written. Stores that read
+   * from replicas send the player's reads to the primary for a while, so they
+   * see the write even if the replicas are behind.
+   *
+   * @param owner The player whose data was written
+   */
+  void markWritten(UUID owner);
+
+  /**
+   * Marks the reads made on the calling thread as reads of a player's data
+   * until the returned scope is closed, so they see the player's recent
+   * writes.
+   *
+   * @param owner The player whose data is read
+   * @return The scope, to be closed once the reads are done
+   */
+  ReadScope readingFor(UUID owner);
+
+  /**
+   * Gets the latency metrics collected for the statements of this store.
+   *
+   * @return The store metrics
+   */
+  StoreMetrics getMetrics();
+
   /**
    * Gets the store mode (e.g., MySQL, SQLite).
    *
@@ -117,4 +332,34 @@ public interface Store {
      */
     void process(PreparedStatement statement) throws Exception;
   }
-}
\ No newline at end of file
+
+  /**
+   * Work run in a transaction, see {@link #inTransaction(TransactionWork)}.
+   *
+   * @param <T> The type of the result
+   */
+  @FunctionalInterface
+  interface TransactionWork<T> {
+    /**
+     * Runs the work. The connection must not be committed, rolled back or
+     * closed; that is left to the transaction.
+     *
+     * @param connection The connection of the transaction
+     * @return The result
+     * @throws Exception If the work fails, rolling it back
+     */
+    T run(Connection connection) throws Exception;
+  }
+
+  /**
+   * Scope of the reads made for a player, see {@link #readingFor(UUID)}.
+   */
+  @FunctionalInterface
+  interface ReadScope extends AutoCloseable {
+    /**
+     * Ends the scope.
+     */
+    @Override
+    void close();
+  }
+}
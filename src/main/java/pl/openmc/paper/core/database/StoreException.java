@@ -0,0 +1,28 @@
+package pl.openmc.paper.core.database;
+
+import java.sql.SQLException;
+
+/**
+ * Unchecked wrapper for a {@link SQLException} raised where a checked exception
+ * cannot be thrown, such as while advancing a row stream.
+ */
+public class StoreException extends RuntimeException {
+  /**
+   * Creates a new store exception.
+   *
+   * @param cause The underlying SQL exception
+   */
+  public StoreException(SQLException cause) {
+    super(cause.getMessage(), cause);
+  }
+
+  /**
+   * Gets the underlying SQL exception.
+   *
+   * @return The SQL exception
+   */
+  @Override
+  public synchronized SQLException getCause() {
+    return (SQLException) super.getCause();
+  }
+}
@@ -0,0 +1,287 @@
+package pl.openmc.paper.core.database;
+
+import pl.openmc.paper.core.database.executor.ExecutorBackend;
+import pl.openmc.paper.core.database.executor.RejectionPolicy;
+
+/**
+ * Tuning settings shared by the JDBC stores.
+ * All durations are in milliseconds.
+ */
+public class StoreSettings {
+  private int writeBatchSize = 250;
+  private long writeMaxDelay = 100L;
+  private int fetchSize = 500;
+  private long slowQueryThreshold = 250L;
+  private int executorThreads = 4;
+  private int executorQueueDepth = 1000;
+  private ExecutorBackend executorBackend = ExecutorBackend.AUTO;
+  private int writeQueueCapacity = 10000;
+  private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+  private WriteRejectionPolicy writeRejectionPolicy = WriteRejectionPolicy.ABORT;
+  private int breakerFailureThreshold = 5;
+  private long breakerOpenDuration = 10000L;
+  private int spoolCapacity = 100000;
+  private boolean durableSpool = true;
+
+  /**
+   * Gets the number of queued writes that triggers a batch flush.
+   *
+   * @return The write batch size
+   */
+  public int getWriteBatchSize() {
+    return writeBatchSize;
+  }
+
+  /**
+   * Sets the number of queued writes that triggers a batch flush.
+   *
+   * @param writeBatchSize The write batch size
+   */
+  public void setWriteBatchSize(int writeBatchSize) {
+    this.writeBatchSize = Math.max(1, writeBatchSize);
+  }
+
+  /**
+   * Gets how long a queued write may wait for its batch to fill up.
+   *
+   * @return The maximum write delay
+   */
+  public long getWriteMaxDelay() {
+    return writeMaxDelay;
+  }
+
+  /**
+   * Sets how long a queued write may wait for its batch to fill up.
+   *
+   * @param writeMaxDelay The maximum write delay
+   */
+  public void setWriteMaxDelay(long writeMaxDelay) {
+    this.writeMaxDelay = Math.max(0L, writeMaxDelay);
+  }
+
+  /**
+   * Gets the number of rows fetched per round trip when streaming a query.
+   *
+   * @return The fetch size
+   */
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * Sets the number of rows fetched per round trip when streaming a query.
+   *
+   * @param fetchSize The fetch size
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = Math.max(1, fetchSize);
+  }
+
+  /**
+   * Gets the time in milliseconds above which a query is logged as slow.
+   *
+   * @return The slow query threshold
+   */
+  public long getSlowQueryThreshold() {
+    return slowQueryThreshold;
+  }
+
+  /**
+   * Sets the time in milliseconds above which a query is logged as slow (0
+   * disables the slow query log).
+   *
+   * @param slowQueryThreshold The slow query threshold
+   */
+  public void setSlowQueryThreshold(long slowQueryThreshold) {
+    this.slowQueryThreshold = Math.max(0L, slowQueryThreshold);
+  }
+
+  /**
+   * Gets the number of threads running asynchronous store work.
+   *
+   * @return The thread count
+   */
+  public int getExecutorThreads() {
+    return executorThreads;
+  }
+
+  /**
+   * Sets the number of threads running asynchronous store work.
+   *
+   * @param executorThreads The thread count
+   */
+  public void setExecutorThreads(int executorThreads) {
+    this.executorThreads = Math.max(1, Math.min(64, executorThreads));
+  }
+
+  /**
+   * Gets the number of asynchronous tasks that may wait for a thread.
+   *
+   * @return The queue depth
+   */
+  public int getExecutorQueueDepth() {
+    return executorQueueDepth;
+  }
+
+  /**
+   * Sets the number of asynchronous tasks that may wait for a thread.
+   *
+   * @param executorQueueDepth The queue depth
+   */
+  public void setExecutorQueueDepth(int executorQueueDepth) {
+    this.executorQueueDepth = Math.max(1, executorQueueDepth);
+  }
+
+  /**
+   * Gets the kind of threads running asynchronous store work.
+   *
+   * @return The executor backend
+   */
+  public ExecutorBackend getExecutorBackend() {
+    return executorBackend;
+  }
+
+  /**
+   * Sets the kind of threads running asynchronous store work.
+   *
+   * @param executorBackend The executor backend
+   */
+  public void setExecutorBackend(ExecutorBackend executorBackend) {
+    this.executorBackend = executorBackend != null ? executorBackend : ExecutorBackend.AUTO;
+  }
+
+  /**
+   * Gets the number of queued writes that may wait for the write-behind
+   * flusher.
+   *
+   * @return The write queue capacity
+   */
+  public int getWriteQueueCapacity() {
+    return writeQueueCapacity;
+  }
+
+  /**
+   * Sets the number of queued writes that may wait for the write-behind
+   * flusher.
+   *
+   * @param writeQueueCapacity The write queue capacity
+   */
+  public void setWriteQueueCapacity(int writeQueueCapacity) {
+    this.writeQueueCapacity = Math.max(1, writeQueueCapacity);
+  }
+
+  /**
+   * Gets what happens to tasks submitted while the executor queue is full.
+   *
+   * @return The rejection policy
+   */
+  public RejectionPolicy getRejectionPolicy() {
+    return rejectionPolicy;
+  }
+
+  /**
+   * Sets what happens to tasks submitted while the executor queue is full.
+   *
+   * @param rejectionPolicy The rejection policy
+   */
+  public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+    this.rejectionPolicy = rejectionPolicy != null ? rejectionPolicy : RejectionPolicy.ABORT;
+  }
+
+  /**
+   * Gets what happens to updates submitted while the write queue is full.
+   *
+   * @return The write rejection policy
+   */
+  public WriteRejectionPolicy getWriteRejectionPolicy() {
+    return writeRejectionPolicy;
+  }
+
+  /**
+   * Sets what happens to updates submitted while the write queue is full.
+   *
+   * @param writeRejectionPolicy The write rejection policy
+   */
+  public void setWriteRejectionPolicy(WriteRejectionPolicy writeRejectionPolicy) {
+    this.writeRejectionPolicy = writeRejectionPolicy != null ? writeRejectionPolicy : WriteRejectionPolicy.ABORT;
+  }
+
+  /**
+   * Gets the number of consecutive connection failures that open the circuit
+   * breaker.
+   *
+   * @return The failure threshold
+   */
+  public int getBreakerFailureThreshold() {
+    return breakerFailureThreshold;
+  }
+
+  /**
+   * Sets the number of consecutive connection failures that open the circuit
+   * breaker.
+   *
+   * @param breakerFailureThreshold The failure threshold
+   */
+  public void setBreakerFailureThreshold(int breakerFailureThreshold) {
+    this.breakerFailureThreshold = Math.max(1, breakerFailureThreshold);
+  }
+
+  /**
+   * Gets how long the circuit breaker fails fast before letting requests
+   * through again.
+   *
+   * @return The open duration
+   */
+  public long getBreakerOpenDuration() {
+    return breakerOpenDuration;
+  }
+
+  /**
+   * Sets how long the circuit breaker fails fast before letting requests
+   * through again.
+   *
+   * @param breakerOpenDuration The open duration
+   */
+  public void setBreakerOpenDuration(long breakerOpenDuration) {
+    this.breakerOpenDuration = Math.max(100L, breakerOpenDuration);
+  }
+
+  /**
+   * Gets the number of queued writes kept in memory while the database is
+   * unreachable.
+   *
+   * @return The spool capacity
+   */
+  public int getSpoolCapacity() {
+    return spoolCapacity;
+  }
+
+  /**
+   * Sets the number of queued writes kept in memory while the database is
+   * unreachable.
+   *
+   * @param spoolCapacity The spool capacity
+   */
+  public void setSpoolCapacity(int spoolCapacity) {
+    this.spoolCapacity = Math.max(0, spoolCapacity);
+  }
+
+  /**
+   * Checks whether spooled writes are mirrored to a file, so they survive a
+   * restart while the database is unreachable.
+   *
+   * @return true if the spool is kept on disk
+   */
+  public boolean isDurableSpool() {
+    return durableSpool;
+  }
+
+  /**
+   * Sets whether spooled writes are mirrored to a file.
+   *
+   * @param durableSpool true to keep the spool on disk
+   */
+  public void setDurableSpool(boolean durableSpool) {
+    this.durableSpool = durableSpool;
+  }
+}
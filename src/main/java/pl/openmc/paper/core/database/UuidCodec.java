@@ -0,0 +1,71 @@
+package pl.openmc.paper.core.database;
+
+import java.util.UUID;
+
+/**
+ * Converts UUIDs to and from the 16-byte big-endian form stored in binary key
+ * columns, so lookups compare 16 bytes instead of 36-character strings.
+ */
+public final class UuidCodec {
+  public static final int LENGTH = 16;
+
+  private UuidCodec() {
+  }
+
+  /**
+   * Encodes a UUID as 16 bytes, most significant bits first.
+   *
+   * @param uuid The UUID
+   * @return The encoded UUID
+   */
+  public static byte[] toBytes(UUID uuid) {
+    byte[] bytes = new byte[LENGTH];
+    writeLong(bytes, 0, uuid.getMostSignificantBits());
+    writeLong(bytes, 8, uuid.getLeastSignificantBits());
+    return bytes;
+  }
+
+  /**
+   * Decodes a UUID from its 16-byte form.
+   *
+   * @param bytes The encoded UUID
+   * @return The UUID
+   * @throws IllegalArgumentException If the value is not 16 bytes long
+   */
+  public static UUID fromBytes(byte[] bytes) {
+    if (bytes == null || bytes.length != LENGTH) {
+      throw new IllegalArgumentException("Binary UUID must be " + LENGTH + " bytes, got "
+          + (bytes == null ? "null" : bytes.length));
+    }
+    return new UUID(readLong(bytes, 0), readLong(bytes, 8));
+  }
+
+  /**
+   * Writes a long in big-endian order.
+   *
+   * @param bytes  The target array
+   * @param offset The index of the first byte
+   * @param value  The value
+   */
+  private static void writeLong(byte[] bytes, int offset, long value) {
+    for (int i = 7; i >= 0; i--) {
+      bytes[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  /**
+   * Reads a long in big-endian order.
+   *
+   * @param bytes  The source array
+   * @param offset The index of the first byte
+   * @return The value
+   */
+  private static long readLong(byte[] bytes, int offset) {
+    long value = 0L;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (bytes[offset + i] & 0xFFL);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,808 @@
+package pl.openmc.paper.core.database;
+
+import pl.openmc.paper.core.database.executor.CircuitBreaker;
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+import pl.openmc.paper.core.database.spool.RecordedParameters;
+import pl.openmc.paper.core.database.spool.WriteSpool;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind pipeline for queued updates.
+ * Updates are collected until the batch size or the maximum delay is reached,
+ * then written in one transaction. Consecutive updates sharing the same SQL
+ * template are sent as a single JDBC batch, so a save sweep over hundreds of
+ * players costs a handful of round trips. Submission order is preserved.
+ * The queue is bounded; a full queue fails or blocks the submitter depending on
+ * the {@link WriteRejectionPolicy}. While the database is unreachable, collected
+ * writes are held in a spool and written in order once it is back. With a
+ * {@link WriteSpool}, the spool is mirrored to disk, so held writes survive a
+ * restart and are written after it.
+ */
+public class WriteBehindQueue {
+  // SQLState of updates whose commit lost its connection, so the database may
+  // or may not have applied them
+  public static final String RESOLUTION_UNKNOWN = "08007";
+
+  // Queued to wake the flusher without interrupting JDBC calls
+  private static final PendingWrite FLUSH_MARKER = new PendingWrite(null, null, null);
+  private static final long NOT_PERSISTED = -1L;
+  private static final long SHUTDOWN_JOIN_TIMEOUT = 5;
+
+  private final String name;
+  private final ConnectionSource connectionSource;
+  private final int batchSize;
+  private final long maxDelayNanos;
+  private final WriteRejectionPolicy rejectionPolicy;
+  private final int spoolCapacity;
+  private final LoggerUtil logger;
+  private final StoreMetrics metrics;
+  private final CircuitBreaker circuitBreaker;
+  private final WriteSpool durableSpool;
+
+  // Queue state
+  private final LinkedBlockingQueue<PendingWrite> queue;
+  private final AtomicInteger pending;
+  private final AtomicLong rejected;
+
+  // Writes held back while the database is unreachable, only touched by the
+  // flusher
+  private final ArrayDeque<PendingWrite> spool;
+  private volatile int spoolSize;
+  private volatile long oldestSpooledAt;
+  private boolean unpersistableWarned;
+  private final Object drainLock;
+  private final Thread flusher;
+  private volatile boolean running;
+  private volatile boolean flushRequested;
+
+  /**
+   * Creates and starts a new write-behind queue.
+   *
+   * @param name             The queue name used in logs and the thread name
+   * @param connectionSource The source of connections for flushing
+   * @param settings         The store settings holding the flush thresholds
+   * @param logger           The plugin logger
+   * @param metrics          The metrics receiving write timings and queue waits
+   * @param circuitBreaker   The circuit breaker told about lost connections
+   * @param durableSpool     The open file mirroring the spool, or null to hold
+   *                         spooled writes in memory only; updates it recovered
+   *                         are spooled before anything new
+   */
+  public WriteBehindQueue(String name, ConnectionSource connectionSource, StoreSettings settings, LoggerUtil logger,
+      StoreMetrics metrics, CircuitBreaker circuitBreaker, WriteSpool durableSpool) {
+    this.name = name;
+    this.connectionSource = connectionSource;
+    this.batchSize = settings.getWriteBatchSize();
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(settings.getWriteMaxDelay());
+    this.rejectionPolicy = settings.getWriteRejectionPolicy();
+    this.spoolCapacity = settings.getSpoolCapacity();
+    this.logger = logger;
+    this.metrics = metrics;
+    this.circuitBreaker = circuitBreaker;
+    this.durableSpool = durableSpool;
+    this.queue = new LinkedBlockingQueue<>(settings.getWriteQueueCapacity());
+    this.pending = new AtomicInteger();
+    this.rejected = new AtomicLong();
+    this.spool = new ArrayDeque<>();
+    this.drainLock = new Object();
+    this.running = true;
+
+    // Writes left over from the last run go first, before anything submitted
+    // now, so they are written in their original order
+    if (durableSpool != null) {
+      for (WriteSpool.SpooledWrite recovered : durableSpool.getRecovered()) {
+        PendingWrite write = new PendingWrite(recovered.getQuery(), recovered.getParameters()::apply,
+            new CompletableFuture<>());
+        write.spoolId = recovered.getId();
+        write.spooledAt = recovered.getSpooledAt();
+        pending.incrementAndGet();
+        spool.addLast(write);
+      }
+      updateSpoolState();
+    }
+
+    this.flusher = new Thread(this::run, name + "-WriteBehind");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  /**
+   * Queues an update for the next batch. While the queue is full, this blocks
+   * under {@link WriteRejectionPolicy#BLOCK} until the flusher makes space.
+   *
+   * @param query    The resolved SQL query
+   * @param callback The callback binding the statement parameters
+   * @return A future completed once the update has been committed, or
+   *         exceptionally if the queue is full and the policy is
+   *         {@link WriteRejectionPolicy#ABORT}
+   */
+  public CompletableFuture<Void> submit(String query, Store.PreparedStatementCallback callback) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    if (!running) {
+      future.completeExceptionally(new IllegalStateException("Write-behind queue " + name + " is shut down"));
+      return future;
+    }
+
+    PendingWrite write = new PendingWrite(query, callback, future);
+    pending.incrementAndGet();
+    if (queue.offer(write)) {
+      return future;
+    }
+
+    if (rejectionPolicy == WriteRejectionPolicy.BLOCK) {
+      try {
+        queue.put(write);
+        return future;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    rejected.incrementAndGet();
+    finish(write, new RejectedExecutionException("Write-behind queue " + name + " is full ("
+        + queue.size() + " updates waiting)"));
+    return future;
+  }
+
+  /**
+   * Asks the flusher to write everything queued so far without waiting for the
+   * batch to fill up.
+   */
+  public void flush() {
+    this.flushRequested = true;
+    queue.offer(FLUSH_MARKER);
+  }
+
+  /**
+   * Waits until every queued update has been written.
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The unit of the timeout
+   * @return true if the queue drained in time
+   */
+  public boolean awaitDrained(long timeout, TimeUnit unit) {
+    flush();
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (drainLock) {
+      while (pending.get() > 0) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining <= 0) {
+          return false;
+        }
+
+        try {
+          drainLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Stops accepting updates, writes what is queued and stops the flusher.
+   *
+   * @param timeout The maximum time to wait for queued updates
+   * @param unit    The unit of the timeout
+   * @return true if every queued update was written
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    boolean drained = awaitDrained(timeout, unit);
+    int unwritten = pending.get();
+    this.running = false;
+    queue.offer(FLUSH_MARKER);
+
+    // The flusher closes the spool file on its way out
+    try {
+      flusher.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_JOIN_TIMEOUT));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (!drained) {
+      logger.warning("Write-behind queue " + name + " shut down with " + unwritten + " unwritten update(s)");
+    }
+    return drained;
+  }
+
+  /**
+   * Gets the number of updates that have not been written yet.
+   *
+   * @return The pending update count
+   */
+  public int getPendingCount() {
+    return pending.get();
+  }
+
+  /**
+   * Gets the number of updates held back because the database is unreachable.
+   *
+   * @return The spooled update count
+   */
+  public int getSpoolSize() {
+    return spoolSize;
+  }
+
+  /**
+   * Gets how long the oldest spooled update has been waiting for the database.
+   *
+   * @return The age in milliseconds, or 0 if nothing is spooled
+   */
+  public long getSpoolAge() {
+    long oldest = this.oldestSpooledAt;
+    return oldest > 0 ? Math.max(0L, System.currentTimeMillis() - oldest) : 0L;
+  }
+
+  /**
+   * Gets the size of the file mirroring the spool.
+   *
+   * @return The size in bytes, or 0 without a durable spool
+   */
+  public long getSpoolFileSize() {
+    return durableSpool != null ? durableSpool.getSizeBytes() : 0L;
+  }
+
+  /**
+   * Gets the number of updates rejected because the queue or the spool was full.
+   *
+   * @return The rejected update count
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * Flusher loop collecting batches from the queue.
+   */
+  private void run() {
+    List<PendingWrite> batch = new ArrayList<>(batchSize);
+
+    while (running || !queue.isEmpty()) {
+      try {
+        PendingWrite first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          // Retry the spool even when nothing new arrives
+          if (!spool.isEmpty()) {
+            process(batch);
+          }
+          continue;
+        }
+
+        batch.add(first);
+        long deadline = System.nanoTime() + maxDelayNanos;
+
+        // Wait for the batch to fill up unless a flush was requested
+        while (batch.size() < batchSize && !flushRequested) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            break;
+          }
+
+          PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        // Write what has been collected so far and keep going until shut down
+      }
+
+      queue.drainTo(batch, batchSize - batch.size());
+      batch.removeIf(write -> write == FLUSH_MARKER);
+      if (queue.isEmpty()) {
+        this.flushRequested = false;
+      }
+
+      process(batch);
+      batch.clear();
+    }
+
+    // The database never came back before shutdown
+    if (!spool.isEmpty()) {
+      int kept = 0;
+      for (PendingWrite write : spool) {
+        if (write.spoolId != NOT_PERSISTED) {
+          kept++;
+        }
+      }
+
+      if (kept > 0) {
+        logger.warning("Write-behind queue " + name + " kept " + kept
+            + " spooled update(s) on disk, they are written after the next start");
+      }
+      if (kept < spool.size()) {
+        logger.severe("Write-behind queue " + name + " dropped " + (spool.size() - kept)
+            + " spooled update(s), the database was unreachable");
+      }
+
+      Exception error = new IllegalStateException("Write-behind queue " + name + " is shut down");
+      while (!spool.isEmpty()) {
+        finish(spool.pollFirst(), error);
+      }
+      this.spoolSize = 0;
+      this.oldestSpooledAt = 0L;
+    }
+
+    if (durableSpool != null) {
+      durableSpool.close();
+    }
+  }
+
+  /**
+   * Writes spooled updates followed by a new batch, keeping them in order. If
+   * the database is unreachable, the batch joins the spool instead.
+   *
+   * @param batch The new updates
+   */
+  private void process(List<PendingWrite> batch) {
+    while (!spool.isEmpty()) {
+      List<PendingWrite> spooled = new ArrayList<>(Math.min(batchSize, spool.size()));
+      while (spooled.size() < batchSize && !spool.isEmpty()) {
+        spooled.add(spool.pollFirst());
+      }
+
+      if (!write(spooled)) {
+        for (PendingWrite write : batch) {
+          hold(write);
+        }
+        updateSpoolState();
+        return;
+      }
+      markPersistedWritten(spooled);
+
+      if (spool.isEmpty()) {
+        logger.info("Write-behind queue " + name + " wrote its spooled updates, the database is reachable again");
+      }
+    }
+
+    if (!batch.isEmpty() && !write(batch)) {
+      logger.warning("Cannot reach the database, spooling queued updates of " + name + " until it is back");
+    }
+    updateSpoolState();
+  }
+
+  /**
+   * Publishes the spool size and age, and syncs the spool file once for
+   * everything appended while processing a batch. An empty spool empties the
+   * file.
+   */
+  private void updateSpoolState() {
+    this.spoolSize = spool.size();
+    PendingWrite oldest = spool.peekFirst();
+    this.oldestSpooledAt = oldest != null ? oldest.spooledAt : 0L;
+
+    if (durableSpool == null) {
+      return;
+    }
+
+    try {
+      if (spool.isEmpty()) {
+        durableSpool.reset();
+      } else {
+        durableSpool.sync();
+      }
+    } catch (IOException e) {
+      logger.severe("Cannot sync the write spool of " + name + ", spooled updates may not survive a restart: "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Appends an update entering the spool to the spool file. Updates whose
+   * parameters cannot be recorded stay in memory only.
+   *
+   * @param write The update
+   */
+  private void persist(PendingWrite write) {
+    // An update taken from the spool keeps its place in the file, or stays in
+    // memory if it never made it there; appending it now would put it after
+    // updates spooled behind it
+    if (write.spooledAt != 0L) {
+      return;
+    }
+    write.spooledAt = System.currentTimeMillis();
+    if (durableSpool == null) {
+      return;
+    }
+
+    try {
+      RecordedParameters parameters = RecordedParameters.record(write.callback);
+      write.spoolId = durableSpool.append(write.query, parameters, write.spooledAt);
+    } catch (SQLFeatureNotSupportedException e) {
+      if (!unpersistableWarned) {
+        this.unpersistableWarned = true;
+        logger.warning("Some spooled updates of " + name + " are held in memory only: " + e.getMessage());
+      }
+    } catch (IOException e) {
+      logger.severe("Cannot append to the write spool of " + name + ": " + e.getMessage());
+    } catch (Exception e) {
+      // Binding fails again when the update is written and is reported then
+    }
+  }
+
+  /**
+   * Records in the spool file that a chunk of spooled updates has left the
+   * spool, written or failed.
+   *
+   * @param spooled The chunk
+   */
+  private void markPersistedWritten(List<PendingWrite> spooled) {
+    if (durableSpool == null) {
+      return;
+    }
+
+    long highest = NOT_PERSISTED;
+    for (PendingWrite write : spooled) {
+      highest = Math.max(highest, write.spoolId);
+    }
+    if (highest == NOT_PERSISTED) {
+      return;
+    }
+
+    try {
+      durableSpool.markWritten(highest);
+    } catch (IOException e) {
+      logger.severe("Cannot update the write spool of " + name + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Adds a new update to the end of the spool, failing it if the spool is
+   * full.
+   *
+   * @param write The update
+   */
+  private void hold(PendingWrite write) {
+    if (spool.size() >= spoolCapacity) {
+      rejectSpooled(write);
+      return;
+    }
+    spool.addLast(write);
+    persist(write);
+  }
+
+  /**
+   * Fails an update that does not fit into the spool and counts it as
+   * rejected, like a submit to a full queue.
+   *
+   * @param write The update
+   */
+  private void rejectSpooled(PendingWrite write) {
+    rejected.incrementAndGet();
+    finish(write, new RejectedExecutionException("Write spool of " + name + " is full (" + spool.size()
+        + " updates), the database is unreachable"));
+  }
+
+  /**
+   * Puts updates that could not be written back at the head of the spool, in
+   * their original order. Updates beyond the spool capacity are rejected,
+   * newest first, and without a spool they all fail with the connection
+   * error.
+   *
+   * @param writes The updates
+   * @param error  The connection failure
+   * @return true if any update was spooled
+   */
+  private boolean respool(List<PendingWrite> writes, Exception error) {
+    List<PendingWrite> kept = new ArrayList<>(writes.size());
+    for (PendingWrite write : writes) {
+      if (write.error == null) {
+        kept.add(write);
+      }
+    }
+
+    if (spoolCapacity == 0) {
+      logger.warning("Cannot reach the database, failed " + kept.size() + " queued update(s) of " + name);
+      for (PendingWrite write : kept) {
+        finish(write, error);
+      }
+      return false;
+    }
+
+    int room = Math.max(0, spoolCapacity - spool.size());
+    while (kept.size() > room) {
+      rejectSpooled(kept.remove(kept.size() - 1));
+    }
+
+    for (int i = kept.size() - 1; i >= 0; i--) {
+      spool.addFirst(kept.get(i));
+    }
+
+    // Appended in their original order
+    for (PendingWrite write : kept) {
+      persist(write);
+    }
+    return !kept.isEmpty();
+  }
+
+  /**
+   * Writes a batch in one transaction. If the batch fails, the transaction is
+   * retried one statement at a time, each in its own savepoint, so a single
+   * bad row does not sink the others and the rest still share one commit.
+   * Only updates that never reached a commit go back to the spool. If the
+   * connection is lost during the commit itself, the database may already
+   * have applied the batch, so its updates fail with SQLState 08007
+   * (transaction resolution unknown) instead of being written again.
+   *
+   * @param batch The updates to write
+   * @return false if the database could not be reached and unwritten updates
+   *         were put back into the spool
+   */
+  private boolean write(List<PendingWrite> batch) {
+    long started = System.nanoTime();
+    for (PendingWrite write : batch) {
+      if (write.waitRecorded) {
+        continue;
+      }
+      metrics.recordQueueWait(started - write.queuedAt);
+      write.waitRecorded = true;
+    }
+
+    List<PendingWrite> unwritten = batch;
+    boolean committing = false;
+    try (Connection connection = connectionSource.getConnection()) {
+      connection.setAutoCommit(false);
+      try {
+        writeBatched(connection, batch);
+        committing = true;
+        connection.commit();
+        unwritten = null;
+        for (PendingWrite write : batch) {
+          if (write.error == null) {
+            finish(write, null);
+          }
+        }
+      } catch (SQLException e) {
+        // The connection was handed out, so the source did not see this failure
+        if (CircuitBreaker.isConnectionFailure(e)) {
+          circuitBreaker.recordFailure();
+          throw e;
+        }
+
+        // A commit that failed with an error rather than a lost connection
+        // did not apply anything
+        committing = false;
+        connection.rollback();
+        logger.warning("Batch of " + batch.size() + " queued update(s) failed, retrying individually: "
+            + e.getMessage());
+        List<PendingWrite> written = writeIndividually(connection, batch);
+        if (written == null) {
+          circuitBreaker.recordFailure();
+          throw new SQLTransientConnectionException("Connection lost while retrying queued updates", "08000");
+        }
+        committing = true;
+        unwritten = written;
+        try {
+          connection.commit();
+        } catch (SQLException commitError) {
+          if (CircuitBreaker.isConnectionFailure(commitError)) {
+            circuitBreaker.recordFailure();
+          }
+          throw commitError;
+        }
+        unwritten = null;
+        for (PendingWrite write : written) {
+          finish(write, null);
+        }
+      }
+    } catch (SQLException e) {
+      if (unwritten != null && committing && CircuitBreaker.isConnectionFailure(e)) {
+        // Replaying could apply the batch twice; callers holding state they
+        // can resend idempotently retry on their own
+        logger.warning("Lost the connection while committing " + unwritten.size() + " queued update(s) of " + name
+            + ", they may or may not have been applied: " + e.getMessage());
+        SQLException unknown = new SQLTransientConnectionException(
+            "Transaction resolution unknown: " + e.getMessage(), RESOLUTION_UNKNOWN, e);
+        for (PendingWrite write : unwritten) {
+          if (write.error == null && !write.future.isDone()) {
+            finish(write, unknown);
+          }
+        }
+        return true;
+      }
+
+      if (unwritten != null && CircuitBreaker.isConnectionFailure(e)) {
+        return !respool(unwritten, e);
+      }
+
+      logger.warning("Cannot write " + batch.size() + " queued update(s): " + e.getMessage());
+      for (PendingWrite write : unwritten != null ? unwritten : batch) {
+        if (write.error == null && !write.future.isDone()) {
+          finish(write, e);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Executes runs of updates sharing a SQL template as JDBC batches.
+   *
+   * @param connection The connection to use
+   * @param batch      The updates to write
+   * @throws SQLException If a batch fails
+   */
+  private void writeBatched(Connection connection, List<PendingWrite> batch) throws SQLException {
+    int start = 0;
+    while (start < batch.size()) {
+      String query = batch.get(start).query;
+      int end = start;
+      while (end < batch.size() && batch.get(end).query.equals(query)) {
+        end++;
+      }
+
+      try (PreparedStatement statement = connection.prepareStatement(query)) {
+        int added = 0;
+        for (int i = start; i < end; i++) {
+          PendingWrite write = batch.get(i);
+          try {
+            write.callback.process(statement);
+            statement.addBatch();
+            added++;
+          } catch (Exception e) {
+            // Parameter binding failed: drop this update only
+            statement.clearParameters();
+            write.error = e;
+            finish(write, e);
+            logger.warning("Error binding queued update: " + query + " Error: " + e.getMessage());
+          }
+        }
+
+        if (added > 0) {
+          long executed = System.nanoTime();
+          boolean success = false;
+          try {
+            statement.executeBatch();
+            success = true;
+          } finally {
+            metrics.recordRaw(query, System.nanoTime() - executed, success);
+          }
+        }
+      }
+
+      start = end;
+    }
+  }
+
+  /**
+   * Executes updates one by one in the open transaction, rolling each failed
+   * update back to a savepoint taken before it. Failed updates are finished
+   * with their error; the others are finished by the caller once committed.
+   *
+   * @param connection The connection to use
+   * @param batch      The updates to write
+   * @return The updates that succeeded, or null if the connection was lost
+   */
+  private List<PendingWrite> writeIndividually(Connection connection, List<PendingWrite> batch) {
+    List<PendingWrite> written = new ArrayList<>(batch.size());
+    for (PendingWrite write : batch) {
+      if (write.error != null) {
+        continue;
+      }
+
+      long start = System.nanoTime();
+      Savepoint savepoint = null;
+      try (PreparedStatement statement = connection.prepareStatement(write.query)) {
+        savepoint = connection.setSavepoint();
+        write.callback.process(statement);
+        statement.executeUpdate();
+        connection.releaseSavepoint(savepoint);
+        metrics.recordRaw(write.query, System.nanoTime() - start, true);
+        written.add(write);
+      } catch (Exception e) {
+        metrics.recordRaw(write.query, System.nanoTime() - start, false);
+        if (CircuitBreaker.isConnectionFailure(e)) {
+          return null;
+        }
+
+        logger.warning("Error executing queued update: " + write.query + " Error: " + e.getMessage());
+        write.error = e;
+        finish(write, e);
+        if (!rollbackTo(connection, savepoint)) {
+          // The transaction is gone; the updates before this one are retried
+          return null;
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Rolls back the update that failed after a savepoint.
+   *
+   * @param connection The connection to use
+   * @param savepoint  The savepoint, or null if the update failed before
+   *                   it ran
+   * @return false if the transaction cannot continue
+   */
+  private boolean rollbackTo(Connection connection, Savepoint savepoint) {
+    if (savepoint == null) {
+      return true;
+    }
+
+    try {
+      connection.rollback(savepoint);
+      return true;
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Completes an update and wakes up threads waiting for the queue to drain.
+   *
+   * @param write The finished update
+   * @param error The failure, or null if the update was committed
+   */
+  private void finish(PendingWrite write, Exception error) {
+    if (error != null) {
+      write.future.completeExceptionally(error);
+    } else {
+      write.future.complete(null);
+    }
+
+    if (pending.decrementAndGet() <= 0) {
+      synchronized (drainLock) {
+        drainLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Source of connections for writing batches.
+   */
+  @FunctionalInterface
+  public interface ConnectionSource {
+    /**
+     * Gets a connection; it is closed once the batch is written.
+     *
+     * @return A connection
+     * @throws SQLException If no connection is available
+     */
+    Connection getConnection() throws SQLException;
+  }
+
+  /**
+   * An update waiting in the queue.
+   */
+  private static final class PendingWrite {
+    private final String query;
+    private final Store.PreparedStatementCallback callback;
+    private final CompletableFuture<Void> future;
+    private final long queuedAt;
+    private Exception error;
+    private boolean waitRecorded;
+    private long spoolId;
+    private long spooledAt;
+
+    private PendingWrite(String query, Store.PreparedStatementCallback callback, CompletableFuture<Void> future) {
+      this.query = query;
+      this.callback = callback;
+      this.future = future;
+      this.queuedAt = System.nanoTime();
+      this.spoolId = NOT_PERSISTED;
+    }
+  }
+}
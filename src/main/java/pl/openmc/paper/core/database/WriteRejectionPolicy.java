@@ -0,0 +1,19 @@
+package pl.openmc.paper.core.database;
+
+/**
+ * What a {@link WriteBehindQueue} does with an update submitted while it is
+ * full.
+ */
+public enum WriteRejectionPolicy {
+  /**
+   * Fails the update immediately.
+   */
+  ABORT,
+
+  /**
+   * Blocks the submitting thread until the flusher makes space, so the update
+   * keeps its place in the submission order. Never use this if the main
+   * thread submits.
+   */
+  BLOCK
+}
@@ -0,0 +1,66 @@
+package pl.openmc.paper.core.database.cache;
+
+/**
+ * Settings for an {@link OfflinePlayerCache}.
+ */
+public class OfflineCacheSettings {
+  private int maximumSize = 10000;
+  private long expireAfter = 300000L;
+  private long negativeExpireAfter = 60000L;
+
+  /**
+   * Gets the maximum number of cached players. The least recently used entry
+   * is evicted beyond this size.
+   *
+   * @return The maximum size
+   */
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * Sets the maximum number of cached players (0 disables the cache).
+   *
+   * @param maximumSize The maximum size
+   */
+  public void setMaximumSize(int maximumSize) {
+    this.maximumSize = Math.max(0, maximumSize);
+  }
+
+  /**
+   * Gets how long a loaded player stays cached, in milliseconds.
+   *
+   * @return The expiry time
+   */
+  public long getExpireAfter() {
+    return expireAfter;
+  }
+
+  /**
+   * Sets how long a loaded player stays cached, in milliseconds.
+   *
+   * @param expireAfter The expiry time
+   */
+  public void setExpireAfter(long expireAfter) {
+    this.expireAfter = Math.max(0L, expireAfter);
+  }
+
+  /**
+   * Gets how long an unknown UUID is remembered as missing, in milliseconds.
+   *
+   * @return The expiry time of negative entries
+   */
+  public long getNegativeExpireAfter() {
+    return negativeExpireAfter;
+  }
+
+  /**
+   * Sets how long an unknown UUID is remembered as missing, in milliseconds (0
+   * disables negative caching).
+   *
+   * @param negativeExpireAfter The expiry time of negative entries
+   */
+  public void setNegativeExpireAfter(long negativeExpireAfter) {
+    this.negativeExpireAfter = Math.max(0L, negativeExpireAfter);
+  }
+}
@@ -0,0 +1,221 @@
+package pl.openmc.paper.core.database.cache;
+
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of player data for players who are not online.
+ * Entries are evicted in least recently used order once the cache is full, and
+ * expire after a fixed time. A UUID without a stored player is cached as a
+ * negative entry for a shorter time. Concurrent lookups of the same UUID share
+ * a single load, and failed loads are not cached.
+ * Cached data is a snapshot; changes made to it are not saved.
+ */
+public class OfflinePlayerCache {
+  private final OfflineCacheSettings settings;
+  private final Function<UUID, CompletableFuture<PlayerData>> loader;
+
+  // Guarded by this
+  private final LinkedHashMap<UUID, Entry> entries;
+  private final Map<UUID, CompletableFuture<PlayerData>> loading;
+
+  // Statistics
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong negativeHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a new cache.
+   *
+   * @param settings The cache settings
+   * @param loader   Loads a player from the database, completing with null if
+   *                 the player is unknown
+   */
+  public OfflinePlayerCache(OfflineCacheSettings settings, Function<UUID, CompletableFuture<PlayerData>> loader) {
+    this.settings = settings;
+    this.loader = loader;
+    this.entries = new LinkedHashMap<UUID, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+        return size() > settings.getMaximumSize();
+      }
+    };
+    this.loading = new HashMap<>();
+  }
+
+  /**
+   * Gets a player's data, loading it if it is not cached.
+   *
+   * @param uuid The player's UUID
+   * @return A CompletableFuture that will be completed with the player's data,
+   *         or null if the player is unknown
+   */
+  public CompletableFuture<PlayerData> get(UUID uuid) {
+    CompletableFuture<PlayerData> load;
+
+    synchronized (this) {
+      Entry entry = entries.get(uuid);
+      if (entry != null) {
+        if (entry.expiresAt > System.currentTimeMillis()) {
+          (entry.playerData != null ? hits : negativeHits).incrementAndGet();
+          return CompletableFuture.completedFuture(entry.playerData);
+        }
+        entries.remove(uuid);
+      }
+
+      misses.incrementAndGet();
+      CompletableFuture<PlayerData> inFlight = loading.get(uuid);
+      if (inFlight != null) {
+        return inFlight;
+      }
+
+      load = new CompletableFuture<>();
+      loading.put(uuid, load);
+    }
+
+    // Load outside the lock, the loader may complete on this thread
+    loader.apply(uuid).whenComplete((playerData, e) -> {
+      synchronized (this) {
+        // Only store the result if nothing invalidated the UUID meanwhile
+        if (loading.remove(uuid, load) && e == null) {
+          store(uuid, playerData);
+        }
+      }
+
+      if (e != null) {
+        load.completeExceptionally(e);
+      } else {
+        load.complete(playerData);
+      }
+    });
+    return load;
+  }
+
+  /**
+   * Gets a player's data if it is cached, without loading it.
+   *
+   * @param uuid The player's UUID
+   * @return The cached data, or null if not cached or cached as unknown
+   */
+  public synchronized PlayerData getIfPresent(UUID uuid) {
+    Entry entry = entries.get(uuid);
+    return entry != null && entry.expiresAt > System.currentTimeMillis() ? entry.playerData : null;
+  }
+
+  /**
+   * Caches data that is known to be current, for example right after a player
+   * left and was saved.
+   *
+   * @param uuid       The player's UUID
+   * @param playerData The player's data
+   */
+  public synchronized void put(UUID uuid, PlayerData playerData) {
+    loading.remove(uuid);
+    store(uuid, playerData);
+  }
+
+  /**
+   * Drops a player from the cache. A load in progress still completes for its
+   * callers, but its result is not cached.
+   *
+   * @param uuid The player's UUID
+   */
+  public synchronized void invalidate(UUID uuid) {
+    entries.remove(uuid);
+    loading.remove(uuid);
+  }
+
+  /**
+   * Drops all entries.
+   */
+  public synchronized void invalidateAll() {
+    entries.clear();
+    loading.clear();
+  }
+
+  /**
+   * Removes expired entries. Expired entries are also dropped when looked up,
+   * this only releases memory held by entries nobody asks for.
+   */
+  public synchronized void purgeExpired() {
+    long now = System.currentTimeMillis();
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().expiresAt <= now) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Gets the number of cached entries, including negative ones.
+   *
+   * @return The entry count
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets the number of lookups answered with cached data.
+   *
+   * @return The hit count
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of lookups answered by a negative entry.
+   *
+   * @return The negative hit count
+   */
+  public long getNegativeHits() {
+    return negativeHits.get();
+  }
+
+  /**
+   * Gets the number of lookups that needed or joined a load.
+   *
+   * @return The miss count
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Stores an entry with the expiry matching its kind. Must hold the lock.
+   *
+   * @param uuid       The player's UUID
+   * @param playerData The player's data, or null if unknown
+   */
+  private void store(UUID uuid, PlayerData playerData) {
+    long ttl = playerData != null ? settings.getExpireAfter() : settings.getNegativeExpireAfter();
+    if (ttl <= 0 || settings.getMaximumSize() == 0) {
+      entries.remove(uuid);
+      return;
+    }
+    entries.put(uuid, new Entry(playerData, System.currentTimeMillis() + ttl));
+  }
+
+  /**
+   * A cached lookup result.
+   */
+  private static final class Entry {
+    private final PlayerData playerData;
+    private final long expiresAt;
+
+    private Entry(PlayerData playerData, long expiresAt) {
+      this.playerData = playerData;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package pl.openmc.paper.core.database.executor;
+
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker guarding a database.
+ * After a number of consecutive connection failures the circuit opens and
+ * requests fail immediately instead of waiting for a connection timeout each.
+ * Once the open duration has passed, requests are let through again; the
+ * first success closes the circuit and the first failure opens it again.
+ */
+public class CircuitBreaker {
+  /**
+   * The states of a circuit.
+   */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openDurationNanos;
+  private final LoggerUtil logger;
+
+  // Circuit state, written under this and read without locking on the fast
+  // path of a closed circuit
+  private volatile State state;
+  private volatile int consecutiveFailures;
+  private long openedAt;
+  private long openCount;
+
+  /**
+   * Creates a new closed circuit breaker.
+   *
+   * @param name             The name used in logs
+   * @param failureThreshold The consecutive failures that open the circuit
+   * @param openDuration     The time in milliseconds the circuit stays open
+   * @param logger           The plugin logger
+   */
+  public CircuitBreaker(String name, int failureThreshold, long openDuration, LoggerUtil logger) {
+    this.name = name;
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+    this.logger = logger;
+    this.state = State.CLOSED;
+  }
+
+  /**
+   * Checks whether a request may reach the database.
+   *
+   * @return false while the circuit is open
+   */
+  public boolean allowRequest() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    return allowAfterFailure();
+  }
+
+  /**
+   * Moves an open circuit to half-open once the open duration has passed.
+   *
+   * @return false while the circuit is open
+   */
+  private synchronized boolean allowAfterFailure() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+      this.state = State.HALF_OPEN;
+    }
+    return state != State.OPEN;
+  }
+
+  /**
+   * Fails fast if the circuit is open.
+   *
+   * @throws SQLTransientConnectionException If the circuit is open
+   */
+  public void check() throws SQLTransientConnectionException {
+    if (!allowRequest()) {
+      throw new SQLTransientConnectionException("Circuit breaker for " + name + " is open", "08000");
+    }
+  }
+
+  /**
+   * Records a request that reached the database.
+   */
+  public void recordSuccess() {
+    if (state == State.CLOSED && consecutiveFailures == 0) {
+      return;
+    }
+    closeAfterSuccess();
+  }
+
+  /**
+   * Resets the failure count and closes the circuit.
+   */
+  private synchronized void closeAfterSuccess() {
+    this.consecutiveFailures = 0;
+    if (state != State.CLOSED) {
+      this.state = State.CLOSED;
+      logger.info("Circuit breaker for " + name + " closed, the database is reachable again");
+    }
+  }
+
+  /**
+   * Records a request that could not reach the database.
+   */
+  public synchronized void recordFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+      this.state = State.OPEN;
+      this.openedAt = System.nanoTime();
+      openCount++;
+      logger.warning("Circuit breaker for " + name + " opened after " + consecutiveFailures
+          + " connection failure(s), failing fast for " + TimeUnit.NANOSECONDS.toMillis(openDurationNanos) + " ms");
+    }
+  }
+
+  /**
+   * Gets the current state.
+   *
+   * @return The state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Gets how many times the circuit has opened.
+   *
+   * @return The open count
+   */
+  public synchronized long getOpenCount() {
+    return openCount;
+  }
+
+  /**
+   * Checks whether an exception means the database could not be reached, as
+   * opposed to a problem with the statement itself.
+   *
+   * @param e The exception
+   * @return true for connection failures and timeouts
+   */
+  public static boolean isConnectionFailure(Throwable e) {
+    if (e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+        || e instanceof SQLTimeoutException) {
+      return true;
+    }
+    if (e instanceof SQLException) {
+      String sqlState = ((SQLException) e).getSQLState();
+      return sqlState != null && sqlState.startsWith("08");
+    }
+    return false;
+  }
+}
@@ -0,0 +1,23 @@
+package pl.openmc.paper.core.database.executor;
+
+/**
+ * The kind of threads a {@link StoreExecutor} runs blocking database work on.
+ */
+public enum ExecutorBackend {
+  /**
+   * A fixed pool of platform threads.
+   */
+  PLATFORM,
+
+  /**
+   * One virtual thread per task, with the number of tasks running at once
+   * limited to the connection pool size. Needs Java 21 or newer.
+   */
+  VIRTUAL,
+
+  /**
+   * Virtual threads when the runtime supports them, platform threads
+   * otherwise.
+   */
+  AUTO
+}
@@ -0,0 +1,75 @@
+package pl.openmc.paper.core.database.executor;
+
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store executor running tasks on a fixed pool of daemon platform threads
+ * fed by a bounded queue.
+ */
+final class PlatformStoreExecutor extends StoreExecutor {
+  private final ThreadPoolExecutor pool;
+
+  /**
+   * Creates and starts a new platform thread executor.
+   *
+   * @param name            The store name used in thread names
+   * @param threads         The number of worker threads
+   * @param queueCapacity   The maximum number of waiting tasks
+   * @param rejectionPolicy What to do with tasks submitted while the queue is
+   *                        full
+   * @param metrics         The metrics receiving queue waits
+   */
+  PlatformStoreExecutor(String name, int threads, int queueCapacity, RejectionPolicy rejectionPolicy,
+      StoreMetrics metrics) {
+    super(name, queueCapacity, rejectionPolicy, metrics);
+
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), task -> {
+          Thread thread = new Thread(task, name + "-Worker-" + threadCounter.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        }, (task, executor) -> reject(task));
+  }
+
+  @Override
+  protected void dispatch(Runnable task) {
+    pool.execute(task);
+  }
+
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    pool.shutdown();
+    try {
+      return pool.awaitTermination(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return pool.isShutdown();
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return pool.getQueue().size();
+  }
+
+  @Override
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+  @Override
+  public ExecutorBackend getBackend() {
+    return ExecutorBackend.PLATFORM;
+  }
+}
@@ -0,0 +1,17 @@
+package pl.openmc.paper.core.database.executor;
+
+/**
+ * What a store does with work submitted while its queue is full.
+ */
+public enum RejectionPolicy {
+  /**
+   * Fails the submitted work immediately.
+   */
+  ABORT,
+
+  /**
+   * Makes the submitting thread pay for the work by running the task itself.
+   * Never use this if the main thread submits.
+   */
+  CALLER_RUNS
+}
@@ -0,0 +1,234 @@
+package pl.openmc.paper.core.database.executor;
+
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor running the asynchronous work of a store.
+ * At most a fixed number of tasks run at once and a limited number wait, so a
+ * slow database makes callers wait or fail instead of piling up threads and
+ * tasks without bound. What happens when the queue is full is decided by the
+ * {@link RejectionPolicy}. Use {@link #create} to pick the thread backend.
+ */
+public abstract class StoreExecutor implements Executor {
+  protected final String name;
+  private final RejectionPolicy rejectionPolicy;
+  private final StoreMetrics metrics;
+  private final int queueCapacity;
+
+  // Saturation statistics
+  private final AtomicLong rejected;
+  private final AtomicLong callerRuns;
+  private final AtomicInteger peakQueueDepth;
+
+  /**
+   * Creates a new executor.
+   *
+   * @param name            The store name used in thread names
+   * @param queueCapacity   The maximum number of waiting tasks
+   * @param rejectionPolicy What to do with tasks submitted while the queue is
+   *                        full
+   * @param metrics         The metrics receiving queue waits
+   */
+  protected StoreExecutor(String name, int queueCapacity, RejectionPolicy rejectionPolicy, StoreMetrics metrics) {
+    this.name = name;
+    this.rejectionPolicy = rejectionPolicy;
+    this.metrics = metrics;
+    this.queueCapacity = queueCapacity;
+    this.rejected = new AtomicLong();
+    this.callerRuns = new AtomicLong();
+    this.peakQueueDepth = new AtomicInteger();
+  }
+
+  /**
+   * Creates and starts an executor on the requested backend. Virtual threads
+   * fall back to platform threads on runtimes older than Java 21.
+   *
+   * @param name            The store name used in thread names
+   * @param backend         The requested backend
+   * @param threads         The platform thread count
+   * @param connections     The connection pool size, limiting the virtual
+   *                        tasks running at once
+   * @param queueCapacity   The maximum number of waiting tasks
+   * @param rejectionPolicy What to do with tasks submitted while the queue is
+   *                        full
+   * @param metrics         The metrics receiving queue waits
+   * @param logger          The plugin logger
+   * @return The started executor
+   */
+  public static StoreExecutor create(String name, ExecutorBackend backend, int threads, int connections,
+      int queueCapacity, RejectionPolicy rejectionPolicy, StoreMetrics metrics, LoggerUtil logger) {
+    if (backend != ExecutorBackend.PLATFORM) {
+      ThreadFactory virtualThreads = VirtualStoreExecutor.virtualThreadFactory(name + "-Virtual-");
+      if (virtualThreads != null) {
+        logger.info(name + " runs database work on virtual threads (" + connections + " at once)");
+        return new VirtualStoreExecutor(name, virtualThreads, connections, queueCapacity, rejectionPolicy, metrics);
+      }
+      if (backend == ExecutorBackend.VIRTUAL) {
+        logger.warning("Virtual threads need Java 21 or newer, " + name + " uses platform threads instead");
+      }
+    }
+    return new PlatformStoreExecutor(name, threads, queueCapacity, rejectionPolicy, metrics);
+  }
+
+  /**
+   * Runs a task.
+   *
+   * @param task The task to run
+   * @throws RejectedExecutionException If the queue is full and the policy is
+   *                                    {@link RejectionPolicy#ABORT}, or the
+   *                                    executor is shut down
+   */
+  @Override
+  public void execute(Runnable task) {
+    long submitted = System.nanoTime();
+    dispatch(() -> {
+      metrics.recordQueueWait(System.nanoTime() - submitted);
+      task.run();
+    });
+
+    int depth = getQueueDepth();
+    peakQueueDepth.accumulateAndGet(depth, Math::max);
+  }
+
+  /**
+   * Computes a value.
+   *
+   * @param task The task computing the value
+   * @param <T>  The type of the value
+   * @return A CompletableFuture completed with the value, or exceptionally if
+   *         the task failed or was rejected
+   */
+  public <T> CompletableFuture<T> submit(Callable<T> task) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      execute(() -> {
+        try {
+          future.complete(task.call());
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Hands a task to the backend, calling {@link #reject} if it cannot be
+   * queued.
+   *
+   * @param task The task to run
+   */
+  protected abstract void dispatch(Runnable task);
+
+  /**
+   * Handles a task the backend could not queue.
+   *
+   * @param task The rejected task
+   * @throws RejectedExecutionException Unless the task ran on the caller
+   */
+  protected void reject(Runnable task) {
+    if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && !isShutdown()) {
+      callerRuns.incrementAndGet();
+      task.run();
+      return;
+    }
+
+    rejected.incrementAndGet();
+    throw new RejectedExecutionException(isShutdown() ? name + " executor is shut down"
+        : name + " executor queue is full (" + queueCapacity + " tasks waiting)");
+  }
+
+  /**
+   * Stops accepting tasks and waits for queued ones to finish.
+   *
+   * @param timeout The maximum time to wait
+   * @param unit    The unit of the timeout
+   * @return true if every task finished in time
+   */
+  public abstract boolean shutdown(long timeout, TimeUnit unit);
+
+  /**
+   * Checks whether the executor stopped accepting tasks.
+   *
+   * @return true once shut down
+   */
+  public abstract boolean isShutdown();
+
+  /**
+   * Gets the number of tasks waiting to run.
+   *
+   * @return The queue depth
+   */
+  public abstract int getQueueDepth();
+
+  /**
+   * Gets the number of tasks running.
+   *
+   * @return The active task count
+   */
+  public abstract int getActiveCount();
+
+  /**
+   * Gets the backend the executor runs on.
+   *
+   * @return {@link ExecutorBackend#PLATFORM} or {@link ExecutorBackend#VIRTUAL}
+   */
+  public abstract ExecutorBackend getBackend();
+
+  /**
+   * Gets the highest queue depth seen.
+   *
+   * @return The peak queue depth
+   */
+  public int getPeakQueueDepth() {
+    return peakQueueDepth.get();
+  }
+
+  /**
+   * Gets the maximum number of waiting tasks.
+   *
+   * @return The queue capacity
+   */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Gets the number of tasks rejected because the queue was full.
+   *
+   * @return The rejected task count
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * Gets the number of tasks run by their caller because the queue was full.
+   *
+   * @return The caller-run task count
+   */
+  public long getCallerRunsCount() {
+    return callerRuns.get();
+  }
+
+  /**
+   * Gets how full the queue is.
+   *
+   * @return The queue depth as a percentage of its capacity
+   */
+  public int getSaturation() {
+    return (int) (getQueueDepth() * 100L / queueCapacity);
+  }
+}
@@ -0,0 +1,168 @@
+package pl.openmc.paper.core.database.executor;
+
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store executor starting a virtual thread for every task.
+ * A blocked virtual thread does not hold on to a platform thread, so tasks
+ * waiting for the database cost almost nothing. The number of tasks running
+ * at once is still limited to the connection pool size: more would only wait
+ * for a connection, and JDBC drivers block inside synchronized code, which
+ * pins the carrier thread, so unbounded virtual threads could starve the
+ * carrier pool. Tasks over the limit wait on a semaphore and count as queued.
+ * <p>
+ * The plugin is compiled for Java 17, so the virtual thread factory is looked
+ * up reflectively and this executor is only used when it is available.
+ */
+final class VirtualStoreExecutor extends StoreExecutor {
+  private final ThreadFactory threadFactory;
+  private final Semaphore permits;
+  private final int maxInFlight;
+
+  // Tasks accepted but not finished, and those of them holding a permit
+  private final AtomicInteger inFlight;
+  private final AtomicInteger running;
+  private final Object drained;
+  private volatile boolean shutdown;
+
+  /**
+   * Creates a new virtual thread executor.
+   *
+   * @param name            The store name used in thread names
+   * @param threadFactory   The virtual thread factory
+   * @param concurrency     The maximum number of tasks running at once
+   * @param queueCapacity   The maximum number of waiting tasks
+   * @param rejectionPolicy What to do with tasks submitted while the queue is
+   *                        full
+   * @param metrics         The metrics receiving queue waits
+   */
+  VirtualStoreExecutor(String name, ThreadFactory threadFactory, int concurrency, int queueCapacity,
+      RejectionPolicy rejectionPolicy, StoreMetrics metrics) {
+    super(name, queueCapacity, rejectionPolicy, metrics);
+    this.threadFactory = threadFactory;
+    this.permits = new Semaphore(Math.max(1, concurrency), true);
+    this.maxInFlight = Math.max(1, concurrency) + queueCapacity;
+    this.inFlight = new AtomicInteger();
+    this.running = new AtomicInteger();
+    this.drained = new Object();
+  }
+
+  /**
+   * Looks up a factory for named virtual threads.
+   *
+   * @param prefix The thread name prefix
+   * @return The factory, or null if the runtime has no virtual threads
+   */
+  static ThreadFactory virtualThreadFactory(String prefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+      Method factory = builderClass.getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Older than Java 21, or virtual threads are disabled
+      return null;
+    }
+  }
+
+  @Override
+  protected void dispatch(Runnable task) {
+    if (shutdown || !acquireSlot()) {
+      reject(task);
+      return;
+    }
+
+    Thread thread = threadFactory.newThread(() -> {
+      try {
+        permits.acquireUninterruptibly();
+        running.incrementAndGet();
+        try {
+          task.run();
+        } finally {
+          running.decrementAndGet();
+          permits.release();
+        }
+      } finally {
+        releaseSlot();
+      }
+    });
+    thread.start();
+  }
+
+  /**
+   * Reserves room for a task unless the queue is full.
+   *
+   * @return true if the task was accepted
+   */
+  private boolean acquireSlot() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= maxInFlight) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Frees the room of a finished task and wakes up a waiting shutdown.
+   */
+  private void releaseSlot() {
+    if (inFlight.decrementAndGet() == 0 && shutdown) {
+      synchronized (drained) {
+        drained.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    this.shutdown = true;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    synchronized (drained) {
+      while (inFlight.get() > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        try {
+          TimeUnit.NANOSECONDS.timedWait(drained, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return Math.max(0, inFlight.get() - running.get());
+  }
+
+  @Override
+  public int getActiveCount() {
+    return running.get();
+  }
+
+  @Override
+  public ExecutorBackend getBackend() {
+    return ExecutorBackend.VIRTUAL;
+  }
+}
@@ -0,0 +1,428 @@
+package pl.openmc.paper.core.database.file;
+
+import pl.openmc.paper.core.database.PlayerDataColumn;
+import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.models.player.PointsChange;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Player data kept in an embedded {@link PlayerLog} instead of a database.
+ * Meant for single servers: there is no JDBC driver or SQL involved, loads
+ * and saves run directly on the calling thread and take microseconds. Scans
+ * run on a worker thread, and a maintenance thread syncs the file to disk and
+ * compacts it in the background.
+ * <p>
+ * Payload layout: points (int), name (short length and UTF-8 bytes), encoded
+ * additional data (int length, -1 for none, and bytes).
+ */
+public class FilePlayerStore {
+  private static final long COMPACTION_CHECK_INTERVAL = 30L;
+  private static final long SHUTDOWN_TIMEOUT = 30L;
+  private static final Set<PlayerDataColumn> ALL_COLUMNS = EnumSet.allOf(PlayerDataColumn.class);
+
+  private final PlayerLog log;
+  private final FileStoreSettings settings;
+  private final LoggerUtil logger;
+  private final ExecutorService worker;
+  private final ScheduledExecutorService maintenance;
+  private volatile boolean open;
+
+  /**
+   * Creates a new file store. Call {@link #open()} before use.
+   *
+   * @param directory The directory holding the data files
+   * @param settings  The file store settings
+   * @param logger    The plugin logger
+   */
+  public FilePlayerStore(File directory, FileStoreSettings settings, LoggerUtil logger) {
+    this.log = new PlayerLog(directory.toPath(), settings, logger);
+    this.settings = settings;
+    this.logger = logger;
+    this.worker = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "File-Worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "File-Maintenance");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Opens the data file, recovering it after a crash, and starts the
+   * background sync and compaction.
+   *
+   * @return true if the file was opened
+   */
+  public boolean open() {
+    long started = System.nanoTime();
+    try {
+      log.open();
+    } catch (IOException e) {
+      logger.severe("Cannot open player data file: " + e.getMessage());
+      return false;
+    }
+
+    this.open = true;
+    logger.info("Opened player data file with " + log.size() + " player(s) (" + (log.getFileSize() / 1024)
+        + " KiB, " + log.getGarbagePercent() + "% outdated) in "
+        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+
+    if (settings.getSyncInterval() > 0) {
+      maintenance.scheduleWithFixedDelay(this::sync, settings.getSyncInterval(), settings.getSyncInterval(),
+          TimeUnit.MILLISECONDS);
+    }
+    maintenance.scheduleWithFixedDelay(this::compact, COMPACTION_CHECK_INTERVAL, COMPACTION_CHECK_INTERVAL,
+        TimeUnit.SECONDS);
+    return true;
+  }
+
+  /**
+   * Loads player data.
+   *
+   * @param uuid The UUID of the player
+   * @return A completed future with the player data, or null if none is stored
+   */
+  public CompletableFuture<PlayerData> loadPlayerData(UUID uuid) {
+    try {
+      byte[] payload = log.get(uuid);
+      PlayerData playerData = payload != null ? decode(uuid, payload, ALL_COLUMNS) : null;
+      if (playerData != null) {
+        logger.info("Loaded player data for " + playerData.getPlayerName());
+      }
+      return CompletableFuture.completedFuture(playerData);
+    } catch (IOException | RuntimeException e) {
+      logger.severe("Error loading player data: " + e.getMessage());
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Saves player data. Points added since the last save are added to the
+   * stored points.
+   *
+   * @param playerData The player data to save
+   * @return A completed future, failed if the data could not be written
+   */
+  public CompletableFuture<Void> savePlayerData(PlayerData playerData) {
+    try {
+      write(playerData);
+      logger.info("Saved player data for " + playerData.getPlayerName());
+      return CompletableFuture.completedFuture(null);
+    } catch (IOException | RuntimeException e) {
+      logger.severe("Error saving player data: " + e.getMessage());
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * Saves the players that changed since their last save. Players that fail
+   * to save stay dirty for the next attempt.
+   *
+   * @param players The players to consider
+   * @return A completed future with the number of players written, failed if
+   *         any could not be written
+   */
+  public CompletableFuture<Integer> saveDirtyPlayerData(Collection<PlayerData> players) {
+    int saved = 0;
+    IOException failure = null;
+    for (PlayerData playerData : players) {
+      if (!playerData.isDirty()) {
+        continue;
+      }
+      try {
+        write(playerData);
+        saved++;
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+
+    if (failure != null) {
+      logger.severe("Error saving dirty player data: " + failure.getMessage());
+      return CompletableFuture.failedFuture(failure);
+    }
+    if (saved > 0) {
+      logger.info("Saved " + saved + " changed player data record(s)");
+    }
+    return CompletableFuture.completedFuture(saved);
+  }
+
+  /**
+   * Writes a player, marking the written version saved or putting the points
+   * change back if the write fails.
+   *
+   * @param playerData The player data to write
+   * @throws IOException If the record cannot be written
+   */
+  private void write(PlayerData playerData) throws IOException {
+    // Read the version first so the values are at least that recent
+    long version = playerData.getVersion();
+    String name = playerData.getPlayerName();
+    PointsChange points = playerData.takePointsChange();
+    byte[] data = playerData.getEncodedData();
+
+    try {
+      if (points.isAbsolute()) {
+        log.put(playerData.getPlayerUUID(), encode(name, points.getValue(), data));
+      } else {
+        log.update(playerData.getPlayerUUID(), stored -> encode(name,
+            (stored != null ? ByteBuffer.wrap(stored).getInt(0) : 0) + points.getValue(), data));
+      }
+      playerData.markSaved(version);
+      playerData.confirmPointsChange(points);
+    } catch (IOException | RuntimeException e) {
+      playerData.restorePointsChange(points);
+      throw e;
+    }
+  }
+
+  /**
+   * Stores imported players that have no record yet, so newer data is never
+   * replaced and an interrupted import can be run again.
+   *
+   * @param players The players to store
+   * @return The number of players stored
+   * @throws IOException If a record cannot be written
+   */
+  public int importPlayerData(List<PlayerData> players) throws IOException {
+    int imported = 0;
+    for (PlayerData playerData : players) {
+      if (log.putIfAbsent(playerData.getPlayerUUID(),
+          encode(playerData.getPlayerName(), playerData.getPoints(), playerData.getEncodedData()))) {
+        imported++;
+      }
+    }
+    return imported;
+  }
+
+  /**
+   * Deletes player data.
+   *
+   * @param uuid The UUID of the player
+   * @return A completed future with true if the player was deleted or had no
+   *         data, false if the deletion could not be written
+   */
+  public CompletableFuture<Boolean> deletePlayerData(UUID uuid) {
+    try {
+      log.delete(uuid);
+      logger.info("Deleted player data for UUID " + uuid);
+      return CompletableFuture.completedFuture(true);
+    } catch (IOException e) {
+      logger.severe("Error deleting player data: " + e.getMessage());
+      return CompletableFuture.completedFuture(false);
+    }
+  }
+
+  /**
+   * Reads every stored player on the worker thread.
+   *
+   * @return A future completed with all players
+   */
+  public CompletableFuture<List<PlayerData>> getAllPlayerData() {
+    List<PlayerData> players = new ArrayList<>();
+    return forEachPlayerData(Integer.MAX_VALUE, players::addAll).thenApply(count -> {
+      logger.info("Loaded " + count + " player data records");
+      return players;
+    });
+  }
+
+  /**
+   * Streams every stored player to a consumer in chunks on the worker thread.
+   * Players saved or deleted during the scan may or may not be included.
+   *
+   * @param chunkSize The number of players per chunk
+   * @param consumer  The consumer receiving each chunk
+   * @return A future completed with the number of players read
+   */
+  public CompletableFuture<Long> forEachPlayerData(int chunkSize, Consumer<List<PlayerData>> consumer) {
+    return CompletableFuture.supplyAsync(() -> {
+      Cursor cursor = openCursor(ALL_COLUMNS);
+      long total = 0;
+      try {
+        List<PlayerData> chunk;
+        do {
+          chunk = cursor.next(chunkSize);
+          if (!chunk.isEmpty()) {
+            consumer.accept(chunk);
+            total += chunk.size();
+          }
+        } while (chunk.size() == chunkSize);
+      } catch (IOException e) {
+        logger.severe("Error scanning player data: " + e.getMessage());
+        throw new IllegalStateException(e);
+      }
+      return total;
+    }, worker);
+  }
+
+  /**
+   * Opens a cursor over the players stored right now.
+   *
+   * @param columns The fields to read besides the UUID
+   * @return The cursor
+   */
+  public Cursor openCursor(Set<PlayerDataColumn> columns) {
+    return new Cursor(log.keys(), columns);
+  }
+
+  /**
+   * Runs a task on the worker thread.
+   *
+   * @param task The task to run
+   */
+  public void execute(Runnable task) {
+    worker.execute(task);
+  }
+
+  /**
+   * Syncs written records to disk, logging failures.
+   */
+  private void sync() {
+    try {
+      log.sync();
+    } catch (IOException e) {
+      logger.severe("Error syncing player data file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Compacts the data file if enough of it is outdated, logging failures.
+   */
+  private void compact() {
+    try {
+      log.compactIfNeeded();
+    } catch (IOException e) {
+      logger.severe("Error compacting player data file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops the background threads and closes the data file.
+   */
+  public void close() {
+    if (!open) {
+      return;
+    }
+    this.open = false;
+
+    // Interrupting a thread doing file I/O would close the channel, so let
+    // running work finish instead
+    worker.shutdown();
+    maintenance.shutdown();
+    try {
+      if (!worker.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)
+          || !maintenance.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+        logger.warning("Player data file closed with background work still running");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    log.close();
+  }
+
+  /**
+   * Encodes the stored fields of a player.
+   *
+   * @param name   The player name
+   * @param points The points
+   * @param data   The encoded additional data, or null if there is none
+   * @return The payload
+   */
+  private static byte[] encode(String name, int points, byte[] data) {
+    byte[] nameBytes = (name != null ? name : "").getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(4 + 2 + nameBytes.length + 4 + (data != null ? data.length : 0));
+    buffer.putInt(points);
+    buffer.putShort((short) nameBytes.length).put(nameBytes);
+    if (data != null) {
+      buffer.putInt(data.length).put(data);
+    } else {
+      buffer.putInt(-1);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Decodes the stored fields of a player. Fields that were not requested
+   * keep their defaults.
+   *
+   * @param uuid    The UUID of the player
+   * @param payload The payload
+   * @param columns The fields to read besides the UUID
+   * @return The player data
+   */
+  private static PlayerData decode(UUID uuid, byte[] payload, Set<PlayerDataColumn> columns) {
+    ByteBuffer buffer = ByteBuffer.wrap(payload);
+    int points = buffer.getInt();
+    byte[] nameBytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(nameBytes);
+
+    PlayerData playerData = new PlayerData(uuid,
+        columns.contains(PlayerDataColumn.NAME) ? new String(nameBytes, StandardCharsets.UTF_8) : null);
+    playerData.loadPoints(columns.contains(PlayerDataColumn.POINTS) ? points : 0);
+
+    int dataLength = buffer.getInt();
+    if (dataLength >= 0 && columns.contains(PlayerDataColumn.DATA)) {
+      byte[] data = new byte[dataLength];
+      buffer.get(data);
+      playerData.loadEncodedData(data);
+    }
+
+    playerData.markSaved(playerData.getVersion());
+    return playerData;
+  }
+
+  /**
+   * Walks the players that were stored when the cursor was opened, reading
+   * each one's current record. Players deleted meanwhile are skipped.
+   */
+  public final class Cursor {
+    private final long[] keys;
+    private final Set<PlayerDataColumn> columns;
+    private int position;
+
+    private Cursor(long[] keys, Set<PlayerDataColumn> columns) {
+      this.keys = keys;
+      this.columns = columns;
+    }
+
+    /**
+     * Reads the next players.
+     *
+     * @param count The maximum number of players to read
+     * @return The players; fewer than the count once the end is reached
+     * @throws IOException If a record cannot be read
+     */
+    public List<PlayerData> next(int count) throws IOException {
+      List<PlayerData> players = new ArrayList<>(Math.min(count, (keys.length - position) / 2));
+      while (players.size() < count && position < keys.length) {
+        long msb = keys[position++];
+        long lsb = keys[position++];
+        byte[] payload = log.get(msb, lsb);
+        if (payload != null) {
+          players.add(decode(new UUID(msb, lsb), payload, columns));
+        }
+      }
+      return players;
+    }
+  }
+}
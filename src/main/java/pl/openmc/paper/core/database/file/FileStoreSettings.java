@@ -0,0 +1,69 @@
+package pl.openmc.paper.core.database.file;
+
+/**
+ * Tuning settings for {@link FilePlayerStore}.
+ */
+public class FileStoreSettings {
+  private long syncInterval = 1000L;
+  private int compactionThreshold = 50;
+  private long compactionMinSize = 16L * 1024L * 1024L;
+
+  /**
+   * Gets the time in milliseconds between syncs of written records to disk.
+   * With 0 every save is synced before it completes; otherwise a save
+   * completes once the operating system has the record, which survives a
+   * server crash but not a power loss within the interval.
+   *
+   * @return The sync interval
+   */
+  public long getSyncInterval() {
+    return syncInterval;
+  }
+
+  /**
+   * Sets the time in milliseconds between syncs of written records to disk.
+   *
+   * @param syncInterval The sync interval, 0 to sync every save
+   */
+  public void setSyncInterval(long syncInterval) {
+    this.syncInterval = Math.max(0L, syncInterval);
+  }
+
+  /**
+   * Gets the percentage of outdated bytes in the data file that triggers a
+   * compaction.
+   *
+   * @return The compaction threshold
+   */
+  public int getCompactionThreshold() {
+    return compactionThreshold;
+  }
+
+  /**
+   * Sets the percentage of outdated bytes in the data file that triggers a
+   * compaction.
+   *
+   * @param compactionThreshold The compaction threshold
+   */
+  public void setCompactionThreshold(int compactionThreshold) {
+    this.compactionThreshold = Math.max(10, Math.min(90, compactionThreshold));
+  }
+
+  /**
+   * Gets the size in bytes below which the data file is never compacted.
+   *
+   * @return The minimum compaction size
+   */
+  public long getCompactionMinSize() {
+    return compactionMinSize;
+  }
+
+  /**
+   * Sets the size in bytes below which the data file is never compacted.
+   *
+   * @param compactionMinSize The minimum compaction size
+   */
+  public void setCompactionMinSize(long compactionMinSize) {
+    this.compactionMinSize = Math.max(0L, compactionMinSize);
+  }
+}
@@ -0,0 +1,789 @@
+package pl.openmc.paper.core.database.file;
+
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of values keyed by UUID.
+ * Every write appends a record to the data file and points the in-memory
+ * index at it; older records of the same UUID become garbage. Reads go
+ * through memory mappings of the file, so a lookup is a hash probe and a copy
+ * without any system call once the pages are cached.
+ * <p>
+ * Each record carries a CRC32C checksum. On open the file is scanned to
+ * rebuild the index, and a torn or corrupt tail left by a crash is moved to a
+ * side file and cut off, so the log always restarts from its last complete
+ * record. Compaction copies the live records into the next generation of the
+ * file while writes continue, then switches over with an atomic rename.
+ * <p>
+ * Record layout: length (int, whole record), CRC32C of everything after the
+ * checksum (int), type (byte), UUID (two longs), payload.
+ */
+final class PlayerLog {
+  private static final int MAGIC = 0x4F4D4C47;
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int RECORD_HEADER = 25;
+  private static final byte TYPE_PUT = 1;
+  private static final byte TYPE_DELETE = 2;
+
+  // Index values pack the record offset and length, so records are limited to
+  // 16 MiB and files to 1 TiB
+  private static final int LENGTH_BITS = 24;
+  private static final int MAX_RECORD_SIZE = (1 << LENGTH_BITS) - 1;
+
+  // Files are mapped in 1 GiB segments; each mapping reaches one maximum
+  // record further, so any record lies inside the mapping of its segment
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  // Growth past a segment's mapping is read through the channel until it
+  // reaches this size, so appends do not remap the segment on every read
+  private static final long REMAP_STEP = 64L * 1024 * 1024;
+
+  private static final String FILE_PREFIX = "data-";
+  private static final String FILE_SUFFIX = ".log";
+
+  private final Path directory;
+  private final FileStoreSettings settings;
+  private final LoggerUtil logger;
+
+  // Guards the index and the file switch; appends hold the write lock
+  private final ReentrantReadWriteLock lock;
+  private final Object mapLock;
+  private FileChannel channel;
+  private UuidIndex index;
+  private long generation;
+  private long liveBytes;
+  private volatile long end;
+  private volatile MappedByteBuffer[] segments;
+  private volatile boolean dirty;
+
+  /**
+   * Creates a log over a directory. Call {@link #open()} before use.
+   *
+   * @param directory The directory holding the data files
+   * @param settings  The file store settings
+   * @param logger    The plugin logger
+   */
+  PlayerLog(Path directory, FileStoreSettings settings, LoggerUtil logger) {
+    this.directory = directory;
+    this.settings = settings;
+    this.logger = logger;
+    this.lock = new ReentrantReadWriteLock();
+    this.mapLock = new Object();
+    this.segments = new MappedByteBuffer[0];
+  }
+
+  /**
+   * Opens the newest data file, or creates the first one, and rebuilds the
+   * index from its records. Older generations and unfinished compactions are
+   * deleted.
+   *
+   * @throws IOException If the file cannot be opened or is not a data file
+   */
+  void open() throws IOException {
+    Files.createDirectories(directory);
+
+    List<Long> generations = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX + ".tmp")) {
+          Files.deleteIfExists(file);
+        } else if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+          try {
+            generations.add(Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length())));
+          } catch (NumberFormatException e) {
+            // Not one of ours
+          }
+        }
+      }
+    }
+
+    this.generation = generations.stream().mapToLong(Long::longValue).max().orElse(1L);
+    for (long old : generations) {
+      if (old < generation) {
+        deleteQuietly(file(old));
+      }
+    }
+
+    Path path = file(generation);
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      if (channel.size() == 0) {
+        writeHeader(channel);
+        channel.force(true);
+        this.index = new UuidIndex(0);
+        this.end = HEADER_SIZE;
+      } else {
+        recover(path);
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Scans the data file, rebuilding the index from every complete record and
+   * cutting off anything after the last one.
+   *
+   * @param path The data file
+   * @throws IOException If the file cannot be read or has no valid header
+   */
+  private void recover(Path path) throws IOException {
+    long size = channel.size();
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    if (size >= HEADER_SIZE) {
+      readFully(channel, header, 0);
+    }
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException(path + " is not a player data file");
+    }
+    if (header.getInt(4) != FORMAT_VERSION) {
+      throw new IOException(path + " has unsupported format version " + header.getInt(4));
+    }
+
+    this.index = new UuidIndex(1024);
+    this.end = size;
+    long position = HEADER_SIZE;
+    CRC32C crc = new CRC32C();
+    while (size - position >= RECORD_HEADER) {
+      int length = region(position, RECORD_HEADER).getInt(0);
+      if (length < RECORD_HEADER || length > MAX_RECORD_SIZE || position + length > size) {
+        break;
+      }
+
+      ByteBuffer buffer = region(position, length);
+      crc.reset();
+      crc.update(buffer.slice(8, length - 8));
+      if ((int) crc.getValue() != buffer.getInt(4)) {
+        break;
+      }
+
+      apply(buffer.get(8), buffer.getLong(9), buffer.getLong(17), position, length);
+      position += length;
+    }
+
+    if (position < size) {
+      // A crash while appending leaves a partial record; keep the bytes for
+      // inspection instead of silently dropping them
+      Path corrupt = directory.resolve(path.getFileName() + ".corrupt-" + System.currentTimeMillis());
+      try (FileChannel out = FileChannel.open(corrupt, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        channel.transferTo(position, size - position, out);
+      }
+      channel.truncate(position);
+      channel.force(true);
+      this.segments = new MappedByteBuffer[0];
+      logger.warning("Player data file " + path.getFileName() + " had " + (size - position)
+          + " byte(s) after its last complete record, moved to " + corrupt.getFileName());
+    }
+    this.end = position;
+  }
+
+  /**
+   * Gets the payload stored for a UUID.
+   *
+   * @param uuid The UUID
+   * @return A copy of the payload, or null if none is stored
+   * @throws IOException If the record cannot be read or is corrupt
+   */
+  byte[] get(UUID uuid) throws IOException {
+    return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Gets the payload stored for a UUID given as its two halves.
+   *
+   * @param msb The most significant bits of the UUID
+   * @param lsb The least significant bits of the UUID
+   * @return A copy of the payload, or null if none is stored
+   * @throws IOException If the record cannot be read or is corrupt
+   */
+  byte[] get(long msb, long lsb) throws IOException {
+    lock.readLock().lock();
+    try {
+      return read(msb, lsb);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Reads the payload of a UUID. Must be called while holding the lock.
+   *
+   * @param msb The most significant bits of the UUID
+   * @param lsb The least significant bits of the UUID
+   * @return A copy of the payload, or null if none is stored
+   * @throws IOException If the record cannot be read or is corrupt
+   */
+  private byte[] read(long msb, long lsb) throws IOException {
+    long entry = index.get(msb, lsb);
+    if (entry == 0L) {
+      return null;
+    }
+
+    long position = entry >>> LENGTH_BITS;
+    int length = (int) (entry & MAX_RECORD_SIZE);
+    ByteBuffer buffer = region(position, length);
+
+    CRC32C crc = new CRC32C();
+    crc.update(buffer.slice(8, length - 8));
+    if ((int) crc.getValue() != buffer.getInt(4) || buffer.getLong(9) != msb || buffer.getLong(17) != lsb) {
+      throw new IOException("Corrupt player data record at offset " + position + " of " + file(generation));
+    }
+
+    byte[] payload = new byte[length - RECORD_HEADER];
+    buffer.get(RECORD_HEADER, payload);
+    return payload;
+  }
+
+  /**
+   * Stores the payload of a UUID.
+   *
+   * @param uuid    The UUID
+   * @param payload The payload
+   * @throws IOException If the record cannot be written
+   */
+  void put(UUID uuid, byte[] payload) throws IOException {
+    lock.writeLock().lock();
+    try {
+      append(TYPE_PUT, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), payload);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Stores the payload of a UUID unless one is stored already.
+   *
+   * @param uuid    The UUID
+   * @param payload The payload
+   * @return true if the payload was stored
+   * @throws IOException If the record cannot be written
+   */
+  boolean putIfAbsent(UUID uuid, byte[] payload) throws IOException {
+    long msb = uuid.getMostSignificantBits();
+    long lsb = uuid.getLeastSignificantBits();
+
+    lock.writeLock().lock();
+    try {
+      if (index.get(msb, lsb) != 0L) {
+        return false;
+      }
+      append(TYPE_PUT, msb, lsb, payload);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replaces the payload of a UUID with one computed from the stored payload,
+   * without other writes in between.
+   *
+   * @param uuid     The UUID
+   * @param function Computes the new payload from the stored one, which is
+   *                 null if there is none
+   * @throws IOException If the stored record cannot be read or the new one
+   *                     cannot be written
+   */
+  void update(UUID uuid, Function<byte[], byte[]> function) throws IOException {
+    long msb = uuid.getMostSignificantBits();
+    long lsb = uuid.getLeastSignificantBits();
+
+    lock.writeLock().lock();
+    try {
+      append(TYPE_PUT, msb, lsb, function.apply(read(msb, lsb)));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the payload of a UUID.
+   *
+   * @param uuid The UUID
+   * @return true if a payload was stored
+   * @throws IOException If the deletion cannot be written
+   */
+  boolean delete(UUID uuid) throws IOException {
+    long msb = uuid.getMostSignificantBits();
+    long lsb = uuid.getLeastSignificantBits();
+
+    lock.writeLock().lock();
+    try {
+      if (index.get(msb, lsb) == 0L) {
+        return false;
+      }
+      append(TYPE_DELETE, msb, lsb, null);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Appends a record and applies it to the index. Must be called while
+   * holding the write lock.
+   *
+   * @param type    The record type
+   * @param msb     The most significant bits of the UUID
+   * @param lsb     The least significant bits of the UUID
+   * @param payload The payload, or null for a deletion
+   * @throws IOException If the record cannot be written
+   */
+  private void append(byte type, long msb, long lsb, byte[] payload) throws IOException {
+    ByteBuffer record = encode(type, msb, lsb, payload);
+    int length = record.remaining();
+    long position = end;
+
+    try {
+      writeFully(channel, record, position);
+      if (settings.getSyncInterval() == 0) {
+        channel.force(false);
+      }
+    } catch (IOException e) {
+      // Drop a partially written record so the next append replaces it
+      try {
+        channel.truncate(position);
+      } catch (IOException ignored) {
+        // Recovery cuts it off on the next start
+      }
+      throw e;
+    }
+
+    this.end = position + length;
+    if (settings.getSyncInterval() > 0) {
+      this.dirty = true;
+    }
+    apply(type, msb, lsb, position, length);
+  }
+
+  /**
+   * Encodes a record.
+   *
+   * @param type    The record type
+   * @param msb     The most significant bits of the UUID
+   * @param lsb     The least significant bits of the UUID
+   * @param payload The payload, or null for a deletion
+   * @return The record, ready to be written
+   * @throws IOException If the record is too large
+   */
+  private static ByteBuffer encode(byte type, long msb, long lsb, byte[] payload) throws IOException {
+    int length = RECORD_HEADER + (payload != null ? payload.length : 0);
+    if (length > MAX_RECORD_SIZE) {
+      throw new IOException("Player data record of " + length + " bytes exceeds the limit of "
+          + MAX_RECORD_SIZE + " bytes");
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(length);
+    record.putInt(length).putInt(0).put(type).putLong(msb).putLong(lsb);
+    if (payload != null) {
+      record.put(payload);
+    }
+
+    CRC32C crc = new CRC32C();
+    crc.update(record.array(), 8, length - 8);
+    record.putInt(4, (int) crc.getValue());
+    record.flip();
+    return record;
+  }
+
+  /**
+   * Applies a record to the index and the live byte count.
+   *
+   * @param type     The record type
+   * @param msb      The most significant bits of the UUID
+   * @param lsb      The least significant bits of the UUID
+   * @param position The offset of the record
+   * @param length   The length of the record
+   */
+  private void apply(byte type, long msb, long lsb, long position, int length) {
+    long previous = type == TYPE_PUT
+        ? index.put(msb, lsb, position << LENGTH_BITS | length)
+        : index.remove(msb, lsb);
+    if (previous != 0L) {
+      liveBytes -= previous & MAX_RECORD_SIZE;
+    }
+    if (type == TYPE_PUT) {
+      liveBytes += length;
+    }
+  }
+
+  /**
+   * Gets a range of the data file. A range inside the mapping of its segment
+   * is a view of the mapping; a range the file grew into since is read
+   * through the channel, until the file grew a whole remap step past the
+   * mapping and the segment is mapped again. Appends therefore remap each
+   * segment only every few dozen MiB, and only that many superseded mappings
+   * wait for the garbage collector to unmap them.
+   *
+   * @param position The start of the range
+   * @param length   The length of the range
+   * @return A buffer holding the range from index 0
+   * @throws IOException If the file cannot be mapped or read, or the range is
+   *                     past its end
+   */
+  private ByteBuffer region(long position, int length) throws IOException {
+    int segment = (int) (position >>> SEGMENT_SHIFT);
+    int offset = (int) (position & SEGMENT_MASK);
+    long needed = offset + (long) length;
+
+    MappedByteBuffer[] current = this.segments;
+    MappedByteBuffer mapped = segment < current.length ? current[segment] : null;
+    if (mapped != null && mapped.capacity() >= needed) {
+      return mapped.slice(offset, length);
+    }
+
+    long start = (long) segment << SEGMENT_SHIFT;
+    synchronized (mapLock) {
+      current = this.segments;
+      mapped = segment < current.length ? current[segment] : null;
+      if (mapped != null && mapped.capacity() >= needed) {
+        return mapped.slice(offset, length);
+      }
+
+      long size = Math.min(end - start, SEGMENT_MASK + 1 + MAX_RECORD_SIZE);
+      if (size < needed) {
+        throw new IOException("Offset " + (position + length) + " is past the end of " + file(generation));
+      }
+
+      if (mapped == null || size - mapped.capacity() >= REMAP_STEP) {
+        MappedByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, segment + 1));
+        grown[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        this.segments = grown;
+        return grown[segment].slice(offset, length);
+      }
+    }
+
+    // Positional reads leave the channel position to the appender
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    readFully(channel, buffer, position);
+    return buffer.clear();
+  }
+
+  /**
+   * Copies the indexed UUIDs, each as two consecutive longs.
+   *
+   * @return The UUID halves
+   */
+  long[] keys() {
+    lock.readLock().lock();
+    try {
+      return index.keys();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the number of stored UUIDs.
+   *
+   * @return The entry count
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the size of the data file.
+   *
+   * @return The size in bytes
+   */
+  long getFileSize() {
+    return end;
+  }
+
+  /**
+   * Gets how much of the data file is taken by outdated records.
+   *
+   * @return The percentage of garbage bytes
+   */
+  int getGarbagePercent() {
+    lock.readLock().lock();
+    try {
+      long data = end - HEADER_SIZE;
+      return data > 0 ? (int) ((data - liveBytes) * 100L / data) : 0;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Forces records written since the last sync to disk.
+   *
+   * @throws IOException If the sync fails
+   */
+  void sync() throws IOException {
+    if (!dirty) {
+      return;
+    }
+
+    this.dirty = false;
+    FileChannel current;
+    lock.readLock().lock();
+    try {
+      current = this.channel;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    try {
+      current.force(false);
+    } catch (IOException e) {
+      this.dirty = true;
+      throw e;
+    }
+  }
+
+  /**
+   * Compacts the data file if it is large enough and enough of it is
+   * garbage.
+   *
+   * @return true if the file was compacted
+   * @throws IOException If the compaction fails; the current file stays in
+   *                     use
+   */
+  boolean compactIfNeeded() throws IOException {
+    if (end < settings.getCompactionMinSize() || getGarbagePercent() < settings.getCompactionThreshold()) {
+      return false;
+    }
+    compact();
+    return true;
+  }
+
+  /**
+   * Writes the live records into the next generation of the data file and
+   * switches to it. The copy runs without blocking reads or writes; only the
+   * records written meanwhile are copied while holding the lock.
+   *
+   * @throws IOException If the compaction fails; the current file stays in
+   *                     use
+   */
+  void compact() throws IOException {
+    long started = System.nanoTime();
+    UuidIndex snapshot;
+    long snapshotEnd;
+    long oldGeneration;
+    lock.readLock().lock();
+    try {
+      snapshot = index.copy();
+      snapshotEnd = end;
+      oldGeneration = generation;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Path target = file(oldGeneration + 1);
+    Path temp = directory.resolve(target.getFileName() + ".tmp");
+    FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      writeHeader(out);
+      UuidIndex compacted = new UuidIndex(snapshot.size());
+      long position = HEADER_SIZE;
+      long live = 0;
+
+      // Records before the snapshot end never change, so they are copied
+      // without the lock
+      long[] keys = snapshot.keys();
+      for (int i = 0; i < keys.length; i += 2) {
+        long entry = snapshot.get(keys[i], keys[i + 1]);
+        int length = (int) (entry & MAX_RECORD_SIZE);
+        copyRecord(out, entry >>> LENGTH_BITS, length, position);
+        compacted.put(keys[i], keys[i + 1], position << LENGTH_BITS | length);
+        position += length;
+        live += length;
+      }
+
+      lock.writeLock().lock();
+      try {
+        // Replay what was written during the copy
+        for (long offset = snapshotEnd; offset < end; ) {
+          ByteBuffer buffer = region(offset, RECORD_HEADER);
+          int length = buffer.getInt(0);
+          byte type = buffer.get(8);
+          long msb = buffer.getLong(9);
+          long lsb = buffer.getLong(17);
+
+          if (type == TYPE_PUT) {
+            copyRecord(out, offset, length, position);
+            long previous = compacted.put(msb, lsb, position << LENGTH_BITS | length);
+            live += length - (previous & MAX_RECORD_SIZE);
+            position += length;
+          } else {
+            long previous = compacted.remove(msb, lsb);
+            if (previous != 0L) {
+              copyRecord(out, offset, length, position);
+              live -= previous & MAX_RECORD_SIZE;
+              position += length;
+            }
+          }
+          offset += length;
+        }
+
+        out.force(true);
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+
+        long oldSize = end;
+        FileChannel old = this.channel;
+        this.channel = out;
+        this.index = compacted;
+        this.generation = oldGeneration + 1;
+        this.end = position;
+        this.liveBytes = live;
+        this.segments = new MappedByteBuffer[0];
+        this.dirty = false;
+        old.close();
+
+        logger.info("Compacted player data from " + (oldSize / 1024) + " KiB to " + (position / 1024)
+            + " KiB in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+      } finally {
+        lock.writeLock().unlock();
+      }
+    } catch (IOException | RuntimeException e) {
+      out.close();
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+
+    // Fails on platforms that cannot delete mapped files; the next start
+    // deletes it then
+    deleteQuietly(file(oldGeneration));
+  }
+
+  /**
+   * Copies a record of the current file into another file unchanged.
+   *
+   * @param out      The file to write to
+   * @param offset   The offset of the record in the current file
+   * @param length   The length of the record
+   * @param position The offset to write the record at
+   * @throws IOException If the record cannot be copied
+   */
+  private void copyRecord(FileChannel out, long offset, int length, long position) throws IOException {
+    writeFully(out, region(offset, length), position);
+  }
+
+  /**
+   * Forces the current data file to disk and closes it.
+   */
+  void close() {
+    lock.writeLock().lock();
+    try {
+      channel.force(true);
+      channel.close();
+    } catch (IOException e) {
+      logger.severe("Error closing player data file: " + e.getMessage());
+    } finally {
+      this.segments = new MappedByteBuffer[0];
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the data file of a generation.
+   *
+   * @param generation The generation
+   * @return The file path
+   */
+  private Path file(long generation) {
+    return directory.resolve(String.format("%s%06d%s", FILE_PREFIX, generation, FILE_SUFFIX));
+  }
+
+  /**
+   * Makes the rename of a compacted file durable. Not every platform can open
+   * a directory, in which case the rename is left to the file system.
+   */
+  private void syncDirectory() {
+    try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+      dir.force(true);
+    } catch (IOException e) {
+      // Not supported on this platform
+    }
+  }
+
+  /**
+   * Deletes a file, logging instead of failing if it cannot be deleted.
+   *
+   * @param file The file to delete
+   */
+  private void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warning("Cannot delete old player data file " + file.getFileName() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the file header.
+   *
+   * @param channel The new file
+   * @throws IOException If the header cannot be written
+   */
+  private static void writeHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(0L);
+    header.flip();
+    writeFully(channel, header, 0);
+  }
+
+  /**
+   * Writes a whole buffer at a position.
+   *
+   * @param channel  The file
+   * @param buffer   The bytes to write
+   * @param position The offset to write at
+   * @throws IOException If the write fails
+   */
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /**
+   * Fills a buffer from a position.
+   *
+   * @param channel  The file
+   * @param buffer   The buffer to fill
+   * @param position The offset to read from
+   * @throws IOException If the read fails or the file ends first
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of player data file");
+      }
+      position += read;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package pl.openmc.paper.core.database.file;
+
+/**
+ * Hash map from UUIDs to non-zero long values, kept in primitive arrays.
+ * Each UUID is stored as its two halves next to each other in one array and
+ * its value in a second array, so a lookup touches no objects and the index
+ * costs three longs per slot. Uses open addressing with linear probing and
+ * backward-shift deletion, so no tombstones accumulate.
+ * <p>
+ * Not thread-safe; {@link PlayerLog} guards it with its lock.
+ */
+final class UuidIndex {
+  /**
+   * Receives the entries of an index.
+   */
+  @FunctionalInterface
+  interface Visitor {
+    /**
+     * Receives one entry.
+     *
+     * @param msb   The most significant bits of the UUID
+     * @param lsb   The least significant bits of the UUID
+     * @param value The value
+     */
+    void visit(long msb, long lsb, long value);
+  }
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int mask;
+  private int size;
+
+  /**
+   * Creates an index sized for the expected number of entries.
+   *
+   * @param expected The expected number of entries
+   */
+  UuidIndex(int expected) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3L / 4L < expected) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * Allocates empty arrays.
+   *
+   * @param capacity The number of slots, a power of two
+   */
+  private void allocate(int capacity) {
+    this.keys = new long[capacity * 2];
+    this.values = new long[capacity];
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Finds the home slot of a UUID.
+   *
+   * @param msb The most significant bits of the UUID
+   * @param lsb The least significant bits of the UUID
+   * @return The slot
+   */
+  private int slot(long msb, long lsb) {
+    long hash = (msb ^ Long.rotateLeft(lsb, 32)) * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  /**
+   * Gets the value of a UUID.
+   *
+   * @param msb The most significant bits of the UUID
+   * @param lsb The least significant bits of the UUID
+   * @return The value, or 0 if the UUID is not indexed
+   */
+  long get(long msb, long lsb) {
+    for (int i = slot(msb, lsb); ; i = (i + 1) & mask) {
+      long value = values[i];
+      if (value == 0L || (keys[i * 2] == msb && keys[i * 2 + 1] == lsb)) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * Sets the value of a UUID.
+   *
+   * @param msb   The most significant bits of the UUID
+   * @param lsb   The least significant bits of the UUID
+   * @param value The value, must not be 0
+   * @return The previous value, or 0 if the UUID was not indexed
+   */
+  long put(long msb, long lsb, long value) {
+    for (int i = slot(msb, lsb); ; i = (i + 1) & mask) {
+      long previous = values[i];
+      if (previous == 0L) {
+        keys[i * 2] = msb;
+        keys[i * 2 + 1] = lsb;
+        values[i] = value;
+        if (++size > (mask + 1) * 3L / 4L) {
+          resize();
+        }
+        return 0L;
+      }
+      if (keys[i * 2] == msb && keys[i * 2 + 1] == lsb) {
+        values[i] = value;
+        return previous;
+      }
+    }
+  }
+
+  /**
+   * Removes a UUID, shifting back the entries that probed past its slot.
+   *
+   * @param msb The most significant bits of the UUID
+   * @param lsb The least significant bits of the UUID
+   * @return The removed value, or 0 if the UUID was not indexed
+   */
+  long remove(long msb, long lsb) {
+    int i = slot(msb, lsb);
+    while (true) {
+      long value = values[i];
+      if (value == 0L) {
+        return 0L;
+      }
+      if (keys[i * 2] == msb && keys[i * 2 + 1] == lsb) {
+        break;
+      }
+      i = (i + 1) & mask;
+    }
+
+    long removed = values[i];
+    int hole = i;
+    for (int j = (i + 1) & mask; values[j] != 0L; j = (j + 1) & mask) {
+      // An entry may move into the hole unless its home slot lies after the
+      // hole, up to its current slot
+      int home = slot(keys[j * 2], keys[j * 2 + 1]);
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        keys[hole * 2] = keys[j * 2];
+        keys[hole * 2 + 1] = keys[j * 2 + 1];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    values[hole] = 0L;
+    size--;
+    return removed;
+  }
+
+  /**
+   * Doubles the number of slots.
+   */
+  private void resize() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(oldValues.length * 2);
+
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != 0L) {
+        long msb = oldKeys[i * 2];
+        long lsb = oldKeys[i * 2 + 1];
+        int j = slot(msb, lsb);
+        while (values[j] != 0L) {
+          j = (j + 1) & mask;
+        }
+        keys[j * 2] = msb;
+        keys[j * 2 + 1] = lsb;
+        values[j] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * Passes every entry to a visitor, in no particular order.
+   *
+   * @param visitor The visitor
+   */
+  void forEach(Visitor visitor) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != 0L) {
+        visitor.visit(keys[i * 2], keys[i * 2 + 1], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Copies the indexed UUIDs, each as two consecutive longs.
+   *
+   * @return The UUID halves
+   */
+  long[] keys() {
+    long[] copy = new long[size * 2];
+    int n = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != 0L) {
+        copy[n++] = keys[i * 2];
+        copy[n++] = keys[i * 2 + 1];
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copies the index.
+   *
+   * @return An independent copy
+   */
+  UuidIndex copy() {
+    UuidIndex copy = new UuidIndex(0);
+    copy.keys = keys.clone();
+    copy.values = values.clone();
+    copy.mask = mask;
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Gets the number of entries.
+   *
+   * @return The entry count
+   */
+  int size() {
+    return size;
+  }
+}
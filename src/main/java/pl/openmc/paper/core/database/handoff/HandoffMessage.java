@@ -0,0 +1,160 @@
+package pl.openmc.paper.core.database.handoff;
+
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A message on the handoff channel. The proxy sends a request to the server a
+ * player is leaving, naming the server they switch to; that server answers
+ * with a snapshot of the player's data, which the proxy relays to the target.
+ * Every message starts with its type, the player's UUID and the target server,
+ * written as modified UTF-8 strings, so the proxy can route it without
+ * reading the rest.
+ */
+public final class HandoffMessage {
+  public static final String CHANNEL = "openmc:handoff";
+
+  // Plugin messages the proxy sends to a server may not be larger
+  public static final int MAX_SIZE = 32767;
+
+  private static final String TYPE_REQUEST = "request";
+  private static final String TYPE_SNAPSHOT = "snapshot";
+
+  private final String type;
+  private final UUID playerUUID;
+  private final String target;
+  private final PlayerData snapshot;
+
+  /**
+   * Creates a decoded message.
+   *
+   * @param type       The message type
+   * @param playerUUID The player's UUID
+   * @param target     The server the player switches to
+   * @param snapshot   The snapshot, or null for a request
+   */
+  private HandoffMessage(String type, UUID playerUUID, String target, PlayerData snapshot) {
+    this.type = type;
+    this.playerUUID = playerUUID;
+    this.target = target;
+    this.snapshot = snapshot;
+  }
+
+  /**
+   * Encodes a snapshot of a player's data for the target server.
+   *
+   * @param target     The server the player switches to
+   * @param stamp      The handoff stamp of the snapshot
+   * @param playerData The player's data
+   * @return The encoded message
+   */
+  public static byte[] encodeSnapshot(String target, long stamp, PlayerData playerData) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeUTF(TYPE_SNAPSHOT);
+      out.writeUTF(playerData.getPlayerUUID().toString());
+      out.writeUTF(target);
+      out.writeLong(stamp);
+      out.writeUTF(playerData.getPlayerName() != null ? playerData.getPlayerName() : "");
+      out.writeInt(playerData.getPoints());
+
+      byte[] data = playerData.getEncodedData();
+      out.writeInt(data != null ? data.length : -1);
+      if (data != null) {
+        out.write(data);
+      }
+    } catch (IOException e) {
+      // Cannot happen when writing to memory
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a message. The player data of a snapshot carries its handoff stamp
+   * and has no unsaved changes, as the sending server writes it.
+   *
+   * @param message The encoded message
+   * @return The decoded message
+   * @throws IOException If the message is malformed or of an unknown type
+   */
+  public static HandoffMessage decode(byte[] message) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+      String type = in.readUTF();
+      UUID playerUUID = UUID.fromString(in.readUTF());
+      String target = in.readUTF();
+
+      if (TYPE_REQUEST.equals(type)) {
+        return new HandoffMessage(type, playerUUID, target, null);
+      }
+      if (!TYPE_SNAPSHOT.equals(type)) {
+        throw new IOException("Unknown handoff message type " + type);
+      }
+
+      long stamp = in.readLong();
+      String name = in.readUTF();
+      int points = in.readInt();
+      int length = in.readInt();
+      if (length < -1 || length > message.length) {
+        throw new IOException("Invalid data length " + length);
+      }
+
+      byte[] data = null;
+      if (length >= 0) {
+        data = new byte[length];
+        in.readFully(data);
+      }
+
+      PlayerData snapshot = new PlayerData(playerUUID, name.isEmpty() ? null : name);
+      snapshot.loadPoints(points);
+      snapshot.loadEncodedData(data);
+      snapshot.loadHandoffStamp(stamp);
+      snapshot.markSaved(snapshot.getVersion());
+      return new HandoffMessage(type, playerUUID, target, snapshot);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid player UUID", e);
+    }
+  }
+
+  /**
+   * Checks whether this is a request for a snapshot.
+   *
+   * @return true for a request
+   */
+  public boolean isRequest() {
+    return snapshot == null;
+  }
+
+  /**
+   * Gets the UUID of the switching player.
+   *
+   * @return The player's UUID
+   */
+  public UUID getPlayerUUID() {
+    return playerUUID;
+  }
+
+  /**
+   * Gets the name of the server the player switches to.
+   *
+   * @return The target server
+   */
+  public String getTarget() {
+    return target;
+  }
+
+  /**
+   * Gets the snapshot carried by the message.
+   *
+   * @return The player data, or null for a request
+   */
+  public PlayerData getSnapshot() {
+    return snapshot;
+  }
+}
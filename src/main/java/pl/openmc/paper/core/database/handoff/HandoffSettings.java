@@ -0,0 +1,48 @@
+package pl.openmc.paper.core.database.handoff;
+
+/**
+ * Settings for handing player data between servers behind the proxy.
+ */
+public class HandoffSettings {
+  private boolean enabled = false;
+  private long timeout = 10000L;
+
+  /**
+   * Checks whether player data is handed to the next server when a player
+   * switches servers. Needs the proxy plugin to relay the messages.
+   *
+   * @return true if handoffs are enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Sets whether player data is handed to the next server when a player
+   * switches servers.
+   *
+   * @param enabled true to enable handoffs
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Gets how long a received snapshot stays usable, in milliseconds. Older
+   * snapshots are dropped and the player is loaded from the database.
+   *
+   * @return The timeout
+   */
+  public long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Sets how long a received snapshot stays usable, in milliseconds.
+   *
+   * @param timeout The timeout
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = Math.max(1000L, timeout);
+  }
+}
@@ -0,0 +1,71 @@
+package pl.openmc.paper.core.database.journal;
+
+import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.models.player.PointsState;
+
+import java.util.UUID;
+
+/**
+ * A player snapshot recovered from the journal that the database has not
+ * confirmed.
+ */
+public final class JournalEntry {
+  private final long sequence;
+  private final UUID playerUUID;
+  private final String playerName;
+  private final PointsState points;
+  private final byte[] data;
+
+  /**
+   * Creates a new journal entry.
+   *
+   * @param sequence   The journal sequence number of the snapshot
+   * @param playerUUID The player's UUID
+   * @param playerName The player's name
+   * @param points     The player's unsaved points
+   * @param data       The encoded additional data, or null if there is none
+   */
+  JournalEntry(long sequence, UUID playerUUID, String playerName, PointsState points, byte[] data) {
+    this.sequence = sequence;
+    this.playerUUID = playerUUID;
+    this.playerName = playerName;
+    this.points = points;
+    this.data = data;
+  }
+
+  /**
+   * Gets the journal sequence number, used to confirm the entry once it is
+   * written to the database.
+   *
+   * @return The sequence number
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Gets the player's UUID.
+   *
+   * @return The player's UUID
+   */
+  public UUID getPlayerUUID() {
+    return playerUUID;
+  }
+
+  /**
+   * Rebuilds the player data from the snapshot. The result is dirty, so it is
+   * written on the next save. Unless the points were replaced, they are
+   * written as the deltas the snapshot had not saved, with their tokens, so
+   * points other servers added meanwhile are kept and a delta that did reach
+   * the database is not added again. A delta whose write was in doubt is
+   * written first, so the waiting one needs a second save.
+   *
+   * @return The player data
+   */
+  public PlayerData toPlayerData() {
+    PlayerData playerData = new PlayerData(playerUUID, playerName);
+    playerData.loadPointsState(points);
+    playerData.loadEncodedData(data);
+    return playerData;
+  }
+}
@@ -0,0 +1,66 @@
+package pl.openmc.paper.core.database.journal;
+
+/**
+ * Settings for a {@link PlayerJournal}.
+ */
+public class JournalSettings {
+  private boolean enabled = true;
+  private long segmentSize = 16L * 1024L * 1024L;
+  private boolean fsync = true;
+
+  /**
+   * Checks whether saves are journaled before they are written to the database.
+   *
+   * @return true if the journal is enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Sets whether saves are journaled before they are written to the database.
+   *
+   * @param enabled true to enable the journal
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Gets the size in bytes at which the journal starts a new segment.
+   *
+   * @return The segment size
+   */
+  public long getSegmentSize() {
+    return segmentSize;
+  }
+
+  /**
+   * Sets the size in bytes at which the journal starts a new segment.
+   *
+   * @param segmentSize The segment size
+   */
+  public void setSegmentSize(long segmentSize) {
+    this.segmentSize = Math.max(64L * 1024L, segmentSize);
+  }
+
+  /**
+   * Checks whether each group of records is forced to disk before it counts as
+   * written.
+   *
+   * @return true if writes are synced
+   */
+  public boolean isFsync() {
+    return fsync;
+  }
+
+  /**
+   * Sets whether each group of records is forced to disk before it counts as
+   * written.
+   *
+   * @param fsync true to sync writes
+   */
+  public void setFsync(boolean fsync) {
+    this.fsync = fsync;
+  }
+}
@@ -0,0 +1,641 @@
+package pl.openmc.paper.core.database.journal;
+
+import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.models.player.PointsState;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of player snapshots, kept until the database confirms
+ * them.
+ * Records are appended to numbered segment files by a single writer thread,
+ * which writes everything queued in one gathering write followed by one sync
+ * (group commit). Every record carries a CRC32, so a torn tail is detected and
+ * cut off on replay. Closed segments are compacted in the background: the
+ * snapshots in them that are still unconfirmed are appended again and the old
+ * segment is deleted.
+ */
+public class PlayerJournal {
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final byte TYPE_SNAPSHOT = 1;
+  private static final byte TYPE_CONFIRM = 2;
+  private static final int HEADER_SIZE = 8;
+  private static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+  private static final long CLOSE_TIMEOUT = 5;
+  private static final long UNWRITTEN = -1L;
+
+  // Queued to stop the writer after everything before it is written
+  private static final Pending CLOSE_MARKER = new Pending(new byte[0], null, null);
+
+  private final File directory;
+  private final JournalSettings settings;
+  private final LoggerUtil logger;
+
+  // Journal state
+  private final LinkedBlockingQueue<Pending> queue;
+  private final Map<UUID, LiveEntry> live;
+  private final AtomicLong sequence;
+  private final ExecutorService compactor;
+  private Thread writer;
+  private volatile boolean open;
+
+  // Owned by the writer thread once the journal is open
+  private FileChannel channel;
+  private long segmentId;
+  private long segmentBytes;
+
+  /**
+   * Creates a new journal. Nothing is read or written until {@link #open()} is
+   * called.
+   *
+   * @param directory The directory holding the segment files
+   * @param settings  The journal settings
+   * @param logger    The plugin logger
+   */
+  public PlayerJournal(File directory, JournalSettings settings, LoggerUtil logger) {
+    this.directory = directory;
+    this.settings = settings;
+    this.logger = logger;
+    this.queue = new LinkedBlockingQueue<>();
+    this.live = new ConcurrentHashMap<>();
+    this.sequence = new AtomicLong();
+    this.compactor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Journal-Compactor");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Replays the existing segments, starts a new segment and starts the writer.
+   *
+   * @return The snapshots the database never confirmed, newest per player
+   * @throws IOException If the journal directory cannot be read or written
+   */
+  public synchronized List<JournalEntry> open() throws IOException {
+    if (open) {
+      throw new IllegalStateException("Journal is already open");
+    }
+
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Cannot create journal directory " + directory);
+    }
+
+    // Replay every segment in order
+    List<Long> segments = listSegments();
+    Map<UUID, Replayed> snapshots = new HashMap<>();
+    Map<UUID, Long> confirmed = new HashMap<>();
+    long maxSequence = 0;
+    for (long segment : segments) {
+      maxSequence = Math.max(maxSequence, replay(segment, snapshots, confirmed));
+    }
+    sequence.set(maxSequence);
+
+    // Anything newer than its last confirmation still has to reach the database
+    List<JournalEntry> pending = new ArrayList<>();
+    for (Map.Entry<UUID, Replayed> entry : snapshots.entrySet()) {
+      Replayed replayed = entry.getValue();
+      Long confirmedUpTo = confirmed.get(entry.getKey());
+      if (confirmedUpTo == null || confirmedUpTo < replayed.entry.getSequence()) {
+        pending.add(replayed.entry);
+        live.put(entry.getKey(), new LiveEntry(replayed.entry.getSequence(), replayed.record, replayed.segment));
+      }
+    }
+
+    // Always write to a fresh segment, so old ones can be compacted away
+    this.segmentId = segments.isEmpty() ? 1L : segments.get(segments.size() - 1) + 1L;
+    openSegment();
+
+    this.open = true;
+    this.writer = new Thread(this::run, "Journal-Writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+
+    for (long segment : segments) {
+      scheduleCompaction(segment);
+    }
+
+    if (!pending.isEmpty()) {
+      logger.warning("Journal replay found " + pending.size() + " player snapshot(s) not confirmed by the database");
+    }
+    return pending;
+  }
+
+  /**
+   * Appends a snapshot of a player. The record is written by the next group
+   * commit; the caller does not wait for it.
+   *
+   * @param playerData The player data to snapshot
+   * @return The sequence number to confirm once the database write succeeded,
+   *         or -1 if the journal is not open
+   */
+  public long append(PlayerData playerData) {
+    if (!open) {
+      return -1L;
+    }
+
+    long snapshotSequence = sequence.incrementAndGet();
+    LiveEntry entry = new LiveEntry(snapshotSequence, snapshotRecord(snapshotSequence, playerData), UNWRITTEN);
+    live.merge(playerData.getPlayerUUID(), entry, (current, added) -> added.sequence > current.sequence
+        ? added
+        : current);
+    queue.offer(new Pending(entry.record, entry, null));
+    return snapshotSequence;
+  }
+
+  /**
+   * Records that the database holds a player's data at least as new as the
+   * given snapshot, so the snapshot is not replayed.
+   *
+   * @param playerUUID       The player's UUID
+   * @param snapshotSequence The confirmed sequence number
+   */
+  public void confirm(UUID playerUUID, long snapshotSequence) {
+    if (!open || snapshotSequence < 0) {
+      return;
+    }
+
+    live.computeIfPresent(playerUUID, (uuid, entry) -> entry.sequence <= snapshotSequence ? null : entry);
+    queue.offer(new Pending(confirmRecord(snapshotSequence, playerUUID), null, null));
+  }
+
+  /**
+   * Stops compaction, writes everything queued and closes the current segment.
+   * Snapshots that are still unconfirmed are replayed on the next open.
+   */
+  public synchronized void close() {
+    if (!open) {
+      return;
+    }
+    this.open = false;
+
+    try {
+      compactor.shutdown();
+      compactor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+
+      queue.offer(CLOSE_MARKER);
+      writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (writer.isAlive()) {
+      logger.warning("Journal writer did not stop in time");
+      return;
+    }
+
+    try {
+      channel.force(false);
+      channel.close();
+    } catch (IOException e) {
+      logger.warning("Failed to close journal segment: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Checks whether the journal is open.
+   *
+   * @return true if open
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * Gets the number of players with a snapshot the database has not confirmed.
+   *
+   * @return The unconfirmed snapshot count
+   */
+  public int getUnconfirmedCount() {
+    return live.size();
+  }
+
+  /**
+   * Writer loop performing group commits.
+   */
+  private void run() {
+    List<Pending> group = new ArrayList<>();
+
+    while (true) {
+      try {
+        group.add(queue.take());
+      } catch (InterruptedException e) {
+        continue;
+      }
+      queue.drainTo(group);
+
+      boolean closing = group.removeIf(pending -> pending == CLOSE_MARKER);
+      if (!group.isEmpty()) {
+        write(group);
+        group.clear();
+      }
+
+      if (closing) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Writes a group of records with one gathering write and one sync.
+   *
+   * @param group The records to write
+   */
+  private void write(List<Pending> group) {
+    try {
+      if (segmentBytes >= settings.getSegmentSize()) {
+        rollSegment();
+      }
+
+      ByteBuffer[] buffers = new ByteBuffer[group.size()];
+      long total = 0;
+      for (int i = 0; i < buffers.length; i++) {
+        buffers[i] = ByteBuffer.wrap(group.get(i).record);
+        total += buffers[i].remaining();
+      }
+
+      long written = 0;
+      while (written < total) {
+        written += channel.write(buffers);
+      }
+      segmentBytes += total;
+
+      if (settings.isFsync()) {
+        channel.force(false);
+      }
+
+      for (Pending pending : group) {
+        if (pending.entry != null) {
+          pending.entry.segment = segmentId;
+        }
+        if (pending.future != null) {
+          pending.future.complete(null);
+        }
+      }
+    } catch (IOException e) {
+      logger.severe("Failed to write " + group.size() + " journal record(s): " + e.getMessage());
+      for (Pending pending : group) {
+        if (pending.future != null) {
+          pending.future.completeExceptionally(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes the current segment, starts the next one and schedules the closed
+   * segment for compaction.
+   *
+   * @throws IOException If the segments cannot be switched
+   */
+  private void rollSegment() throws IOException {
+    channel.force(false);
+    channel.close();
+
+    long closed = segmentId;
+    this.segmentId = closed + 1L;
+    openSegment();
+    scheduleCompaction(closed);
+  }
+
+  /**
+   * Opens the current segment for appending.
+   *
+   * @throws IOException If the segment cannot be opened
+   */
+  private void openSegment() throws IOException {
+    this.channel = FileChannel.open(segmentPath(segmentId), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    this.segmentBytes = channel.size();
+  }
+
+  /**
+   * Queues a closed segment for compaction.
+   *
+   * @param segment The segment id
+   */
+  private void scheduleCompaction(long segment) {
+    try {
+      compactor.execute(() -> compact(segment));
+    } catch (RejectedExecutionException e) {
+      // Closing; every segment left behind is compacted after the next open
+    }
+  }
+
+  /**
+   * Moves the unconfirmed snapshots out of a closed segment and deletes it.
+   * A snapshot confirmed while it was being moved may have its confirmation
+   * written before the copy, into a segment deleted before the copy's, so it
+   * is confirmed again after the copy.
+   *
+   * @param segment The segment id
+   */
+  private void compact(long segment) {
+    Map<UUID, LiveEntry> moved = new HashMap<>();
+    List<CompletableFuture<Void>> written = new ArrayList<>();
+    for (Map.Entry<UUID, LiveEntry> entry : live.entrySet()) {
+      if (entry.getValue().segment == segment) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        queue.offer(new Pending(entry.getValue().record, entry.getValue(), future));
+        moved.put(entry.getKey(), entry.getValue());
+        written.add(future);
+      }
+    }
+
+    try {
+      CompletableFuture.allOf(written.toArray(new CompletableFuture[0])).join();
+
+      written.clear();
+      for (Map.Entry<UUID, LiveEntry> entry : moved.entrySet()) {
+        if (live.get(entry.getKey()) != entry.getValue()) {
+          CompletableFuture<Void> future = new CompletableFuture<>();
+          queue.offer(new Pending(confirmRecord(entry.getValue().sequence, entry.getKey()), null, future));
+          written.add(future);
+        }
+      }
+      CompletableFuture.allOf(written.toArray(new CompletableFuture[0])).join();
+
+      Files.deleteIfExists(segmentPath(segment));
+    } catch (IOException | RuntimeException e) {
+      logger.warning("Failed to compact journal segment " + segment + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Lists the segment ids in the journal directory in ascending order.
+   *
+   * @return The segment ids
+   */
+  private List<Long> listSegments() {
+    List<Long> segments = new ArrayList<>();
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        try {
+          segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          logger.warning("Ignoring unexpected file in journal directory: " + name);
+        }
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  /**
+   * Reads the records of a segment. A record with a bad length or checksum ends
+   * the segment, and the segment is truncated there.
+   *
+   * @param segment   The segment id
+   * @param snapshots The newest snapshot per player, updated in place
+   * @param confirmed The highest confirmed sequence per player, updated in
+   *                  place
+   * @return The highest sequence number found
+   * @throws IOException If the segment cannot be read
+   */
+  private long replay(long segment, Map<UUID, Replayed> snapshots, Map<UUID, Long> confirmed) throws IOException {
+    Path path = segmentPath(segment);
+    byte[] bytes = Files.readAllBytes(path);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    CRC32 crc = new CRC32();
+    long maxSequence = 0;
+
+    while (buffer.remaining() > 0) {
+      int start = buffer.position();
+      if (buffer.remaining() < HEADER_SIZE) {
+        truncate(path, start, bytes.length);
+        break;
+      }
+
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length <= 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+        truncate(path, start, bytes.length);
+        break;
+      }
+
+      crc.reset();
+      crc.update(bytes, start + HEADER_SIZE, length);
+      if ((int) crc.getValue() != checksum) {
+        truncate(path, start, bytes.length);
+        break;
+      }
+
+      ByteBuffer body = ByteBuffer.wrap(bytes, start + HEADER_SIZE, length);
+      byte type = body.get();
+      long recordSequence = body.getLong();
+      UUID uuid = new UUID(body.getLong(), body.getLong());
+      maxSequence = Math.max(maxSequence, recordSequence);
+
+      if (type == TYPE_SNAPSHOT) {
+        Replayed current = snapshots.get(uuid);
+        if (current == null || current.entry.getSequence() < recordSequence) {
+          byte[] record = new byte[HEADER_SIZE + length];
+          System.arraycopy(bytes, start, record, 0, record.length);
+          snapshots.put(uuid, new Replayed(readSnapshot(recordSequence, uuid, body), record, segment));
+        }
+      } else if (type == TYPE_CONFIRM) {
+        confirmed.merge(uuid, recordSequence, Math::max);
+      }
+
+      buffer.position(start + HEADER_SIZE + length);
+    }
+
+    return maxSequence;
+  }
+
+  /**
+   * Cuts a torn or corrupt tail off a segment.
+   *
+   * @param path     The segment path
+   * @param position The offset of the first bad record
+   * @param size     The size of the segment
+   * @throws IOException If the segment cannot be truncated
+   */
+  private void truncate(Path path, int position, int size) throws IOException {
+    logger.warning("Journal segment " + path.getFileName() + " has a damaged tail, discarding "
+        + (size - position) + " byte(s)");
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      file.truncate(position);
+    }
+  }
+
+  /**
+   * Gets the path of a segment file.
+   *
+   * @param segment The segment id
+   * @return The segment path
+   */
+  private Path segmentPath(long segment) {
+    return new File(directory, String.format("%020d%s", segment, SEGMENT_SUFFIX)).toPath();
+  }
+
+  /**
+   * Builds a snapshot record. The points are journaled as their unsaved
+   * state rather than the total, so a replay adds what is missing instead of
+   * overwriting the stored points.
+   *
+   * @param snapshotSequence The sequence number
+   * @param playerData       The player data
+   * @return The encoded record
+   */
+  private static byte[] snapshotRecord(long snapshotSequence, PlayerData playerData) {
+    String playerName = playerData.getPlayerName();
+    byte[] name = (playerName != null ? playerName : "").getBytes(StandardCharsets.UTF_8);
+    byte[] data = playerData.getEncodedData();
+    PointsState points = playerData.getPointsState();
+
+    int length = 1 + 8 + 16 + 4 + 1 + 4 + 8 + 4 + 8 + 2 + name.length + 4 + (data != null ? data.length : 0);
+    ByteBuffer record = header(length, TYPE_SNAPSHOT, snapshotSequence, playerData.getPlayerUUID());
+    record.putInt(points.getTotal());
+    record.put((byte) (points.isReplaced() ? 1 : 0));
+    record.putInt(points.getDelta());
+    record.putLong(points.getDeltaToken());
+    record.putInt(points.getUnconfirmedDelta());
+    record.putLong(points.getUnconfirmedToken());
+    record.putShort((short) name.length);
+    record.put(name);
+    record.putInt(data != null ? data.length : -1);
+    if (data != null) {
+      record.put(data);
+    }
+    return seal(record);
+  }
+
+  /**
+   * Builds a confirmation record.
+   *
+   * @param snapshotSequence The confirmed sequence number
+   * @param playerUUID       The player's UUID
+   * @return The encoded record
+   */
+  private static byte[] confirmRecord(long snapshotSequence, UUID playerUUID) {
+    return seal(header(1 + 8 + 16, TYPE_CONFIRM, snapshotSequence, playerUUID));
+  }
+
+  /**
+   * Allocates a record and writes the fields shared by all record types.
+   *
+   * @param length         The length of the record body
+   * @param type           The record type
+   * @param recordSequence The sequence number
+   * @param playerUUID     The player's UUID
+   * @return The record buffer positioned after the shared fields
+   */
+  private static ByteBuffer header(int length, byte type, long recordSequence, UUID playerUUID) {
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+    record.putInt(length);
+    record.putInt(0);
+    record.put(type);
+    record.putLong(recordSequence);
+    record.putLong(playerUUID.getMostSignificantBits());
+    record.putLong(playerUUID.getLeastSignificantBits());
+    return record;
+  }
+
+  /**
+   * Fills in the checksum of a record.
+   *
+   * @param record The complete record
+   * @return The record bytes
+   */
+  private static byte[] seal(ByteBuffer record) {
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), HEADER_SIZE, record.capacity() - HEADER_SIZE);
+    record.putInt(4, (int) crc.getValue());
+    return record.array();
+  }
+
+  /**
+   * Reads the body of a snapshot record after the shared fields.
+   *
+   * @param snapshotSequence The sequence number
+   * @param playerUUID       The player's UUID
+   * @param body             The record body
+   * @return The journal entry
+   */
+  private static JournalEntry readSnapshot(long snapshotSequence, UUID playerUUID, ByteBuffer body) {
+    PointsState points = new PointsState(body.getInt(), body.get() != 0, body.getInt(), body.getLong(),
+        body.getInt(), body.getLong());
+    byte[] name = new byte[body.getShort() & 0xFFFF];
+    body.get(name);
+
+    int dataLength = body.getInt();
+    byte[] data = null;
+    if (dataLength >= 0) {
+      data = new byte[dataLength];
+      body.get(data);
+    }
+
+    return new JournalEntry(snapshotSequence, playerUUID, new String(name, StandardCharsets.UTF_8), points, data);
+  }
+
+  /**
+   * The newest unconfirmed snapshot of a player.
+   */
+  private static final class LiveEntry {
+    private final long sequence;
+    private final byte[] record;
+    private volatile long segment;
+
+    private LiveEntry(long sequence, byte[] record, long segment) {
+      this.sequence = sequence;
+      this.record = record;
+      this.segment = segment;
+    }
+  }
+
+  /**
+   * A snapshot read during replay.
+   */
+  private static final class Replayed {
+    private final JournalEntry entry;
+    private final byte[] record;
+    private final long segment;
+
+    private Replayed(JournalEntry entry, byte[] record, long segment) {
+      this.entry = entry;
+      this.record = record;
+      this.segment = segment;
+    }
+  }
+
+  /**
+   * A record waiting for the writer.
+   */
+  private static final class Pending {
+    private final byte[] record;
+    private final LiveEntry entry;
+    private final CompletableFuture<Void> future;
+
+    private Pending(byte[] record, LiveEntry entry, CompletableFuture<Void> future) {
+      this.record = record;
+      this.entry = entry;
+      this.future = future;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package pl.openmc.paper.core.database.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets.
+ * Values are recorded in microseconds. Values below 16 us get a bucket each;
+ * above that every power of two is split into eight buckets, so percentiles are
+ * accurate to within about 12% while the whole histogram stays a few kilobytes.
+ */
+public class LatencyHistogram {
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+  private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets;
+  private final AtomicLong count;
+  private final AtomicLong totalMicros;
+  private final AtomicLong maxMicros;
+
+  /**
+   * Creates an empty histogram.
+   */
+  public LatencyHistogram() {
+    this.buckets = new AtomicLongArray(BUCKET_COUNT);
+    this.count = new AtomicLong();
+    this.totalMicros = new AtomicLong();
+    this.maxMicros = new AtomicLong();
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos The duration in nanoseconds
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+    buckets.incrementAndGet(bucketOf(micros));
+    count.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    maxMicros.accumulateAndGet(micros, Math::max);
+  }
+
+  /**
+   * Gets the number of recorded values.
+   *
+   * @return The count
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the sum of the recorded values in microseconds.
+   *
+   * @return The total
+   */
+  public long getTotalMicros() {
+    return totalMicros.get();
+  }
+
+  /**
+   * Gets the mean of the recorded values in microseconds.
+   *
+   * @return The mean, or 0 if nothing was recorded
+   */
+  public double getMeanMicros() {
+    long recorded = count.get();
+    return recorded > 0 ? (double) totalMicros.get() / recorded : 0.0;
+  }
+
+  /**
+   * Gets the largest recorded value in microseconds.
+   *
+   * @return The maximum
+   */
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  /**
+   * Gets an estimate of a percentile in microseconds.
+   *
+   * @param percentile The percentile between 0 and 100
+   * @return The estimated value, or 0 if nothing was recorded
+   */
+  public long getPercentileMicros(double percentile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long recorded = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+      recorded += counts[i];
+    }
+    if (recorded == 0) {
+      return 0L;
+    }
+
+    long rank = Math.max(1L, (long) Math.ceil(recorded * Math.min(100.0, Math.max(0.0, percentile)) / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      buckets.set(i, 0L);
+    }
+    count.set(0L);
+    totalMicros.set(0L);
+    maxMicros.set(0L);
+  }
+
+  /**
+   * Gets the bucket holding a value.
+   *
+   * @param micros The value in microseconds
+   * @return The bucket index
+   */
+  private static int bucketOf(long micros) {
+    if (micros < LINEAR_BUCKETS) {
+      return (int) micros;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Gets the largest value that falls into a bucket.
+   *
+   * @param bucket The bucket index
+   * @return The upper bound in microseconds
+   */
+  private static long upperBoundOf(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+
+    int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+    int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return ((long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+  }
+}
@@ -0,0 +1,96 @@
+package pl.openmc.paper.core.database.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings of one normalized SQL statement.
+ */
+public class QueryStats {
+  private final String sql;
+  private final LatencyHistogram latency;
+  private final AtomicLong errors;
+  private final AtomicLong slow;
+
+  /**
+   * Creates empty statistics for a statement.
+   *
+   * @param sql The normalized SQL
+   */
+  QueryStats(String sql) {
+    this.sql = sql;
+    this.latency = new LatencyHistogram();
+    this.errors = new AtomicLong();
+    this.slow = new AtomicLong();
+  }
+
+  /**
+   * Records one execution.
+   *
+   * @param nanos   The execution time in nanoseconds
+   * @param success false if the execution failed
+   * @param wasSlow true if it exceeded the slow query threshold
+   */
+  void record(long nanos, boolean success, boolean wasSlow) {
+    latency.record(nanos);
+    if (!success) {
+      errors.incrementAndGet();
+    }
+    if (wasSlow) {
+      slow.incrementAndGet();
+    }
+  }
+
+  /**
+   * Clears the recorded executions.
+   */
+  void reset() {
+    latency.reset();
+    errors.set(0L);
+    slow.set(0L);
+  }
+
+  /**
+   * Gets the normalized SQL.
+   *
+   * @return The SQL
+   */
+  public String getSql() {
+    return sql;
+  }
+
+  /**
+   * Gets the execution time histogram.
+   *
+   * @return The latency histogram
+   */
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Gets the number of executions.
+   *
+   * @return The execution count
+   */
+  public long getCount() {
+    return latency.getCount();
+  }
+
+  /**
+   * Gets the number of failed executions.
+   *
+   * @return The error count
+   */
+  public long getErrors() {
+    return errors.get();
+  }
+
+  /**
+   * Gets the number of executions above the slow query threshold.
+   *
+   * @return The slow execution count
+   */
+  public long getSlowCount() {
+    return slow.get();
+  }
+}
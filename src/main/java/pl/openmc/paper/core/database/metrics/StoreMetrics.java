@@ -0,0 +1,268 @@
+package pl.openmc.paper.core.database.metrics;
+
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Timings of the statements run by a store, grouped by normalized SQL.
+ * Literals are replaced with placeholders before grouping, so a statement
+ * built by string concatenation lands in the same group as its prepared form.
+ * Executions slower than the configured threshold are logged. Point-in-time
+ * values such as queue depths are exposed as named gauges.
+ */
+public class StoreMetrics {
+  private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+  private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  // Statements beyond this many distinct groups are counted together, so
+  // queries with unusual literals cannot grow the map without bound
+  private static final int MAX_STATEMENTS = 512;
+  private static final String OTHER_STATEMENTS = "(other statements)";
+
+  private final String storeName;
+  private final LoggerUtil logger;
+  private final long slowThresholdNanos;
+  private final Map<String, QueryStats> queries;
+  private final LatencyHistogram queueWait;
+  private final Map<String, LongSupplier> gauges;
+  private volatile long since;
+
+  /**
+   * Creates empty metrics.
+   *
+   * @param storeName          The store name used in logs
+   * @param slowQueryThreshold The time in milliseconds above which executions
+   *                           are logged (0 disables the log)
+   * @param logger             The plugin logger
+   */
+  public StoreMetrics(String storeName, long slowQueryThreshold, LoggerUtil logger) {
+    this.storeName = storeName;
+    this.logger = logger;
+    this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThreshold);
+    this.queries = new ConcurrentHashMap<>();
+    this.queueWait = new LatencyHistogram();
+    this.gauges = new LinkedHashMap<>();
+    this.since = System.currentTimeMillis();
+  }
+
+  /**
+   * Replaces string and number literals with placeholders and collapses
+   * whitespace.
+   *
+   * @param sql The SQL
+   * @return The normalized SQL
+   */
+  public static String normalize(String sql) {
+    String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+    normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+    return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+  }
+
+  /**
+   * Records an execution of a parameterized statement, which is grouped as is.
+   *
+   * @param sql     The SQL of the statement
+   * @param nanos   The execution time in nanoseconds
+   * @param success false if the execution failed
+   */
+  public void record(String sql, long nanos, boolean success) {
+    QueryStats stats = queries.get(sql);
+    if (stats == null) {
+      String key = queries.size() < MAX_STATEMENTS ? sql : OTHER_STATEMENTS;
+      stats = queries.computeIfAbsent(key, QueryStats::new);
+    }
+
+    boolean slow = slowThresholdNanos > 0 && nanos >= slowThresholdNanos;
+    stats.record(nanos, success, slow);
+
+    if (slow) {
+      logger.warning(storeName + " query took " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms"
+          + (success ? "" : " and failed") + ": " + sql);
+    }
+  }
+
+  /**
+   * Records an execution of a statement that may contain literals.
+   *
+   * @param sql     The SQL of the statement
+   * @param nanos   The execution time in nanoseconds
+   * @param success false if the execution failed
+   */
+  public void recordRaw(String sql, long nanos, boolean success) {
+    record(normalize(sql), nanos, success);
+  }
+
+  /**
+   * Records how long a task waited before a thread picked it up.
+   *
+   * @param nanos The wait time in nanoseconds
+   */
+  public void recordQueueWait(long nanos) {
+    queueWait.record(nanos);
+  }
+
+  /**
+   * Gets the statistics of every statement, the most time consuming first.
+   *
+   * @return The statement statistics
+   */
+  public List<QueryStats> getQueryStats() {
+    List<QueryStats> stats = new ArrayList<>(queries.values());
+    stats.sort(Comparator.comparingLong((QueryStats entry) -> entry.getLatency().getTotalMicros()).reversed());
+    return stats;
+  }
+
+  /**
+   * Gets the histogram of queue wait times.
+   *
+   * @return The queue wait histogram
+   */
+  public LatencyHistogram getQueueWait() {
+    return queueWait;
+  }
+
+  /**
+   * Registers a gauge read whenever the metrics are shown or exported.
+   *
+   * @param name  The gauge name
+   * @param value The supplier of the current value
+   */
+  public synchronized void registerGauge(String name, LongSupplier value) {
+    gauges.put(name, value);
+  }
+
+  /**
+   * Reads every gauge.
+   *
+   * @return The current gauge values in registration order
+   */
+  public synchronized Map<String, Long> getGauges() {
+    Map<String, Long> values = new LinkedHashMap<>();
+    gauges.forEach((name, value) -> values.put(name, value.getAsLong()));
+    return values;
+  }
+
+  /**
+   * Gets when the metrics were created or last reset.
+   *
+   * @return The time in epoch milliseconds
+   */
+  public long getSince() {
+    return since;
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    queries.clear();
+    queueWait.reset();
+    this.since = System.currentTimeMillis();
+  }
+
+  /**
+   * Exports the metrics as JSON for dashboards. Times are in microseconds.
+   *
+   * @return The JSON document
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder(1024);
+    json.append("{\"store\":").append(quote(storeName))
+        .append(",\"since\":").append(since)
+        .append(",\"exportedAt\":").append(System.currentTimeMillis())
+        .append(",\"queueWait\":");
+    appendHistogram(json, queueWait);
+
+    json.append(",\"gauges\":{");
+    boolean firstGauge = true;
+    for (Map.Entry<String, Long> gauge : getGauges().entrySet()) {
+      if (!firstGauge) {
+        json.append(',');
+      }
+      firstGauge = false;
+      json.append(quote(gauge.getKey())).append(':').append(gauge.getValue());
+    }
+    json.append("},\"queries\":[");
+
+    boolean first = true;
+    for (QueryStats stats : getQueryStats()) {
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+
+      json.append("{\"sql\":").append(quote(stats.getSql()))
+          .append(",\"errors\":").append(stats.getErrors())
+          .append(",\"slow\":").append(stats.getSlowCount())
+          .append(",\"latency\":");
+      appendHistogram(json, stats.getLatency());
+      json.append('}');
+    }
+
+    return json.append("]}").toString();
+  }
+
+  /**
+   * Appends the summary of a histogram as a JSON object.
+   *
+   * @param json      The output
+   * @param histogram The histogram
+   */
+  private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+    json.append("{\"count\":").append(histogram.getCount())
+        .append(",\"total\":").append(histogram.getTotalMicros())
+        .append(",\"mean\":").append(Math.round(histogram.getMeanMicros()))
+        .append(",\"p50\":").append(histogram.getPercentileMicros(50))
+        .append(",\"p95\":").append(histogram.getPercentileMicros(95))
+        .append(",\"p99\":").append(histogram.getPercentileMicros(99))
+        .append(",\"max\":").append(histogram.getMaxMicros())
+        .append('}');
+  }
+
+  /**
+   * Quotes a string for JSON.
+   *
+   * @param value The string
+   * @return The quoted string
+   */
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          quoted.append("\\\"");
+          break;
+        case '\\':
+          quoted.append("\\\\");
+          break;
+        case '\n':
+          quoted.append("\\n");
+          break;
+        case '\r':
+          quoted.append("\\r");
+          break;
+        case '\t':
+          quoted.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,64 @@
+package pl.openmc.paper.core.database.migration;
+
+/**
+ * Settings for the {@link LegacyPlayerImporter}.
+ */
+public class LegacyImportSettings {
+  private boolean enabled = true;
+  private int threads = 4;
+  private int batchSize = 500;
+
+  /**
+   * Checks whether legacy player files are imported at startup.
+   *
+   * @return true if the import is enabled
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Sets whether legacy player files are imported at startup.
+   *
+   * @param enabled true to enable the import
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Gets the number of threads parsing and writing files.
+   *
+   * @return The thread count
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Sets the number of threads parsing and writing files.
+   *
+   * @param threads The thread count
+   */
+  public void setThreads(int threads) {
+    this.threads = Math.max(1, Math.min(16, threads));
+  }
+
+  /**
+   * Gets the number of players written per transaction.
+   *
+   * @return The batch size
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Sets the number of players written per transaction.
+   *
+   * @param batchSize The batch size
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+  }
+}
@@ -0,0 +1,408 @@
+package pl.openmc.paper.core.database.migration;
+
+import org.bukkit.Bukkit;
+import pl.openmc.paper.core.database.PlayerDataStore;
+import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One-shot background import of the legacy playerdata/*.properties files.
+ * A producer lists the directory into a bounded queue, worker threads parse
+ * the files and insert them in batched transactions, and every file whose
+ * batch was committed is renamed to *.migrated. An interrupted import
+ * continues with the remaining files on the next start.
+ */
+public class LegacyPlayerImporter {
+  private static final String LEGACY_SUFFIX = ".properties";
+  private static final String MIGRATED_SUFFIX = ".migrated";
+  private static final String INVALID_SUFFIX = ".invalid";
+  private static final String NAME_HEADER = "#Player data for ";
+  private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+  private static final Path END_OF_FILES = Path.of("");
+
+  private final Path folder;
+  private final PlayerDataStore playerDataStore;
+  private final LegacyImportSettings settings;
+  private final LoggerUtil logger;
+
+  // Progress state
+  private final AtomicLong imported;
+  private final AtomicLong skipped;
+  private final AtomicLong failed;
+  private final AtomicLong lastReport;
+  private volatile boolean running;
+  private volatile boolean stopped;
+  private ExecutorService workers;
+
+  /**
+   * Creates a new importer.
+   *
+   * @param folder          The legacy playerdata folder
+   * @param playerDataStore The store receiving the players
+   * @param settings        The import settings
+   * @param logger          The plugin logger
+   */
+  public LegacyPlayerImporter(Path folder, PlayerDataStore playerDataStore, LegacyImportSettings settings,
+      LoggerUtil logger) {
+    this.folder = folder;
+    this.playerDataStore = playerDataStore;
+    this.settings = settings;
+    this.logger = logger;
+    this.imported = new AtomicLong();
+    this.skipped = new AtomicLong();
+    this.failed = new AtomicLong();
+    this.lastReport = new AtomicLong();
+  }
+
+  /**
+   * Starts the import on a background thread. Does nothing if there are no
+   * legacy files left.
+   *
+   * @return A CompletableFuture that will be completed with the number of
+   *         players inserted
+   */
+  public synchronized CompletableFuture<Long> start() {
+    CompletableFuture<Long> future = new CompletableFuture<>();
+
+    int total;
+    try {
+      total = countFiles();
+    } catch (IOException e) {
+      logger.severe("Cannot list legacy player data files: " + e.getMessage());
+      future.completeExceptionally(e);
+      return future;
+    }
+
+    if (total == 0) {
+      future.complete(0L);
+      return future;
+    }
+
+    this.running = true;
+    AtomicInteger threadCounter = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(settings.getThreads(), task -> {
+      Thread thread = new Thread(task, "Legacy-Import-" + threadCounter.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    Thread coordinator = new Thread(() -> {
+      try {
+        run(total);
+        future.complete(imported.get());
+      } catch (Exception e) {
+        logger.severe("Legacy player data import failed: " + e.getMessage());
+        future.completeExceptionally(e);
+      } finally {
+        this.running = false;
+      }
+    }, "Legacy-Import");
+    coordinator.setDaemon(true);
+    coordinator.start();
+
+    return future;
+  }
+
+  /**
+   * Checks whether the import is still running. While it is, players missing
+   * from the database may still have a legacy file.
+   *
+   * @return true if the import is running
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Reads the legacy file of a player who joined before the import reached
+   * them. The file is left for the import, which will skip it because the
+   * player's own save creates the row first.
+   *
+   * @param uuid The player's UUID
+   * @param name The player's name
+   * @return The imported data, or null if the import finished or the player
+   *         has no legacy file
+   */
+  public PlayerData claim(UUID uuid, String name) {
+    if (!running) {
+      return null;
+    }
+
+    // The file may have been renamed between the database read and now
+    for (String suffix : new String[] { LEGACY_SUFFIX, MIGRATED_SUFFIX }) {
+      Path file = folder.resolve(uuid + suffix);
+      try {
+        PlayerData playerData = parse(file, uuid);
+        if (name != null) {
+          playerData.setPlayerName(name);
+        }
+        logger.info("Loaded legacy player data for " + playerData.getPlayerName() + " ahead of the import");
+        return playerData;
+      } catch (NoSuchFileException e) {
+        // Try the next name
+      } catch (IOException | IllegalArgumentException e) {
+        logger.warning("Failed to read legacy player data for " + name + ": " + e.getMessage());
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stops the import. Files of batches that were not committed stay in place
+   * and are imported on the next start.
+   */
+  public synchronized void stop() {
+    this.stopped = true;
+    if (workers != null) {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Feeds the legacy files to the workers and waits for them to finish.
+   *
+   * @param total The number of files found
+   * @throws IOException          If the folder cannot be listed
+   * @throws InterruptedException If the import was stopped
+   */
+  private void run(int total) throws IOException, InterruptedException {
+    int threads = settings.getThreads();
+    BlockingQueue<Path> files = new LinkedBlockingQueue<>(threads * settings.getBatchSize() * 2);
+    long start = System.nanoTime();
+    lastReport.set(start);
+
+    logger.info("Importing " + total + " legacy player data file(s) on " + threads + " thread(s)...");
+    for (int i = 0; i < threads; i++) {
+      workers.execute(() -> work(files, total, start));
+    }
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + LEGACY_SUFFIX)) {
+      for (Path file : stream) {
+        if (!feed(files, file)) {
+          break;
+        }
+      }
+    } finally {
+      for (int i = 0; i < threads; i++) {
+        if (!feed(files, END_OF_FILES)) {
+          break;
+        }
+      }
+      workers.shutdown();
+    }
+
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    logger.info("Legacy player data import " + (stopped ? "stopped" : "finished") + " in " + elapsed + " ms: "
+        + imported.get() + " imported, " + skipped.get() + " already in the database, " + failed.get()
+        + " failed");
+  }
+
+  /**
+   * Hands a file to the workers, waiting while the queue is full.
+   *
+   * @param files The queue of files
+   * @param file  The file to hand over
+   * @return false if the import was stopped before the file was queued
+   * @throws InterruptedException If the thread was interrupted
+   */
+  private boolean feed(BlockingQueue<Path> files, Path file) throws InterruptedException {
+    while (!files.offer(file, 100, TimeUnit.MILLISECONDS)) {
+      if (stopped) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses files from the queue and writes them in batches until the end
+   * marker is taken.
+   *
+   * @param files The queue of files
+   * @param total The number of files found, for progress reports
+   * @param start The {@link System#nanoTime()} at which the import started
+   */
+  private void work(BlockingQueue<Path> files, int total, long start) {
+    List<Path> batchFiles = new ArrayList<>(settings.getBatchSize());
+    List<PlayerData> batch = new ArrayList<>(settings.getBatchSize());
+
+    try {
+      while (!stopped) {
+        Path file = files.take();
+        if (file == END_OF_FILES) {
+          break;
+        }
+
+        try {
+          batch.add(parse(file, null));
+          batchFiles.add(file);
+        } catch (NoSuchFileException e) {
+          // Removed by an administrator while the import was running
+        } catch (IOException | IllegalArgumentException e) {
+          logger.warning("Invalid legacy player data file " + file.getFileName() + ": " + e.getMessage());
+          rename(file, INVALID_SUFFIX);
+          failed.incrementAndGet();
+        }
+
+        if (batch.size() >= settings.getBatchSize()) {
+          write(batch, batchFiles, total, start);
+        }
+      }
+
+      if (!stopped && !batch.isEmpty()) {
+        write(batch, batchFiles, total, start);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Inserts a batch and marks its files as migrated once it is committed.
+   *
+   * @param batch      The parsed players
+   * @param batchFiles The files the players were read from
+   * @param total      The number of files found, for progress reports
+   * @param start      The {@link System#nanoTime()} at which the import started
+   */
+  private void write(List<PlayerData> batch, List<Path> batchFiles, int total, long start) {
+    try {
+      int inserted = playerDataStore.importPlayerData(batch);
+      for (Path file : batchFiles) {
+        rename(file, MIGRATED_SUFFIX);
+      }
+      imported.addAndGet(inserted);
+      skipped.addAndGet(batch.size() - inserted);
+    } catch (SQLException e) {
+      // The files stay in place and are retried on the next start
+      logger.severe("Failed to import a batch of " + batch.size() + " legacy player(s): " + e.getMessage());
+      failed.addAndGet(batch.size());
+    }
+
+    batch.clear();
+    batchFiles.clear();
+    reportProgress(total, start);
+  }
+
+  /**
+   * Logs the progress if the last report is old enough.
+   *
+   * @param total The number of files found
+   * @param start The {@link System#nanoTime()} at which the import started
+   */
+  private void reportProgress(int total, long start) {
+    long now = System.nanoTime();
+    long last = lastReport.get();
+    if (now - last < PROGRESS_INTERVAL || !lastReport.compareAndSet(last, now)) {
+      return;
+    }
+
+    long done = imported.get() + skipped.get() + failed.get();
+    double seconds = Math.max(1, now - start) / 1_000_000_000.0;
+    logger.info(String.format("Legacy player data import: %d/%d (%.1f%%), %.0f files/s", done, total,
+        done * 100.0 / total, done / seconds));
+  }
+
+  /**
+   * Reads a legacy file. The name is taken from the header comment the old
+   * writer stored, falling back to the server's name cache.
+   *
+   * @param file The file to read
+   * @param uuid The player's UUID, or null to take it from the file name
+   * @return The player data
+   * @throws IOException              If the file cannot be read
+   * @throws IllegalArgumentException If the file name or a value is invalid
+   */
+  private static PlayerData parse(Path file, UUID uuid) throws IOException {
+    if (uuid == null) {
+      String fileName = file.getFileName().toString();
+      uuid = UUID.fromString(fileName.substring(0, fileName.length() - LEGACY_SUFFIX.length()));
+    }
+
+    // Properties.store() wrote ISO-8859-1 with escapes
+    String content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+    Properties properties = new Properties();
+    properties.load(new StringReader(content));
+
+    String name = null;
+    if (content.startsWith(NAME_HEADER)) {
+      int end = content.indexOf('\n');
+      name = content.substring(NAME_HEADER.length(), end < 0 ? content.length() : end).trim();
+    }
+    if (name == null || name.isEmpty()) {
+      name = Bukkit.getOfflinePlayer(uuid).getName();
+    }
+    if (name == null) {
+      name = uuid.toString().substring(0, 8);
+    }
+
+    PlayerData playerData = new PlayerData(uuid, name);
+    playerData.setPoints(Integer.parseInt(properties.getProperty("points", "0").trim()));
+    for (String key : properties.stringPropertyNames()) {
+      if (!key.equals("points")) {
+        playerData.setData(key, properties.getProperty(key));
+      }
+    }
+    return playerData;
+  }
+
+  /**
+   * Renames a legacy file by replacing its suffix.
+   *
+   * @param file   The file to rename
+   * @param suffix The new suffix
+   */
+  private void rename(Path file, String suffix) {
+    String fileName = file.getFileName().toString();
+    Path target = file.resolveSibling(fileName.substring(0, fileName.length() - LEGACY_SUFFIX.length()) + suffix);
+    try {
+      Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warning("Cannot rename legacy player data file " + fileName + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Counts the legacy files left to import.
+   *
+   * @return The file count
+   * @throws IOException If the folder cannot be listed
+   */
+  private int countFiles() throws IOException {
+    if (!Files.isDirectory(folder)) {
+      return 0;
+    }
+
+    int count = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + LEGACY_SUFFIX)) {
+      for (Path ignored : stream) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
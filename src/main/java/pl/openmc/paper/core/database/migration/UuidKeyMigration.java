@@ -0,0 +1,328 @@
+package pl.openmc.paper.core.database.migration;
+
+import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.StoreMode;
+import pl.openmc.paper.core.database.UuidCodec;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Online migration of the player table key from the 36-character uuid column
+ * to a 16-byte binary column. The column is added empty, which neither engine
+ * needs to rewrite the table for, and filled in by a background thread in
+ * id-ordered chunks, each in its own short transaction. Once every row has a
+ * value the column gets a unique index and becomes the key, and on MySQL the
+ * indexes on the text column are dropped. Rows are written with both columns
+ * from the moment the column exists, so the table stays in use throughout and
+ * an interrupted backfill continues on the next start.
+ */
+public class UuidKeyMigration {
+  public static final String KEY_COLUMN = "uuid_bin";
+  private static final String TEXT_COLUMN = "uuid";
+  private static final String INDEX_NAME = "idx_uuid_bin";
+  private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+  private final Store store;
+  private final String table;
+  private final StoreMode storeMode;
+  private final UuidMigrationSettings settings;
+  private final LoggerUtil logger;
+  private final Runnable onColumnAdded;
+  private final Runnable onKeyReady;
+  private volatile boolean stopped;
+  private Thread worker;
+
+  // Backfill state, only touched by the worker
+  private long lastId;
+  private long filled;
+  private long invalid;
+
+  /**
+   * Creates a new migration.
+   *
+   * @param store         The store holding the table
+   * @param table         The player table
+   * @param storeMode     The store mode, which decides the column type and DDL
+   * @param settings      The migration settings
+   * @param logger        The plugin logger
+   * @param onColumnAdded Called once rows can be written with the binary
+   *                      column
+   * @param onKeyReady    Called once the binary column is indexed and can be
+   *                      used as the key
+   */
+  public UuidKeyMigration(Store store, String table, StoreMode storeMode, UuidMigrationSettings settings,
+      LoggerUtil logger, Runnable onColumnAdded, Runnable onKeyReady) {
+    this.store = store;
+    this.table = table;
+    this.storeMode = storeMode;
+    this.settings = settings;
+    this.logger = logger;
+    this.onColumnAdded = onColumnAdded;
+    this.onKeyReady = onKeyReady;
+  }
+
+  /**
+   * Adds the binary column if it is missing and starts the backfill on a
+   * background thread, unless the column is indexed already. Called once the
+   * table exists. The callbacks for the stage the table is in run before this
+   * returns.
+   *
+   * @return true if the table was inspected, false if the column cannot be
+   *         checked or added, in which case the table keeps using the text key
+   *         and the migration should be started again later
+   */
+  public synchronized boolean start() {
+    boolean indexed;
+    try {
+      indexed = store.inTransaction(connection -> {
+        if (!hasColumn(connection)) {
+          execute(connection, "ALTER TABLE " + table + " ADD COLUMN " + KEY_COLUMN
+              + (storeMode == StoreMode.MYSQL ? " BINARY(16) NULL" : " BLOB"));
+          logger.info("Added binary UUID column to " + table);
+        }
+        return hasUniqueIndex(connection);
+      });
+    } catch (SQLException e) {
+      logger.severe("Cannot add binary UUID column, player data stays keyed by text UUIDs: " + e.getMessage());
+      return false;
+    }
+
+    onColumnAdded.run();
+    if (indexed) {
+      onKeyReady.run();
+      dropTextIndexes();
+      return true;
+    }
+
+    this.worker = new Thread(this::run, "UUID-Key-Migration");
+    worker.setDaemon(true);
+    worker.start();
+    return true;
+  }
+
+  /**
+   * Stops the backfill. The chunks committed so far are kept and the rest is
+   * filled in on the next start.
+   */
+  public synchronized void stop() {
+    this.stopped = true;
+    if (worker != null) {
+      worker.interrupt();
+    }
+  }
+
+  /**
+   * Backfills the binary column, indexes it and switches the key over.
+   */
+  private void run() {
+    long start = System.nanoTime();
+    long lastReport = start;
+    logger.info("Backfilling binary player UUIDs in chunks of " + settings.getChunkSize() + " row(s)...");
+
+    try {
+      while (!stopped && store.inTransaction(this::backfillChunk) > 0) {
+        if (System.nanoTime() - lastReport >= PROGRESS_INTERVAL) {
+          lastReport = System.nanoTime();
+          logger.info("Binary UUID backfill: " + filled + " row(s) filled, up to id " + lastId);
+        }
+        if (settings.getPause() > 0) {
+          Thread.sleep(settings.getPause());
+        }
+      }
+      if (stopped) {
+        logger.info("Binary UUID backfill stopped after " + filled + " row(s), it continues on the next start");
+        return;
+      }
+
+      createIndex();
+      onKeyReady.run();
+      dropTextIndexes();
+
+      logger.info("Binary UUID migration finished in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+          + " ms: " + filled + " row(s) filled");
+      if (invalid > 0) {
+        logger.warning(invalid + " player row(s) have an invalid UUID and can no longer be looked up");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (SQLException e) {
+      logger.severe("Binary UUID migration failed, it is retried on the next start: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Fills in the binary column for the next chunk of rows that lack it.
+   *
+   * @param connection The connection of the chunk's transaction
+   * @return The number of rows read, 0 once the table is done
+   * @throws SQLException If the chunk cannot be read or written
+   */
+  private int backfillChunk(Connection connection) throws SQLException {
+    List<Long> ids = new ArrayList<>();
+    List<byte[]> keys = new ArrayList<>();
+    int read = 0;
+
+    try (PreparedStatement select = connection.prepareStatement("SELECT id, " + TEXT_COLUMN + " FROM " + table
+        + " WHERE id > ? AND " + KEY_COLUMN + " IS NULL ORDER BY id LIMIT ?")) {
+      select.setLong(1, lastId);
+      select.setInt(2, settings.getChunkSize());
+      try (ResultSet rs = select.executeQuery()) {
+        while (rs.next()) {
+          read++;
+          lastId = rs.getLong(1);
+          try {
+            keys.add(UuidCodec.toBytes(UUID.fromString(rs.getString(2))));
+            ids.add(lastId);
+          } catch (IllegalArgumentException | NullPointerException e) {
+            invalid++;
+          }
+        }
+      }
+    }
+
+    if (!ids.isEmpty()) {
+      // Rows written since the select already have the column
+      try (PreparedStatement update = connection.prepareStatement("UPDATE " + table + " SET " + KEY_COLUMN
+          + " = ? WHERE id = ? AND " + KEY_COLUMN + " IS NULL")) {
+        for (int i = 0; i < ids.size(); i++) {
+          update.setBytes(1, keys.get(i));
+          update.setLong(2, ids.get(i));
+          update.addBatch();
+        }
+        update.executeBatch();
+      }
+      filled += ids.size();
+    }
+    return read;
+  }
+
+  /**
+   * Adds the unique index on the binary column. Another server finishing the
+   * same migration first is not an error.
+   *
+   * @throws SQLException If the index cannot be created
+   */
+  private void createIndex() throws SQLException {
+    try {
+      store.inTransaction(connection -> {
+        execute(connection, storeMode == StoreMode.MYSQL
+            ? "ALTER TABLE " + table + " ADD UNIQUE INDEX " + INDEX_NAME + " (" + KEY_COLUMN
+                + "), ALGORITHM=INPLACE, LOCK=NONE"
+            : "CREATE UNIQUE INDEX IF NOT EXISTS " + INDEX_NAME + " ON " + table + " (" + KEY_COLUMN + ")");
+        return null;
+      });
+    } catch (SQLException e) {
+      if (!store.inTransaction(this::hasUniqueIndex)) {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Drops the indexes on the text column on MySQL, which the binary key makes
+   * redundant. SQLite tables created before the migration declare the text
+   * column unique in the table itself, and dropping that would mean rebuilding
+   * the table, so they keep the index.
+   */
+  private void dropTextIndexes() {
+    if (storeMode != StoreMode.MYSQL) {
+      return;
+    }
+
+    try {
+      store.inTransaction(connection -> {
+        Set<String> indexes = indexesOn(connection, TEXT_COLUMN, false);
+        if (!indexes.isEmpty()) {
+          StringBuilder sql = new StringBuilder("ALTER TABLE ").append(table);
+          for (String index : indexes) {
+            sql.append(" DROP INDEX `").append(index).append("`,");
+          }
+          execute(connection, sql.append(" ALGORITHM=INPLACE, LOCK=NONE").toString());
+          logger.info("Dropped text UUID index(es) " + indexes + " from " + table);
+        }
+        return null;
+      });
+    } catch (SQLException e) {
+      logger.warning("Cannot drop the text UUID indexes of " + table + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Checks whether the binary column exists.
+   *
+   * @param connection The connection to inspect the table with
+   * @return true if the column exists
+   * @throws SQLException If the metadata cannot be read
+   */
+  private boolean hasColumn(Connection connection) throws SQLException {
+    try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, table, null)) {
+      while (rs.next()) {
+        if (KEY_COLUMN.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether the binary column has a unique index.
+   *
+   * @param connection The connection to inspect the table with
+   * @return true if the column is indexed
+   * @throws SQLException If the metadata cannot be read
+   */
+  private boolean hasUniqueIndex(Connection connection) throws SQLException {
+    return !indexesOn(connection, KEY_COLUMN, true).isEmpty();
+  }
+
+  /**
+   * Gets the names of the indexes covering a column, leaving out the primary
+   * key.
+   *
+   * @param connection The connection to inspect the table with
+   * @param column     The column
+   * @param unique     true to only return unique indexes
+   * @return The index names
+   * @throws SQLException If the metadata cannot be read
+   */
+  private Set<String> indexesOn(Connection connection, String column, boolean unique) throws SQLException {
+    Set<String> indexes = new LinkedHashSet<>();
+    DatabaseMetaData metaData = connection.getMetaData();
+    try (ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), null, table, unique, false)) {
+      while (rs.next()) {
+        String index = rs.getString("INDEX_NAME");
+        if (index != null && !"PRIMARY".equalsIgnoreCase(index)
+            && column.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+          indexes.add(index);
+        }
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * Runs a DDL statement.
+   *
+   * @param connection The connection to run it on
+   * @param sql        The statement
+   * @throws SQLException If the statement fails
+   */
+  private static void execute(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package pl.openmc.paper.core.database.migration;
+
+/**
+ * Settings for the {@link UuidKeyMigration}.
+ */
+public class UuidMigrationSettings {
+  private int chunkSize = 1000;
+  private long pause = 50L;
+
+  /**
+   * Gets the number of rows backfilled per transaction.
+   *
+   * @return The chunk size
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Sets the number of rows backfilled per transaction.
+   *
+   * @param chunkSize The chunk size
+   */
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = Math.max(1, chunkSize);
+  }
+
+  /**
+   * Gets the pause between two chunks in milliseconds, which leaves the
+   * database room for the server's own queries.
+   *
+   * @return The pause
+   */
+  public long getPause() {
+    return pause;
+  }
+
+  /**
+   * Sets the pause between two chunks in milliseconds.
+   *
+   * @param pause The pause
+   */
+  public void setPause(long pause) {
+    this.pause = Math.max(0L, pause);
+  }
+}
@@ -0,0 +1,336 @@
+package pl.openmc.paper.core.database.mysql;
+
+import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.executor.CircuitBreaker;
+import pl.openmc.paper.core.database.pool.ConnectionPool;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Routes read-only queries to MySQL read replicas.
+ * Healthy replicas are used in turn. A replica is taken out of rotation when a
+ * connection to it fails or a health check finds it unreachable or too far
+ * behind, and put back once a health check succeeds. Reads for a player whose
+ * data this server wrote recently are sent to the primary instead, so they see
+ * the write even if the replicas have not applied it yet.
+ */
+class ReplicaRouter {
+  private static final Store.ReadScope NO_SCOPE = () -> {
+  };
+
+  private final String name;
+  private final List<Replica> replicas;
+  private final ReplicaSettings settings;
+  private final LoggerUtil logger;
+  private final ScheduledExecutorService healthChecker;
+
+  // Round-robin position and read-your-writes deadlines
+  private final AtomicInteger next;
+  private final Map<UUID, Long> stickyUntil;
+  private final ThreadLocal<Boolean> pinned;
+  private final long stickyWindowNanos;
+
+  // Routing statistics
+  private final AtomicLong replicaReads;
+  private final AtomicLong primaryReads;
+
+  /**
+   * Creates a new router. No connections are opened until {@link #start()} is
+   * called.
+   *
+   * @param name     The store name used in logs and thread names
+   * @param pools    The connection pools of the replicas, by endpoint
+   * @param settings The replica settings
+   * @param logger   The plugin logger
+   */
+  ReplicaRouter(String name, Map<String, ConnectionPool> pools, ReplicaSettings settings, LoggerUtil logger) {
+    this.name = name;
+    this.settings = settings;
+    this.logger = logger;
+
+    List<Replica> list = new ArrayList<>();
+    pools.forEach((endpoint, pool) -> list.add(new Replica(endpoint, pool)));
+    this.replicas = Collections.unmodifiableList(list);
+
+    this.next = new AtomicInteger();
+    this.stickyUntil = new ConcurrentHashMap<>();
+    this.pinned = new ThreadLocal<>();
+    this.stickyWindowNanos = TimeUnit.MILLISECONDS.toNanos(settings.getStickyWindow());
+    this.replicaReads = new AtomicLong();
+    this.primaryReads = new AtomicLong();
+    this.healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, name + "-Replica-Health");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Opens the replica pools and starts the health checks. A replica that
+   * cannot be reached starts out of rotation instead of failing the connect.
+   */
+  void start() {
+    for (Replica replica : replicas) {
+      try {
+        replica.pool.start();
+        replica.healthy = true;
+        logger.info("Connected to " + name + " replica " + replica.endpoint);
+      } catch (SQLException e) {
+        logger.warning("Cannot connect to " + name + " replica " + replica.endpoint + ", reading from the primary"
+            + " until it is reachable: " + e.getMessage());
+      }
+    }
+
+    long interval = settings.getHealthCheckInterval();
+    healthChecker.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the health checks and closes the replica pools.
+   */
+  void close() {
+    healthChecker.shutdownNow();
+    for (Replica replica : replicas) {
+      replica.pool.close();
+    }
+  }
+
+  /**
+   * Borrows a connection from the next healthy replica, unless the calling
+   * thread is reading data written recently.
+   *
+   * @return A pooled replica connection, or null if the read must go to the
+   *         primary
+   */
+  Connection borrow() {
+    if (pinned.get() == null) {
+      int size = replicas.size();
+      int start = Math.floorMod(next.getAndIncrement(), size);
+      for (int i = 0; i < size; i++) {
+        Replica replica = replicas.get((start + i) % size);
+        if (!replica.healthy) {
+          continue;
+        }
+
+        try {
+          Connection connection = replica.pool.getConnection();
+          replicaReads.incrementAndGet();
+          return connection;
+        } catch (SQLException e) {
+          if (CircuitBreaker.isConnectionFailure(e)) {
+            markUnhealthy(replica, e.getMessage());
+          }
+        }
+      }
+    }
+
+    primaryReads.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Notes that a player's data was written, sending their reads to the
+   * primary for the sticky window.
+   *
+   * @param owner The player whose data was written
+   */
+  void markWritten(UUID owner) {
+    if (stickyWindowNanos > 0) {
+      stickyUntil.put(owner, System.nanoTime() + stickyWindowNanos);
+    }
+  }
+
+  /**
+   * Pins the reads of the calling thread to the primary while the player's
+   * data was written within the sticky window.
+   *
+   * @param owner The player whose data is read
+   * @return The scope, restoring replica reads when closed
+   */
+  Store.ReadScope readingFor(UUID owner) {
+    Long until = stickyUntil.get(owner);
+    if (until == null || until - System.nanoTime() <= 0 || pinned.get() != null) {
+      return NO_SCOPE;
+    }
+
+    pinned.set(Boolean.TRUE);
+    return pinned::remove;
+  }
+
+  /**
+   * Checks every replica and forgets expired sticky windows.
+   */
+  private void checkHealth() {
+    for (Replica replica : replicas) {
+      try (Connection connection = replica.pool.getConnection()) {
+        String problem = settings.getMaxLag() > 0 ? checkLag(replica, connection) : null;
+        if (problem != null) {
+          markUnhealthy(replica, problem);
+        } else if (!replica.healthy) {
+          replica.healthy = true;
+          logger.info(name + " replica " + replica.endpoint + " is healthy again");
+        }
+      } catch (SQLException | RuntimeException e) {
+        markUnhealthy(replica, e.getMessage());
+      }
+    }
+
+    long now = System.nanoTime();
+    stickyUntil.values().removeIf(until -> until - now <= 0);
+  }
+
+  /**
+   * Reads the replication lag of a replica.
+   *
+   * @param replica    The replica
+   * @param connection A connection to the replica
+   * @return Why the replica should not be used, or null if it is fine
+   * @throws SQLException If the replica cannot be queried
+   */
+  private String checkLag(Replica replica, Connection connection) throws SQLException {
+    if (replica.lagUnknown) {
+      return null;
+    }
+
+    // MySQL 8.0.22 renamed the statement and column, older servers and
+    // MariaDB only know the original names
+    String[][] variants = {
+        { "SHOW REPLICA STATUS", "Seconds_Behind_Source" },
+        { "SHOW SLAVE STATUS", "Seconds_Behind_Master" }
+    };
+
+    SQLException failure = null;
+    for (String[] variant : variants) {
+      try (Statement statement = connection.createStatement();
+          ResultSet rs = statement.executeQuery(variant[0])) {
+        if (!rs.next()) {
+          // Not replicating from anything, so it cannot fall behind
+          return null;
+        }
+
+        long lag = rs.getLong(variant[1]);
+        if (rs.wasNull()) {
+          return "replication is not running";
+        }
+        return lag > settings.getMaxLag() ? "replication is " + lag + " s behind" : null;
+      } catch (SQLException e) {
+        if (CircuitBreaker.isConnectionFailure(e)) {
+          throw e;
+        }
+        failure = e;
+      }
+    }
+
+    replica.lagUnknown = true;
+    logger.warning("Cannot read the replication lag of " + name + " replica " + replica.endpoint
+        + ", only checking that it is reachable: " + failure.getMessage());
+    return null;
+  }
+
+  /**
+   * Takes a replica out of rotation.
+   *
+   * @param replica The replica
+   * @param reason  Why the replica is unhealthy
+   */
+  private void markUnhealthy(Replica replica, String reason) {
+    if (replica.healthy) {
+      replica.healthy = false;
+      logger.warning(name + " replica " + replica.endpoint + " taken out of rotation: " + reason);
+    }
+  }
+
+  /**
+   * Gets the number of replicas in rotation.
+   *
+   * @return The healthy replica count
+   */
+  int getHealthyCount() {
+    int healthy = 0;
+    for (Replica replica : replicas) {
+      if (replica.healthy) {
+        healthy++;
+      }
+    }
+    return healthy;
+  }
+
+  /**
+   * Gets the number of queries served by replicas.
+   *
+   * @return The replica read count
+   */
+  long getReplicaReads() {
+    return replicaReads.get();
+  }
+
+  /**
+   * Gets the number of queries sent to the primary because of a recent write
+   * or because no replica was healthy.
+   *
+   * @return The primary read count
+   */
+  long getPrimaryReads() {
+    return primaryReads.get();
+  }
+
+  /**
+   * Gets how many prepared statements were served from the statement caches
+   * of the replica connections.
+   *
+   * @return The statement cache hit count
+   */
+  long getStatementCacheHits() {
+    long hits = 0;
+    for (Replica replica : replicas) {
+      hits += replica.pool.getStatementCacheHits();
+    }
+    return hits;
+  }
+
+  /**
+   * Gets how many prepared statements the replica connections had to prepare.
+   *
+   * @return The statement cache miss count
+   */
+  long getStatementCacheMisses() {
+    long misses = 0;
+    for (Replica replica : replicas) {
+      misses += replica.pool.getStatementCacheMisses();
+    }
+    return misses;
+  }
+
+  /**
+   * A replica endpoint and its connection pool.
+   */
+  private static final class Replica {
+    private final String endpoint;
+    private final ConnectionPool pool;
+    private volatile boolean healthy;
+
+    // Set when the lag cannot be read, e.g. without the REPLICATION CLIENT
+    // privilege; only read by the health check thread
+    private boolean lagUnknown;
+
+    private Replica(String endpoint, ConnectionPool pool) {
+      this.endpoint = endpoint;
+      this.pool = pool;
+    }
+  }
+}
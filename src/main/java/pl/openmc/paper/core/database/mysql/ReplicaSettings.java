@@ -0,0 +1,110 @@
+package pl.openmc.paper.core.database.mysql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read replica settings for {@link StoreMySQL}.
+ * All durations are in milliseconds unless stated otherwise.
+ */
+public class ReplicaSettings {
+  private List<String> hosts = Collections.emptyList();
+  private long stickyWindow = 5000L;
+  private long healthCheckInterval = 5000L;
+  private int maxLag = 10;
+
+  /**
+   * Gets the replica endpoints as "host" or "host:port". Without replicas every
+   * query goes to the primary.
+   *
+   * @return The replica endpoints
+   */
+  public List<String> getHosts() {
+    return hosts;
+  }
+
+  /**
+   * Sets the replica endpoints as "host" or "host:port".
+   *
+   * @param hosts The replica endpoints
+   */
+  public void setHosts(List<String> hosts) {
+    List<String> endpoints = new ArrayList<>();
+    if (hosts != null) {
+      for (String host : hosts) {
+        if (host != null && !host.trim().isEmpty()) {
+          endpoints.add(host.trim());
+        }
+      }
+    }
+    this.hosts = Collections.unmodifiableList(endpoints);
+  }
+
+  /**
+   * Checks whether any replica is configured.
+   *
+   * @return true if queries can be routed to replicas
+   */
+  public boolean isEnabled() {
+    return !hosts.isEmpty();
+  }
+
+  /**
+   * Gets how long the reads of a player stay on the primary after a write of
+   * their data, so they are not served by a replica that is behind.
+   *
+   * @return The sticky window
+   */
+  public long getStickyWindow() {
+    return stickyWindow;
+  }
+
+  /**
+   * Sets how long the reads of a player stay on the primary after a write of
+   * their data.
+   *
+   * @param stickyWindow The sticky window
+   */
+  public void setStickyWindow(long stickyWindow) {
+    this.stickyWindow = Math.max(0L, stickyWindow);
+  }
+
+  /**
+   * Gets the time between replica health checks.
+   *
+   * @return The health check interval
+   */
+  public long getHealthCheckInterval() {
+    return healthCheckInterval;
+  }
+
+  /**
+   * Sets the time between replica health checks.
+   *
+   * @param healthCheckInterval The health check interval
+   */
+  public void setHealthCheckInterval(long healthCheckInterval) {
+    this.healthCheckInterval = Math.max(500L, healthCheckInterval);
+  }
+
+  /**
+   * Gets the replication lag in seconds after which a replica is no longer
+   * used (0 disables the lag check).
+   *
+   * @return The maximum lag in seconds
+   */
+  public int getMaxLag() {
+    return maxLag;
+  }
+
+  /**
+   * Sets the replication lag in seconds after which a replica is no longer
+   * used (0 disables the lag check).
+   *
+   * @param maxLag The maximum lag in seconds
+   */
+  public void setMaxLag(int maxLag) {
+    this.maxLag = Math.max(0, maxLag);
+  }
+}
@@ -1,55 +1,44 @@
 package pl.openmc.paper.core.database.mysql;
 
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
-import pl.openmc.paper.core.Main;
-import pl.openmc.paper.core.database.Callback;
-import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.BaseStore;
 import pl.openmc.paper.core.database.StoreMode;
-import pl.openmc.paper.core.utils.LoggerUtil;
+import pl.openmc.paper.core.database.StoreSettings;
+import pl.openmc.paper.core.database.pool.ConnectionPool;
+import pl.openmc.paper.core.database.pool.PoolSettings;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.UUID;
 
 /**
  * MySQL implementation of the Store interface.
  * Provides thread-safe database operations with connection pooling and prepared
- * statements.
+ * statements. Queries can be served by read replicas while updates always go
+ * to the primary server.
  */
-public class StoreMySQL implements Store {
+public class StoreMySQL extends BaseStore {
   // Database connection parameters
   private final String host;
   private final String user;
   private final String pass;
   private final String name;
-  private final String prefix;
   private final int port;
-
-  // Connection and state management
-  private Connection conn;
-  private long lastActivity;
-  private final ExecutorService executor;
-  private final AtomicInteger threadCounter;
-  private BukkitTask keepAliveTask;
+  private final PoolSettings poolSettings;
+  private final ReplicaSettings replicaSettings;
+  private volatile ReplicaRouter replicas;
 
   // Configuration constants
-  private static final int KEEP_ALIVE_INTERVAL = 30;
   private static final int CONNECTION_TIMEOUT = 30;
   private static final String JDBC_DRIVER = "com.mysql.cj.jdbc.Driver";
-  private final LoggerUtil logger;
 
   /**
-   * Creates a new MySQL store with the specified connection parameters.
+   * Creates a new MySQL store with the specified connection parameters and
+   * default pool settings.
    *
    * @param host   The MySQL server hostname
    * @param port   The MySQL server port
@@ -60,39 +49,77 @@ public class StoreMySQL implements Store {
    * @throws IllegalArgumentException If any parameter is invalid
    */
   public StoreMySQL(String host, int port, String user, String pass, String name, String prefix) {
+    this(host, port, user, pass, name, prefix, new PoolSettings(), new StoreSettings());
+  }
+
+  /**
+   * Creates a new MySQL store with the specified connection parameters.
+   *
+   * @param host          The MySQL server hostname
+   * @param port          The MySQL server port
+   * @param user          The MySQL username
+   * @param pass          The MySQL password
+   * @param name          The database name
+   * @param prefix        The table prefix
+   * @param poolSettings  The connection pool settings
+   * @param storeSettings The store tuning settings
+   * @throws IllegalArgumentException If any parameter is invalid
+   */
+  public StoreMySQL(String host, int port, String user, String pass, String name, String prefix,
+      PoolSettings poolSettings, StoreSettings storeSettings) {
+    this(host, port, user, pass, name, prefix, poolSettings, storeSettings, new ReplicaSettings());
+  }
+
+  /**
+   * Creates a new MySQL store reading from replicas.
+   *
+   * @param host            The MySQL server hostname
+   * @param port            The MySQL server port
+   * @param user            The MySQL username
+   * @param pass            The MySQL password
+   * @param name            The database name
+   * @param prefix          The table prefix
+   * @param poolSettings    The connection pool settings, also used for each
+   *                        replica
+   * @param storeSettings   The store tuning settings
+   * @param replicaSettings The read replica settings
+   * @throws IllegalArgumentException If any parameter is invalid
+   */
+  public StoreMySQL(String host, int port, String user, String pass, String name, String prefix,
+      PoolSettings poolSettings, StoreSettings storeSettings, ReplicaSettings replicaSettings) {
+    super(prefix, storeSettings);
+
     // Validate parameters
     this.host = Objects.requireNonNull(host, "Host cannot be null");
     this.port = validatePort(port);
     this.user = Objects.requireNonNull(user, "User cannot be null");
     this.pass = Objects.requireNonNull(pass, "Password cannot be null");
     this.name = Objects.requireNonNull(name, "Database name cannot be null");
-    this.prefix = prefix != null ? prefix : "";
-    this.logger = Main.getInstance().getPluginLogger();
-
-    // Initialize thread management
-    this.executor = Executors.newSingleThreadExecutor(r -> {
-      Thread thread = new Thread(r, "MySQL-Worker");
-      thread.setDaemon(true);
-      return thread;
+    this.poolSettings = Objects.requireNonNull(poolSettings, "Pool settings cannot be null");
+    this.replicaSettings = Objects.requireNonNull(replicaSettings, "Replica settings cannot be null");
+    registerReplicaGauges();
+  }
+
+  /**
+   * Exposes the replica routing state as gauges.
+   */
+  private void registerReplicaGauges() {
+    if (!replicaSettings.isEnabled()) {
+      return;
+    }
+
+    metrics.registerGauge("replicas.healthy", () -> {
+      ReplicaRouter router = this.replicas;
+      return router != null ? router.getHealthyCount() : 0;
+    });
+    metrics.registerGauge("replicas.reads", () -> {
+      ReplicaRouter router = this.replicas;
+      return router != null ? router.getReplicaReads() : 0;
+    });
+    metrics.registerGauge("replicas.primary-reads", () -> {
+      ReplicaRouter router = this.replicas;
+      return router != null ? router.getPrimaryReads() : 0;
     });
-    this.lastActivity = System.currentTimeMillis();
-    this.threadCounter = new AtomicInteger();
-
-    // Schedule keep-alive task to prevent connection timeouts
-    this.keepAliveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-        Main.getInstance(),
-        () -> {
-          if (System.currentTimeMillis() - lastActivity > TimeUnit.SECONDS.toMillis(KEEP_ALIVE_INTERVAL)) {
-            // Use query instead of update for SELECT statements
-            try (ResultSet rs = query("SELECT 1")) {
-              // Just checking connection, no need to process the result
-            } catch (Exception e) {
-              logger.warning("Keep-alive query failed: " + e.getMessage());
-            }
-          }
-        },
-        KEEP_ALIVE_INTERVAL * 20L,
-        KEEP_ALIVE_INTERVAL * 20L);
   }
 
   /**
@@ -110,7 +137,7 @@ public class StoreMySQL implements Store {
   }
 
   /**
-   * Establishes a connection to the MySQL database.
+   * Establishes the connection pool to the MySQL database.
    *
    * @return true if the connection was successful, false otherwise
    */
@@ -121,30 +148,61 @@ public class StoreMySQL implements Store {
       // compatibility)
       Class.forName(JDBC_DRIVER);
 
-      // Set up connection properties with security and performance settings
+      // Set up connection properties with security and performance settings.
+      // Broken connections are replaced by the pool, so autoReconnect is off.
       Properties props = new Properties();
       props.setProperty("user", this.user);
       props.setProperty("password", this.pass);
       props.setProperty("useSSL", "false");
-      props.setProperty("autoReconnect", "true");
       props.setProperty("useUnicode", "true");
       props.setProperty("characterEncoding", "UTF-8");
       props.setProperty("serverTimezone", "UTC");
       props.setProperty("connectTimeout", String.valueOf(CONNECTION_TIMEOUT * 1000));
       props.setProperty("socketTimeout", String.valueOf(CONNECTION_TIMEOUT * 1000));
       props.setProperty("allowPublicKeyRetrieval", "true");
+      props.setProperty("tcpKeepAlive", "true");
+      // Send JDBC batches from the write-behind queue as multi-row statements
+      props.setProperty("rewriteBatchedStatements", "true");
+      // Parse statements on the server once; the pool caches them per connection
+      props.setProperty("useServerPrepStmts", "true");
+      // Stream large results with server-side cursors instead of buffering them
+      props.setProperty("useCursorFetch", "true");
 
       // Build connection URL
-      String url = String.format("jdbc:mysql://%s:%d/%s", this.host, this.port, this.name);
+      String url = buildUrl(this.host + ":" + this.port);
 
       // Log connection attempt (without password)
       logger.info("Connecting to MySQL database at " + url);
 
-      // Establish connection
-      this.conn = DriverManager.getConnection(url, props);
+      // Open the pool, failing fast if the first connection cannot be made
+      openPool(new ConnectionPool(getDisplayName(), () -> DriverManager.getConnection(url, props),
+          poolSettings, logger));
+
+      // Route queries to the replicas once the primary is up
+      if (replicaSettings.isEnabled()) {
+        Map<String, ConnectionPool> pools = new LinkedHashMap<>();
+        for (String endpoint : replicaSettings.getHosts()) {
+          try {
+            String replicaUrl = buildUrl(endpoint);
+            pools.put(endpoint, new ConnectionPool(getDisplayName() + "-Replica-" + pools.size(),
+                () -> DriverManager.getConnection(replicaUrl, props), poolSettings, logger));
+          } catch (IllegalArgumentException e) {
+            logger.warning("Ignoring MySQL replica " + endpoint + ": " + e.getMessage());
+          }
+        }
+
+        if (!pools.isEmpty()) {
+          ReplicaRouter router = new ReplicaRouter(getDisplayName(), pools, replicaSettings, logger);
+          router.start();
+          this.replicas = router;
+        }
+      }
 
       // Log success
-      logger.info("Connected to MySQL server!");
+      logger.info("Connected to MySQL server! (pool size " + poolSettings.getMinimumIdle() + "-"
+          + poolSettings.getMaximumPoolSize() + (replicaSettings.isEnabled()
+              ? ", " + replicaSettings.getHosts().size() + " replica(s)" : "") + ")");
+      notifyConnected();
       return true;
     } catch (ClassNotFoundException e) {
       logger.severe("JDBC driver not found! Error: " + e.getMessage());
@@ -156,279 +214,134 @@ public class StoreMySQL implements Store {
   }
 
   /**
-   * Executes an update query on the database.
+   * Builds the JDBC URL of a server.
    *
-   * @param immediate If true, executes the query immediately; otherwise, queues
-   *                  it for execution
-   * @param query     The SQL query to execute
+   * @param endpoint The server as "host" or "host:port", using the primary's
+   *                 port when none is given
+   * @return The JDBC URL
+   * @throws IllegalArgumentException If the port is invalid
    */
-  @Override
-  public void update(boolean immediate, final String query) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty query");
-      return;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
+  private String buildUrl(String endpoint) {
+    String endpointHost = endpoint;
+    int endpointPort = this.port;
 
-    Runnable task = () -> {
-      try (Statement statement = conn.createStatement()) {
-        statement.executeUpdate(processedQuery);
-      } catch (SQLException e) {
-        logger.warning("Error executing update query: " + processedQuery + " Error: " + e.getMessage());
+    int colon = endpoint.lastIndexOf(':');
+    if (colon > 0 && endpoint.indexOf(':') == colon) {
+      endpointHost = endpoint.substring(0, colon);
+      try {
+        endpointPort = validatePort(Integer.parseInt(endpoint.substring(colon + 1)));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid port in " + endpoint);
       }
-    };
-
-    if (immediate) {
-      task.run();
-    } else {
-      executor.execute(task);
     }
+
+    return String.format("jdbc:mysql://%s:%d/%s", endpointHost, endpointPort, this.name);
   }
 
   /**
-   * Executes an update query and returns the generated keys.
+   * Borrows a connection from a healthy replica, or from the primary if there
+   * is none, the calling thread reads data written recently or it has a
+   * transaction open.
    *
-   * @param query The SQL query to execute
-   * @return The ResultSet containing generated keys, or null if no keys were
-   *         generated
+   * @return A pooled connection that must be closed by the caller
+   * @throws SQLException If not connected or no connection is available
    */
   @Override
-  public ResultSet update(String query) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty query");
-      return null;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    try (Statement statement = conn.createStatement()) {
-      statement.executeUpdate(processedQuery, Statement.RETURN_GENERATED_KEYS);
-      ResultSet rs = statement.getGeneratedKeys();
-      if (rs.next()) {
-        return rs;
+  protected Connection borrowReader() throws SQLException {
+    ReplicaRouter router = this.replicas;
+    if (router != null && getTransactionConnection() == null) {
+      Connection connection = router.borrow();
+      if (connection != null) {
+        return connection;
       }
-    } catch (SQLException e) {
-      logger
-          .warning("Error executing update query with generated keys: " + processedQuery + " Error: " + e.getMessage());
     }
-
-    return null;
+    return borrow();
   }
 
   /**
-   * Closes the database connection and releases resources.
+   * Sends the player's reads to the primary for the sticky window.
+   *
+   * @param owner The player whose data was written
    */
   @Override
-  public void disconnect() {
-    // Cancel keep-alive task
-    if (keepAliveTask != null) {
-      keepAliveTask.cancel();
-    }
-
-    // Shutdown executor service gracefully
-    executor.shutdown();
-    try {
-      if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-        executor.shutdownNow();
-        logger.warning("Forced shutdown of MySQL executor service");
-      }
-    } catch (InterruptedException e) {
-      executor.shutdownNow();
-      Thread.currentThread().interrupt();
-      logger.warning("Interrupted while shutting down MySQL executor: " + e.getMessage());
-    }
-
-    // Close database connection
-    if (conn != null) {
-      try {
-        conn.close();
-        logger.info("MySQL connection closed successfully");
-      } catch (SQLException e) {
-        logger.warning("Cannot close MySQL connection! Error: " + e.getMessage());
-      }
+  public void markWritten(UUID owner) {
+    ReplicaRouter router = this.replicas;
+    if (router != null) {
+      router.markWritten(owner);
     }
   }
 
   /**
-   * Reconnects to the database by closing the current connection and establishing
-   * a new one.
-   */
-  @Override
-  public void reconnect() {
-    logger.info("Reconnecting to MySQL database...");
-    disconnect();
-    connect();
-  }
-
-  /**
-   * Checks if the database connection is active.
+   * Pins the reads of the calling thread to the primary if the player's data
+   * was written within the sticky window.
    *
-   * @return true if connected, false otherwise
+   * @param owner The player whose data is read
+   * @return The scope, to be closed once the reads are done
    */
   @Override
-  public boolean isConnected() {
-    try {
-      return conn != null && !conn.isClosed() && conn.isValid(1);
-    } catch (SQLException e) {
-      logger.warning("Error checking MySQL connection status: " + e.getMessage());
-      return false;
-    }
+  public ReadScope readingFor(UUID owner) {
+    ReplicaRouter router = this.replicas;
+    return router != null ? router.readingFor(owner) : super.readingFor(owner);
   }
 
   /**
-   * Executes a query and returns the result set.
+   * Gets the number of connections asynchronous work can use at once: the
+   * primary pool plus one pool per replica.
    *
-   * @param query The SQL query to execute
-   * @return The ResultSet containing the query results, or null if an error
-   *         occurred
+   * @return The total connection count
    */
   @Override
-  public ResultSet query(String query) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty query");
-      return null;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    try {
-      Statement statement = conn.createStatement(
-          ResultSet.TYPE_FORWARD_ONLY,
-          ResultSet.CONCUR_READ_ONLY);
-      return statement.executeQuery(processedQuery);
-    } catch (SQLException e) {
-      logger.warning("Error executing query: " + processedQuery + " Error: " + e.getMessage());
-      return null;
-    }
+  protected int getConnectionLimit() {
+    return poolSettings.getMaximumPoolSize() * (1 + replicaSettings.getHosts().size());
   }
 
   /**
-   * Executes a query asynchronously and passes the result to a callback.
-   *
-   * @param query    The SQL query to execute
-   * @param callback The callback to handle the result
+   * Closes the replica connections, then writes queued updates and closes the
+   * primary connections.
    */
   @Override
-  public void query(final String query, final Callback<ResultSet> callback) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty async query");
-      if (callback != null) {
-        callback.error(new IllegalArgumentException("Query cannot be empty"));
-      }
-      return;
-    }
-
-    if (callback == null) {
-      logger.warning("Callback cannot be null for async query");
-      return;
+  public void disconnect() {
+    ReplicaRouter router = this.replicas;
+    if (router != null) {
+      this.replicas = null;
+      router.close();
     }
 
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    Thread queryThread = new Thread(() -> {
-      try (Statement statement = conn.createStatement(
-          ResultSet.TYPE_FORWARD_ONLY,
-          ResultSet.CONCUR_READ_ONLY)) {
-        ResultSet rs = statement.executeQuery(processedQuery);
-        callback.done(rs);
-      } catch (SQLException e) {
-        logger.warning("Error executing async query: " + processedQuery + " Error: " + e.getMessage());
-        callback.error(e);
-      }
-    }, "MySQL-Query-" + threadCounter.getAndIncrement());
-
-    queryThread.setDaemon(true);
-    queryThread.start();
+    super.disconnect();
   }
 
   /**
-   * Executes a prepared statement query and returns the result set.
+   * Gets how many prepared statements were served from the statement caches of
+   * the primary and replica connections.
    *
-   * @param query    The SQL query to prepare
-   * @param callback The callback to set parameters on the prepared statement
-   * @return The ResultSet containing the query results, or null if an error
-   *         occurred
+   * @return The statement cache hit count
    */
   @Override
-  public ResultSet queryPrepared(String query, PreparedStatementCallback callback) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty prepared query");
-      return null;
-    }
-
-    if (callback == null) {
-      logger.warning("Callback cannot be null for prepared query");
-      return null;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    try {
-      PreparedStatement statement = conn.prepareStatement(
-          processedQuery,
-          ResultSet.TYPE_FORWARD_ONLY,
-          ResultSet.CONCUR_READ_ONLY);
-      callback.process(statement);
-      return statement.executeQuery();
-    } catch (Exception e) {
-      logger.warning("Error executing prepared query: " + processedQuery + " Error: " + e.getMessage());
-      return null;
-    }
+  public long getStatementCacheHits() {
+    ReplicaRouter router = this.replicas;
+    return super.getStatementCacheHits() + (router != null ? router.getStatementCacheHits() : 0L);
   }
 
   /**
-   * Executes a prepared statement update.
+   * Gets how many prepared statements the primary and replica connections had
+   * to prepare.
    *
-   * @param immediate If true, executes the query immediately; otherwise, queues
-   *                  it for execution
-   * @param query     The SQL query to prepare
-   * @param callback  The callback to set parameters on the prepared statement
+   * @return The statement cache miss count
    */
   @Override
-  public void updatePrepared(boolean immediate, String query, PreparedStatementCallback callback) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty prepared update");
-      return;
-    }
-
-    if (callback == null) {
-      logger.warning("Callback cannot be null for prepared update");
-      return;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    Runnable task = () -> {
-      try (PreparedStatement statement = conn.prepareStatement(processedQuery)) {
-        callback.process(statement);
-        statement.executeUpdate();
-      } catch (Exception e) {
-        logger.warning("Error executing prepared update: " + processedQuery + " Error: " + e.getMessage());
-      }
-    };
-
-    if (immediate) {
-      task.run();
-    } else {
-      executor.execute(task);
-    }
+  public long getStatementCacheMisses() {
+    ReplicaRouter router = this.replicas;
+    return super.getStatementCacheMisses() + (router != null ? router.getStatementCacheMisses() : 0L);
   }
 
   /**
-   * Gets the database connection.
+   * Gets the name used in logs and thread names.
    *
-   * @return The active database connection
+   * @return "MySQL"
    */
   @Override
-  public Connection getConnection() {
-    return conn;
+  protected String getDisplayName() {
+    return "MySQL";
   }
 
   /**
@@ -440,4 +353,4 @@ public class StoreMySQL implements Store {
   public StoreMode getStoreMode() {
     return StoreMode.MYSQL;
   }
-}
\ No newline at end of file
+}
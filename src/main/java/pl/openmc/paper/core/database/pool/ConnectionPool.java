@@ -0,0 +1,403 @@
+package pl.openmc.paper.core.database.pool;
+
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded JDBC connection pool.
+ * Connections are validated on borrow, evicted when idle above the minimum,
+ * rotated after their maximum lifetime and reported when held for too long.
+ * Each connection keeps its own prepared statement cache.
+ */
+public class ConnectionPool {
+  // Connections used within this window are handed out without a validation
+  // round trip
+  private static final long VALIDATION_BYPASS_WINDOW = 500L;
+  private static final long HOUSEKEEPING_INTERVAL = 30L;
+  private static final int LEAK_TRACE_DEPTH = 8;
+
+  private final String name;
+  private final ConnectionFactory factory;
+  private final PoolSettings settings;
+  private final LoggerUtil logger;
+
+  // Pool state
+  private final LinkedBlockingDeque<PooledConnection> idle;
+  private final Set<PooledConnection> borrowed;
+  private final Semaphore permits;
+  private final AtomicInteger totalConnections;
+  private final AtomicLong statementCacheHits;
+  private final AtomicLong statementCacheMisses;
+  private final ScheduledExecutorService housekeeper;
+  private volatile boolean healthy;
+  private volatile boolean closed;
+
+  /**
+   * Creates a new connection pool. No connections are opened until
+   * {@link #start()} is called.
+   *
+   * @param name     The pool name used in logs and thread names
+   * @param factory  The factory opening physical connections
+   * @param settings The pool settings
+   * @param logger   The plugin logger
+   */
+  public ConnectionPool(String name, ConnectionFactory factory, PoolSettings settings, LoggerUtil logger) {
+    this.name = name;
+    this.factory = factory;
+    this.settings = settings;
+    this.logger = logger;
+    this.idle = new LinkedBlockingDeque<>();
+    this.borrowed = ConcurrentHashMap.newKeySet();
+    this.permits = new Semaphore(settings.getMaximumPoolSize(), true);
+    this.totalConnections = new AtomicInteger();
+    this.statementCacheHits = new AtomicLong();
+    this.statementCacheMisses = new AtomicLong();
+    this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, name + "-Pool-Housekeeper");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Opens the minimum number of idle connections and starts housekeeping.
+   *
+   * @throws SQLException If the first connection cannot be opened
+   */
+  public void start() throws SQLException {
+    int initial = Math.max(1, Math.min(settings.getMinimumIdle(), settings.getMaximumPoolSize()));
+    for (int i = 0; i < initial; i++) {
+      idle.offerLast(create());
+    }
+
+    housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Borrows a connection from the pool. Closing the returned connection hands it
+   * back to the pool.
+   *
+   * @return A pooled connection
+   * @throws SQLException If no connection became available in time or a new one
+   *                      could not be opened
+   */
+  public Connection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool " + name + " is closed");
+    }
+
+    try {
+      if (!permits.tryAcquire(settings.getConnectionTimeout(), TimeUnit.MILLISECONDS)) {
+        throw new SQLTimeoutException("Timed out after " + settings.getConnectionTimeout()
+            + "ms waiting for a connection from pool " + name + " (active=" + getActiveConnections()
+            + ", idle=" + getIdleConnections() + ", waiting=" + getPendingThreads() + ")");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection from pool " + name, e);
+    }
+
+    try {
+      PooledConnection pooled;
+      while ((pooled = idle.pollFirst()) != null) {
+        if (isUsable(pooled)) {
+          break;
+        }
+        destroy(pooled);
+      }
+
+      if (pooled == null) {
+        pooled = create();
+      }
+
+      borrowed.add(pooled);
+      return pooled.borrow(settings.getLeakDetectionThreshold() > 0);
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a borrowed connection to the pool.
+   *
+   * @param pooled The connection being returned
+   */
+  void release(PooledConnection pooled) {
+    borrowed.remove(pooled);
+
+    try {
+      long now = System.currentTimeMillis();
+      if (!closed && !pooled.isExpired(settings.getMaxLifetime(), now) && pooled.reset()) {
+        idle.offerFirst(pooled);
+      } else {
+        destroy(pooled);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Checks whether an idle connection can be handed out.
+   *
+   * @param pooled The idle connection
+   * @return true if the connection is usable
+   */
+  private boolean isUsable(PooledConnection pooled) {
+    long now = System.currentTimeMillis();
+    if (pooled.isExpired(settings.getMaxLifetime(), now)) {
+      return false;
+    }
+
+    if (now - pooled.getLastUsedAt() < VALIDATION_BYPASS_WINDOW) {
+      return true;
+    }
+
+    boolean valid = pooled.validate(settings.getValidationTimeout());
+    this.healthy = valid;
+    return valid;
+  }
+
+  /**
+   * Opens a new physical connection.
+   *
+   * @return The new pooled connection
+   * @throws SQLException If the connection cannot be opened
+   */
+  private PooledConnection create() throws SQLException {
+    try {
+      Connection connection = factory.create();
+      totalConnections.incrementAndGet();
+      this.healthy = true;
+      return new PooledConnection(this, connection, settings.getStatementCacheSize());
+    } catch (SQLException e) {
+      this.healthy = false;
+      throw e;
+    }
+  }
+
+  /**
+   * Closes a physical connection and removes it from the pool.
+   *
+   * @param pooled The connection to close
+   */
+  private void destroy(PooledConnection pooled) {
+    totalConnections.decrementAndGet();
+    pooled.closePhysical();
+  }
+
+  /**
+   * Evicts idle and expired connections, reports leaks and tops the pool up to
+   * its minimum size.
+   */
+  private void housekeep() {
+    try {
+      long now = System.currentTimeMillis();
+
+      // Rotate expired connections and trim idle ones above the minimum
+      List<PooledConnection> snapshot = new ArrayList<>(idle);
+      for (PooledConnection pooled : snapshot) {
+        boolean expired = pooled.isExpired(settings.getMaxLifetime(), now);
+        boolean idleTooLong = settings.getIdleTimeout() > 0
+            && now - pooled.getLastUsedAt() >= settings.getIdleTimeout()
+            && totalConnections.get() > settings.getMinimumIdle();
+
+        if ((expired || idleTooLong) && idle.remove(pooled)) {
+          destroy(pooled);
+        }
+      }
+
+      // Report connections held for longer than the leak threshold
+      long leakThreshold = settings.getLeakDetectionThreshold();
+      if (leakThreshold > 0) {
+        for (PooledConnection pooled : borrowed) {
+          if (!pooled.isLeakReported() && now - pooled.getBorrowedAt() >= leakThreshold) {
+            pooled.setLeakReported(true);
+            reportLeak(pooled, now);
+          }
+        }
+      }
+
+      // Keep the minimum number of connections warm
+      while (!closed && totalConnections.get() < Math.min(settings.getMinimumIdle(), settings.getMaximumPoolSize())) {
+        idle.offerLast(create());
+      }
+    } catch (SQLException e) {
+      logger.warning("Pool " + name + " could not open a connection: " + e.getMessage());
+    } catch (RuntimeException e) {
+      logger.warning("Pool " + name + " housekeeping failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Logs a possible connection leak together with where it was borrowed.
+   *
+   * @param pooled The connection that has been held too long
+   * @param now    The current time
+   */
+  private void reportLeak(PooledConnection pooled, long now) {
+    Thread borrower = pooled.getBorrower();
+    StringBuilder message = new StringBuilder("Possible connection leak in pool ")
+        .append(name)
+        .append(": held for ")
+        .append(now - pooled.getBorrowedAt())
+        .append("ms by thread ")
+        .append(borrower != null ? borrower.getName() : "unknown");
+
+    Throwable trace = pooled.getBorrowTrace();
+    if (trace != null) {
+      StackTraceElement[] elements = trace.getStackTrace();
+      for (int i = 0; i < Math.min(LEAK_TRACE_DEPTH, elements.length); i++) {
+        message.append("\n    at ").append(elements[i]);
+      }
+    }
+
+    logger.warning(message.toString());
+  }
+
+  /**
+   * Closes the pool. Idle connections are closed immediately, borrowed ones when
+   * they are returned.
+   */
+  public void close() {
+    this.closed = true;
+    housekeeper.shutdownNow();
+
+    PooledConnection pooled;
+    while ((pooled = idle.pollFirst()) != null) {
+      destroy(pooled);
+    }
+
+    if (!borrowed.isEmpty()) {
+      logger.warning("Pool " + name + " closed with " + borrowed.size() + " connection(s) still in use");
+    }
+  }
+
+  /**
+   * Checks whether the pool has been closed.
+   *
+   * @return true if closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Checks whether the last attempt to open or validate a connection succeeded.
+   *
+   * @return true if the database looked healthy on the last check
+   */
+  public boolean isHealthy() {
+    return healthy;
+  }
+
+  /**
+   * Gets the pool name.
+   *
+   * @return The pool name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the pool settings.
+   *
+   * @return The pool settings
+   */
+  public PoolSettings getSettings() {
+    return settings;
+  }
+
+  /**
+   * Gets the number of connections currently borrowed.
+   *
+   * @return The active connection count
+   */
+  public int getActiveConnections() {
+    return borrowed.size();
+  }
+
+  /**
+   * Gets the number of idle connections.
+   *
+   * @return The idle connection count
+   */
+  public int getIdleConnections() {
+    return idle.size();
+  }
+
+  /**
+   * Gets the number of open physical connections.
+   *
+   * @return The total connection count
+   */
+  public int getTotalConnections() {
+    return totalConnections.get();
+  }
+
+  /**
+   * Gets the number of threads waiting for a connection.
+   *
+   * @return The waiting thread count
+   */
+  public int getPendingThreads() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * Gets how many prepared statements were served from the statement caches.
+   *
+   * @return The statement cache hit count
+   */
+  public long getStatementCacheHits() {
+    return statementCacheHits.get();
+  }
+
+  /**
+   * Gets how many prepared statements had to be prepared by the driver.
+   *
+   * @return The statement cache miss count
+   */
+  public long getStatementCacheMisses() {
+    return statementCacheMisses.get();
+  }
+
+  void recordStatementCacheHit() {
+    statementCacheHits.incrementAndGet();
+  }
+
+  void recordStatementCacheMiss() {
+    statementCacheMisses.incrementAndGet();
+  }
+
+  /**
+   * Factory for physical connections.
+   */
+  @FunctionalInterface
+  public interface ConnectionFactory {
+    /**
+     * Opens a new physical connection.
+     *
+     * @return The new connection
+     * @throws SQLException If the connection cannot be opened
+     */
+    Connection create() throws SQLException;
+  }
+}
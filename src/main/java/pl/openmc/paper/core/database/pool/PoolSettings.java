@@ -0,0 +1,177 @@
+package pl.openmc.paper.core.database.pool;
+
+/**
+ * Settings for a {@link ConnectionPool}.
+ * All durations are in milliseconds; a value of 0 disables the related feature
+ * where noted.
+ */
+public class PoolSettings {
+  private int minimumIdle = 2;
+  private int maximumPoolSize = 10;
+  private long connectionTimeout = 30000L;
+  private long validationTimeout = 2000L;
+  private long idleTimeout = 600000L;
+  private long maxLifetime = 1800000L;
+  private long leakDetectionThreshold = 60000L;
+  private int statementCacheSize = 64;
+
+  /**
+   * Creates settings for a pool that holds exactly one connection.
+   *
+   * @return The single-connection settings
+   */
+  public static PoolSettings singleConnection() {
+    PoolSettings settings = new PoolSettings();
+    settings.setMinimumIdle(1);
+    settings.setMaximumPoolSize(1);
+    settings.setIdleTimeout(0L);
+    settings.setMaxLifetime(0L);
+    return settings;
+  }
+
+  /**
+   * Gets the number of connections the pool keeps open while idle.
+   *
+   * @return The minimum idle connection count
+   */
+  public int getMinimumIdle() {
+    return minimumIdle;
+  }
+
+  /**
+   * Sets the number of connections the pool keeps open while idle.
+   *
+   * @param minimumIdle The minimum idle connection count
+   */
+  public void setMinimumIdle(int minimumIdle) {
+    this.minimumIdle = Math.max(0, minimumIdle);
+  }
+
+  /**
+   * Gets the maximum number of connections, idle and in use.
+   *
+   * @return The maximum pool size
+   */
+  public int getMaximumPoolSize() {
+    return maximumPoolSize;
+  }
+
+  /**
+   * Sets the maximum number of connections, idle and in use.
+   *
+   * @param maximumPoolSize The maximum pool size
+   */
+  public void setMaximumPoolSize(int maximumPoolSize) {
+    this.maximumPoolSize = Math.max(1, maximumPoolSize);
+  }
+
+  /**
+   * Gets how long a caller waits for a free connection before failing.
+   *
+   * @return The connection timeout
+   */
+  public long getConnectionTimeout() {
+    return connectionTimeout;
+  }
+
+  /**
+   * Sets how long a caller waits for a free connection before failing.
+   *
+   * @param connectionTimeout The connection timeout
+   */
+  public void setConnectionTimeout(long connectionTimeout) {
+    this.connectionTimeout = Math.max(250L, connectionTimeout);
+  }
+
+  /**
+   * Gets the timeout for validating a connection on borrow.
+   *
+   * @return The validation timeout
+   */
+  public long getValidationTimeout() {
+    return validationTimeout;
+  }
+
+  /**
+   * Sets the timeout for validating a connection on borrow.
+   *
+   * @param validationTimeout The validation timeout
+   */
+  public void setValidationTimeout(long validationTimeout) {
+    this.validationTimeout = Math.max(250L, validationTimeout);
+  }
+
+  /**
+   * Gets how long a connection may sit idle before it is evicted (0 disables).
+   *
+   * @return The idle timeout
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Sets how long a connection may sit idle before it is evicted (0 disables).
+   *
+   * @param idleTimeout The idle timeout
+   */
+  public void setIdleTimeout(long idleTimeout) {
+    this.idleTimeout = Math.max(0L, idleTimeout);
+  }
+
+  /**
+   * Gets the maximum lifetime of a connection before it is rotated (0 disables).
+   *
+   * @return The maximum lifetime
+   */
+  public long getMaxLifetime() {
+    return maxLifetime;
+  }
+
+  /**
+   * Sets the maximum lifetime of a connection before it is rotated (0 disables).
+   *
+   * @param maxLifetime The maximum lifetime
+   */
+  public void setMaxLifetime(long maxLifetime) {
+    this.maxLifetime = Math.max(0L, maxLifetime);
+  }
+
+  /**
+   * Gets how long a connection may be held before it is reported as leaked (0
+   * disables).
+   *
+   * @return The leak detection threshold
+   */
+  public long getLeakDetectionThreshold() {
+    return leakDetectionThreshold;
+  }
+
+  /**
+   * Sets how long a connection may be held before it is reported as leaked (0
+   * disables).
+   *
+   * @param leakDetectionThreshold The leak detection threshold
+   */
+  public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+    this.leakDetectionThreshold = Math.max(0L, leakDetectionThreshold);
+  }
+
+  /**
+   * Gets the number of prepared statements cached per connection (0 disables).
+   *
+   * @return The statement cache size
+   */
+  public int getStatementCacheSize() {
+    return statementCacheSize;
+  }
+
+  /**
+   * Sets the number of prepared statements cached per connection (0 disables).
+   *
+   * @param statementCacheSize The statement cache size
+   */
+  public void setStatementCacheSize(int statementCacheSize) {
+    this.statementCacheSize = Math.max(0, statementCacheSize);
+  }
+}
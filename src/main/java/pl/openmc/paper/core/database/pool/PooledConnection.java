@@ -0,0 +1,225 @@
+package pl.openmc.paper.core.database.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}.
+ * Every borrow hands out a fresh proxy handle; closing the handle returns the
+ * physical connection to the pool instead of closing it. Plain
+ * prepareStatement calls are served from a per-connection statement cache.
+ */
+final class PooledConnection {
+  private final ConnectionPool pool;
+  private final Connection connection;
+  private final StatementCache statementCache;
+  private final long createdAt;
+  private volatile long lastUsedAt;
+  private volatile long borrowedAt;
+  private volatile Thread borrower;
+  private volatile Throwable borrowTrace;
+  private volatile boolean leakReported;
+  private volatile boolean broken;
+
+  PooledConnection(ConnectionPool pool, Connection connection, int statementCacheSize) {
+    this.pool = pool;
+    this.connection = connection;
+    this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize, pool) : null;
+    this.createdAt = System.currentTimeMillis();
+    this.lastUsedAt = createdAt;
+  }
+
+  /**
+   * Marks this connection as borrowed and creates the handle for the borrower.
+   *
+   * @param captureTrace Whether to record the borrower's stack for leak reports
+   * @return The connection handle
+   */
+  Connection borrow(boolean captureTrace) {
+    this.borrowedAt = System.currentTimeMillis();
+    this.borrower = Thread.currentThread();
+    this.borrowTrace = captureTrace ? new Throwable("Connection borrowed here") : null;
+    this.leakReported = false;
+
+    return (Connection) Proxy.newProxyInstance(
+        Connection.class.getClassLoader(),
+        new Class<?>[] { Connection.class },
+        new Handle());
+  }
+
+  /**
+   * Restores the connection to a clean state before it goes back to the pool.
+   *
+   * @return true if the connection can be reused
+   */
+  boolean reset() {
+    if (broken) {
+      return false;
+    }
+
+    try {
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+      connection.clearWarnings();
+      this.lastUsedAt = System.currentTimeMillis();
+      this.borrower = null;
+      this.borrowTrace = null;
+      return true;
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Checks whether the physical connection is still alive.
+   *
+   * @param timeoutMillis The validation timeout
+   * @return true if the connection is valid
+   */
+  boolean validate(long timeoutMillis) {
+    try {
+      return !connection.isClosed() && connection.isValid((int) Math.max(1, timeoutMillis / 1000));
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Closes the physical connection.
+   */
+  void closePhysical() {
+    if (statementCache != null) {
+      statementCache.closeAll();
+    }
+
+    try {
+      connection.close();
+    } catch (SQLException ignored) {
+      // Nothing useful can be done with a connection that fails to close
+    }
+  }
+
+  boolean isExpired(long maxLifetime, long now) {
+    return maxLifetime > 0 && now - createdAt >= maxLifetime;
+  }
+
+  long getLastUsedAt() {
+    return lastUsedAt;
+  }
+
+  long getBorrowedAt() {
+    return borrowedAt;
+  }
+
+  Thread getBorrower() {
+    return borrower;
+  }
+
+  Throwable getBorrowTrace() {
+    return borrowTrace;
+  }
+
+  boolean isLeakReported() {
+    return leakReported;
+  }
+
+  void setLeakReported(boolean leakReported) {
+    this.leakReported = leakReported;
+  }
+
+  /**
+   * Invocation handler backing a single borrow of this connection.
+   */
+  private final class Handle implements InvocationHandler {
+    private final AtomicBoolean returned = new AtomicBoolean();
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (returned.compareAndSet(false, true)) {
+            pool.release(PooledConnection.this);
+          }
+          return null;
+        case "isClosed":
+          return returned.get() || connection.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "PooledConnection[" + connection + "]";
+        default:
+          break;
+      }
+
+      if (returned.get()) {
+        throw new SQLException("Connection has already been returned to the pool");
+      }
+
+      if (statementCache != null && method.getName().equals("prepareStatement")) {
+        Object cached = prepareCached(proxy, args);
+        if (cached != null) {
+          return cached;
+        }
+      }
+
+      try {
+        return method.invoke(connection, args);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SQLException && isFatal((SQLException) cause)) {
+          broken = true;
+        }
+        throw cause;
+      }
+    }
+
+    /**
+     * Serves prepareStatement(sql) and prepareStatement(sql, type, concurrency)
+     * from the statement cache.
+     *
+     * @param proxy The connection handle
+     * @param args  The prepareStatement arguments
+     * @return The cached statement, or null if the overload is not cached
+     * @throws SQLException If the statement cannot be prepared
+     */
+    private Object prepareCached(Object proxy, Object[] args) throws SQLException {
+      String sql = (String) args[0];
+      try {
+        if (args.length == 1) {
+          return statementCache.prepare(connection, (Connection) proxy, sql, ResultSet.TYPE_FORWARD_ONLY,
+              ResultSet.CONCUR_READ_ONLY);
+        }
+        if (args.length == 3) {
+          return statementCache.prepare(connection, (Connection) proxy, sql, (Integer) args[1], (Integer) args[2]);
+        }
+        return null;
+      } catch (SQLException e) {
+        if (isFatal(e)) {
+          broken = true;
+        }
+        throw e;
+      }
+    }
+
+    /**
+     * Checks whether an exception means the physical connection is unusable.
+     *
+     * @param e The exception to check
+     * @return true if the connection should be discarded
+     */
+    private boolean isFatal(SQLException e) {
+      String state = e.getSQLState();
+      return state != null && (state.startsWith("08") || state.equals("57P01"));
+    }
+  }
+}
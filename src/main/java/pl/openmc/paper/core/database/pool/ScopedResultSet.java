@@ -0,0 +1,65 @@
+package pl.openmc.paper.core.database.pool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ties the statement and pooled connection behind a result set to the result
+ * set itself, so closing the result set releases everything it depends on.
+ */
+public final class ScopedResultSet {
+  private ScopedResultSet() {
+  }
+
+  /**
+   * Wraps a result set so that closing it also closes its owners, in order.
+   *
+   * @param resultSet The result set to wrap
+   * @param owners    The resources to close after the result set, usually the
+   *                  statement followed by the connection
+   * @return The wrapped result set
+   */
+  public static ResultSet wrap(ResultSet resultSet, AutoCloseable... owners) {
+    AtomicBoolean closed = new AtomicBoolean();
+
+    return (ResultSet) Proxy.newProxyInstance(
+        ResultSet.class.getClassLoader(),
+        new Class<?>[] { ResultSet.class },
+        (proxy, method, args) -> {
+          if ("close".equals(method.getName())) {
+            if (closed.compareAndSet(false, true)) {
+              closeQuietly(resultSet);
+              closeQuietly(owners);
+            }
+            return null;
+          }
+
+          try {
+            return method.invoke(resultSet, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  /**
+   * Closes resources, ignoring failures.
+   *
+   * @param resources The resources to close, in order; null entries are skipped
+   */
+  public static void closeQuietly(AutoCloseable... resources) {
+    for (AutoCloseable resource : resources) {
+      if (resource == null) {
+        continue;
+      }
+
+      try {
+        resource.close();
+      } catch (Exception ignored) {
+        // Closing is best-effort
+      }
+    }
+  }
+}
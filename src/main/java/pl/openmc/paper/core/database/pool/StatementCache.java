@@ -0,0 +1,183 @@
+package pl.openmc.paper.core.database.pool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of prepared statements for one physical connection.
+ * Closing a cached statement returns it to the cache with its parameters
+ * cleared, so a hot query is parsed once per connection. A connection is only
+ * used by one thread at a time, so the cache needs no locking.
+ */
+final class StatementCache {
+  private final int capacity;
+  private final ConnectionPool pool;
+  private final LinkedHashMap<String, CachedStatement> entries;
+
+  /**
+   * Creates a new statement cache.
+   *
+   * @param capacity The maximum number of cached statements
+   * @param pool     The owning pool, which keeps the hit and miss counters
+   */
+  StatementCache(int capacity, ConnectionPool pool) {
+    this.capacity = capacity;
+    this.pool = pool;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Gets a prepared statement from the cache, preparing it on a miss.
+   *
+   * @param connection  The physical connection
+   * @param handle      The pooled connection handle exposed to the caller
+   * @param sql         The SQL to prepare
+   * @param type        The result set type
+   * @param concurrency The result set concurrency
+   * @return A statement whose close() returns it to the cache
+   * @throws SQLException If the statement cannot be prepared
+   */
+  PreparedStatement prepare(Connection connection, Connection handle, String sql, int type, int concurrency)
+      throws SQLException {
+    String key = type + ":" + concurrency + ":" + sql;
+    CachedStatement cached = entries.get(key);
+
+    // Closed on return because it could not be reset, so prepare it again
+    if (cached != null && cached.evicted) {
+      entries.remove(key);
+      cached = null;
+    }
+
+    if (cached != null && !cached.inUse) {
+      pool.recordStatementCacheHit();
+    } else {
+      pool.recordStatementCacheMiss();
+      PreparedStatement statement = connection.prepareStatement(sql, type, concurrency);
+
+      // The same SQL is already checked out: hand out an uncached statement
+      if (cached != null) {
+        return statement;
+      }
+
+      cached = new CachedStatement(statement);
+      entries.put(key, cached);
+      evictOverflow();
+    }
+
+    cached.inUse = true;
+    return cached.checkout(handle);
+  }
+
+  /**
+   * Closes statements beyond the capacity, least recently used first.
+   */
+  private void evictOverflow() {
+    Iterator<Map.Entry<String, CachedStatement>> iterator = entries.entrySet().iterator();
+    while (entries.size() > capacity && iterator.hasNext()) {
+      CachedStatement eldest = iterator.next().getValue();
+      iterator.remove();
+      eldest.evicted = true;
+      if (!eldest.inUse) {
+        ScopedResultSet.closeQuietly(eldest.statement);
+      }
+    }
+  }
+
+  /**
+   * Closes every cached statement.
+   */
+  void closeAll() {
+    for (CachedStatement cached : entries.values()) {
+      ScopedResultSet.closeQuietly(cached.statement);
+    }
+    entries.clear();
+  }
+
+  /**
+   * A statement held by the cache.
+   */
+  private static final class CachedStatement {
+    private final PreparedStatement statement;
+    private boolean inUse;
+    private boolean evicted;
+
+    private CachedStatement(PreparedStatement statement) {
+      this.statement = statement;
+    }
+
+    /**
+     * Creates the handle given to one user of the statement.
+     *
+     * @param connection The pooled connection handle
+     * @return The statement handle
+     */
+    private PreparedStatement checkout(Connection connection) {
+      boolean[] returned = new boolean[1];
+
+      return (PreparedStatement) Proxy.newProxyInstance(
+          PreparedStatement.class.getClassLoader(),
+          new Class<?>[] { PreparedStatement.class },
+          (proxy, method, args) -> {
+            switch (method.getName()) {
+              case "close":
+                if (!returned[0]) {
+                  returned[0] = true;
+                  checkin();
+                }
+                return null;
+              case "isClosed":
+                return returned[0] || statement.isClosed();
+              case "getConnection":
+                return connection;
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              default:
+                break;
+            }
+
+            if (returned[0]) {
+              throw new SQLException("Statement has already been closed");
+            }
+
+            try {
+              return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          });
+    }
+
+    /**
+     * Returns the statement to the cache, or closes it if it was evicted while
+     * in use. A statement that cannot be reset is closed and stays in the map
+     * marked as evicted until the next prepare of its SQL replaces it.
+     */
+    private void checkin() {
+      inUse = false;
+      if (evicted) {
+        ScopedResultSet.closeQuietly(statement);
+        return;
+      }
+
+      try {
+        statement.clearParameters();
+        statement.clearBatch();
+        statement.clearWarnings();
+        if (statement.getFetchSize() != 0) {
+          statement.setFetchSize(0);
+        }
+      } catch (SQLException e) {
+        evicted = true;
+        ScopedResultSet.closeQuietly(statement);
+      }
+    }
+  }
+}
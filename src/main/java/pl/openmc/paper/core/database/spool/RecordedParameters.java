@@ -0,0 +1,268 @@
+package pl.openmc.paper.core.database.spool;
+
+import pl.openmc.paper.core.database.Store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The parameters a {@link Store.PreparedStatementCallback} binds, captured by
+ * running it against a recording statement. Recorded parameters can be stored
+ * in the spool file and bound to a real statement later, without the
+ * callback. Only the plain setters the stores use are supported.
+ */
+public final class RecordedParameters {
+  private static final byte KIND_NULL = 0;
+  private static final byte KIND_STRING = 1;
+  private static final byte KIND_INT = 2;
+  private static final byte KIND_LONG = 3;
+  private static final byte KIND_DOUBLE = 4;
+  private static final byte KIND_BOOLEAN = 5;
+  private static final byte KIND_BYTES = 6;
+
+  // Parameter index to value, in index order
+  private final Map<Integer, Parameter> parameters;
+
+  /**
+   * Creates an empty parameter set.
+   */
+  private RecordedParameters() {
+    this.parameters = new TreeMap<>();
+  }
+
+  /**
+   * Runs a callback against a recording statement and captures what it binds.
+   *
+   * @param callback The callback binding the parameters
+   * @return The recorded parameters
+   * @throws SQLFeatureNotSupportedException If the callback uses a setter or
+   *                                         statement method that cannot be
+   *                                         recorded
+   * @throws Exception                       If the callback fails
+   */
+  public static RecordedParameters record(Store.PreparedStatementCallback callback) throws Exception {
+    RecordedParameters recorded = new RecordedParameters();
+    PreparedStatement recorder = (PreparedStatement) Proxy.newProxyInstance(
+        RecordedParameters.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+        (proxy, method, args) -> recorded.capture(method, args));
+    callback.process(recorder);
+    return recorded;
+  }
+
+  /**
+   * Stores a call made on the recording statement.
+   *
+   * @param method The method called
+   * @param args   The arguments
+   * @return null, as all supported methods return void
+   * @throws SQLFeatureNotSupportedException If the method cannot be recorded
+   */
+  private Object capture(Method method, Object[] args) throws SQLFeatureNotSupportedException {
+    String name = method.getName();
+    if (name.equals("clearParameters")) {
+      parameters.clear();
+      return null;
+    }
+
+    if (args != null && args.length == 2 && args[0] instanceof Integer) {
+      int index = (Integer) args[0];
+      Object value = args[1];
+      switch (name) {
+        case "setString":
+          parameters.put(index, value != null ? new Parameter(KIND_STRING, value) : new Parameter(KIND_NULL, null));
+          return null;
+        case "setInt":
+          parameters.put(index, new Parameter(KIND_INT, value));
+          return null;
+        case "setLong":
+          parameters.put(index, new Parameter(KIND_LONG, value));
+          return null;
+        case "setDouble":
+          parameters.put(index, new Parameter(KIND_DOUBLE, value));
+          return null;
+        case "setBoolean":
+          parameters.put(index, new Parameter(KIND_BOOLEAN, value));
+          return null;
+        case "setBytes":
+          parameters.put(index, value != null ? new Parameter(KIND_BYTES, value) : new Parameter(KIND_NULL, null));
+          return null;
+        case "setNull":
+          parameters.put(index, new Parameter(KIND_NULL, null));
+          return null;
+        default:
+          break;
+      }
+    }
+
+    throw new SQLFeatureNotSupportedException("Cannot record PreparedStatement." + name + " for the spool");
+  }
+
+  /**
+   * Binds the recorded parameters to a statement.
+   *
+   * @param statement The statement
+   * @throws SQLException If a parameter cannot be set
+   */
+  public void apply(PreparedStatement statement) throws SQLException {
+    for (Map.Entry<Integer, Parameter> entry : parameters.entrySet()) {
+      int index = entry.getKey();
+      Object value = entry.getValue().value;
+      switch (entry.getValue().kind) {
+        case KIND_STRING:
+          statement.setString(index, (String) value);
+          break;
+        case KIND_INT:
+          statement.setInt(index, (Integer) value);
+          break;
+        case KIND_LONG:
+          statement.setLong(index, (Long) value);
+          break;
+        case KIND_DOUBLE:
+          statement.setDouble(index, (Double) value);
+          break;
+        case KIND_BOOLEAN:
+          statement.setBoolean(index, (Boolean) value);
+          break;
+        case KIND_BYTES:
+          statement.setBytes(index, (byte[]) value);
+          break;
+        default:
+          // The SQL type is not recorded; drivers accept NULL for the common ones
+          statement.setObject(index, null);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Writes the parameters to a spool record.
+   *
+   * @param out The record body
+   * @throws IOException If writing fails
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(parameters.size());
+    for (Map.Entry<Integer, Parameter> entry : parameters.entrySet()) {
+      Parameter parameter = entry.getValue();
+      out.writeInt(entry.getKey());
+      out.writeByte(parameter.kind);
+      switch (parameter.kind) {
+        case KIND_STRING:
+          writeBytes(out, ((String) parameter.value).getBytes(StandardCharsets.UTF_8));
+          break;
+        case KIND_INT:
+          out.writeInt((Integer) parameter.value);
+          break;
+        case KIND_LONG:
+          out.writeLong((Long) parameter.value);
+          break;
+        case KIND_DOUBLE:
+          out.writeDouble((Double) parameter.value);
+          break;
+        case KIND_BOOLEAN:
+          out.writeBoolean((Boolean) parameter.value);
+          break;
+        case KIND_BYTES:
+          writeBytes(out, (byte[]) parameter.value);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Reads parameters from a spool record.
+   *
+   * @param in The record body
+   * @return The parameters
+   * @throws IOException If the record is malformed
+   */
+  static RecordedParameters read(DataInputStream in) throws IOException {
+    RecordedParameters recorded = new RecordedParameters();
+    int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      int index = in.readInt();
+      byte kind = in.readByte();
+      Object value;
+      switch (kind) {
+        case KIND_NULL:
+          value = null;
+          break;
+        case KIND_STRING:
+          value = new String(readBytes(in), StandardCharsets.UTF_8);
+          break;
+        case KIND_INT:
+          value = in.readInt();
+          break;
+        case KIND_LONG:
+          value = in.readLong();
+          break;
+        case KIND_DOUBLE:
+          value = in.readDouble();
+          break;
+        case KIND_BOOLEAN:
+          value = in.readBoolean();
+          break;
+        case KIND_BYTES:
+          value = readBytes(in);
+          break;
+        default:
+          throw new IOException("Unknown spooled parameter kind " + kind);
+      }
+      recorded.parameters.put(index, new Parameter(kind, value));
+    }
+    return recorded;
+  }
+
+  /**
+   * Writes a length-prefixed byte array.
+   *
+   * @param out   The stream
+   * @param bytes The bytes
+   * @throws IOException If writing fails
+   */
+  static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a length-prefixed byte array.
+   *
+   * @param in The stream
+   * @return The bytes
+   * @throws IOException If the length is invalid or the stream ends early
+   */
+  static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > in.available()) {
+      throw new IOException("Invalid spooled value length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * A recorded parameter value.
+   */
+  private static final class Parameter {
+    private final byte kind;
+    private final Object value;
+
+    private Parameter(byte kind, Object value) {
+      this.kind = kind;
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+package pl.openmc.paper.core.database.spool;
+
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file mirroring the updates a write-behind queue holds back while
+ * the database is unreachable, so they survive a restart.
+ * Every spooled update is appended with an increasing id. Updates leave the
+ * spool in id order, so a single record marking an id as written covers all
+ * updates before it. Records carry a CRC32 like the player journal, and a torn
+ * tail is cut off when the file is opened. Appends are not synced one by one;
+ * the owner calls {@link #sync()} once per batch. Not thread-safe: only the
+ * queue's flusher touches the spool once it is open.
+ */
+public class WriteSpool {
+  private static final byte TYPE_WRITE = 1;
+  private static final byte TYPE_WRITTEN = 2;
+  private static final int HEADER_SIZE = 8;
+  private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+  private final File file;
+  private final LoggerUtil logger;
+
+  // Spool state
+  private final List<SpooledWrite> recovered;
+  private FileChannel channel;
+  private long nextId;
+  private boolean dirty;
+  private volatile long size;
+
+  /**
+   * Creates a new spool. Nothing is read or written until {@link #open()} is
+   * called.
+   *
+   * @param file   The spool file
+   * @param logger The plugin logger
+   */
+  public WriteSpool(File file, LoggerUtil logger) {
+    this.file = file;
+    this.logger = logger;
+    this.recovered = new ArrayList<>();
+    this.nextId = 1L;
+  }
+
+  /**
+   * Reads the updates left in the spool file by the last run and opens the
+   * file for appending.
+   *
+   * @throws IOException If the spool file cannot be read or written
+   */
+  public void open() throws IOException {
+    File directory = file.getParentFile();
+    if (directory != null && !directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Cannot create spool directory " + directory);
+    }
+
+    Path path = file.toPath();
+    if (Files.exists(path)) {
+      replay(path);
+    }
+
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    this.size = channel.size();
+
+    if (!recovered.isEmpty()) {
+      logger.warning("Write spool " + file.getName() + " holds " + recovered.size()
+          + " update(s) not written before the last shutdown, they are written once the database is reachable");
+    }
+  }
+
+  /**
+   * Gets the updates read from the spool file when it was opened, in the
+   * order they have to be written.
+   *
+   * @return The recovered updates
+   */
+  public List<SpooledWrite> getRecovered() {
+    return Collections.unmodifiableList(recovered);
+  }
+
+  /**
+   * Appends an update. It is durable after the next {@link #sync()}.
+   *
+   * @param query      The resolved SQL query
+   * @param parameters The recorded statement parameters
+   * @param spooledAt  When the update was spooled, in milliseconds since the
+   *                   epoch
+   * @return The id to mark as written once the update is committed
+   * @throws IOException If the record cannot be written
+   */
+  public long append(String query, RecordedParameters parameters, long spooledAt) throws IOException {
+    long id = nextId++;
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      for (int i = 0; i < HEADER_SIZE; i++) {
+        out.writeByte(0);
+      }
+      out.writeByte(TYPE_WRITE);
+      out.writeLong(id);
+      out.writeLong(spooledAt);
+      RecordedParameters.writeBytes(out, query.getBytes(StandardCharsets.UTF_8));
+      parameters.write(out);
+    }
+
+    byte[] record = bytes.toByteArray();
+    if (record.length - HEADER_SIZE > MAX_RECORD_SIZE) {
+      throw new IOException("Spooled update is too large (" + record.length + " bytes)");
+    }
+    write(seal(ByteBuffer.wrap(record)));
+    return id;
+  }
+
+  /**
+   * Records that every update up to an id has left the spool.
+   *
+   * @param id The highest written id
+   * @throws IOException If the record cannot be written
+   */
+  public void markWritten(long id) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 1 + 8);
+    record.putInt(0);
+    record.putInt(0);
+    record.put(TYPE_WRITTEN);
+    record.putLong(id);
+    write(seal(record));
+  }
+
+  /**
+   * Forces the records appended since the last sync to disk.
+   *
+   * @throws IOException If the file cannot be synced
+   */
+  public void sync() throws IOException {
+    if (dirty) {
+      channel.force(false);
+      this.dirty = false;
+    }
+  }
+
+  /**
+   * Empties the spool file once nothing is spooled any more, so it does not
+   * grow across outages.
+   *
+   * @throws IOException If the file cannot be truncated
+   */
+  public void reset() throws IOException {
+    if (size > 0) {
+      channel.truncate(0);
+      channel.force(false);
+      this.size = 0;
+      this.dirty = false;
+    }
+  }
+
+  /**
+   * Syncs and closes the spool file. Updates not marked as written are read
+   * again on the next open.
+   */
+  public void close() {
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.force(false);
+      channel.close();
+    } catch (IOException e) {
+      logger.warning("Failed to close write spool " + file.getName() + ": " + e.getMessage());
+    }
+    this.channel = null;
+  }
+
+  /**
+   * Gets the size of the spool file.
+   *
+   * @return The size in bytes
+   */
+  public long getSizeBytes() {
+    return size;
+  }
+
+  /**
+   * Writes a complete record at the end of the file.
+   *
+   * @param record The record
+   * @throws IOException If writing fails
+   */
+  private void write(ByteBuffer record) throws IOException {
+    int length = record.remaining();
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+    this.size += length;
+    this.dirty = true;
+  }
+
+  /**
+   * Reads the records of the spool file. A record with a bad length or checksum
+   * ends the file, and the file is truncated there.
+   *
+   * @param path The spool file
+   * @throws IOException If the file cannot be read
+   */
+  private void replay(Path path) throws IOException {
+    byte[] bytes = Files.readAllBytes(path);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    CRC32 crc = new CRC32();
+    List<SpooledWrite> writes = new ArrayList<>();
+    long written = 0;
+    long maxId = 0;
+
+    while (buffer.remaining() > 0) {
+      int start = buffer.position();
+      if (buffer.remaining() < HEADER_SIZE) {
+        truncate(path, start, bytes.length);
+        break;
+      }
+
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length <= 0 || length > MAX_RECORD_SIZE || length > buffer.remaining()) {
+        truncate(path, start, bytes.length);
+        break;
+      }
+
+      crc.reset();
+      crc.update(bytes, start + HEADER_SIZE, length);
+      if ((int) crc.getValue() != checksum) {
+        truncate(path, start, bytes.length);
+        break;
+      }
+
+      try (DataInputStream body = new DataInputStream(
+          new ByteArrayInputStream(bytes, start + HEADER_SIZE, length))) {
+        byte type = body.readByte();
+        long id = body.readLong();
+        maxId = Math.max(maxId, id);
+
+        if (type == TYPE_WRITE) {
+          long spooledAt = body.readLong();
+          String query = new String(RecordedParameters.readBytes(body), StandardCharsets.UTF_8);
+          writes.add(new SpooledWrite(id, spooledAt, query, RecordedParameters.read(body)));
+        } else if (type == TYPE_WRITTEN) {
+          written = Math.max(written, id);
+        }
+      } catch (IOException e) {
+        // The checksum matched, so the record was written by an incompatible
+        // version; skip it rather than losing the rest of the file
+        logger.warning("Skipping unreadable record in write spool " + file.getName() + ": " + e.getMessage());
+      }
+
+      buffer.position(start + HEADER_SIZE + length);
+    }
+
+    for (SpooledWrite write : writes) {
+      if (write.getId() > written) {
+        recovered.add(write);
+      }
+    }
+    this.nextId = maxId + 1L;
+  }
+
+  /**
+   * Cuts a torn or corrupt tail off the spool file.
+   *
+   * @param path     The spool file
+   * @param position The offset of the first bad record
+   * @param size     The size of the file
+   * @throws IOException If the file cannot be truncated
+   */
+  private void truncate(Path path, int position, int size) throws IOException {
+    logger.warning("Write spool " + path.getFileName() + " has a damaged tail, discarding "
+        + (size - position) + " byte(s)");
+    try (FileChannel spoolFile = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      spoolFile.truncate(position);
+    }
+  }
+
+  /**
+   * Fills in the length and checksum of a record.
+   *
+   * @param record The complete record, header included
+   * @return The record positioned at its start
+   */
+  private static ByteBuffer seal(ByteBuffer record) {
+    int length = record.capacity() - HEADER_SIZE;
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), HEADER_SIZE, length);
+    record.putInt(0, length);
+    record.putInt(4, (int) crc.getValue());
+    record.position(0);
+    return record;
+  }
+
+  /**
+   * An update read back from the spool file.
+   */
+  public static final class SpooledWrite {
+    private final long id;
+    private final long spooledAt;
+    private final String query;
+    private final RecordedParameters parameters;
+
+    /**
+     * Creates a recovered update.
+     *
+     * @param id         The spool id
+     * @param spooledAt  When the update was spooled
+     * @param query      The resolved SQL query
+     * @param parameters The recorded statement parameters
+     */
+    private SpooledWrite(long id, long spooledAt, String query, RecordedParameters parameters) {
+      this.id = id;
+      this.spooledAt = spooledAt;
+      this.query = query;
+      this.parameters = parameters;
+    }
+
+    /**
+     * Gets the spool id.
+     *
+     * @return The id
+     */
+    public long getId() {
+      return id;
+    }
+
+    /**
+     * Gets when the update was spooled, in milliseconds since the epoch.
+     *
+     * @return The spool time
+     */
+    public long getSpooledAt() {
+      return spooledAt;
+    }
+
+    /**
+     * Gets the resolved SQL query.
+     *
+     * @return The query
+     */
+    public String getQuery() {
+      return query;
+    }
+
+    /**
+     * Gets the recorded statement parameters.
+     *
+     * @return The parameters
+     */
+    public RecordedParameters getParameters() {
+      return parameters;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package pl.openmc.paper.core.database.sqlite;
+
+/**
+ * Tuning settings for {@link StoreSQLite}.
+ */
+public class SQLiteSettings {
+  private boolean walEnabled = true;
+  private int readerConnections = 4;
+  private int cacheSize = 16384;
+  private long mmapSize = 268435456L;
+  private int busyTimeout = 5000;
+
+  /**
+   * Checks whether write-ahead logging is used. Without WAL the store falls
+   * back to a single connection shared by readers and the writer.
+   *
+   * @return true if WAL journaling is enabled
+   */
+  public boolean isWalEnabled() {
+    return walEnabled;
+  }
+
+  /**
+   * Sets whether write-ahead logging is used.
+   *
+   * @param walEnabled true to enable WAL journaling
+   */
+  public void setWalEnabled(boolean walEnabled) {
+    this.walEnabled = walEnabled;
+  }
+
+  /**
+   * Gets the number of read-only connections used next to the writer in WAL
+   * mode.
+   *
+   * @return The reader connection count
+   */
+  public int getReaderConnections() {
+    return readerConnections;
+  }
+
+  /**
+   * Sets the number of read-only connections used next to the writer in WAL
+   * mode.
+   *
+   * @param readerConnections The reader connection count
+   */
+  public void setReaderConnections(int readerConnections) {
+    this.readerConnections = Math.max(1, readerConnections);
+  }
+
+  /**
+   * Gets the page cache size of each connection in KiB.
+   *
+   * @return The page cache size
+   */
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * Sets the page cache size of each connection in KiB.
+   *
+   * @param cacheSize The page cache size
+   */
+  public void setCacheSize(int cacheSize) {
+    this.cacheSize = Math.max(0, cacheSize);
+  }
+
+  /**
+   * Gets the number of bytes of the database file mapped into memory (0
+   * disables memory-mapped I/O).
+   *
+   * @return The mmap size
+   */
+  public long getMmapSize() {
+    return mmapSize;
+  }
+
+  /**
+   * Sets the number of bytes of the database file mapped into memory (0
+   * disables memory-mapped I/O).
+   *
+   * @param mmapSize The mmap size
+   */
+  public void setMmapSize(long mmapSize) {
+    this.mmapSize = Math.max(0L, mmapSize);
+  }
+
+  /**
+   * Gets how long a connection waits for a lock held by another connection, in
+   * milliseconds.
+   *
+   * @return The busy timeout
+   */
+  public int getBusyTimeout() {
+    return busyTimeout;
+  }
+
+  /**
+   * Sets how long a connection waits for a lock held by another connection, in
+   * milliseconds.
+   *
+   * @param busyTimeout The busy timeout
+   */
+  public void setBusyTimeout(int busyTimeout) {
+    this.busyTimeout = Math.max(0, busyTimeout);
+  }
+}
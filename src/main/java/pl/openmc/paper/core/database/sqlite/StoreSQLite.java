@@ -1,46 +1,36 @@
 package pl.openmc.paper.core.database.sqlite;
 
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitTask;
-import pl.openmc.paper.core.Main;
-import pl.openmc.paper.core.database.Callback;
-import pl.openmc.paper.core.database.Store;
+import pl.openmc.paper.core.database.BaseStore;
 import pl.openmc.paper.core.database.StoreMode;
-import pl.openmc.paper.core.utils.LoggerUtil;
+import pl.openmc.paper.core.database.StoreSettings;
+import pl.openmc.paper.core.database.pool.ConnectionPool;
+import pl.openmc.paper.core.database.pool.PoolSettings;
+import pl.openmc.paper.core.database.pool.ScopedResultSet;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * SQLite implementation of the Store interface.
  * Provides thread-safe database operations for local SQLite databases.
+ * In WAL mode all writes go through a single writer connection, whose grouped
+ * transactions come from the write-behind flusher, while queries run on a
+ * small pool of read-only connections that never wait for the writer.
  */
-public class StoreSQLite implements Store {
+public class StoreSQLite extends BaseStore {
   // Database connection parameters
   private final File databaseFile;
-  private final String prefix;
-
-  // Connection and state management
-  private Connection conn;
-  private long lastActivity;
-  private final ExecutorService executor;
-  private final AtomicInteger threadCounter;
-  private BukkitTask keepAliveTask;
+  private final PoolSettings poolSettings;
+  private final SQLiteSettings sqliteSettings;
+  private volatile ConnectionPool readerPool;
 
   // Configuration constants
-  private static final int KEEP_ALIVE_INTERVAL = 60;
   private static final String JDBC_DRIVER = "org.sqlite.JDBC";
-  private final LoggerUtil logger;
 
   /**
    * Creates a new SQLite store with the specified database file.
@@ -50,35 +40,56 @@ public class StoreSQLite implements Store {
    * @throws IllegalArgumentException If any parameter is invalid
    */
   public StoreSQLite(File databaseFile, String prefix) {
+    this(databaseFile, prefix, new StoreSettings());
+  }
+
+  /**
+   * Creates a new SQLite store with the specified database file and settings.
+   *
+   * @param databaseFile  The SQLite database file
+   * @param prefix        The table prefix
+   * @param storeSettings The store tuning settings
+   * @throws IllegalArgumentException If any parameter is invalid
+   */
+  public StoreSQLite(File databaseFile, String prefix, StoreSettings storeSettings) {
+    this(databaseFile, prefix, new PoolSettings(), storeSettings);
+  }
+
+  /**
+   * Creates a new SQLite store with the specified database file and settings.
+   * The pool always holds a single connection; only the timeouts and statement
+   * cache size are taken from the pool settings.
+   *
+   * @param databaseFile  The SQLite database file
+   * @param prefix        The table prefix
+   * @param poolSettings  The connection pool settings
+   * @param storeSettings The store tuning settings
+   * @throws IllegalArgumentException If any parameter is invalid
+   */
+  public StoreSQLite(File databaseFile, String prefix, PoolSettings poolSettings, StoreSettings storeSettings) {
+    this(databaseFile, prefix, poolSettings, new SQLiteSettings(), storeSettings);
+  }
+
+  /**
+   * Creates a new SQLite store with the specified database file and settings.
+   * The writer always uses a single connection; only the timeouts and statement
+   * cache size are taken from the pool settings.
+   *
+   * @param databaseFile   The SQLite database file
+   * @param prefix         The table prefix
+   * @param poolSettings   The connection pool settings
+   * @param sqliteSettings The SQLite tuning settings
+   * @param storeSettings  The store tuning settings
+   * @throws IllegalArgumentException If any parameter is invalid
+   */
+  public StoreSQLite(File databaseFile, String prefix, PoolSettings poolSettings, SQLiteSettings sqliteSettings,
+      StoreSettings storeSettings) {
+    super(prefix, storeSettings);
+
     // Validate parameters
     this.databaseFile = Objects.requireNonNull(databaseFile, "Database file cannot be null");
-    this.prefix = prefix != null ? prefix : "";
-    this.logger = Main.getInstance().getPluginLogger();
-
-    // Initialize thread management
-    this.executor = Executors.newSingleThreadExecutor(r -> {
-      Thread thread = new Thread(r, "SQLite-Worker");
-      thread.setDaemon(true);
-      return thread;
-    });
-    this.lastActivity = System.currentTimeMillis();
-    this.threadCounter = new AtomicInteger();
-
-    // Schedule keep-alive task to prevent connection timeouts
-    this.keepAliveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(
-        Main.getInstance(),
-        () -> {
-          if (System.currentTimeMillis() - lastActivity > TimeUnit.SECONDS.toMillis(KEEP_ALIVE_INTERVAL)) {
-            // Use query instead of update for SELECT statements
-            try (ResultSet rs = query("SELECT 1")) {
-              // Just checking connection, no need to process the result
-            } catch (Exception e) {
-              logger.warning("Keep-alive query failed: " + e.getMessage());
-            }
-          }
-        },
-        KEEP_ALIVE_INTERVAL * 20L,
-        KEEP_ALIVE_INTERVAL * 20L);
+    this.poolSettings = Objects.requireNonNull(poolSettings, "Pool settings cannot be null");
+    this.sqliteSettings = Objects.requireNonNull(sqliteSettings, "SQLite settings cannot be null");
   }
 
   /**
@@ -104,16 +115,41 @@ public class StoreSQLite implements Store {
       // Log connection attempt
       logger.info("Connecting to SQLite database at " + url);
 
-      // Establish connection
-      this.conn = DriverManager.getConnection(url);
-
-      // Enable foreign keys
-      try (Statement statement = conn.createStatement()) {
-        statement.execute("PRAGMA foreign_keys = ON");
+      // SQLite allows a single writer, so the writer pool holds one connection
+      PoolSettings writerSettings = PoolSettings.singleConnection();
+      writerSettings.setConnectionTimeout(poolSettings.getConnectionTimeout());
+      writerSettings.setValidationTimeout(poolSettings.getValidationTimeout());
+      writerSettings.setStatementCacheSize(poolSettings.getStatementCacheSize());
+      openPool(new ConnectionPool(getDisplayName(), () -> openConnection(url, false), writerSettings, logger));
+
+      // Readers only see committed data in WAL mode, so they can run alongside
+      // the writer
+      if (sqliteSettings.isWalEnabled()) {
+        PoolSettings readerSettings = new PoolSettings();
+        readerSettings.setMinimumIdle(1);
+        readerSettings.setMaximumPoolSize(sqliteSettings.getReaderConnections());
+        readerSettings.setMaxLifetime(0L);
+        readerSettings.setConnectionTimeout(poolSettings.getConnectionTimeout());
+        readerSettings.setValidationTimeout(poolSettings.getValidationTimeout());
+        readerSettings.setStatementCacheSize(poolSettings.getStatementCacheSize());
+
+        ConnectionPool readers = new ConnectionPool(getDisplayName() + "-Reader", () -> openConnection(url, true),
+            readerSettings, logger);
+        try {
+          readers.start();
+        } catch (SQLException e) {
+          readers.close();
+          super.disconnect();
+          throw e;
+        }
+        this.readerPool = readers;
       }
 
       // Log success
-      logger.info("Connected to SQLite database!");
+      logger.info("Connected to SQLite database! (" + (sqliteSettings.isWalEnabled()
+          ? "WAL, " + sqliteSettings.getReaderConnections() + " reader(s)"
+          : "rollback journal") + ")");
+      notifyConnected();
       return true;
     } catch (ClassNotFoundException e) {
       logger.severe("JDBC driver not found! Error: " + e.getMessage());
@@ -125,273 +161,147 @@ public class StoreSQLite implements Store {
   }
 
   /**
-   * Executes an update query on the database.
+   * Opens and configures a physical SQLite connection.
    *
-   * @param immediate If true, executes the query immediately; otherwise, queues
-   *                  it for execution
-   * @param query     The SQL query to execute
+   * @param url      The JDBC URL
+   * @param readOnly Whether the connection only serves queries
+   * @return The new connection
+   * @throws SQLException If the connection cannot be opened
    */
-  @Override
-  public void update(boolean immediate, final String query) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty query");
-      return;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    Runnable task = () -> {
-      try (Statement statement = conn.createStatement()) {
-        statement.executeUpdate(processedQuery);
-      } catch (SQLException e) {
-        logger.warning("Error executing update query: " + processedQuery + " Error: " + e.getMessage());
+  private Connection openConnection(String url, boolean readOnly) throws SQLException {
+    Connection connection = DriverManager.getConnection(url);
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("PRAGMA busy_timeout = " + sqliteSettings.getBusyTimeout());
+      statement.execute("PRAGMA foreign_keys = ON");
+
+      if (sqliteSettings.isWalEnabled()) {
+        // WAL only needs a sync at checkpoints, which is still safe against
+        // application crashes
+        statement.execute("PRAGMA journal_mode = WAL");
+        statement.execute("PRAGMA synchronous = NORMAL");
+        statement.execute("PRAGMA temp_store = MEMORY");
+        statement.execute("PRAGMA cache_size = -" + sqliteSettings.getCacheSize());
+        statement.execute("PRAGMA mmap_size = " + sqliteSettings.getMmapSize());
       }
-    };
 
-    if (immediate) {
-      task.run();
-    } else {
-      executor.execute(task);
+      if (readOnly) {
+        statement.execute("PRAGMA query_only = 1");
+      }
+    } catch (SQLException e) {
+      connection.close();
+      throw e;
     }
+
+    return connection;
   }
 
   /**
-   * Executes an update query and returns the generated keys.
+   * Borrows a read-only connection, or the writer connection if WAL is
+   * disabled or a transaction is open on the calling thread. The readers open
+   * the same database file as the writer, so they go through the same circuit
+   * breaker.
    *
-   * @param query The SQL query to execute
-   * @return The ResultSet containing generated keys, or null if no keys were
-   *         generated
+   * @return A pooled connection that must be closed by the caller
+   * @throws SQLException If not connected or no connection is available
    */
   @Override
-  public ResultSet update(String query) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty query");
-      return null;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    try (Statement statement = conn.createStatement()) {
-      statement.executeUpdate(processedQuery);
-
-      // For SQLite, we need to get the last inserted ID differently
-      try (Statement idStatement = conn.createStatement()) {
-        return idStatement.executeQuery("SELECT last_insert_rowid()");
-      }
-    } catch (SQLException e) {
-      logger
-          .warning("Error executing update query with generated keys: " + processedQuery + " Error: " + e.getMessage());
-    }
-
-    return null;
+  protected Connection borrowReader() throws SQLException {
+    ConnectionPool readers = this.readerPool;
+    return readers != null && getTransactionConnection() == null ? borrowGuarded(readers) : borrow();
   }
 
   /**
-   * Closes the database connection and releases resources.
+   * Closes the reader connections, then writes queued updates and closes the
+   * writer connection.
    */
   @Override
   public void disconnect() {
-    // Cancel keep-alive task
-    if (keepAliveTask != null) {
-      keepAliveTask.cancel();
-    }
-
-    // Shutdown executor service gracefully
-    executor.shutdown();
-    try {
-      if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-        executor.shutdownNow();
-        logger.warning("Forced shutdown of SQLite executor service");
-      }
-    } catch (InterruptedException e) {
-      executor.shutdownNow();
-      Thread.currentThread().interrupt();
-      logger.warning("Interrupted while shutting down SQLite executor: " + e.getMessage());
+    ConnectionPool readers = this.readerPool;
+    if (readers != null) {
+      this.readerPool = null;
+      readers.close();
     }
 
-    // Close database connection
-    if (conn != null) {
-      try {
-        conn.close();
-        logger.info("SQLite connection closed successfully");
-      } catch (SQLException e) {
-        logger.warning("Cannot close SQLite connection! Error: " + e.getMessage());
-      }
-    }
-  }
-
-  /**
-   * Reconnects to the database by closing the current connection and establishing
-   * a new one.
-   */
-  @Override
-  public void reconnect() {
-    logger.info("Reconnecting to SQLite database...");
-    disconnect();
-    connect();
+    super.disconnect();
   }
 
   /**
-   * Checks if the database connection is active.
+   * Gets how many prepared statements were served from the statement caches of
+   * the writer and reader connections.
    *
-   * @return true if connected, false otherwise
+   * @return The statement cache hit count
    */
   @Override
-  public boolean isConnected() {
-    try {
-      return conn != null && !conn.isClosed();
-    } catch (SQLException e) {
-      logger.warning("Error checking SQLite connection status: " + e.getMessage());
-      return false;
-    }
+  public long getStatementCacheHits() {
+    ConnectionPool readers = this.readerPool;
+    return super.getStatementCacheHits() + (readers != null ? readers.getStatementCacheHits() : 0L);
   }
 
   /**
-   * Executes a query and returns the result set.
+   * Gets how many prepared statements the writer and reader connections had to
+   * prepare.
    *
-   * @param query The SQL query to execute
-   * @return The ResultSet containing the query results, or null if an error
-   *         occurred
+   * @return The statement cache miss count
    */
   @Override
-  public ResultSet query(String query) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty query");
-      return null;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    try {
-      Statement statement = conn.createStatement();
-      return statement.executeQuery(processedQuery);
-    } catch (SQLException e) {
-      logger.warning("Error executing query: " + processedQuery + " Error: " + e.getMessage());
-      return null;
-    }
+  public long getStatementCacheMisses() {
+    ConnectionPool readers = this.readerPool;
+    return super.getStatementCacheMisses() + (readers != null ? readers.getStatementCacheMisses() : 0L);
   }
 
   /**
-   * Executes a query asynchronously and passes the result to a callback.
+   * Gets the read-only connection pool.
    *
-   * @param query    The SQL query to execute
-   * @param callback The callback to handle the result
+   * @return The reader pool, or null if WAL is disabled or not connected
    */
-  @Override
-  public void query(final String query, final Callback<ResultSet> callback) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty async query");
-      if (callback != null) {
-        callback.error(new IllegalArgumentException("Query cannot be empty"));
-      }
-      return;
-    }
-
-    if (callback == null) {
-      logger.warning("Callback cannot be null for async query");
-      return;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    Thread queryThread = new Thread(() -> {
-      try (Statement statement = conn.createStatement()) {
-        ResultSet rs = statement.executeQuery(processedQuery);
-        callback.done(rs);
-      } catch (SQLException e) {
-        logger.warning("Error executing async query: " + processedQuery + " Error: " + e.getMessage());
-        callback.error(e);
-      }
-    }, "SQLite-Query-" + threadCounter.getAndIncrement());
-
-    queryThread.setDaemon(true);
-    queryThread.start();
+  public ConnectionPool getReaderPool() {
+    return readerPool;
   }
 
   /**
-   * Executes a prepared statement query and returns the result set.
+   * Gets the number of connections asynchronous work can use at once: the
+   * writer plus the readers when WAL is enabled.
    *
-   * @param query    The SQL query to prepare
-   * @param callback The callback to set parameters on the prepared statement
-   * @return The ResultSet containing the query results, or null if an error
-   *         occurred
+   * @return The writer and reader connection count
    */
   @Override
-  public ResultSet queryPrepared(String query, PreparedStatementCallback callback) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty prepared query");
-      return null;
-    }
-
-    if (callback == null) {
-      logger.warning("Callback cannot be null for prepared query");
-      return null;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    try {
-      PreparedStatement statement = conn.prepareStatement(processedQuery);
-      callback.process(statement);
-      return statement.executeQuery();
-    } catch (Exception e) {
-      logger.warning("Error executing prepared query: " + processedQuery + " Error: " + e.getMessage());
-      return null;
-    }
+  protected int getConnectionLimit() {
+    return 1 + (sqliteSettings.isWalEnabled() ? sqliteSettings.getReaderConnections() : 0);
   }
 
   /**
-   * Executes a prepared statement update.
+   * Executes an update and returns the last inserted row id, which SQLite
+   * exposes through a query rather than generated keys.
    *
-   * @param immediate If true, executes the query immediately; otherwise, queues
-   *                  it for execution
-   * @param query     The SQL query to prepare
-   * @param callback  The callback to set parameters on the prepared statement
+   * @param connection The connection to use
+   * @param query      The resolved query
+   * @return The result set with the last inserted row id
+   * @throws SQLException If the update fails
    */
   @Override
-  public void updatePrepared(boolean immediate, String query, PreparedStatementCallback callback) {
-    if (query == null || query.isEmpty()) {
-      logger.warning("Attempted to execute empty prepared update");
-      return;
+  protected ResultSet executeWithGeneratedKeys(Connection connection, String query) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate(query);
     }
 
-    if (callback == null) {
-      logger.warning("Callback cannot be null for prepared update");
-      return;
-    }
-
-    this.lastActivity = System.currentTimeMillis();
-    final String processedQuery = query.replace("{P}", this.prefix);
-
-    Runnable task = () -> {
-      try (PreparedStatement statement = conn.prepareStatement(processedQuery)) {
-        callback.process(statement);
-        statement.executeUpdate();
-      } catch (Exception e) {
-        logger.warning("Error executing prepared update: " + processedQuery + " Error: " + e.getMessage());
-      }
-    };
-
-    if (immediate) {
-      task.run();
-    } else {
-      executor.execute(task);
+    Statement idStatement = connection.createStatement();
+    try {
+      return ScopedResultSet.wrap(idStatement.executeQuery("SELECT last_insert_rowid()"), idStatement, connection);
+    } catch (SQLException e) {
+      idStatement.close();
+      throw e;
     }
   }
 
   /**
-   * Gets the database connection.
+   * Gets the name used in logs and thread names.
    *
-   * @return The active database connection
+   * @return "SQLite"
    */
   @Override
-  public Connection getConnection() {
-    return conn;
+  protected String getDisplayName() {
+    return "SQLite";
   }
 
   /**
@@ -403,4 +313,4 @@ public class StoreSQLite implements Store {
   public StoreMode getStoreMode() {
     return StoreMode.SQLITE;
   }
-}
\ No newline at end of file
+}
@@ -9,7 +9,7 @@ import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import pl.openmc.paper.core.Main;
 import pl.openmc.paper.core.managers.modules.VampireManager;
-import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.modules.VampireModule;
 
 /**
  * Listener for vampire mode events.
@@ -37,15 +37,18 @@ public class VampireListener implements Listener {
   @EventHandler
   public void onPlayerJoin(PlayerJoinEvent event) {
     Player player = event.getPlayer();
-    PlayerData playerData = plugin.getPlayerDataManager().getPlayerData(player.getUniqueId());
-    
-    if (playerData != null && playerData.getData("vampire_mode", Boolean.class) != null && 
-        playerData.getData("vampire_mode", Boolean.class)) {
-      // Re-enable vampire mode for the player
-      plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-        vampireManager.enableVampireMode(player);
-      }, 20L); // Delay by 1 second to ensure player is fully loaded
-    }
+
+    // Player data may still be loading, so wait for it instead of reading it now
+    plugin.getPlayerDataManager().whenLoaded(player.getUniqueId()).thenAccept(playerData -> {
+      if (playerData.getBoolean(VampireModule.VAMPIRE_MODE)) {
+        // Re-enable vampire mode for the player
+        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+          if (player.isOnline()) {
+            vampireManager.enableVampireMode(player);
+          }
+        }, 20L); // Delay by 1 second to ensure player is fully loaded
+      }
+    });
   }
 
   /**
@@ -3,6 +3,7 @@ package pl.openmc.paper.core.managers;
 import org.bukkit.command.PluginCommand;
 import pl.openmc.paper.core.Main;
 import pl.openmc.paper.core.commands.BaseCommand;
+import pl.openmc.paper.core.commands.admin.CoreCommand;
 import pl.openmc.paper.core.commands.admin.ReloadCommand;
 
 import java.util.HashMap;
@@ -22,6 +23,7 @@ public class CommandManager {
   public void registerCommands() {
     // ADMIN
     registerCommand(new ReloadCommand(plugin));
+    registerCommand(new CoreCommand(plugin));
   }
 
   /**
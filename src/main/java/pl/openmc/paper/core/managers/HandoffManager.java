@@ -0,0 +1,105 @@
+package pl.openmc.paper.core.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.database.handoff.HandoffMessage;
+import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.IOException;
+
+/**
+ * Hands player data between servers behind the proxy.
+ * When a player switches servers, the proxy asks the server they leave for
+ * their data. The snapshot is stamped, sent back through the player's
+ * connection and relayed by the proxy to the server they join, which uses it
+ * instead of reading the database. The leaving server still writes the data,
+ * once, in the background; a snapshot that does not arrive in time or is too
+ * large for a plugin message simply leaves the player to be loaded from the
+ * database. Snapshots expire by the time they were received here, as the
+ * clocks of the two servers need not agree.
+ */
+public class HandoffManager implements PluginMessageListener {
+  private final Main plugin;
+  private final LoggerUtil logger;
+  private final PlayerDataManager playerDataManager;
+
+  /**
+   * Creates a new HandoffManager and registers the handoff channel.
+   *
+   * @param plugin The main plugin instance
+   */
+  public HandoffManager(Main plugin) {
+    this.plugin = plugin;
+    this.logger = plugin.getPluginLogger();
+    this.playerDataManager = plugin.getPlayerDataManager();
+
+    plugin.getServer().getMessenger().registerOutgoingPluginChannel(plugin, HandoffMessage.CHANNEL);
+    plugin.getServer().getMessenger().registerIncomingPluginChannel(plugin, HandoffMessage.CHANNEL, this);
+  }
+
+  /**
+   * Handles a request or snapshot relayed by the proxy.
+   *
+   * @param channel The channel the message arrived on
+   * @param player  The player whose connection carried the message
+   * @param message The message
+   */
+  @Override
+  public void onPluginMessageReceived(String channel, Player player, byte[] message) {
+    if (!HandoffMessage.CHANNEL.equals(channel)) {
+      return;
+    }
+
+    HandoffMessage handoff;
+    try {
+      handoff = HandoffMessage.decode(message);
+    } catch (IOException e) {
+      logger.warning("Ignoring malformed handoff message: " + e.getMessage());
+      return;
+    }
+
+    if (handoff.isRequest()) {
+      sendSnapshot(handoff, player);
+    } else {
+      playerDataManager.acceptHandoff(handoff.getSnapshot());
+    }
+  }
+
+  /**
+   * Answers a request with a snapshot of the leaving player's data.
+   *
+   * @param request The request
+   * @param carrier The player whose connection carried the request
+   */
+  private void sendSnapshot(HandoffMessage request, Player carrier) {
+    Player player = Bukkit.getPlayer(request.getPlayerUUID());
+    if (player == null) {
+      player = carrier;
+    }
+
+    PlayerData playerData = playerDataManager.handOff(request.getPlayerUUID());
+    if (playerData == null) {
+      return;
+    }
+
+    byte[] snapshot = HandoffMessage.encodeSnapshot(request.getTarget(), playerData.getHandoffStamp(), playerData);
+    if (snapshot.length > HandoffMessage.MAX_SIZE) {
+      logger.warning("Player data of " + playerData.getPlayerName() + " is too large to hand over ("
+          + snapshot.length + " bytes), " + request.getTarget() + " will load it from the database");
+      return;
+    }
+
+    player.sendPluginMessage(plugin, HandoffMessage.CHANNEL, snapshot);
+  }
+
+  /**
+   * Unregisters the handoff channel.
+   */
+  public void shutdown() {
+    plugin.getServer().getMessenger().unregisterIncomingPluginChannel(plugin, HandoffMessage.CHANNEL);
+    plugin.getServer().getMessenger().unregisterOutgoingPluginChannel(plugin, HandoffMessage.CHANNEL);
+  }
+}
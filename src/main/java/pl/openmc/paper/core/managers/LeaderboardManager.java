@@ -0,0 +1,415 @@
+package pl.openmc.paper.core.managers;
+
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.database.PlayerDataStore;
+import pl.openmc.paper.core.models.player.LeaderboardEntry;
+import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.models.player.PointsListener;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory points leaderboard.
+ * Players are kept in an order-statistic treap sorted by points, highest first,
+ * with ties broken by UUID. Every node knows the size of its subtree, so rank
+ * lookups and selecting the n-th player take O(log n). The index is seeded by
+ * streaming the player table at startup and kept current by listening to point
+ * changes of loaded players.
+ */
+public class LeaderboardManager implements PointsListener {
+  private static final int SEED_CHUNK_SIZE = 1000;
+
+  private final LoggerUtil logger;
+
+  // Index state, guarded by lock
+  private final ReadWriteLock lock;
+  private final Map<UUID, Node> nodes;
+  private Node root;
+  private volatile boolean seeded;
+
+  /**
+   * Creates a new LeaderboardManager.
+   *
+   * @param plugin The main plugin instance
+   */
+  public LeaderboardManager(Main plugin) {
+    this.logger = plugin.getPluginLogger();
+    this.lock = new ReentrantReadWriteLock();
+    this.nodes = new HashMap<>();
+  }
+
+  /**
+   * Fills the index from the database. Players already in the index keep their
+   * entry, since it was updated after the table was read.
+   *
+   * @param playerDataStore The player data store
+   * @return A CompletableFuture that will be completed with the number of rows
+   *         read
+   */
+  public CompletableFuture<Long> seed(PlayerDataStore playerDataStore) {
+    long start = System.currentTimeMillis();
+
+    return playerDataStore.forEachPlayerData(SEED_CHUNK_SIZE, chunk -> {
+      lock.writeLock().lock();
+      try {
+        for (PlayerData playerData : chunk) {
+          if (!nodes.containsKey(playerData.getPlayerUUID())) {
+            insert(new Node(playerData.getPlayerUUID(), playerData.getPlayerName(), playerData.getPoints()));
+          }
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }).whenComplete((rows, e) -> {
+      if (e != null) {
+        logger.severe("Failed to build the points leaderboard: " + e.getMessage());
+      } else {
+        this.seeded = true;
+        logger.info("Built the points leaderboard from " + rows + " player(s) in "
+            + (System.currentTimeMillis() - start) + " ms");
+      }
+    });
+  }
+
+  /**
+   * Checks whether the index has been filled from the database.
+   *
+   * @return true once seeding finished
+   */
+  public boolean isSeeded() {
+    return seeded;
+  }
+
+  /**
+   * Starts tracking a loaded player, so their point changes update the index.
+   *
+   * @param playerData The player data
+   */
+  public void track(PlayerData playerData) {
+    playerData.setPointsListener(this);
+    update(playerData.getPlayerUUID(), playerData.getPlayerName(), playerData.getPoints());
+  }
+
+  @Override
+  public void onPointsChanged(PlayerData playerData, int points) {
+    lock.writeLock().lock();
+    try {
+      // Read the total under the lock, so concurrent changes notifying out of
+      // order still leave the latest value in the index
+      update(playerData.getPlayerUUID(), playerData.getPlayerName(), playerData.getPoints());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Sets a player's points in the index.
+   *
+   * @param uuid   The player's UUID
+   * @param name   The player's name
+   * @param points The player's points
+   */
+  public void update(UUID uuid, String name, int points) {
+    lock.writeLock().lock();
+    try {
+      Node current = nodes.get(uuid);
+      if (current != null) {
+        if (current.points == points) {
+          current.name = name;
+          return;
+        }
+        delete(current);
+      }
+      insert(new Node(uuid, name, points));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes a player from the index.
+   *
+   * @param uuid The player's UUID
+   */
+  public void remove(UUID uuid) {
+    lock.writeLock().lock();
+    try {
+      Node current = nodes.get(uuid);
+      if (current != null) {
+        delete(current);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the players with the most points.
+   *
+   * @param count The maximum number of players
+   * @return The top players, highest first
+   */
+  public List<LeaderboardEntry> getTop(int count) {
+    lock.readLock().lock();
+    try {
+      return range(0, count);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets a player's rank. Players with equal points get consecutive ranks in
+   * UUID order.
+   *
+   * @param uuid The player's UUID
+   * @return The rank starting at 1, or -1 if the player is not ranked
+   */
+  public int getRank(UUID uuid) {
+    lock.readLock().lock();
+    try {
+      Node node = nodes.get(uuid);
+      return node != null ? indexOf(node) + 1 : -1;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets a player and the players ranked directly above and below them.
+   *
+   * @param uuid  The player's UUID
+   * @param range The number of players to include on each side
+   * @return The entries in rank order, or an empty list if the player is not
+   *         ranked
+   */
+  public List<LeaderboardEntry> getAround(UUID uuid, int range) {
+    lock.readLock().lock();
+    try {
+      Node node = nodes.get(uuid);
+      if (node == null) {
+        return Collections.emptyList();
+      }
+
+      int index = indexOf(node);
+      int from = Math.max(0, index - range);
+      return range(from, index + range + 1 - from);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Gets the number of ranked players.
+   *
+   * @return The player count
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return nodes.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Collects consecutive entries by rank. Must hold the lock.
+   *
+   * @param from  The index of the first entry
+   * @param count The maximum number of entries
+   * @return The entries
+   */
+  private List<LeaderboardEntry> range(int from, int count) {
+    int to = Math.min(size(root), from + Math.max(0, count));
+    List<LeaderboardEntry> entries = new ArrayList<>(Math.max(0, to - from));
+    for (int index = from; index < to; index++) {
+      Node node = select(index);
+      entries.add(new LeaderboardEntry(node.uuid, node.name, node.points, index + 1));
+    }
+    return entries;
+  }
+
+  /**
+   * Adds a node to the tree. Must hold the write lock.
+   *
+   * @param node The node to add
+   */
+  private void insert(Node node) {
+    Node[] parts = split(root, node, false);
+    root = merge(merge(parts[0], node), parts[1]);
+    nodes.put(node.uuid, node);
+  }
+
+  /**
+   * Removes a node from the tree. Must hold the write lock.
+   *
+   * @param node The node to remove
+   */
+  private void delete(Node node) {
+    Node[] lower = split(root, node, false);
+    Node[] upper = split(lower[1], node, true);
+    root = merge(lower[0], upper[1]);
+    nodes.remove(node.uuid);
+  }
+
+  /**
+   * Splits a tree into the nodes ordered before a key and the rest.
+   *
+   * @param tree      The tree to split
+   * @param key       The key to split at
+   * @param inclusive true to put the key itself into the first part
+   * @return The two parts
+   */
+  private static Node[] split(Node tree, Node key, boolean inclusive) {
+    if (tree == null) {
+      return new Node[2];
+    }
+
+    int order = compare(tree, key);
+    if (order < 0 || (inclusive && order == 0)) {
+      Node[] parts = split(tree.right, key, inclusive);
+      tree.right = parts[0];
+      tree.update();
+      parts[0] = tree;
+      return parts;
+    }
+
+    Node[] parts = split(tree.left, key, inclusive);
+    tree.left = parts[1];
+    tree.update();
+    parts[1] = tree;
+    return parts;
+  }
+
+  /**
+   * Joins two trees where every node of the first is ordered before every node
+   * of the second.
+   *
+   * @param first  The first tree
+   * @param second The second tree
+   * @return The joined tree
+   */
+  private static Node merge(Node first, Node second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
+    }
+
+    if (first.priority > second.priority) {
+      first.right = merge(first.right, second);
+      first.update();
+      return first;
+    }
+
+    second.left = merge(first, second.left);
+    second.update();
+    return second;
+  }
+
+  /**
+   * Gets the zero-based position of a node. Must hold the lock.
+   *
+   * @param node The node
+   * @return The position
+   */
+  private int indexOf(Node node) {
+    int index = 0;
+    Node current = root;
+    while (current != null) {
+      int order = compare(node, current);
+      if (order < 0) {
+        current = current.left;
+      } else if (order > 0) {
+        index += size(current.left) + 1;
+        current = current.right;
+      } else {
+        return index + size(current.left);
+      }
+    }
+    throw new IllegalStateException("Leaderboard node is not in the tree");
+  }
+
+  /**
+   * Gets the node at a zero-based position. Must hold the lock.
+   *
+   * @param index The position
+   * @return The node
+   */
+  private Node select(int index) {
+    Node current = root;
+    while (true) {
+      int leftSize = size(current.left);
+      if (index < leftSize) {
+        current = current.left;
+      } else if (index > leftSize) {
+        index -= leftSize + 1;
+        current = current.right;
+      } else {
+        return current;
+      }
+    }
+  }
+
+  /**
+   * Orders nodes by points, highest first, then by UUID.
+   *
+   * @param first  The first node
+   * @param second The second node
+   * @return A negative number if the first node ranks higher
+   */
+  private static int compare(Node first, Node second) {
+    int order = Integer.compare(second.points, first.points);
+    return order != 0 ? order : first.uuid.compareTo(second.uuid);
+  }
+
+  /**
+   * Gets the size of a subtree.
+   *
+   * @param node The subtree root, or null
+   * @return The number of nodes
+   */
+  private static int size(Node node) {
+    return node != null ? node.size : 0;
+  }
+
+  /**
+   * A ranked player.
+   */
+  private static final class Node {
+    private final UUID uuid;
+    private final int points;
+    private final int priority;
+    private String name;
+    private int size;
+    private Node left;
+    private Node right;
+
+    private Node(UUID uuid, String name, int points) {
+      this.uuid = uuid;
+      this.name = name;
+      this.points = points;
+      this.priority = ThreadLocalRandom.current().nextInt();
+      this.size = 1;
+    }
+
+    /**
+     * Recomputes the subtree size after a child changed.
+     */
+    private void update() {
+      this.size = 1 + LeaderboardManager.size(left) + LeaderboardManager.size(right);
+    }
+  }
+}
@@ -3,33 +3,58 @@ package pl.openmc.paper.core.managers;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import pl.openmc.paper.core.Main;
 import pl.openmc.paper.core.database.PlayerDataStore;
+import pl.openmc.paper.core.database.cache.OfflinePlayerCache;
+import pl.openmc.paper.core.database.journal.JournalEntry;
+import pl.openmc.paper.core.database.journal.JournalSettings;
+import pl.openmc.paper.core.database.journal.PlayerJournal;
+import pl.openmc.paper.core.database.migration.LegacyPlayerImporter;
 import pl.openmc.paper.core.models.player.PlayerData;
 import pl.openmc.paper.core.utils.LoggerUtil;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages player data storage, loading, and saving.
+ * Data is fetched while the player is still logging in and handed over when
+ * they join, so no thread ever waits for the database. Saves are appended to
+ * a journal before they are written, and snapshots the database never
+ * confirmed are written again on startup. A player switching from another
+ * server behind the proxy can arrive with their data handed over, in which
+ * case the database is not read at all.
  */
 public class PlayerDataManager implements Listener {
   private final Main plugin;
   private final LoggerUtil logger;
   private final Map<UUID, PlayerData> playerDataMap;
+  private final Map<UUID, CompletableFuture<PlayerData>> pendingLoads;
+  private final Map<UUID, CompletableFuture<PlayerData>> readyFutures;
+  private final Map<UUID, PlayerData> recovered;
+  private final Map<UUID, ReceivedHandoff> handoffs;
+  private final Map<UUID, CompletableFuture<Void>> savesInFlight;
+  private final long handoffTimeoutNanos;
   private final File dataFolder;
   private final PlayerDataStore playerDataStore;
+  private final PlayerJournal journal;
+  private final OfflinePlayerCache offlineCache;
+  private final LeaderboardManager leaderboard;
+  private final LegacyPlayerImporter legacyImporter;
 
   /**
    * Creates a new PlayerDataManager.
@@ -40,14 +65,34 @@ public class PlayerDataManager implements Listener {
     this.plugin = plugin;
     this.logger = plugin.getPluginLogger();
     this.playerDataMap = new ConcurrentHashMap<>();
+    this.pendingLoads = new ConcurrentHashMap<>();
+    this.readyFutures = new ConcurrentHashMap<>();
+    this.recovered = new ConcurrentHashMap<>();
+    this.handoffs = new ConcurrentHashMap<>();
+    this.savesInFlight = new ConcurrentHashMap<>();
+    this.handoffTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+        plugin.getDatabaseConfig().getHandoffSettings().getTimeout());
     this.dataFolder = new File(plugin.getDataFolder(), "playerdata");
     this.playerDataStore = plugin.getPlayerDataStore();
+    this.leaderboard = plugin.getLeaderboardManager();
+    this.offlineCache = new OfflinePlayerCache(plugin.getDatabaseConfig().getOfflineCacheSettings(),
+        playerDataStore::loadPlayerData);
 
     // Create the data folder if it doesn't exist
     if (!dataFolder.exists()) {
       dataFolder.mkdirs();
     }
 
+    // Replay saves the database never confirmed
+    this.journal = openJournal(plugin.getDatabaseConfig().getJournalSettings());
+
+    // Move the legacy properties files into the database in the background
+    this.legacyImporter = new LegacyPlayerImporter(dataFolder.toPath(), playerDataStore,
+        plugin.getDatabaseConfig().getLegacyImportSettings(), logger);
+    if (plugin.getDatabaseConfig().getLegacyImportSettings().isEnabled()) {
+      legacyImporter.start();
+    }
+
     // Register events
     Bukkit.getPluginManager().registerEvents(this, plugin);
 
@@ -61,6 +106,52 @@ public class PlayerDataManager implements Listener {
                                                                                                      // minutes
   }
 
+  /**
+   * Opens the journal and writes the snapshots found in it to the database.
+   * Players whose snapshot held a delta in doubt still have their waiting
+   * points after the first save, so they are saved a second time before the
+   * snapshots are confirmed.
+   *
+   * @param settings The journal settings
+   * @return The open journal, or null if it is disabled or cannot be opened
+   */
+  private PlayerJournal openJournal(JournalSettings settings) {
+    if (!settings.isEnabled()) {
+      return null;
+    }
+
+    PlayerJournal playerJournal = new PlayerJournal(new File(plugin.getDataFolder(), "journal"), settings, logger);
+    List<JournalEntry> entries;
+    try {
+      entries = playerJournal.open();
+    } catch (IOException e) {
+      logger.severe("Failed to open the player data journal, saves will not be journaled: " + e.getMessage());
+      return null;
+    }
+
+    if (!entries.isEmpty()) {
+      Map<UUID, PlayerData> replayed = new HashMap<>();
+      for (JournalEntry entry : entries) {
+        PlayerData playerData = entry.toPlayerData();
+        replayed.put(entry.getPlayerUUID(), playerData);
+        leaderboard.update(entry.getPlayerUUID(), playerData.getPlayerName(), playerData.getPoints());
+      }
+      recovered.putAll(replayed);
+
+      playerDataStore.saveDirtyPlayerData(replayed.values())
+          .thenCompose(saved -> playerDataStore.saveDirtyPlayerData(replayed.values()))
+          .thenRun(() -> {
+            for (JournalEntry entry : entries) {
+              playerJournal.confirm(entry.getPlayerUUID(), entry.getSequence());
+              recovered.remove(entry.getPlayerUUID(), replayed.get(entry.getPlayerUUID()));
+            }
+            logger.info("Restored " + entries.size() + " player data record(s) from the journal");
+          });
+    }
+
+    return playerJournal;
+  }
+
   /**
    * Gets player data for the specified player.
    *
@@ -82,104 +173,432 @@ public class PlayerDataManager implements Listener {
   }
 
   /**
-   * Loads player data from disk.
+   * Gets player data for any player, online or not. Offline players are served
+   * from a bounded cache; their data is a snapshot and changes to it are not
+   * saved.
+   *
+   * @param uuid The player's UUID
+   * @return A CompletableFuture that will be completed with the player's data,
+   *         or null if the player is unknown
+   */
+  public CompletableFuture<PlayerData> getOfflinePlayerData(UUID uuid) {
+    PlayerData playerData = playerDataMap.get(uuid);
+    if (playerData == null) {
+      playerData = recovered.get(uuid);
+    }
+    if (playerData != null) {
+      return CompletableFuture.completedFuture(playerData);
+    }
+
+    return offlineCache.get(uuid);
+  }
+
+  /**
+   * Drops a player from the offline cache, for example after their stored data
+   * was changed or deleted.
+   *
+   * @param uuid The player's UUID
+   */
+  public void invalidateOfflinePlayerData(UUID uuid) {
+    offlineCache.invalidate(uuid);
+  }
+
+  /**
+   * Gets the offline player cache.
+   *
+   * @return The offline player cache
+   */
+  public OfflinePlayerCache getOfflineCache() {
+    return offlineCache;
+  }
+
+  /**
+   * Gets a future completed once the player's data is loaded. The future is
+   * completed on the main thread, or right away if the data is already loaded.
+   * It completes exceptionally if loading fails and is cancelled if the player
+   * leaves first.
+   *
+   * @param uuid The player's UUID
+   * @return A CompletableFuture that will be completed with the player's data
+   */
+  public CompletableFuture<PlayerData> whenLoaded(UUID uuid) {
+    PlayerData playerData = playerDataMap.get(uuid);
+    if (playerData != null) {
+      return CompletableFuture.completedFuture(playerData);
+    }
+
+    CompletableFuture<PlayerData> ready = readyFutures.computeIfAbsent(uuid, id -> new CompletableFuture<>());
+
+    // The data may have been installed while the future was being registered
+    playerData = playerDataMap.get(uuid);
+    if (playerData != null) {
+      readyFutures.remove(uuid, ready);
+      ready.complete(playerData);
+    }
+    return ready;
+  }
+
+  /**
+   * Loads a player's data and installs it once ready. If the data was
+   * preloaded during login, it is installed right away.
    *
    * @param player The player to load data for
-   * @return The loaded player data
+   * @return A CompletableFuture that will be completed with the loaded data
    */
-  public PlayerData loadPlayerData(Player player) {
+  public CompletableFuture<PlayerData> loadPlayerData(Player player) {
     UUID uuid = player.getUniqueId();
 
     // Check if already loaded
-    if (playerDataMap.containsKey(uuid)) {
-      return playerDataMap.get(uuid);
+    PlayerData loaded = playerDataMap.get(uuid);
+    if (loaded != null) {
+      return CompletableFuture.completedFuture(loaded);
     }
 
-    // Create a new player data object
-    PlayerData playerData = new PlayerData(uuid, player.getName());
+    CompletableFuture<PlayerData> ready = whenLoaded(uuid);
+    CompletableFuture<PlayerData> load = preload(uuid, player.getName());
 
-    // Try to load from database first
-    try {
-      PlayerData dbPlayerData = playerDataStore.loadPlayerData(uuid).get();
-      if (dbPlayerData != null) {
-        playerData = dbPlayerData;
-        logger.info("Loaded player data from database for " + player.getName());
-      } else {
-        // If not in database, try to load from file (legacy support)
-        File playerFile = new File(dataFolder, uuid.toString() + ".properties");
-        if (playerFile.exists()) {
-          try (FileReader reader = new FileReader(playerFile)) {
-            Properties properties = new Properties();
-            properties.load(reader);
-
-            // Load basic properties
-            playerData.setPoints(Integer.parseInt(properties.getProperty("points", "0")));
-
-            logger.info("Loaded player data from file for " + player.getName());
-
-            // Save to database for future use
-            playerDataStore.savePlayerData(playerData);
-          } catch (IOException e) {
-            logger.severe("Failed to load player data from file for " + player.getName());
-          }
+    if (load.isDone() && !load.isCompletedExceptionally() && Bukkit.isPrimaryThread()) {
+      install(player, load.join());
+    } else {
+      load.whenComplete((playerData, e) -> Bukkit.getScheduler().runTask(plugin, () -> {
+        if (e != null) {
+          failLoad(player, e);
+        } else {
+          install(player, playerData);
         }
-      }
-    } catch (InterruptedException | ExecutionException e) {
-      logger.severe("Failed to load player data from database for " + player.getName() + ": " + e.getMessage());
+      }));
     }
 
-    // Store in map
-    playerDataMap.put(uuid, playerData);
-    return playerData;
+    return ready;
   }
 
   /**
-   * Saves player data to disk.
+   * Starts fetching a player's data, reusing a fetch already in progress and
+   * data still held in memory from a recent session. Handed over and journaled
+   * data is kept as the pending load like a database read, so data claimed
+   * during login is still there when the player joins.
    *
-   * @param playerData The player data to save
+   * @param uuid The player's UUID
+   * @param name The player's name
+   * @return A CompletableFuture that will be completed with the player's data
    */
-  public void savePlayerData(PlayerData playerData) {
-    // Save to database
-    playerDataStore.savePlayerData(playerData).thenRun(() -> {
-      logger.info("Saved player data to database for " + playerData.getPlayerName());
-    }).exceptionally(e -> {
-      logger.severe("Failed to save player data to database for " + playerData.getPlayerName() + ": " + e.getMessage());
-      return null;
+  private CompletableFuture<PlayerData> preload(UUID uuid, String name) {
+    PlayerData cached = playerDataMap.get(uuid);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    return pendingLoads.computeIfAbsent(uuid, id -> {
+      // Data handed over by the previous server is newer than anything stored
+      PlayerData handedOff = claimHandoff(id);
+      if (handedOff != null) {
+        if (name != null && !name.equals(handedOff.getPlayerName())) {
+          handedOff.setPlayerName(name);
+        }
+        return CompletableFuture.completedFuture(handedOff);
+      }
+
+      // Journaled data is newer than the row until its replay is confirmed
+      PlayerData replayed = recovered.remove(id);
+      if (replayed != null) {
+        if (name != null && !name.equals(replayed.getPlayerName())) {
+          replayed.setPlayerName(name);
+        }
+        return CompletableFuture.completedFuture(replayed);
+      }
+
+      return read(id, name);
     });
+  }
+
+  /**
+   * Reads a player's data from the database, falling back to a legacy file
+   * the running import has not reached yet and then to new data.
+   *
+   * @param uuid The player's UUID
+   * @param name The player's name
+   * @return A CompletableFuture that will be completed with the player's data
+   */
+  private CompletableFuture<PlayerData> read(UUID uuid, String name) {
+    return playerDataStore.loadPlayerData(uuid).thenApply(stored -> {
+      if (stored == null) {
+        // Only players the running import has not reached yet have a file left
+        PlayerData legacy = legacyImporter.claim(uuid, name);
+        return legacy != null ? legacy : new PlayerData(uuid, name);
+      }
+
+      if (name != null && !name.equals(stored.getPlayerName())) {
+        stored.setPlayerName(name);
+      }
+      return stored;
+    });
+  }
+
+  /**
+   * Installs loaded data for an online player and notifies modules waiting for
+   * it. Must be called on the main thread.
+   *
+   * @param player     The player
+   * @param playerData The loaded data
+   */
+  private void install(Player player, PlayerData playerData) {
+    UUID uuid = player.getUniqueId();
+    pendingLoads.remove(uuid);
+    offlineCache.invalidate(uuid);
 
-    // Also save to file as backup
-    File playerFile = new File(dataFolder, playerData.getPlayerUUID().toString() + ".properties");
+    if (!player.isOnline()) {
+      CompletableFuture<PlayerData> ready = readyFutures.remove(uuid);
+      if (ready != null) {
+        ready.cancel(false);
+      }
+      return;
+    }
 
-    try (FileWriter writer = new FileWriter(playerFile)) {
-      Properties properties = new Properties();
+    // A handoff that arrived while the data was being fetched replaces it,
+    // unless the fetch already held a newer one
+    PlayerData handedOff = claimHandoff(uuid);
+    if (handedOff != null && handedOff.getHandoffStamp() <= playerData.getHandoffStamp()) {
+      handedOff = null;
+    }
+    if (handedOff != null) {
+      if (!player.getName().equals(handedOff.getPlayerName())) {
+        handedOff.setPlayerName(player.getName());
+      }
+      playerData = handedOff;
+    }
 
-      // Save basic properties
-      properties.setProperty("points", String.valueOf(playerData.getPoints()));
-      // properties.setProperty("rank", playerData.getRank());
+    PlayerData existing = playerDataMap.putIfAbsent(uuid, playerData);
+    if (existing != null && handedOff != null) {
+      existing.applyHandoff(handedOff);
+    }
+    PlayerData installed = existing != null ? existing : playerData;
+    leaderboard.track(installed);
 
-      // Save additional data
-      for (Map.Entry<String, Object> entry : playerData.getAllData().entrySet()) {
-        if (entry.getValue() instanceof String) {
-          properties.setProperty(entry.getKey(), (String) entry.getValue());
-        } else {
-          properties.setProperty(entry.getKey(), entry.getValue().toString());
+    CompletableFuture<PlayerData> ready = readyFutures.remove(uuid);
+    if (ready != null) {
+      ready.complete(installed);
+    }
+  }
+
+  /**
+   * Handles a failed load. No data is installed, so that a fresh record never
+   * overwrites the stored one.
+   *
+   * @param player The player
+   * @param e      The failure
+   */
+  private void failLoad(Player player, Throwable e) {
+    UUID uuid = player.getUniqueId();
+    pendingLoads.remove(uuid);
+    logger.severe("Failed to load player data from database for " + player.getName() + ": " + e.getMessage());
+
+    CompletableFuture<PlayerData> ready = readyFutures.remove(uuid);
+    if (ready != null) {
+      ready.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Drops preloads and waiting futures for a player who will not join.
+   *
+   * @param uuid The player's UUID
+   */
+  private void discardPending(UUID uuid) {
+    pendingLoads.remove(uuid);
+
+    CompletableFuture<PlayerData> ready = readyFutures.remove(uuid);
+    if (ready != null) {
+      ready.cancel(false);
+    }
+  }
+
+  /**
+   * Prepares the data of a player leaving for another server to be handed
+   * over. The data is stamped and its save is started right away, so the save
+   * on quit only writes what changes in between.
+   *
+   * @param uuid The player's UUID
+   * @return The stamped data, or null if it is not loaded
+   */
+  public PlayerData handOff(UUID uuid) {
+    PlayerData playerData = playerDataMap.get(uuid);
+    if (playerData == null) {
+      return null;
+    }
+
+    playerData.nextHandoffStamp(System.currentTimeMillis());
+    savePlayerData(playerData);
+    return playerData;
+  }
+
+  /**
+   * Takes over a snapshot handed over by the server a player is leaving.
+   * Loaded data is updated in place, otherwise the snapshot is kept for the
+   * player's login and replaces data read from the database meanwhile.
+   * Snapshots older than the data already here are ignored, as are snapshots
+   * that would overwrite unsaved changes made here. Must be called on the main
+   * thread.
+   *
+   * @param snapshot The handed over data
+   */
+  public void acceptHandoff(PlayerData snapshot) {
+    UUID uuid = snapshot.getPlayerUUID();
+    PlayerData loaded = playerDataMap.get(uuid);
+    if (loaded != null) {
+      if (!loaded.applyHandoff(snapshot)) {
+        if (snapshot.getHandoffStamp() > loaded.getHandoffStamp()) {
+          logger.warning("Ignoring handed over data of " + loaded.getPlayerName()
+              + ", it would overwrite changes not saved yet");
         }
+        return;
       }
+      if (Bukkit.getPlayer(uuid) != null) {
+        return;
+      }
+      // Left over from the player's last visit and about to be unloaded, so
+      // keep the snapshot for their login as well
+    }
 
-      properties.store(writer, "Player data for " + playerData.getPlayerName());
-      logger.info("Saved player data to file for " + playerData.getPlayerName());
-    } catch (IOException e) {
-      logger.severe("Failed to save player data to file for " + playerData.getPlayerName() + ": " + e.getMessage());
+    handoffs.merge(uuid, new ReceivedHandoff(snapshot),
+        (held, received) -> held.snapshot.getHandoffStamp() >= snapshot.getHandoffStamp() ? held : received);
+  }
+
+  /**
+   * Takes the snapshot handed over for a player, unless it expired.
+   *
+   * @param uuid The player's UUID
+   * @return The snapshot, or null if there is none
+   */
+  private PlayerData claimHandoff(UUID uuid) {
+    ReceivedHandoff handoff = handoffs.remove(uuid);
+    if (handoff == null || System.nanoTime() - handoff.receivedAt > handoffTimeoutNanos) {
+      return null;
+    }
+    return handoff.snapshot;
+  }
+
+  /**
+   * Saves player data if it changed since the last save. The snapshot is
+   * journaled first and confirmed once the database write is done. A save
+   * started while another one for the same player is in flight waits for it
+   * and is skipped if nothing changed since, so a handoff followed by a quit
+   * writes the player once.
+   *
+   * @param playerData The player data to save
+   * @return A CompletableFuture that will be completed when the database write
+   *         is done
+   */
+  public CompletableFuture<Void> savePlayerData(PlayerData playerData) {
+    if (!playerData.isDirty()) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    UUID uuid = playerData.getPlayerUUID();
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    CompletableFuture<Void> previous = savesInFlight.put(uuid, done);
+    CompletableFuture<Void> ready = previous != null ? previous : CompletableFuture.completedFuture(null);
+
+    ready.thenCompose(v -> write(playerData)).whenComplete((result, e) -> {
+      savesInFlight.remove(uuid, done);
+      done.complete(null);
+    });
+    return done;
+  }
+
+  /**
+   * Journals and writes player data if it is still dirty.
+   *
+   * @param playerData The player data to save
+   * @return A CompletableFuture that will be completed when the database write
+   *         is done
+   */
+  private CompletableFuture<Void> write(PlayerData playerData) {
+    if (!playerData.isDirty()) {
+      return CompletableFuture.completedFuture(null);
     }
+
+    long sequence = journal != null ? journal.append(playerData) : -1L;
+
+    // Save to database
+    return playerDataStore.savePlayerData(playerData)
+        .thenRun(() -> confirm(playerData.getPlayerUUID(), sequence))
+        .exceptionally(e -> {
+          logger.severe("Failed to save player data to database for " + playerData.getPlayerName() + ": "
+              + e.getMessage());
+          return null;
+        });
   }
 
   /**
-   * Saves all loaded player data to disk.
+   * Confirms a journaled snapshot after the database write succeeded.
+   *
+   * @param uuid     The player's UUID
+   * @param sequence The journal sequence number, or -1 if not journaled
+   */
+  private void confirm(UUID uuid, long sequence) {
+    if (journal != null) {
+      journal.confirm(uuid, sequence);
+    }
+  }
+
+  /**
+   * Saves the loaded players that changed since their last save. The database
+   * write is a multi-row upsert, and only changed players are journaled.
    */
   public void saveAllPlayerData() {
+    purgeStalePreloads();
+    offlineCache.purgeExpired();
+
+    List<PlayerData> dirty = collectDirty();
+    if (dirty.isEmpty()) {
+      return;
+    }
+
+    Map<UUID, Long> sequences = appendToJournal(dirty);
+    playerDataStore.saveDirtyPlayerData(dirty).thenRun(() -> sequences.forEach(this::confirm));
+  }
+
+  /**
+   * Gets the loaded players that changed since their last save.
+   *
+   * @return The dirty players
+   */
+  private List<PlayerData> collectDirty() {
+    List<PlayerData> dirty = new ArrayList<>();
     for (PlayerData playerData : playerDataMap.values()) {
-      savePlayerData(playerData);
+      if (playerData.isDirty()) {
+        dirty.add(playerData);
+      }
+    }
+    return dirty;
+  }
+
+  /**
+   * Journals a group of players before they are written.
+   *
+   * @param players The players to journal
+   * @return The journal sequence number of each player, empty if the journal
+   *         is disabled
+   */
+  private Map<UUID, Long> appendToJournal(List<PlayerData> players) {
+    Map<UUID, Long> sequences = new HashMap<>();
+    if (journal != null) {
+      for (PlayerData playerData : players) {
+        sequences.put(playerData.getPlayerUUID(), journal.append(playerData));
+      }
     }
+    return sequences;
+  }
+
+  /**
+   * Drops finished preloads of players who never joined, for example because
+   * their connection dropped after the pre-login check, and expired handoffs.
+   */
+  private void purgeStalePreloads() {
+    pendingLoads.entrySet().removeIf(entry -> entry.getValue().isDone() && Bukkit.getPlayer(entry.getKey()) == null);
+
+    long now = System.nanoTime();
+    handoffs.values().removeIf(handoff -> now - handoff.receivedAt > handoffTimeoutNanos);
   }
 
   /**
@@ -192,14 +611,38 @@ public class PlayerDataManager implements Listener {
   }
 
   /**
-   * Event handler for player join.
+   * Starts fetching player data while the player is still logging in.
+   *
+   * @param event The pre-login event
+   */
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+    if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+      preload(event.getUniqueId(), event.getName());
+    }
+  }
+
+  /**
+   * Drops the preload of a player whose login was denied.
+   *
+   * @param event The login event
+   */
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onPlayerLogin(PlayerLoginEvent event) {
+    if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+      discardPending(event.getPlayer().getUniqueId());
+    }
+  }
+
+  /**
+   * Event handler for player join. Runs first so that other listeners see the
+   * preloaded data.
    *
    * @param event The join event
    */
-  @EventHandler
+  @EventHandler(priority = EventPriority.LOWEST)
   public void onPlayerJoin(PlayerJoinEvent event) {
-    // Load player data when they join
-    Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> loadPlayerData(event.getPlayer()));
+    loadPlayerData(event.getPlayer());
   }
 
   /**
@@ -210,21 +653,68 @@ public class PlayerDataManager implements Listener {
   @EventHandler
   public void onPlayerQuit(PlayerQuitEvent event) {
     UUID uuid = event.getPlayer().getUniqueId();
+    discardPending(uuid);
 
-    // Save and unload player data when they leave
+    // Save and unload player data when they leave. The data stays in memory
+    // until the write is done, so a quick rejoin does not read a stale row,
+    // and then moves to the offline cache.
     Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
       PlayerData playerData = playerDataMap.get(uuid);
       if (playerData != null) {
-        savePlayerData(playerData);
-        unloadPlayerData(uuid);
+        savePlayerData(playerData).whenComplete((result, e) -> Bukkit.getScheduler().runTask(plugin, () -> {
+          if (Bukkit.getPlayer(uuid) == null && playerDataMap.remove(uuid, playerData)) {
+            playerData.setPointsListener(null);
+            offlineCache.put(uuid, playerData);
+          }
+        }));
       }
     });
   }
 
   /**
-   * Shuts down the manager, saving all data.
+   * Shuts down the manager, writing all changed data before returning. Async
+   * tasks no longer run while the plugin is disabled, so the write happens on
+   * the calling thread and is bounded by the shutdown flush deadline. Players
+   * it could not write stay in the journal and are replayed on the next start.
    */
   public void shutdown() {
-    saveAllPlayerData();
+    legacyImporter.stop();
+
+    List<PlayerData> dirty = collectDirty();
+    if (dirty.isEmpty()) {
+      return;
+    }
+
+    Map<UUID, Long> sequences = appendToJournal(dirty);
+    playerDataStore.flushPlayerData(dirty);
+    for (PlayerData playerData : dirty) {
+      Long sequence = sequences.get(playerData.getPlayerUUID());
+      if (sequence != null && !playerData.isDirty()) {
+        confirm(playerData.getPlayerUUID(), sequence);
+      }
+    }
+  }
+
+  /**
+   * Closes the journal. Called after the store has written its queued saves, so
+   * their confirmations are recorded.
+   */
+  public void closeJournal() {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  /**
+   * A snapshot handed over by another server, waiting for the player's login.
+   */
+  private static final class ReceivedHandoff {
+    private final PlayerData snapshot;
+    private final long receivedAt;
+
+    private ReceivedHandoff(PlayerData snapshot) {
+      this.snapshot = snapshot;
+      this.receivedAt = System.nanoTime();
+    }
   }
-}
\ No newline at end of file
+}
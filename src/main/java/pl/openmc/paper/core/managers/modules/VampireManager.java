@@ -12,6 +12,7 @@ import pl.openmc.paper.core.config.modules.VampireConfig;
 import pl.openmc.paper.core.models.WingShape;
 import pl.openmc.paper.core.models.WingParticle;
 import pl.openmc.paper.core.models.player.PlayerData;
+import pl.openmc.paper.core.modules.VampireModule;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -51,7 +52,7 @@ public class VampireManager {
     // Store vampire status in player data
     PlayerData playerData = plugin.getPlayerDataManager().getPlayerData(playerUUID);
     if (playerData != null) {
-      playerData.setData("vampire_mode", true);
+      playerData.setBoolean(VampireModule.VAMPIRE_MODE, true);
     }
   }
 
@@ -69,7 +70,7 @@ public class VampireManager {
     // Update player data
     PlayerData playerData = plugin.getPlayerDataManager().getPlayerData(playerUUID);
     if (playerData != null) {
-      playerData.setData("vampire_mode", false);
+      playerData.setBoolean(VampireModule.VAMPIRE_MODE, false);
     }
   }
 
@@ -0,0 +1,337 @@
+package pl.openmc.paper.core.models.player;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A typed key for additional player data.
+ * Keys are registered once, usually as a constant of the module using them,
+ * and each one gets a fixed slot in every player's data. Booleans, ints, longs
+ * and doubles are held unboxed, so reading them is an array read. The key name
+ * is the name the value is stored under, so data written through the string
+ * API of {@link PlayerData} and through a key is the same data.
+ *
+ * @param <T> The type of the value
+ */
+public final class DataKey<T> {
+  /**
+   * How a key's value is held.
+   */
+  public enum Kind {
+    BOOLEAN,
+    INT,
+    LONG,
+    DOUBLE,
+    OBJECT;
+
+    /**
+     * Checks whether values of this kind are held in a primitive slot.
+     *
+     * @return true for booleans, ints, longs and doubles
+     */
+    public boolean isPrimitive() {
+      return this != OBJECT;
+    }
+  }
+
+  // Registered keys by name, and the layout every player's slots follow;
+  // registration is synchronized, lookups are not
+  private static final Map<String, DataKey<?>> KEYS = new ConcurrentHashMap<>();
+  private static volatile Layout layout = new Layout(new DataKey<?>[0], 0, 0);
+
+  private final String name;
+  private final Class<T> type;
+  private final Kind kind;
+  private final int index;
+  private final int slot;
+
+  /**
+   * Creates a key. Keys are created through the static factories only.
+   *
+   * @param name  The key name
+   * @param type  The value type
+   * @param kind  How the value is held
+   * @param index The index of the key among all keys
+   * @param slot  The index of the key's slot among keys of the same storage
+   */
+  private DataKey(String name, Class<T> type, Kind kind, int index, int slot) {
+    this.name = name;
+    this.type = type;
+    this.kind = kind;
+    this.index = index;
+    this.slot = slot;
+  }
+
+  /**
+   * Registers a boolean key, or returns the key already registered under the
+   * name.
+   *
+   * @param name The key name
+   * @return The key
+   * @throws IllegalArgumentException If the name is registered with another
+   *                                  type
+   */
+  public static DataKey<Boolean> ofBoolean(String name) {
+    return register(name, Boolean.class, Kind.BOOLEAN);
+  }
+
+  /**
+   * Registers an int key, or returns the key already registered under the
+   * name.
+   *
+   * @param name The key name
+   * @return The key
+   * @throws IllegalArgumentException If the name is registered with another
+   *                                  type
+   */
+  public static DataKey<Integer> ofInt(String name) {
+    return register(name, Integer.class, Kind.INT);
+  }
+
+  /**
+   * Registers a long key, or returns the key already registered under the
+   * name.
+   *
+   * @param name The key name
+   * @return The key
+   * @throws IllegalArgumentException If the name is registered with another
+   *                                  type
+   */
+  public static DataKey<Long> ofLong(String name) {
+    return register(name, Long.class, Kind.LONG);
+  }
+
+  /**
+   * Registers a double key, or returns the key already registered under the
+   * name.
+   *
+   * @param name The key name
+   * @return The key
+   * @throws IllegalArgumentException If the name is registered with another
+   *                                  type
+   */
+  public static DataKey<Double> ofDouble(String name) {
+    return register(name, Double.class, Kind.DOUBLE);
+  }
+
+  /**
+   * Registers a key for values of any type the player data codec can store,
+   * or returns the key already registered under the name.
+   *
+   * @param name The key name
+   * @param type The value type
+   * @param <T>  The type of the value
+   * @return The key
+   * @throws IllegalArgumentException If the name is registered with another
+   *                                  type
+   */
+  public static <T> DataKey<T> of(String name, Class<T> type) {
+    return register(name, type, Kind.OBJECT);
+  }
+
+  /**
+   * Gets the key registered under a name.
+   *
+   * @param name The key name
+   * @return The key, or null if no key has that name
+   */
+  public static DataKey<?> byName(String name) {
+    return KEYS.get(name);
+  }
+
+  /**
+   * Registers a key.
+   *
+   * @param name The key name
+   * @param type The value type
+   * @param kind How the value is held
+   * @param <T>  The type of the value
+   * @return The new or existing key
+   * @throws IllegalArgumentException If the name is registered with another
+   *                                  type
+   */
+  @SuppressWarnings("unchecked")
+  private static synchronized <T> DataKey<T> register(String name, Class<T> type, Kind kind) {
+    if (name == null || name.isEmpty()) {
+      throw new IllegalArgumentException("Data key name cannot be empty");
+    }
+
+    DataKey<?> existing = KEYS.get(name);
+    if (existing != null) {
+      if (existing.kind != kind || existing.type != type) {
+        throw new IllegalArgumentException("Data key " + name + " is already registered as "
+            + existing.type.getSimpleName());
+      }
+      return (DataKey<T>) existing;
+    }
+
+    Layout current = layout;
+    int slot = kind.isPrimitive() ? current.primitiveCount : current.objectCount;
+    DataKey<T> key = new DataKey<>(name, type, kind, current.keys.length, slot);
+
+    DataKey<?>[] keys = Arrays.copyOf(current.keys, current.keys.length + 1);
+    keys[key.index] = key;
+    layout = new Layout(keys, current.primitiveCount + (kind.isPrimitive() ? 1 : 0),
+        current.objectCount + (kind.isPrimitive() ? 0 : 1));
+    KEYS.put(name, key);
+    return key;
+  }
+
+  /**
+   * Gets the layout covering every key registered so far.
+   *
+   * @return The current layout
+   */
+  static Layout layout() {
+    return layout;
+  }
+
+  /**
+   * Gets the key name, which is also the name the value is stored under.
+   *
+   * @return The name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the value type.
+   *
+   * @return The type
+   */
+  public Class<T> getType() {
+    return type;
+  }
+
+  /**
+   * Gets how the value is held.
+   *
+   * @return The kind
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Gets the index of the key among all keys.
+   *
+   * @return The index
+   */
+  int getIndex() {
+    return index;
+  }
+
+  /**
+   * Gets the index of the key's slot among keys of the same storage.
+   *
+   * @return The slot
+   */
+  int getSlot() {
+    return slot;
+  }
+
+  /**
+   * Converts a value to the bits of a primitive slot. Strings are parsed, as
+   * data imported from the properties backup holds every value as a string.
+   *
+   * @param value The value
+   * @return The slot bits, or null if the value does not fit this key
+   */
+  Long toBits(Object value) {
+    try {
+      switch (kind) {
+        case BOOLEAN:
+          if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+          }
+          if ("true".equals(value) || "false".equals(value)) {
+            return "true".equals(value) ? 1L : 0L;
+          }
+          return null;
+        case INT:
+          if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+          }
+          return value instanceof String ? (long) Integer.parseInt((String) value) : null;
+        case LONG:
+          if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+          }
+          return value instanceof String ? Long.parseLong((String) value) : null;
+        case DOUBLE:
+          if (value instanceof Number) {
+            return Double.doubleToRawLongBits(((Number) value).doubleValue());
+          }
+          return value instanceof String ? Double.doubleToRawLongBits(Double.parseDouble((String) value)) : null;
+        default:
+          return null;
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Converts the bits of a primitive slot back to a value.
+   *
+   * @param bits The slot bits
+   * @return The boxed value
+   */
+  Object fromBits(long bits) {
+    switch (kind) {
+      case BOOLEAN:
+        return bits != 0L;
+      case INT:
+        return (int) bits;
+      case LONG:
+        return bits;
+      case DOUBLE:
+        return Double.longBitsToDouble(bits);
+      default:
+        throw new IllegalStateException("Data key " + name + " has no primitive slot");
+    }
+  }
+
+  /**
+   * Checks that the key is of the given kind.
+   *
+   * @param expected The expected kind
+   * @throws IllegalArgumentException If the key is of another kind
+   */
+  void requireKind(Kind expected) {
+    if (kind != expected) {
+      throw new IllegalArgumentException("Data key " + name + " holds " + kind + ", not " + expected);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DataKey{" + name + ", " + type.getSimpleName() + "}";
+  }
+
+  /**
+   * The keys registered at one point in time and the number of slots they
+   * take. Slot arrays are built for a layout; keys registered later fall
+   * outside it.
+   */
+  static final class Layout {
+    final DataKey<?>[] keys;
+    final int primitiveCount;
+    final int objectCount;
+
+    /**
+     * Creates a layout.
+     *
+     * @param keys           The registered keys in index order
+     * @param primitiveCount The number of primitive slots
+     * @param objectCount    The number of object slots
+     */
+    private Layout(DataKey<?>[] keys, int primitiveCount, int objectCount) {
+      this.keys = keys;
+      this.primitiveCount = primitiveCount;
+      this.objectCount = objectCount;
+    }
+  }
+}
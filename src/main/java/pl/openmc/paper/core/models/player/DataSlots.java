@@ -0,0 +1,326 @@
+package pl.openmc.paper.core.models.player;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The decoded additional data of a player, laid out in slots.
+ * Values of registered {@link DataKey}s sit in the slot of their key, with
+ * primitives unboxed. Values under names without a key, or that do not fit
+ * their key's type, are kept by name so they are still saved. Instances are
+ * never modified once published: every change builds a new one, so readers
+ * need no lock.
+ */
+final class DataSlots {
+  private static final long[] NO_PRIMITIVES = new long[0];
+  private static final Object[] NO_OBJECTS = new Object[0];
+
+  private final DataKey.Layout layout;
+  private final long[] primitives;
+  private final Object[] objects;
+  // One bit per key index, set when the key has a value
+  private final long[] present;
+  private final Map<String, Object> unkeyed;
+
+  /**
+   * Creates slots. The arrays are owned by the new instance.
+   *
+   * @param layout     The layout the slots follow
+   * @param primitives The primitive slots
+   * @param objects    The object slots
+   * @param present    The presence bits
+   * @param unkeyed    The values without a key
+   */
+  private DataSlots(DataKey.Layout layout, long[] primitives, Object[] objects, long[] present,
+      Map<String, Object> unkeyed) {
+    this.layout = layout;
+    this.primitives = primitives;
+    this.objects = objects;
+    this.present = present;
+    this.unkeyed = unkeyed;
+  }
+
+  /**
+   * Lays out decoded data for the keys registered so far.
+   *
+   * @param data The data by name
+   * @return The slots
+   */
+  static DataSlots of(Map<String, Object> data) {
+    DataKey.Layout layout = DataKey.layout();
+    long[] primitives = layout.primitiveCount > 0 ? new long[layout.primitiveCount] : NO_PRIMITIVES;
+    Object[] objects = layout.objectCount > 0 ? new Object[layout.objectCount] : NO_OBJECTS;
+    long[] present = new long[(layout.keys.length + 63) >>> 6];
+    Map<String, Object> unkeyed = new HashMap<>();
+
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      DataKey<?> key = DataKey.byName(entry.getKey());
+      if (key == null || key.getIndex() >= layout.keys.length || !store(key, entry.getValue(), primitives, objects)) {
+        unkeyed.put(entry.getKey(), entry.getValue());
+        continue;
+      }
+      present[key.getIndex() >>> 6] |= 1L << key.getIndex();
+    }
+
+    return new DataSlots(layout, primitives, objects, present, unkeyed);
+  }
+
+  /**
+   * Checks whether the slots were laid out after a key was registered. Keys
+   * registered later must not be read from these slots, as their value may
+   * still be kept by name.
+   *
+   * @param key The key
+   * @return true if the key has a slot
+   */
+  boolean covers(DataKey<?> key) {
+    return key.getIndex() < layout.keys.length;
+  }
+
+  /**
+   * Checks whether a key has a value.
+   *
+   * @param key A covered key
+   * @return true if the key has a value
+   */
+  boolean has(DataKey<?> key) {
+    return (present[key.getIndex() >>> 6] & (1L << key.getIndex())) != 0L;
+  }
+
+  /**
+   * Gets the bits of a primitive key.
+   *
+   * @param key A covered primitive key with a value
+   * @return The slot bits
+   */
+  long bits(DataKey<?> key) {
+    return primitives[key.getSlot()];
+  }
+
+  /**
+   * Gets the value of an object key.
+   *
+   * @param key A covered object key
+   * @return The value, or null if it has none
+   */
+  Object object(DataKey<?> key) {
+    return objects[key.getSlot()];
+  }
+
+  /**
+   * Gets the value of a key, boxed.
+   *
+   * @param key A covered key
+   * @return The value, or null if it has none
+   */
+  Object value(DataKey<?> key) {
+    if (!has(key)) {
+      return null;
+    }
+    return key.getKind().isPrimitive() ? key.fromBits(bits(key)) : object(key);
+  }
+
+  /**
+   * Gets a value by name.
+   *
+   * @param name The name
+   * @return The value, or null if there is none
+   */
+  Object get(String name) {
+    DataKey<?> key = DataKey.byName(name);
+    if (key != null && covers(key) && has(key)) {
+      return value(key);
+    }
+    return unkeyed.get(name);
+  }
+
+  /**
+   * Checks whether there is a value under a name.
+   *
+   * @param name The name
+   * @return true if there is a value
+   */
+  boolean contains(String name) {
+    DataKey<?> key = DataKey.byName(name);
+    if (key != null && covers(key) && has(key)) {
+      return true;
+    }
+    return unkeyed.containsKey(name);
+  }
+
+  /**
+   * Returns slots with a value stored under a name, in the key's slot if it
+   * fits there.
+   *
+   * @param name  The name
+   * @param value The value
+   * @return The new slots
+   */
+  DataSlots with(String name, Object value) {
+    DataKey<?> key = DataKey.byName(name);
+    if (key == null || !covers(key)) {
+      Map<String, Object> data = toMap();
+      data.put(name, value);
+      return of(data);
+    }
+
+    long[] newPrimitives = primitives.clone();
+    Object[] newObjects = objects.clone();
+    long[] newPresent = present.clone();
+    Map<String, Object> newUnkeyed = unkeyed;
+    if (store(key, value, newPrimitives, newObjects)) {
+      newPresent[key.getIndex() >>> 6] |= 1L << key.getIndex();
+      if (unkeyed.containsKey(name)) {
+        newUnkeyed = new HashMap<>(unkeyed);
+        newUnkeyed.remove(name);
+      }
+    } else {
+      // Kept by name, so a value of the wrong type is not lost
+      clear(key, newPrimitives, newObjects, newPresent);
+      newUnkeyed = new HashMap<>(unkeyed);
+      newUnkeyed.put(name, value);
+    }
+    return new DataSlots(layout, newPrimitives, newObjects, newPresent, newUnkeyed);
+  }
+
+  /**
+   * Returns slots with the bits of a primitive key set.
+   *
+   * @param key  A covered primitive key
+   * @param bits The slot bits
+   * @return The new slots
+   */
+  DataSlots withBits(DataKey<?> key, long bits) {
+    long[] newPrimitives = primitives.clone();
+    long[] newPresent = present.clone();
+    newPrimitives[key.getSlot()] = bits;
+    newPresent[key.getIndex() >>> 6] |= 1L << key.getIndex();
+    return new DataSlots(layout, newPrimitives, objects, newPresent, withoutUnkeyed(key.getName()));
+  }
+
+  /**
+   * Returns slots with the value of an object key set.
+   *
+   * @param key   A covered object key
+   * @param value The value
+   * @return The new slots
+   */
+  DataSlots withObject(DataKey<?> key, Object value) {
+    Object[] newObjects = objects.clone();
+    long[] newPresent = present.clone();
+    newObjects[key.getSlot()] = value;
+    newPresent[key.getIndex() >>> 6] |= 1L << key.getIndex();
+    return new DataSlots(layout, primitives, newObjects, newPresent, withoutUnkeyed(key.getName()));
+  }
+
+  /**
+   * Returns slots without any value under a name.
+   *
+   * @param name The name
+   * @return The new slots
+   */
+  DataSlots without(String name) {
+    DataKey<?> key = DataKey.byName(name);
+    long[] newPrimitives = primitives;
+    Object[] newObjects = objects;
+    long[] newPresent = present;
+    if (key != null && covers(key) && has(key)) {
+      newPrimitives = primitives.clone();
+      newObjects = objects.clone();
+      newPresent = present.clone();
+      clear(key, newPrimitives, newObjects, newPresent);
+    }
+    return new DataSlots(layout, newPrimitives, newObjects, newPresent, withoutUnkeyed(name));
+  }
+
+  /**
+   * Checks whether there is no data at all.
+   *
+   * @return true if empty
+   */
+  boolean isEmpty() {
+    if (!unkeyed.isEmpty()) {
+      return false;
+    }
+    for (long bits : present) {
+      if (bits != 0L) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets all data by name, with primitives boxed.
+   *
+   * @return A new map of the data
+   */
+  Map<String, Object> toMap() {
+    Map<String, Object> data = new HashMap<>(unkeyed);
+    for (DataKey<?> key : layout.keys) {
+      if (has(key)) {
+        data.put(key.getName(), value(key));
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Returns the values without a key, minus the one under a name.
+   *
+   * @param name The name
+   * @return The remaining values
+   */
+  private Map<String, Object> withoutUnkeyed(String name) {
+    if (!unkeyed.containsKey(name)) {
+      return unkeyed;
+    }
+    Map<String, Object> remaining = new HashMap<>(unkeyed);
+    remaining.remove(name);
+    return remaining.isEmpty() ? Collections.emptyMap() : remaining;
+  }
+
+  /**
+   * Stores a value in the slot of its key if it fits there.
+   *
+   * @param key        The key
+   * @param value      The value
+   * @param primitives The primitive slots to write
+   * @param objects    The object slots to write
+   * @return false if the value does not fit the key's type
+   */
+  private static boolean store(DataKey<?> key, Object value, long[] primitives, Object[] objects) {
+    if (key.getKind().isPrimitive()) {
+      Long bits = value != null ? key.toBits(value) : null;
+      if (bits == null) {
+        return false;
+      }
+      primitives[key.getSlot()] = bits;
+      return true;
+    }
+
+    if (value != null && !key.getType().isInstance(value)) {
+      return false;
+    }
+    objects[key.getSlot()] = value;
+    return true;
+  }
+
+  /**
+   * Clears the slot of a key.
+   *
+   * @param key        The key
+   * @param primitives The primitive slots to write
+   * @param objects    The object slots to write
+   * @param present    The presence bits to write
+   */
+  private static void clear(DataKey<?> key, long[] primitives, Object[] objects, long[] present) {
+    if (key.getKind().isPrimitive()) {
+      primitives[key.getSlot()] = 0L;
+    } else {
+      objects[key.getSlot()] = null;
+    }
+    present[key.getIndex() >>> 6] &= ~(1L << key.getIndex());
+  }
+}
@@ -0,0 +1,69 @@
+package pl.openmc.paper.core.models.player;
+
+import java.util.UUID;
+
+/**
+ * A player's position on the points leaderboard.
+ */
+public final class LeaderboardEntry {
+  private final UUID playerUUID;
+  private final String playerName;
+  private final int points;
+  private final int rank;
+
+  /**
+   * Creates a new leaderboard entry.
+   *
+   * @param playerUUID The player's UUID
+   * @param playerName The player's name
+   * @param points     The player's points
+   * @param rank       The player's rank, starting at 1
+   */
+  public LeaderboardEntry(UUID playerUUID, String playerName, int points, int rank) {
+    this.playerUUID = playerUUID;
+    this.playerName = playerName;
+    this.points = points;
+    this.rank = rank;
+  }
+
+  /**
+   * Gets the player's UUID.
+   *
+   * @return The player's UUID
+   */
+  public UUID getPlayerUUID() {
+    return playerUUID;
+  }
+
+  /**
+   * Gets the player's name.
+   *
+   * @return The player's name
+   */
+  public String getPlayerName() {
+    return playerName;
+  }
+
+  /**
+   * Gets the player's points.
+   *
+   * @return The player's points
+   */
+  public int getPoints() {
+    return points;
+  }
+
+  /**
+   * Gets the player's rank, starting at 1 for the highest points.
+   *
+   * @return The player's rank
+   */
+  public int getRank() {
+    return rank;
+  }
+
+  @Override
+  public String toString() {
+    return "#" + rank + " " + playerName + " (" + points + ")";
+  }
+}
@@ -1,17 +1,46 @@
 package pl.openmc.paper.core.models.player;
 
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents persistent player data that can be saved and loaded.
+ * Every change bumps a version counter; the data is dirty while its version is
+ * ahead of the last version written to the database. Additional data loaded
+ * from the database stays encoded until it is first accessed. Once decoded, it
+ * is held in slots addressed by {@link DataKey}, which are replaced as a whole
+ * on every change, so reads take no lock; the string-keyed methods read and
+ * write the same slots by key name.
+ * Points are updated without locking. Next to the total, the points added
+ * since the last save are tracked, so saves add that delta to the stored value
+ * instead of overwriting it and increments from other servers are kept. A
+ * delta stays unconfirmed until its write succeeded; until then every save
+ * sends that same delta again, and points added meanwhile wait for the save
+ * after it, so a write that landed but reported an error is not counted
+ * twice.
  */
 public class PlayerData {
   private final UUID playerUUID;
   private String playerName;
-  private int points;
-  private final Map<String, Object> additionalData;
+  // Total points in the high half, points added since the last save in the low
+  // half, so both change in one atomic step
+  private final AtomicLong points;
+  private final AtomicBoolean pointsReplaced;
+  private final Object pointsLock;
+  private volatile PointsChange unconfirmed;
+  private long nextToken;
+  private final Object dataLock;
+  private volatile DataSlots slots;
+  private byte[] encodedData;
+  private final AtomicLong version;
+  private final AtomicLong replacedVersion;
+  private final AtomicLong savedVersion;
+  private final AtomicLong handoffStamp;
+  private volatile PointsListener pointsListener;
 
   /**
    * Creates a new PlayerData instance for the specified player.
@@ -22,8 +51,18 @@ public class PlayerData {
   public PlayerData(UUID playerUUID, String playerName) {
     this.playerUUID = playerUUID;
     this.playerName = playerName;
-    this.points = 0;
-    this.additionalData = new HashMap<>();
+    this.points = new AtomicLong();
+    // New data has no stored points to add to
+    this.pointsReplaced = new AtomicBoolean(true);
+    this.pointsLock = new Object();
+    this.nextToken = newToken();
+    this.dataLock = new Object();
+    this.slots = DataSlots.of(Collections.emptyMap());
+    // New data starts dirty so that it gets inserted on the next save
+    this.version = new AtomicLong(1L);
+    this.replacedVersion = new AtomicLong();
+    this.savedVersion = new AtomicLong();
+    this.handoffStamp = new AtomicLong();
   }
 
   /**
@@ -51,6 +90,7 @@ public class PlayerData {
    */
   public void setPlayerName(String playerName) {
     this.playerName = playerName;
+    version.incrementAndGet();
   }
 
   /**
@@ -59,35 +99,372 @@ public class PlayerData {
    * @return The player's points
    */
   public int getPoints() {
-    return points;
+    return total(points.get());
   }
 
   /**
-   * Sets the player's points.
+   * Sets the player's points. The next save writes the value as is.
    *
    * @param points The new points value
    */
   public void setPoints(int points) {
-    this.points = points;
+    // The value must be in place before the flag is raised, or a save taken in
+    // between would write the old value as absolute and drop this one
+    this.points.set(pack(points, 0));
+    pointsReplaced.set(true);
+    replaced();
+    notifyPoints(points);
   }
 
   /**
-   * Adds points to the player's total.
+   * Adds points to the player's total. Safe to call from any thread.
    *
    * @param amount The amount of points to add
+   * @return The new total
    */
-  public void addPoints(int amount) {
-    this.points += amount;
+  public int addPoints(int amount) {
+    int updated = total(points.updateAndGet(current -> pack(total(current) + amount, delta(current) + amount)));
+    version.incrementAndGet();
+    notifyPoints(updated);
+    return updated;
   }
 
   /**
-   * Stores additional data for the player.
+   * Sets the points as read from the database. The points are not marked as
+   * changed.
+   *
+   * @param points The stored points
+   */
+  public void loadPoints(int points) {
+    this.points.set(pack(points, 0));
+    pointsReplaced.set(false);
+  }
+
+  /**
+   * Takes the points that still have to be written. While an earlier delta is
+   * unconfirmed, that delta is returned again with its token and the points
+   * added since stay for a later save. Otherwise the delta is reset and the
+   * taken change stays unconfirmed until it is passed to
+   * {@link #confirmPointsChange(PointsChange)}, or to
+   * {@link #restorePointsChange(PointsChange)} if the write fails.
+   *
+   * @return The points change to write
+   */
+  public PointsChange takePointsChange() {
+    synchronized (pointsLock) {
+      boolean replaced = pointsReplaced.getAndSet(false);
+      if (!replaced && unconfirmed != null) {
+        return unconfirmed;
+      }
+
+      // An absolute value includes any unconfirmed delta
+      long taken = points.getAndUpdate(current -> pack(total(current), 0));
+      PointsChange change = new PointsChange(replaced, replaced ? total(taken) : delta(taken), nextToken);
+      this.nextToken = newToken();
+      this.unconfirmed = replaced || change.getValue() == 0 ? null : change;
+      return change;
+    }
+  }
+
+  /**
+   * Records that a points change was written, so the next save takes the
+   * points added since.
+   *
+   * @param change The change taken by {@link #takePointsChange()}
+   */
+  public void confirmPointsChange(PointsChange change) {
+    synchronized (pointsLock) {
+      if (unconfirmed == change) {
+        this.unconfirmed = null;
+      }
+    }
+  }
+
+  /**
+   * Puts back a points change whose write failed, so the next save includes
+   * it. A delta is still unconfirmed and is sent again as it is, since the
+   * failed write may have been applied.
+   *
+   * @param change The change taken by {@link #takePointsChange()}
+   */
+  public void restorePointsChange(PointsChange change) {
+    if (change.isAbsolute()) {
+      // The next save writes the current total, which includes everything
+      pointsReplaced.set(true);
+    }
+  }
+
+  /**
+   * Gets the points that still have to be written, for the journal. The
+   * token of the waiting delta is fixed in advance, so a delta journaled
+   * before its save is sent with the token the journal holds.
+   *
+   * @return The points state
+   */
+  public PointsState getPointsState() {
+    synchronized (pointsLock) {
+      long packed = points.get();
+      PointsChange pending = unconfirmed;
+      return new PointsState(total(packed), pointsReplaced.get(), delta(packed), nextToken,
+          pending != null ? pending.getValue() : 0, pending != null ? pending.getToken() : 0L);
+    }
+  }
+
+  /**
+   * Sets the points from a journaled state, so the next saves write what the
+   * journaled state had not written yet.
+   *
+   * @param state The journaled points state
+   */
+  public void loadPointsState(PointsState state) {
+    synchronized (pointsLock) {
+      points.set(pack(state.getTotal(), state.getDelta()));
+      pointsReplaced.set(state.isReplaced());
+      this.nextToken = state.getDeltaToken() != 0L ? state.getDeltaToken() : newToken();
+      this.unconfirmed = state.getUnconfirmedToken() != 0L
+          ? new PointsChange(false, state.getUnconfirmedDelta(), state.getUnconfirmedToken())
+          : null;
+    }
+  }
+
+  /**
+   * Creates a token for a new points change.
+   *
+   * @return A random token other than 0
+   */
+  private static long newToken() {
+    long token;
+    do {
+      token = ThreadLocalRandom.current().nextLong();
+    } while (token == 0L);
+    return token;
+  }
+
+  /**
+   * Packs the total and the unsaved delta into one value.
+   *
+   * @param total The total points
+   * @param delta The points added since the last save
+   * @return The packed value
+   */
+  private static long pack(int total, int delta) {
+    return ((long) total << 32) | (delta & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Gets the total points from a packed value.
+   *
+   * @param packed The packed value
+   * @return The total points
+   */
+  private static int total(long packed) {
+    return (int) (packed >> 32);
+  }
+
+  /**
+   * Gets the unsaved delta from a packed value.
+   *
+   * @param packed The packed value
+   * @return The points added since the last save
+   */
+  private static int delta(long packed) {
+    return (int) packed;
+  }
+
+  /**
+   * Sets the listener notified when the points change, replacing any previous
+   * one.
+   *
+   * @param pointsListener The listener, or null to remove it
+   */
+  public void setPointsListener(PointsListener pointsListener) {
+    this.pointsListener = pointsListener;
+  }
+
+  /**
+   * Notifies the points listener, if any.
+   *
+   * @param updated The new points value
+   */
+  private void notifyPoints(int updated) {
+    PointsListener listener = pointsListener;
+    if (listener != null) {
+      listener.onPointsChanged(this, updated);
+    }
+  }
+
+  /**
+   * Gets the value of a key.
+   *
+   * @param key The key
+   * @param <T> The type of the value
+   * @return The value, or null if the player has none
+   */
+  public <T> T get(DataKey<T> key) {
+    return key.getType().cast(slotsFor(key).value(key));
+  }
+
+  /**
+   * Gets the value of a boolean key without boxing.
+   *
+   * @param key The key
+   * @return The value, or false if the player has none
+   */
+  public boolean getBoolean(DataKey<Boolean> key) {
+    key.requireKind(DataKey.Kind.BOOLEAN);
+    return slotsFor(key).bits(key) != 0L;
+  }
+
+  /**
+   * Gets the value of an int key without boxing.
+   *
+   * @param key The key
+   * @return The value, or 0 if the player has none
+   */
+  public int getInt(DataKey<Integer> key) {
+    key.requireKind(DataKey.Kind.INT);
+    return (int) slotsFor(key).bits(key);
+  }
+
+  /**
+   * Gets the value of a long key without boxing.
+   *
+   * @param key The key
+   * @return The value, or 0 if the player has none
+   */
+  public long getLong(DataKey<Long> key) {
+    key.requireKind(DataKey.Kind.LONG);
+    return slotsFor(key).bits(key);
+  }
+
+  /**
+   * Gets the value of a double key without boxing.
+   *
+   * @param key The key
+   * @return The value, or 0 if the player has none
+   */
+  public double getDouble(DataKey<Double> key) {
+    key.requireKind(DataKey.Kind.DOUBLE);
+    return Double.longBitsToDouble(slotsFor(key).bits(key));
+  }
+
+  /**
+   * Checks whether the player has a value for a key.
+   *
+   * @param key The key
+   * @return true if there is a value
+   */
+  public boolean has(DataKey<?> key) {
+    return slotsFor(key).has(key);
+  }
+
+  /**
+   * Sets the value of a key.
+   *
+   * @param key   The key
+   * @param value The value; null removes the value of a primitive key
+   * @param <T>   The type of the value
+   */
+  public <T> void set(DataKey<T> key, T value) {
+    if (value == null && key.getKind().isPrimitive()) {
+      remove(key);
+      return;
+    }
+
+    synchronized (dataLock) {
+      DataSlots current = layOut(key);
+      this.slots = key.getKind().isPrimitive()
+          ? current.withBits(key, key.toBits(value))
+          : current.withObject(key, value);
+      this.encodedData = null;
+    }
+    replaced();
+  }
+
+  /**
+   * Sets the value of a boolean key.
+   *
+   * @param key   The key
+   * @param value The value
+   */
+  public void setBoolean(DataKey<Boolean> key, boolean value) {
+    key.requireKind(DataKey.Kind.BOOLEAN);
+    setBits(key, value ? 1L : 0L);
+  }
+
+  /**
+   * Sets the value of an int key.
+   *
+   * @param key   The key
+   * @param value The value
+   */
+  public void setInt(DataKey<Integer> key, int value) {
+    key.requireKind(DataKey.Kind.INT);
+    setBits(key, value);
+  }
+
+  /**
+   * Sets the value of a long key.
+   *
+   * @param key   The key
+   * @param value The value
+   */
+  public void setLong(DataKey<Long> key, long value) {
+    key.requireKind(DataKey.Kind.LONG);
+    setBits(key, value);
+  }
+
+  /**
+   * Sets the value of a double key.
+   *
+   * @param key   The key
+   * @param value The value
+   */
+  public void setDouble(DataKey<Double> key, double value) {
+    key.requireKind(DataKey.Kind.DOUBLE);
+    setBits(key, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Removes the value of a key.
+   *
+   * @param key The key
+   * @param <T> The type of the value
+   * @return The removed value, or null if the player had none
+   */
+  public <T> T remove(DataKey<T> key) {
+    Object removed = removeData(key.getName());
+    return key.getType().isInstance(removed) ? key.getType().cast(removed) : null;
+  }
+
+  /**
+   * Sets the slot bits of a primitive key.
+   *
+   * @param key  The key
+   * @param bits The slot bits
+   */
+  private void setBits(DataKey<?> key, long bits) {
+    synchronized (dataLock) {
+      this.slots = layOut(key).withBits(key, bits);
+      this.encodedData = null;
+    }
+    replaced();
+  }
+
+  /**
+   * Stores additional data for the player. If a {@link DataKey} is registered
+   * under the name and the value fits its type, the value goes to the key's
+   * slot.
    *
    * @param key   The key for the data
    * @param value The value to store
    */
   public void setData(String key, Object value) {
-    additionalData.put(key, value);
+    synchronized (dataLock) {
+      this.slots = decoded().with(key, value);
+      this.encodedData = null;
+    }
+    replaced();
   }
 
   /**
@@ -97,7 +474,7 @@ public class PlayerData {
    * @return The stored value, or null if not found
    */
   public Object getData(String key) {
-    return additionalData.get(key);
+    return slots().get(key);
   }
 
   /**
@@ -110,7 +487,7 @@ public class PlayerData {
    */
   @SuppressWarnings("unchecked")
   public <T> T getData(String key, Class<T> type) {
-    Object value = additionalData.get(key);
+    Object value = getData(key);
     if (value != null && type.isInstance(value)) {
       return (T) value;
     }
@@ -124,7 +501,7 @@ public class PlayerData {
    * @return True if data exists for the key, false otherwise
    */
   public boolean hasData(String key) {
-    return additionalData.containsKey(key);
+    return slots().contains(key);
   }
 
   /**
@@ -134,7 +511,26 @@ public class PlayerData {
    * @return The removed value, or null if not found
    */
   public Object removeData(String key) {
-    return additionalData.remove(key);
+    Object removed;
+    synchronized (dataLock) {
+      DataSlots current = decoded();
+      if (!current.contains(key)) {
+        return null;
+      }
+      removed = current.get(key);
+      this.slots = current.without(key);
+      this.encodedData = null;
+    }
+    replaced();
+    return removed;
+  }
+
+  /**
+   * Bumps the version after a change that replaces a value rather than adding
+   * to it, and remembers it as the latest such change.
+   */
+  private void replaced() {
+    replacedVersion.accumulateAndGet(version.incrementAndGet(), Math::max);
   }
 
   /**
@@ -143,6 +539,221 @@ public class PlayerData {
    * @return A map of all additional data
    */
   public Map<String, Object> getAllData() {
-    return new HashMap<>(additionalData);
+    return slots().toMap();
+  }
+
+  /**
+   * Replaces the additional data with its encoded form as read from the
+   * database. Decoding is deferred until the data is first accessed, and the
+   * data is not marked as changed.
+   *
+   * @param encoded The encoded data, or null if there is none
+   */
+  public void loadEncodedData(byte[] encoded) {
+    synchronized (dataLock) {
+      this.encodedData = encoded;
+      this.slots = encoded != null ? null : DataSlots.of(Collections.emptyMap());
+    }
+  }
+
+  /**
+   * Gets the additional data in its encoded form. Data that was never accessed
+   * is returned as loaded, without a decode and encode round trip.
+   *
+   * @return The encoded data, or null if there is no additional data
+   */
+  public byte[] getEncodedData() {
+    synchronized (dataLock) {
+      if (encodedData == null && !slots.isEmpty()) {
+        this.encodedData = PlayerDataCodec.encode(slots.toMap());
+      }
+      return encodedData;
+    }
+  }
+
+  /**
+   * Gets the decoded additional data, taking the data lock only to decode it.
+   *
+   * @return The slots
+   */
+  private DataSlots slots() {
+    DataSlots current = slots;
+    if (current != null) {
+      return current;
+    }
+    synchronized (dataLock) {
+      return decoded();
+    }
+  }
+
+  /**
+   * Gets the decoded additional data with a slot for a key, taking the data
+   * lock only to decode it or lay it out again.
+   *
+   * @param key The key
+   * @return The slots
+   */
+  private DataSlots slotsFor(DataKey<?> key) {
+    DataSlots current = slots;
+    if (current != null && current.covers(key)) {
+      return current;
+    }
+    synchronized (dataLock) {
+      return layOut(key);
+    }
+  }
+
+  /**
+   * Gets the decoded additional data, laying it out again if the key was
+   * registered after it was decoded. Must be called while holding the data
+   * lock.
+   *
+   * @param key The key
+   * @return The slots
+   */
+  private DataSlots layOut(DataKey<?> key) {
+    DataSlots current = decoded();
+    if (!current.covers(key)) {
+      current = DataSlots.of(current.toMap());
+      this.slots = current;
+    }
+    return current;
+  }
+
+  /**
+   * Gets the decoded additional data, decoding it on first access. Data that
+   * cannot be decoded reads as empty, but its encoded form is kept and written
+   * back unchanged until the data is modified. Must be called while holding
+   * the data lock.
+   *
+   * @return The decoded data
+   */
+  private DataSlots decoded() {
+    DataSlots current = slots;
+    if (current == null) {
+      Map<String, Object> data;
+      try {
+        data = PlayerDataCodec.decode(encodedData);
+      } catch (IllegalArgumentException e) {
+        data = Collections.emptyMap();
+      }
+      current = DataSlots.of(data);
+      this.slots = current;
+    }
+    return current;
+  }
+
+  /**
+   * Gets the current version of the data. Read it before taking a snapshot to
+   * save, then pass it to {@link #markSaved(long)} once the save succeeded.
+   *
+   * @return The current version
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  /**
+   * Records that the data up to the given version has been written. Changes made
+   * after that version keep the data dirty.
+   *
+   * @param savedVersion The version that was written
+   */
+  public void markSaved(long savedVersion) {
+    this.savedVersion.accumulateAndGet(savedVersion, Math::max);
+  }
+
+  /**
+   * Checks whether the data has changed since it was last written, or has
+   * points whose write is not confirmed yet.
+   *
+   * @return True if there are unsaved changes, false otherwise
+   */
+  public boolean isDirty() {
+    return version.get() > savedVersion.get() || delta(points.get()) != 0 || unconfirmed != null;
+  }
+
+  /**
+   * Gets the stamp of the last handoff between servers this data took part in,
+   * or 0 if it was loaded from the database.
+   *
+   * @return The handoff stamp
+   */
+  public long getHandoffStamp() {
+    return handoffStamp.get();
+  }
+
+  /**
+   * Stamps the data for a handoff to another server. The stamp is the current
+   * time, or one more than the previous stamp if that is ahead, so stamps keep
+   * growing along a chain of handoffs even when server clocks disagree.
+   *
+   * @param now The current time in milliseconds
+   * @return The new stamp
+   */
+  public long nextHandoffStamp(long now) {
+    return handoffStamp.accumulateAndGet(now, (previous, time) -> Math.max(previous + 1L, time));
+  }
+
+  /**
+   * Sets the handoff stamp of a snapshot received from another server.
+   *
+   * @param stamp The stamp
+   */
+  public void loadHandoffStamp(long stamp) {
+    handoffStamp.set(stamp);
+  }
+
+  /**
+   * Takes over a snapshot handed over by another server if it is newer than
+   * the last one applied. The points total and additional data are replaced;
+   * points added here since the last save are kept on top of the new total and
+   * later saves write them as a delta, since the sending server writes the
+   * snapshot itself. Data that had no unsaved changes stays clean.
+   * The snapshot is refused while additional data or points set here are
+   * unsaved, which it would overwrite, and while a delta sent from here is
+   * unconfirmed, since the snapshot's total may or may not include it.
+   *
+   * @param snapshot The snapshot
+   * @return true if the snapshot was applied, false if it was stale or
+   *         refused
+   */
+  public boolean applyHandoff(PlayerData snapshot) {
+    int updated;
+    synchronized (pointsLock) {
+      if (hasLocalChanges()) {
+        return false;
+      }
+
+      long stamp = snapshot.getHandoffStamp();
+      if (handoffStamp.getAndAccumulate(stamp, Math::max) >= stamp) {
+        return false;
+      }
+
+      boolean clean = !isDirty();
+      int total = snapshot.getPoints();
+      updated = total(points.updateAndGet(current -> pack(total + delta(current), delta(current))));
+      pointsReplaced.set(false);
+      loadEncodedData(snapshot.getEncodedData());
+
+      if (clean) {
+        markSaved(version.get());
+      }
+    }
+    notifyPoints(updated);
+    return true;
+  }
+
+  /**
+   * Checks whether the data has unsaved changes a handed over snapshot cannot
+   * be merged with: changed additional data, points that were set rather than
+   * added, or a points delta whose write is unconfirmed.
+   *
+   * @return true if a snapshot must not be applied
+   */
+  public boolean hasLocalChanges() {
+    synchronized (pointsLock) {
+      return unconfirmed != null || replacedVersion.get() > savedVersion.get();
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,358 @@
+package pl.openmc.paper.core.models.player;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary codec for the additional data of a player.
+ * The first byte is the format version, followed by the entry count and the
+ * entries. Each value is written with a one byte type tag; integers use
+ * zigzag varints, so small numbers and flags take one or two bytes.
+ * Supported values are null, booleans, numbers, strings, UUIDs, byte arrays and
+ * lists of these. Other values are stored as their string form, the same way
+ * the properties backup stored them.
+ */
+public final class PlayerDataCodec {
+  public static final int FORMAT_VERSION = 1;
+
+  // Type tags
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_TRUE = 1;
+  private static final byte TAG_FALSE = 2;
+  private static final byte TAG_BYTE = 3;
+  private static final byte TAG_SHORT = 4;
+  private static final byte TAG_INT = 5;
+  private static final byte TAG_LONG = 6;
+  private static final byte TAG_FLOAT = 7;
+  private static final byte TAG_DOUBLE = 8;
+  private static final byte TAG_STRING = 9;
+  private static final byte TAG_UUID = 10;
+  private static final byte TAG_BYTES = 11;
+  private static final byte TAG_LIST = 12;
+
+  private PlayerDataCodec() {
+  }
+
+  /**
+   * Encodes additional data.
+   *
+   * @param data The data to encode
+   * @return The encoded bytes
+   */
+  public static byte[] encode(Map<String, Object> data) {
+    Writer writer = new Writer();
+    writer.writeByte(FORMAT_VERSION);
+    writer.writeVarInt(data.size());
+
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      writer.writeString(entry.getKey());
+      writeValue(writer, entry.getValue());
+    }
+
+    return writer.toByteArray();
+  }
+
+  /**
+   * Decodes additional data.
+   *
+   * @param encoded The encoded bytes
+   * @return The decoded data
+   * @throws IllegalArgumentException If the bytes are not valid encoded data
+   */
+  public static Map<String, Object> decode(byte[] encoded) {
+    ByteBuffer buffer = ByteBuffer.wrap(encoded);
+
+    try {
+      int version = buffer.get();
+      if (version != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Unsupported player data format version " + version);
+      }
+
+      int size = readLength(buffer);
+      Map<String, Object> data = new HashMap<>(Math.max(16, size * 2));
+      for (int i = 0; i < size; i++) {
+        String key = readString(buffer);
+        data.put(key, readValue(buffer));
+      }
+      return data;
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Truncated player data", e);
+    }
+  }
+
+  /**
+   * Writes a tagged value.
+   *
+   * @param writer The output
+   * @param value  The value to write
+   */
+  private static void writeValue(Writer writer, Object value) {
+    if (value == null) {
+      writer.writeByte(TAG_NULL);
+    } else if (value instanceof Boolean) {
+      writer.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+    } else if (value instanceof Byte) {
+      writer.writeByte(TAG_BYTE);
+      writer.writeByte((Byte) value);
+    } else if (value instanceof Short) {
+      writer.writeByte(TAG_SHORT);
+      writer.writeVarLong(zigzag((Short) value));
+    } else if (value instanceof Integer) {
+      writer.writeByte(TAG_INT);
+      writer.writeVarLong(zigzag((Integer) value));
+    } else if (value instanceof Long) {
+      writer.writeByte(TAG_LONG);
+      writer.writeVarLong(zigzag((Long) value));
+    } else if (value instanceof Float) {
+      writer.writeByte(TAG_FLOAT);
+      writer.writeInt(Float.floatToIntBits((Float) value));
+    } else if (value instanceof Double) {
+      writer.writeByte(TAG_DOUBLE);
+      writer.writeLong(Double.doubleToLongBits((Double) value));
+    } else if (value instanceof UUID) {
+      UUID uuid = (UUID) value;
+      writer.writeByte(TAG_UUID);
+      writer.writeLong(uuid.getMostSignificantBits());
+      writer.writeLong(uuid.getLeastSignificantBits());
+    } else if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      writer.writeByte(TAG_BYTES);
+      writer.writeVarInt(bytes.length);
+      writer.writeBytes(bytes);
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      writer.writeByte(TAG_LIST);
+      writer.writeVarInt(list.size());
+      for (Object element : list) {
+        writeValue(writer, element);
+      }
+    } else {
+      writer.writeByte(TAG_STRING);
+      writer.writeString(value.toString());
+    }
+  }
+
+  /**
+   * Reads a tagged value.
+   *
+   * @param buffer The input
+   * @return The value
+   */
+  private static Object readValue(ByteBuffer buffer) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_TRUE:
+        return Boolean.TRUE;
+      case TAG_FALSE:
+        return Boolean.FALSE;
+      case TAG_BYTE:
+        return buffer.get();
+      case TAG_SHORT:
+        return (short) unzigzag(readVarLong(buffer));
+      case TAG_INT:
+        return (int) unzigzag(readVarLong(buffer));
+      case TAG_LONG:
+        return unzigzag(readVarLong(buffer));
+      case TAG_FLOAT:
+        return Float.intBitsToFloat(buffer.getInt());
+      case TAG_DOUBLE:
+        return Double.longBitsToDouble(buffer.getLong());
+      case TAG_STRING:
+        return readString(buffer);
+      case TAG_UUID:
+        return new UUID(buffer.getLong(), buffer.getLong());
+      case TAG_BYTES: {
+        byte[] bytes = new byte[readLength(buffer)];
+        buffer.get(bytes);
+        return bytes;
+      }
+      case TAG_LIST: {
+        int size = readLength(buffer);
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(buffer));
+        }
+        return list;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown player data type tag " + tag);
+    }
+  }
+
+  /**
+   * Reads a length-prefixed UTF-8 string.
+   *
+   * @param buffer The input
+   * @return The string
+   */
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[readLength(buffer)];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a length prefix and checks it against the remaining input, so corrupt
+   * data cannot trigger a huge allocation.
+   *
+   * @param buffer The input
+   * @return The length
+   */
+  private static int readLength(ByteBuffer buffer) {
+    int length = readVarInt(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid length " + length + " in player data");
+    }
+    return length;
+  }
+
+  /**
+   * Reads an unsigned varint that must fit in an int.
+   *
+   * @param buffer The input
+   * @return The value
+   */
+  private static int readVarInt(ByteBuffer buffer) {
+    long value = readVarLong(buffer);
+    if (value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Varint out of range in player data");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Reads an unsigned varint.
+   *
+   * @param buffer The input
+   * @return The value
+   */
+  private static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint in player data");
+  }
+
+  /**
+   * Maps a signed value to an unsigned one so small negatives stay short.
+   *
+   * @param value The signed value
+   * @return The zigzag-encoded value
+   */
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Reverses {@link #zigzag(long)}.
+   *
+   * @param value The zigzag-encoded value
+   * @return The signed value
+   */
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Minimal growable output buffer.
+   */
+  private static final class Writer {
+    private byte[] bytes = new byte[64];
+    private int size;
+
+    /**
+     * Grows the buffer to fit the given number of extra bytes.
+     */
+    private void ensure(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+      }
+    }
+
+    /**
+     * Writes a single byte.
+     */
+    private void writeByte(int value) {
+      ensure(1);
+      bytes[size++] = (byte) value;
+    }
+
+    /**
+     * Writes raw bytes.
+     */
+    private void writeBytes(byte[] value) {
+      ensure(value.length);
+      System.arraycopy(value, 0, bytes, size, value.length);
+      size += value.length;
+    }
+
+    /**
+     * Writes a big-endian int.
+     */
+    private void writeInt(int value) {
+      ensure(4);
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        bytes[size++] = (byte) (value >>> shift);
+      }
+    }
+
+    /**
+     * Writes a big-endian long.
+     */
+    private void writeLong(long value) {
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        bytes[size++] = (byte) (value >>> shift);
+      }
+    }
+
+    /**
+     * Writes an int as an unsigned varint.
+     */
+    private void writeVarInt(int value) {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Writes an unsigned varint.
+     */
+    private void writeVarLong(long value) {
+      ensure(10);
+      while ((value & ~0x7FL) != 0) {
+        bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     */
+    private void writeString(String value) {
+      byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(encoded.length);
+      writeBytes(encoded);
+    }
+
+    /**
+     * Copies the written bytes.
+     */
+    private byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package pl.openmc.paper.core.models.player;
+
+/**
+ * The points of a player that still have to be written, taken from a
+ * {@link PlayerData} when a save is prepared. Either an absolute value, when
+ * the points were replaced or the player is new, or a delta to add to the
+ * stored value. Each change carries a random token that is stored with the
+ * row when the change is written, so a delta sent again after a write whose
+ * outcome is unknown is recognised and not added twice.
+ */
+public final class PointsChange {
+  private final boolean absolute;
+  private final int value;
+  private final long token;
+
+  /**
+   * Creates a new points change.
+   *
+   * @param absolute true if the value replaces the stored points
+   * @param value    The new points, or the amount to add
+   * @param token    The token identifying the change, never 0
+   */
+  PointsChange(boolean absolute, int value, long token) {
+    this.absolute = absolute;
+    this.value = value;
+    this.token = token;
+  }
+
+  /**
+   * Checks whether the value replaces the stored points instead of being added
+   * to them.
+   *
+   * @return true for an absolute value
+   */
+  public boolean isAbsolute() {
+    return absolute;
+  }
+
+  /**
+   * Gets the new points for an absolute change, or the amount to add for a
+   * delta.
+   *
+   * @return The value
+   */
+  public int getValue() {
+    return value;
+  }
+
+  /**
+   * Gets the token identifying the change. Sending the same change again sends
+   * the same token.
+   *
+   * @return The token
+   */
+  public long getToken() {
+    return token;
+  }
+}
@@ -0,0 +1,16 @@
+package pl.openmc.paper.core.models.player;
+
+/**
+ * Listener notified when the points of a {@link PlayerData} change.
+ */
+@FunctionalInterface
+public interface PointsListener {
+
+  /**
+   * Called after a player's points changed, on the thread that changed them.
+   *
+   * @param playerData The player data
+   * @param points     The new points value
+   */
+  void onPointsChanged(PlayerData playerData, int points);
+}
@@ -0,0 +1,94 @@
+package pl.openmc.paper.core.models.player;
+
+/**
+ * The unsaved points of a {@link PlayerData} at one point in time, as kept in
+ * the journal. Besides the total it holds whether the points were replaced,
+ * the delta still waiting to be written together with the token it will be
+ * sent with, and the delta whose write is not confirmed yet, if any. Data
+ * rebuilt from it writes exactly the changes that may be missing from the
+ * database, and sends each delta with its token, so nothing already written
+ * is counted twice.
+ */
+public final class PointsState {
+  private final int total;
+  private final boolean replaced;
+  private final int delta;
+  private final long deltaToken;
+  private final int unconfirmedDelta;
+  private final long unconfirmedToken;
+
+  /**
+   * Creates a new points state.
+   *
+   * @param total            The total points
+   * @param replaced         true if the total replaces the stored points
+   * @param delta            The points added since the last taken change
+   * @param deltaToken       The token the waiting delta will be sent with
+   * @param unconfirmedDelta The delta whose write is not confirmed, or 0
+   * @param unconfirmedToken The token of that delta, or 0 if there is none
+   */
+  public PointsState(int total, boolean replaced, int delta, long deltaToken, int unconfirmedDelta,
+      long unconfirmedToken) {
+    this.total = total;
+    this.replaced = replaced;
+    this.delta = delta;
+    this.deltaToken = deltaToken;
+    this.unconfirmedDelta = unconfirmedDelta;
+    this.unconfirmedToken = unconfirmedToken;
+  }
+
+  /**
+   * Gets the total points.
+   *
+   * @return The total
+   */
+  public int getTotal() {
+    return total;
+  }
+
+  /**
+   * Checks whether the total replaces the stored points instead of the deltas
+   * being added to them.
+   *
+   * @return true if the points were replaced
+   */
+  public boolean isReplaced() {
+    return replaced;
+  }
+
+  /**
+   * Gets the points added since the last taken change.
+   *
+   * @return The waiting delta
+   */
+  public int getDelta() {
+    return delta;
+  }
+
+  /**
+   * Gets the token the waiting delta will be sent with.
+   *
+   * @return The token
+   */
+  public long getDeltaToken() {
+    return deltaToken;
+  }
+
+  /**
+   * Gets the delta whose write is not confirmed yet.
+   *
+   * @return The delta, or 0 if there is none
+   */
+  public int getUnconfirmedDelta() {
+    return unconfirmedDelta;
+  }
+
+  /**
+   * Gets the token of the delta whose write is not confirmed yet.
+   *
+   * @return The token, or 0 if there is none
+   */
+  public long getUnconfirmedToken() {
+    return unconfirmedToken;
+  }
+}
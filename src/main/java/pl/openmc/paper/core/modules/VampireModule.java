@@ -7,8 +7,12 @@ import pl.openmc.paper.core.commands.admin.modules.VampireCommand;
 import pl.openmc.paper.core.config.modules.VampireConfig;
 import pl.openmc.paper.core.listeners.modules.VampireListener;
 import pl.openmc.paper.core.managers.modules.VampireManager;
+import pl.openmc.paper.core.models.player.DataKey;
 
 public class VampireModule extends BaseModule {
+  // Whether a player had vampire mode on, restored when they join
+  public static final DataKey<Boolean> VAMPIRE_MODE = DataKey.ofBoolean("vampire_mode");
+
   private VampireListener listener;
   private VampireManager vampireManager;
   private VampireConfig config;
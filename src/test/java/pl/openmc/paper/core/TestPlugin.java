@@ -0,0 +1,94 @@
+package pl.openmc.paper.core;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stands in for the running plugin in tests.
+ * The plugin cannot be created outside a server, so classes that look up
+ * {@link Main#getInstance()} get a mock whose logger discards everything and
+ * whose data folder is a test directory.
+ */
+public final class TestPlugin {
+  private TestPlugin() {
+  }
+
+  /**
+   * Creates a mocked plugin and registers it as the plugin instance.
+   *
+   * @param dataFolder The data folder the plugin reports
+   * @return The mocked plugin
+   */
+  public static Main install(File dataFolder) {
+    Main plugin = mock(Main.class);
+    LoggerUtil logger = logger();
+    when(plugin.getPluginLogger()).thenReturn(logger);
+    when(plugin.getDataFolder()).thenReturn(dataFolder);
+
+    try {
+      Field instance = Main.class.getDeclaredField("instance");
+      instance.setAccessible(true);
+      instance.set(null, plugin);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot register the test plugin", e);
+    }
+    return plugin;
+  }
+
+  /**
+   * Gets the mocked server behind {@link Bukkit} with fresh stubbing. The
+   * server can only be set once, so all tests share it. No player is online,
+   * the calling thread counts as the main thread and scheduled tasks run right
+   * away on it.
+   *
+   * @return The mocked server
+   */
+  public static Server server() {
+    Server server = Bukkit.getServer();
+    if (server == null) {
+      server = mock(Server.class);
+      when(server.getLogger()).thenReturn(Logger.getLogger("TestServer"));
+      Bukkit.setServer(server);
+    }
+    reset(server);
+
+    BukkitScheduler scheduler = mock(BukkitScheduler.class);
+    when(scheduler.runTask(any(), any(Runnable.class))).thenAnswer(invocation -> {
+      invocation.<Runnable>getArgument(1).run();
+      return null;
+    });
+    when(scheduler.runTaskAsynchronously(any(), any(Runnable.class))).thenAnswer(invocation -> {
+      invocation.<Runnable>getArgument(1).run();
+      return null;
+    });
+    when(server.getLogger()).thenReturn(Logger.getLogger("TestServer"));
+    when(server.getScheduler()).thenReturn(scheduler);
+    when(server.getPluginManager()).thenReturn(mock(PluginManager.class));
+    when(server.isPrimaryThread()).thenReturn(true);
+    doReturn(Collections.emptyList()).when(server).getOnlinePlayers();
+    return server;
+  }
+
+  /**
+   * Creates a logger that discards everything.
+   *
+   * @return The logger
+   */
+  public static LoggerUtil logger() {
+    return mock(LoggerUtil.class);
+  }
+}
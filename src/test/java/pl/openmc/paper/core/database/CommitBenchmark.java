@@ -0,0 +1,104 @@
+package pl.openmc.paper.core.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.database.sqlite.StoreSQLite;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures how fast the store writes rows with one commit per row compared to
+ * all rows in one transaction. Both passes insert the same rows through
+ * {@link Store#updatePrepared(boolean, QueryTemplate, Store.PreparedStatementCallback)},
+ * so the only difference is the commit. Runs with {@code gradle benchmark}
+ * rather than with the tests; the row count is set with
+ * {@code -PbenchmarkRows=<rows>}.
+ */
+@Tag("benchmark")
+class CommitBenchmark {
+  private static final String PAYLOAD = "00000000-0000-0000-0000-000000000000";
+
+  @TempDir
+  Path directory;
+
+  private StoreSQLite store;
+  private int rows;
+
+  @BeforeEach
+  void connect() throws SQLException {
+    TestPlugin.install(directory.toFile());
+    StoreSettings settings = new StoreSettings();
+    settings.setDurableSpool(false);
+    this.store = new StoreSQLite(directory.resolve("benchmark.db").toFile(), "", settings);
+    assertTrue(store.connect());
+    this.rows = Integer.getInteger("benchmark.rows", 2000);
+
+    store.inTransaction(connection -> {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE commit_benchmark (id INTEGER NOT NULL PRIMARY KEY, "
+            + "payload VARCHAR(36) NOT NULL)");
+      }
+      return null;
+    });
+  }
+
+  @AfterEach
+  void disconnect() {
+    store.disconnect();
+  }
+
+  @Test
+  void comparesGroupedCommitsWithOneCommitPerRow() throws SQLException {
+    QueryTemplate insert = store.template("INSERT INTO commit_benchmark (id, payload) VALUES (?, ?)");
+
+    long start = System.nanoTime();
+    insertRows(insert, 0);
+    long autocommitNanos = System.nanoTime() - start;
+    assertEquals(rows, count());
+
+    start = System.nanoTime();
+    store.inTransaction(connection -> {
+      insertRows(insert, rows);
+      return null;
+    });
+    long groupedNanos = System.nanoTime() - start;
+    assertEquals(2 * rows, count());
+
+    System.out.printf("%d rows: %d rows/s with one commit per row, %d rows/s in one transaction (%.1fx)%n",
+        rows, rate(autocommitNanos), rate(groupedNanos), (double) autocommitNanos / Math.max(1L, groupedNanos));
+  }
+
+  /**
+   * Inserts the rows, one immediate update each.
+   *
+   * @param insert The insert statement
+   * @param first  The id of the first row
+   */
+  private void insertRows(QueryTemplate insert, int first) {
+    for (int i = 0; i < rows; i++) {
+      int id = first + i;
+      store.updatePrepared(true, insert, statement -> {
+        statement.setInt(1, id);
+        statement.setString(2, PAYLOAD);
+      });
+    }
+  }
+
+  private int count() throws SQLException {
+    return store.queryFirst(store.template("SELECT COUNT(*) FROM commit_benchmark"), statement -> {
+    }, rs -> rs.getInt(1));
+  }
+
+  private long rate(long nanos) {
+    return rows * 1_000_000_000L / Math.max(1L, nanos);
+  }
+}
@@ -0,0 +1,117 @@
+package pl.openmc.paper.core.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.config.DatabaseConfig;
+import pl.openmc.paper.core.database.migration.UuidMigrationSettings;
+import pl.openmc.paper.core.database.pool.PoolSettings;
+import pl.openmc.paper.core.database.sqlite.SQLiteSettings;
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PlayerDataStoreTest {
+  private static final UUID PLAYER = new UUID(0L, 1L);
+
+  @TempDir
+  Path directory;
+
+  private Main plugin;
+  private DatabaseConfig config;
+  private PlayerDataStore store;
+
+  @BeforeEach
+  void mockConfig() {
+    this.plugin = TestPlugin.install(directory.toFile());
+    StoreSettings storeSettings = new StoreSettings();
+    storeSettings.setDurableSpool(false);
+    UuidMigrationSettings migrationSettings = new UuidMigrationSettings();
+    migrationSettings.setPause(0L);
+
+    this.config = mock(DatabaseConfig.class);
+    when(config.getStoreMode()).thenReturn(StoreMode.SQLITE);
+    when(config.getPoolSettings()).thenReturn(new PoolSettings());
+    when(config.getSQLiteSettings()).thenReturn(new SQLiteSettings());
+    when(config.getStoreSettings()).thenReturn(storeSettings);
+    when(config.getShutdownFlushSettings()).thenReturn(new ShutdownFlushSettings());
+    when(config.getUuidMigrationSettings()).thenReturn(migrationSettings);
+  }
+
+  @AfterEach
+  void shutDown() {
+    if (store != null) {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  void createsNewTablesWithoutTheTextKey() throws Exception {
+    this.store = new PlayerDataStore(plugin, config);
+    save(25);
+
+    assertFalse(columns().contains("uuid"));
+    assertEquals(25, store.loadPlayerData(PLAYER).get().getPoints());
+  }
+
+  @Test
+  void keepsWritingTheTextKeyOfOlderTables() throws Exception {
+    execute("CREATE TABLE player_data (id INTEGER PRIMARY KEY AUTOINCREMENT, uuid VARCHAR(36) NOT NULL UNIQUE, "
+        + "name VARCHAR(32) NOT NULL, points INTEGER NOT NULL DEFAULT 0, data TEXT)");
+    this.store = new PlayerDataStore(plugin, config);
+    save(25);
+
+    try (Connection connection = connect();
+         Statement statement = connection.createStatement();
+         ResultSet rs = statement.executeQuery("SELECT uuid, points FROM player_data")) {
+      rs.next();
+      assertEquals(PLAYER.toString(), rs.getString(1));
+      assertEquals(25, rs.getInt(2));
+    }
+    assertEquals(25, store.loadPlayerData(PLAYER).get().getPoints());
+  }
+
+  private void save(int points) throws Exception {
+    PlayerData playerData = new PlayerData(PLAYER, "player");
+    playerData.setPoints(points);
+    store.savePlayerData(playerData).get();
+  }
+
+  private Set<String> columns() throws SQLException {
+    Set<String> columns = new HashSet<>();
+    try (Connection connection = connect();
+         ResultSet rs = connection.getMetaData().getColumns(null, null, "player_data", null)) {
+      while (rs.next()) {
+        columns.add(rs.getString("COLUMN_NAME"));
+      }
+    }
+    return columns;
+  }
+
+  private void execute(String sql) throws SQLException {
+    try (Connection connection = connect();
+         Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  private Connection connect() throws SQLException {
+    return DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("database.db"));
+  }
+}
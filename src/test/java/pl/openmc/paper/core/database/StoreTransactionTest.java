@@ -0,0 +1,111 @@
+package pl.openmc.paper.core.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.database.sqlite.StoreSQLite;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreTransactionTest {
+  @TempDir
+  Path directory;
+
+  private StoreSQLite store;
+
+  @BeforeEach
+  void connect() throws SQLException {
+    TestPlugin.install(directory.toFile());
+    StoreSettings settings = new StoreSettings();
+    settings.setDurableSpool(false);
+    this.store = new StoreSQLite(directory.resolve("store.db").toFile(), "", settings);
+    assertTrue(store.connect());
+
+    store.inTransaction(connection -> {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE entries (id INTEGER PRIMARY KEY)");
+      }
+      return null;
+    });
+  }
+
+  @AfterEach
+  void disconnect() {
+    store.disconnect();
+  }
+
+  @Test
+  void commitsNestedWorkWithTheTransaction() throws SQLException {
+    store.inTransaction(connection -> {
+      insert(connection, 1);
+      return store.inTransaction(nested -> insert(nested, 2));
+    });
+
+    assertEquals(List.of(1, 2), ids());
+  }
+
+  @Test
+  void rollsBackOnlyTheFailedSavepoint() throws SQLException {
+    store.inTransaction(connection -> {
+      insert(connection, 1);
+      assertThrows(IllegalStateException.class, () -> store.inTransaction(nested -> {
+        insert(nested, 2);
+        throw new IllegalStateException("Nested work failed");
+      }));
+      return insert(connection, 3);
+    });
+
+    assertEquals(List.of(1, 3), ids());
+  }
+
+  @Test
+  void rollsBackNestedWorkWhenTheTransactionFails() {
+    assertThrows(IllegalStateException.class, () -> store.inTransaction(connection -> {
+      insert(connection, 1);
+      store.inTransaction(nested -> insert(nested, 2));
+      throw new IllegalStateException("Outer work failed");
+    }));
+
+    assertEquals(List.of(), ids());
+  }
+
+  @Test
+  void readsInTheTransactionSeeItsWrites() throws SQLException {
+    QueryTemplate count = store.template("SELECT COUNT(*) FROM entries");
+
+    int seen = store.inTransaction(connection -> {
+      insert(connection, 1);
+      return store.queryFirst(count, statement -> {
+      }, rs -> rs.getInt(1));
+    });
+
+    assertEquals(1, seen);
+  }
+
+  private static int insert(Connection connection, int id) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement("INSERT INTO entries (id) VALUES (?)")) {
+      statement.setInt(1, id);
+      return statement.executeUpdate();
+    }
+  }
+
+  private List<Integer> ids() {
+    try {
+      return store.queryList(store.template("SELECT id FROM entries ORDER BY id"), statement -> {
+      }, rs -> rs.getInt(1));
+    } catch (SQLException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package pl.openmc.paper.core.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.database.executor.CircuitBreaker;
+import pl.openmc.paper.core.database.metrics.StoreMetrics;
+import pl.openmc.paper.core.utils.LoggerUtil;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindQueueTest {
+  private static final String INSERT = "INSERT INTO entries (id, value) VALUES (?, ?)";
+
+  @TempDir
+  Path directory;
+
+  private String url;
+  private AtomicInteger borrowed;
+  private volatile boolean reachable;
+  private WriteBehindQueue queue;
+
+  @BeforeEach
+  void createTable() throws SQLException {
+    this.url = "jdbc:sqlite:" + directory.resolve("queue.db");
+    this.borrowed = new AtomicInteger();
+    this.reachable = true;
+    try (Connection connection = DriverManager.getConnection(url);
+         Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE entries (id INTEGER PRIMARY KEY, value TEXT NOT NULL)");
+    }
+  }
+
+  @AfterEach
+  void shutDown() {
+    if (queue != null) {
+      queue.shutdown(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  void writesFullBatchesInOneTransactionEach() throws Exception {
+    open(50, 10000L);
+
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    for (int id = 0; id < 120; id++) {
+      writes.add(insert(id, "value-" + id));
+    }
+
+    assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+    for (CompletableFuture<Void> write : writes) {
+      write.get();
+    }
+    assertEquals(120, countRows());
+    // Two full batches, then the rest once the drain asked for a flush
+    assertEquals(3, borrowed.get());
+  }
+
+  @Test
+  void retriesAFailedBatchOneUpdateAtATime() throws Exception {
+    open(10, 10000L);
+
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    for (int id = 0; id < 10; id++) {
+      writes.add(insert(id, id == 5 ? null : "value-" + id));
+    }
+
+    assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+    for (int id = 0; id < 10; id++) {
+      assertEquals(id == 5, writes.get(id).isCompletedExceptionally(), "update " + id);
+    }
+    assertEquals(9, countRows());
+    // The retry reuses the transaction of the failed batch
+    assertEquals(1, borrowed.get());
+  }
+
+  @Test
+  void holdsUpdatesUntilTheDatabaseIsBack() throws Exception {
+    this.reachable = false;
+    open(10, 0L);
+
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    for (int id = 0; id < 5; id++) {
+      writes.add(insert(id, "value-" + id));
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (queue.getSpoolSize() < 5 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(5, queue.getSpoolSize());
+    for (CompletableFuture<Void> write : writes) {
+      assertFalse(write.isDone());
+    }
+
+    this.reachable = true;
+    assertTrue(queue.awaitDrained(10, TimeUnit.SECONDS));
+    for (CompletableFuture<Void> write : writes) {
+      write.get();
+    }
+    assertEquals(5, countRows());
+  }
+
+  /**
+   * Starts a queue writing to the test database.
+   *
+   * @param batchSize The batch size
+   * @param maxDelay  The maximum delay in milliseconds
+   */
+  private void open(int batchSize, long maxDelay) {
+    StoreSettings settings = new StoreSettings();
+    settings.setWriteBatchSize(batchSize);
+    settings.setWriteMaxDelay(maxDelay);
+    LoggerUtil logger = TestPlugin.logger();
+
+    this.queue = new WriteBehindQueue("Test", () -> {
+      if (!reachable) {
+        throw new SQLTransientConnectionException("Database is down", "08001");
+      }
+      borrowed.incrementAndGet();
+      return DriverManager.getConnection(url);
+    }, settings, logger, new StoreMetrics("Test", 1000L, logger), new CircuitBreaker("Test", 100, 1000L, logger),
+        null);
+  }
+
+  private CompletableFuture<Void> insert(int id, String value) {
+    return queue.submit(INSERT, statement -> {
+      statement.setInt(1, id);
+      statement.setString(2, value);
+    });
+  }
+
+  private int countRows() throws SQLException {
+    try (Connection connection = DriverManager.getConnection(url);
+         Statement statement = connection.createStatement();
+         ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM entries")) {
+      rs.next();
+      return rs.getInt(1);
+    }
+  }
+}
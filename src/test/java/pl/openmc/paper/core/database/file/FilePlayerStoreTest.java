@@ -0,0 +1,143 @@
+package pl.openmc.paper.core.database.file;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilePlayerStoreTest {
+  private static final UUID FIRST = new UUID(0L, 1L);
+  private static final UUID SECOND = new UUID(0L, 2L);
+
+  @TempDir
+  Path directory;
+
+  private FilePlayerStore store;
+
+  @BeforeEach
+  void open() {
+    this.store = openStore();
+  }
+
+  @AfterEach
+  void close() {
+    store.close();
+  }
+
+  @Test
+  void keepsDataAcrossRestarts() throws Exception {
+    PlayerData playerData = new PlayerData(FIRST, "first");
+    playerData.setPoints(10);
+    playerData.setData("rank", "vip");
+    store.savePlayerData(playerData).get();
+    playerData.addPoints(5);
+    store.savePlayerData(playerData).get();
+
+    reopen();
+    PlayerData loaded = store.loadPlayerData(FIRST).get();
+    assertEquals("first", loaded.getPlayerName());
+    assertEquals(15, loaded.getPoints());
+    assertEquals("vip", loaded.getData("rank"));
+  }
+
+  @Test
+  void recoversTheRecordsBeforeATornTail() throws Exception {
+    save(FIRST, 10);
+    save(SECOND, 20);
+    store.close();
+
+    // A crash halfway through the header of the next record
+    Files.write(dataFile(), new byte[] {0, 0, 0, 64, 1, 2}, StandardOpenOption.APPEND);
+
+    this.store = openStore();
+    assertEquals(10, store.loadPlayerData(FIRST).get().getPoints());
+    assertEquals(20, store.loadPlayerData(SECOND).get().getPoints());
+    assertEquals(1, countCorruptFiles());
+  }
+
+  @Test
+  void dropsARecordWithABadChecksum() throws Exception {
+    PlayerData playerData = save(FIRST, 10);
+    playerData.addPoints(5);
+    store.savePlayerData(playerData).get();
+    store.close();
+
+    // The last byte belongs to the second save
+    Path file = dataFile();
+    long size = Files.size(file);
+    try (RandomAccessFile data = new RandomAccessFile(file.toFile(), "rw")) {
+      data.seek(size - 1);
+      int last = data.read();
+      data.seek(size - 1);
+      data.write(last ^ 0xFF);
+    }
+
+    this.store = openStore();
+    assertEquals(10, store.loadPlayerData(FIRST).get().getPoints());
+    assertTrue(Files.size(file) < size);
+    assertEquals(1, countCorruptFiles());
+  }
+
+  @Test
+  void appendsAfterTheRecoveredRecords() throws Exception {
+    save(FIRST, 10);
+    store.close();
+    Files.write(dataFile(), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+    this.store = openStore();
+    save(SECOND, 20);
+    assertTrue(store.deletePlayerData(FIRST).get());
+
+    reopen();
+    assertNull(store.loadPlayerData(FIRST).get());
+    assertEquals(20, store.loadPlayerData(SECOND).get().getPoints());
+  }
+
+  private FilePlayerStore openStore() {
+    FileStoreSettings settings = new FileStoreSettings();
+    settings.setSyncInterval(0L);
+    FilePlayerStore opened = new FilePlayerStore(directory.toFile(), settings, TestPlugin.logger());
+    assertTrue(opened.open());
+    return opened;
+  }
+
+  private void reopen() {
+    store.close();
+    this.store = openStore();
+  }
+
+  private PlayerData save(UUID uuid, int points) throws Exception {
+    PlayerData playerData = new PlayerData(uuid, "player-" + uuid.getLeastSignificantBits());
+    playerData.setPoints(points);
+    store.savePlayerData(playerData).get();
+    return playerData;
+  }
+
+  private Path dataFile() {
+    return directory.resolve("data-000001.log");
+  }
+
+  private long countCorruptFiles() throws IOException {
+    long count = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "data-000001.log.corrupt-*")) {
+      for (Path ignored : files) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,167 @@
+package pl.openmc.paper.core.database.journal;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerJournalTest {
+  private static final UUID FIRST = new UUID(0L, 1L);
+  private static final UUID SECOND = new UUID(0L, 2L);
+
+  @TempDir
+  Path directory;
+
+  private JournalSettings settings;
+  private PlayerJournal journal;
+
+  @BeforeEach
+  void createSettings() {
+    this.settings = new JournalSettings();
+    settings.setFsync(false);
+  }
+
+  @AfterEach
+  void close() {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  @Test
+  void replaysOnlyUnconfirmedSnapshots() throws IOException {
+    open();
+    long first = journal.append(player(FIRST, 10));
+    journal.append(player(SECOND, 20));
+    journal.confirm(FIRST, first);
+
+    List<JournalEntry> pending = reopen();
+    assertEquals(1, pending.size());
+    assertEquals(SECOND, pending.get(0).getPlayerUUID());
+    assertEquals(20, pending.get(0).toPlayerData().getPoints());
+  }
+
+  @Test
+  void replaysTheNewestSnapshotOfAPlayer() throws IOException {
+    open();
+    journal.append(player(FIRST, 10));
+    journal.append(player(FIRST, 15));
+
+    List<JournalEntry> pending = reopen();
+    assertEquals(1, pending.size());
+    assertEquals(15, pending.get(0).toPlayerData().getPoints());
+  }
+
+  @Test
+  void cutsOffARecordWithABadChecksum() throws IOException {
+    open();
+    journal.append(player(FIRST, 10));
+    journal.append(player(SECOND, 20));
+    journal.close();
+
+    // The last byte belongs to the second snapshot
+    Path segment = segment(1L);
+    long size = Files.size(segment);
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.seek(size - 1);
+      int last = file.read();
+      file.seek(size - 1);
+      file.write(last ^ 0xFF);
+    }
+
+    List<JournalEntry> pending = reopen();
+    assertEquals(1, pending.size());
+    assertEquals(FIRST, pending.get(0).getPlayerUUID());
+
+    // Records appended after the damaged one are replayed again
+    journal.append(player(SECOND, 30));
+    pending = reopen();
+    assertEquals(2, pending.size());
+  }
+
+  @Test
+  void cutsOffATornTail() throws IOException {
+    open();
+    journal.append(player(FIRST, 10));
+    journal.close();
+
+    Files.write(segment(1L), new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+
+    List<JournalEntry> pending = reopen();
+    assertEquals(1, pending.size());
+
+    journal.append(player(SECOND, 20));
+    pending = reopen();
+    assertEquals(2, pending.size());
+  }
+
+  @Test
+  void compactsClosedSegmentsKeepingUnconfirmedSnapshots() throws Exception {
+    settings.setSegmentSize(64L * 1024L);
+    open();
+
+    // Enough records to fill several segments; only the first player stays
+    // unconfirmed
+    String padding = "x".repeat(100);
+    for (int i = 0; i < 2000; i++) {
+      UUID uuid = new UUID(0L, i + 1L);
+      PlayerData playerData = player(uuid, i);
+      playerData.setData("padding", padding);
+      long sequence = journal.append(playerData);
+      if (i > 0) {
+        journal.confirm(uuid, sequence);
+      }
+    }
+
+    // The writer rolls over before a group of records, so keep appending
+    // until the first segment was closed and compacted
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    UUID filler = new UUID(1L, 0L);
+    while (Files.exists(segment(1L)) && System.nanoTime() < deadline) {
+      journal.confirm(filler, journal.append(player(filler, 0)));
+      Thread.sleep(10);
+    }
+    assertFalse(Files.exists(segment(1L)));
+
+    List<JournalEntry> pending = reopen();
+    assertEquals(1, pending.size());
+    assertEquals(FIRST, pending.get(0).getPlayerUUID());
+    assertEquals(padding, pending.get(0).toPlayerData().getData("padding"));
+  }
+
+  private void open() throws IOException {
+    this.journal = new PlayerJournal(directory.toFile(), settings, TestPlugin.logger());
+    assertTrue(journal.open().isEmpty());
+  }
+
+  private List<JournalEntry> reopen() throws IOException {
+    journal.close();
+    this.journal = new PlayerJournal(directory.toFile(), settings, TestPlugin.logger());
+    return journal.open();
+  }
+
+  private Path segment(long id) {
+    return directory.resolve(String.format("%020d.journal", id));
+  }
+
+  private static PlayerData player(UUID uuid, int points) {
+    PlayerData playerData = new PlayerData(uuid, "player-" + uuid.getLeastSignificantBits());
+    playerData.setPoints(points);
+    return playerData;
+  }
+}
@@ -0,0 +1,154 @@
+package pl.openmc.paper.core.database.migration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.database.StoreMode;
+import pl.openmc.paper.core.database.StoreSettings;
+import pl.openmc.paper.core.database.UuidCodec;
+import pl.openmc.paper.core.database.sqlite.StoreSQLite;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UuidKeyMigrationTest {
+  private static final String TABLE = "player_data";
+  private static final int PLAYERS = 250;
+
+  @TempDir
+  Path directory;
+
+  private StoreSQLite store;
+  private UuidMigrationSettings settings;
+  private List<UUID> players;
+
+  @BeforeEach
+  void createTable() throws SQLException {
+    TestPlugin.install(directory.toFile());
+    StoreSettings storeSettings = new StoreSettings();
+    storeSettings.setDurableSpool(false);
+    this.store = new StoreSQLite(directory.resolve("players.db").toFile(), "", storeSettings);
+    assertTrue(store.connect());
+
+    this.settings = new UuidMigrationSettings();
+    settings.setChunkSize(40);
+    settings.setPause(0L);
+
+    // The table as created before the binary key existed, with one row whose
+    // UUID cannot be parsed
+    this.players = new ArrayList<>();
+    store.inTransaction(connection -> {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("CREATE TABLE " + TABLE + " (id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "uuid VARCHAR(36) NOT NULL UNIQUE, name VARCHAR(32) NOT NULL, points INTEGER NOT NULL DEFAULT 0)");
+      }
+      try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + TABLE
+          + " (uuid, name) VALUES (?, ?)")) {
+        for (int i = 0; i < PLAYERS; i++) {
+          UUID uuid = UUID.randomUUID();
+          players.add(uuid);
+          insert.setString(1, uuid.toString());
+          insert.setString(2, "player-" + i);
+          insert.addBatch();
+        }
+        insert.setString(1, "not-a-uuid");
+        insert.setString(2, "broken");
+        insert.addBatch();
+        insert.executeBatch();
+      }
+      return null;
+    });
+  }
+
+  @AfterEach
+  void disconnect() {
+    store.disconnect();
+  }
+
+  @Test
+  void backfillsAndIndexesTheBinaryKey() throws Exception {
+    CountDownLatch columnAdded = new CountDownLatch(1);
+    CountDownLatch keyReady = new CountDownLatch(1);
+    UuidKeyMigration migration = migration(columnAdded, keyReady);
+
+    assertTrue(migration.start());
+    assertEquals(0, columnAdded.getCount());
+    assertTrue(keyReady.await(10, TimeUnit.SECONDS));
+
+    List<byte[]> keys = store.queryList(store.template("SELECT uuid_bin FROM " + TABLE + " ORDER BY id"),
+        statement -> {
+        }, rs -> rs.getBytes(1));
+    assertEquals(PLAYERS + 1, keys.size());
+    for (int i = 0; i < PLAYERS; i++) {
+      assertArrayEquals(UuidCodec.toBytes(players.get(i)), keys.get(i));
+    }
+    assertNull(keys.get(PLAYERS));
+    assertTrue(hasKeyIndex());
+  }
+
+  @Test
+  void readiesTheKeyRightAwayOnceMigrated() throws Exception {
+    CountDownLatch firstRun = new CountDownLatch(1);
+    assertTrue(migration(new CountDownLatch(1), firstRun).start());
+    assertTrue(firstRun.await(10, TimeUnit.SECONDS));
+
+    // A later start finds the index and runs both callbacks before returning
+    CountDownLatch columnAdded = new CountDownLatch(1);
+    CountDownLatch keyReady = new CountDownLatch(1);
+    assertTrue(migration(columnAdded, keyReady).start());
+    assertEquals(0, columnAdded.getCount());
+    assertEquals(0, keyReady.getCount());
+  }
+
+  @Test
+  void fillsRowsLeftAfterAStoppedBackfill() throws Exception {
+    UuidMigrationSettings slow = new UuidMigrationSettings();
+    slow.setChunkSize(1);
+    slow.setPause(50L);
+    UuidKeyMigration stopped = new UuidKeyMigration(store, TABLE, StoreMode.SQLITE, slow, TestPlugin.logger(),
+        () -> {
+        }, () -> {
+        });
+    assertTrue(stopped.start());
+    stopped.stop();
+
+    CountDownLatch keyReady = new CountDownLatch(1);
+    assertTrue(migration(new CountDownLatch(1), keyReady).start());
+    assertTrue(keyReady.await(10, TimeUnit.SECONDS));
+
+    Integer missing = store.queryFirst(store.template("SELECT COUNT(*) FROM " + TABLE
+        + " WHERE uuid_bin IS NULL"), statement -> {
+        }, rs -> rs.getInt(1));
+    assertEquals(1, missing);
+  }
+
+  private UuidKeyMigration migration(CountDownLatch columnAdded, CountDownLatch keyReady) {
+    return new UuidKeyMigration(store, TABLE, StoreMode.SQLITE, settings, TestPlugin.logger(),
+        columnAdded::countDown, keyReady::countDown);
+  }
+
+  private boolean hasKeyIndex() throws SQLException {
+    return store.inTransaction(connection -> {
+      try (Statement statement = connection.createStatement();
+           ResultSet rs = statement.executeQuery(
+               "SELECT sql FROM sqlite_master WHERE type = 'index' AND name = 'idx_uuid_bin'")) {
+        return rs.next() && rs.getString(1).toUpperCase().contains("UNIQUE");
+      }
+    });
+  }
+}
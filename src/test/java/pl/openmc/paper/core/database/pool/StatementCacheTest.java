@@ -0,0 +1,60 @@
+package pl.openmc.paper.core.database.pool;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StatementCacheTest {
+  private static final String SQL = "SELECT 1";
+
+  private Connection connection;
+  private StatementCache cache;
+
+  @BeforeEach
+  void createCache() {
+    this.connection = mock(Connection.class);
+    this.cache = new StatementCache(4, mock(ConnectionPool.class));
+  }
+
+  @Test
+  void reusesAReturnedStatement() throws SQLException {
+    PreparedStatement statement = mock(PreparedStatement.class);
+    when(connection.prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        .thenReturn(statement);
+
+    prepare().close();
+    prepare().executeQuery();
+
+    verify(connection, times(1)).prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    verify(statement).executeQuery();
+  }
+
+  @Test
+  void preparesAgainAfterAFailedReset() throws SQLException {
+    PreparedStatement broken = mock(PreparedStatement.class);
+    doThrow(new SQLException("Statement is unusable")).when(broken).clearParameters();
+    PreparedStatement fresh = mock(PreparedStatement.class);
+    when(connection.prepareStatement(SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        .thenReturn(broken, fresh);
+
+    prepare().close();
+    verify(broken).close();
+
+    prepare().executeQuery();
+    verify(fresh).executeQuery();
+  }
+
+  private PreparedStatement prepare() throws SQLException {
+    return cache.prepare(connection, connection, SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+  }
+}
@@ -0,0 +1,117 @@
+package pl.openmc.paper.core.managers;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.models.player.LeaderboardEntry;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaderboardManagerTest {
+  @TempDir
+  Path directory;
+
+  private LeaderboardManager leaderboard;
+  private Map<UUID, Integer> expected;
+
+  @BeforeEach
+  void createLeaderboard() {
+    this.leaderboard = new LeaderboardManager(TestPlugin.install(directory.toFile()));
+    this.expected = new HashMap<>();
+  }
+
+  @Test
+  void ranksByPointsThenByUuid() {
+    // Few distinct point values, so most ranks are decided by the UUID
+    Random random = new Random(1L);
+    for (int i = 0; i < 500; i++) {
+      set(new UUID(random.nextLong(), random.nextLong()), random.nextInt(20));
+    }
+
+    assertMatches();
+  }
+
+  @Test
+  void followsUpdatesAndRemovals() {
+    Random random = new Random(2L);
+    List<UUID> players = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      UUID uuid = new UUID(random.nextLong(), random.nextLong());
+      players.add(uuid);
+      set(uuid, random.nextInt(1000));
+    }
+
+    for (int round = 0; round < 2000; round++) {
+      UUID uuid = players.get(random.nextInt(players.size()));
+      if (random.nextInt(5) == 0) {
+        leaderboard.remove(uuid);
+        expected.remove(uuid);
+      } else {
+        set(uuid, random.nextInt(1000));
+      }
+    }
+
+    assertMatches();
+  }
+
+  @Test
+  void returnsTheNeighboursOfAPlayer() {
+    for (int i = 0; i < 10; i++) {
+      set(new UUID(0L, i), i * 10);
+    }
+
+    // Points 90 down to 0, so the player with 70 points ranks third
+    List<LeaderboardEntry> around = leaderboard.getAround(new UUID(0L, 7), 2);
+    assertEquals(List.of(1, 2, 3, 4, 5), ranks(around));
+    assertEquals(70, around.get(2).getPoints());
+
+    List<LeaderboardEntry> last = leaderboard.getAround(new UUID(0L, 0), 2);
+    assertEquals(List.of(8, 9, 10), ranks(last));
+    assertTrue(leaderboard.getAround(new UUID(1L, 1L), 2).isEmpty());
+    assertEquals(-1, leaderboard.getRank(new UUID(1L, 1L)));
+  }
+
+  private void set(UUID uuid, int points) {
+    leaderboard.update(uuid, "player", points);
+    expected.put(uuid, points);
+  }
+
+  /**
+   * Checks the order and every rank against a sorted copy of the expected
+   * points.
+   */
+  private void assertMatches() {
+    List<UUID> order = new ArrayList<>(expected.keySet());
+    order.sort(Comparator.<UUID>comparingInt(expected::get).reversed().thenComparing(Comparator.naturalOrder()));
+
+    assertEquals(order.size(), leaderboard.size());
+    List<LeaderboardEntry> top = leaderboard.getTop(order.size() + 10);
+    assertEquals(order.size(), top.size());
+    for (int i = 0; i < order.size(); i++) {
+      UUID uuid = order.get(i);
+      assertEquals(uuid, top.get(i).getPlayerUUID());
+      assertEquals(expected.get(uuid).intValue(), top.get(i).getPoints());
+      assertEquals(i + 1, top.get(i).getRank());
+      assertEquals(i + 1, leaderboard.getRank(uuid));
+    }
+  }
+
+  private static List<Integer> ranks(List<LeaderboardEntry> entries) {
+    List<Integer> ranks = new ArrayList<>();
+    for (LeaderboardEntry entry : entries) {
+      ranks.add(entry.getRank());
+    }
+    return ranks;
+  }
+}
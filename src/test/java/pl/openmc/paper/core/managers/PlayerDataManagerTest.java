@@ -0,0 +1,157 @@
+package pl.openmc.paper.core.managers;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pl.openmc.paper.core.Main;
+import pl.openmc.paper.core.TestPlugin;
+import pl.openmc.paper.core.config.DatabaseConfig;
+import pl.openmc.paper.core.database.PlayerDataStore;
+import pl.openmc.paper.core.database.cache.OfflineCacheSettings;
+import pl.openmc.paper.core.database.handoff.HandoffSettings;
+import pl.openmc.paper.core.database.journal.JournalSettings;
+import pl.openmc.paper.core.database.journal.PlayerJournal;
+import pl.openmc.paper.core.database.migration.LegacyImportSettings;
+import pl.openmc.paper.core.models.player.PlayerData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PlayerDataManagerTest {
+  private static final UUID PLAYER = new UUID(0L, 1L);
+
+  @TempDir
+  Path directory;
+
+  private Main plugin;
+  private PlayerDataStore store;
+  private JournalSettings journalSettings;
+
+  @BeforeEach
+  void mockPlugin() {
+    TestPlugin.server();
+    this.plugin = TestPlugin.install(directory.toFile());
+    this.store = mock(PlayerDataStore.class);
+    this.journalSettings = new JournalSettings();
+    journalSettings.setEnabled(false);
+    LegacyImportSettings legacyImportSettings = new LegacyImportSettings();
+    legacyImportSettings.setEnabled(false);
+
+    DatabaseConfig config = mock(DatabaseConfig.class);
+    when(config.getHandoffSettings()).thenReturn(new HandoffSettings());
+    when(config.getJournalSettings()).thenReturn(journalSettings);
+    when(config.getOfflineCacheSettings()).thenReturn(new OfflineCacheSettings());
+    when(config.getLegacyImportSettings()).thenReturn(legacyImportSettings);
+    when(plugin.getDatabaseConfig()).thenReturn(config);
+    LeaderboardManager leaderboard = new LeaderboardManager(plugin);
+    when(plugin.getPlayerDataStore()).thenReturn(store);
+    when(plugin.getLeaderboardManager()).thenReturn(leaderboard);
+  }
+
+  @Test
+  void joinsWithDataHandedOverBeforePreLogin() {
+    PlayerDataManager manager = new PlayerDataManager(plugin);
+
+    // The proxy queues the snapshot, so it usually arrives first
+    manager.acceptHandoff(snapshot(50, 1L));
+    manager.onAsyncPlayerPreLogin(preLogin());
+    manager.onPlayerJoin(join());
+
+    assertEquals(50, manager.getPlayerData(PLAYER).getPoints());
+    verify(store, never()).loadPlayerData(PLAYER);
+  }
+
+  @Test
+  void joinsWithDataHandedOverDuringTheRead() {
+    CompletableFuture<PlayerData> read = new CompletableFuture<>();
+    when(store.loadPlayerData(PLAYER)).thenReturn(read);
+    PlayerDataManager manager = new PlayerDataManager(plugin);
+
+    manager.onAsyncPlayerPreLogin(preLogin());
+    manager.acceptHandoff(snapshot(50, 1L));
+    manager.onPlayerJoin(join());
+    read.complete(stored(10));
+
+    assertEquals(50, manager.getPlayerData(PLAYER).getPoints());
+  }
+
+  @Test
+  void joinsWithStoredDataWithoutAHandoff() {
+    when(store.loadPlayerData(PLAYER)).thenReturn(CompletableFuture.completedFuture(stored(10)));
+    PlayerDataManager manager = new PlayerDataManager(plugin);
+
+    manager.onAsyncPlayerPreLogin(preLogin());
+    manager.onPlayerJoin(join());
+
+    assertEquals(10, manager.getPlayerData(PLAYER).getPoints());
+  }
+
+  @Test
+  void joinsWithJournaledDataWhileTheReplayRuns() throws IOException {
+    journalSettings.setEnabled(true);
+    journalSettings.setFsync(false);
+    PlayerJournal journal = new PlayerJournal(new File(directory.toFile(), "journal"), journalSettings,
+        TestPlugin.logger());
+    journal.open();
+    PlayerData saved = stored(10);
+    saved.addPoints(60);
+    journal.append(saved);
+    journal.close();
+
+    // The replay does not finish before the player joins
+    when(store.saveDirtyPlayerData(any())).thenReturn(new CompletableFuture<>());
+    PlayerDataManager manager = new PlayerDataManager(plugin);
+
+    manager.onAsyncPlayerPreLogin(preLogin());
+    manager.onPlayerJoin(join());
+
+    assertEquals(70, manager.getPlayerData(PLAYER).getPoints());
+    verify(store, never()).loadPlayerData(PLAYER);
+    manager.closeJournal();
+  }
+
+  private static PlayerData snapshot(int points, long stamp) {
+    PlayerData snapshot = stored(points);
+    snapshot.loadHandoffStamp(stamp);
+    return snapshot;
+  }
+
+  private static PlayerData stored(int points) {
+    PlayerData playerData = new PlayerData(PLAYER, "player");
+    playerData.loadPoints(points);
+    playerData.markSaved(playerData.getVersion());
+    return playerData;
+  }
+
+  private static AsyncPlayerPreLoginEvent preLogin() {
+    AsyncPlayerPreLoginEvent event = mock(AsyncPlayerPreLoginEvent.class);
+    when(event.getUniqueId()).thenReturn(PLAYER);
+    when(event.getName()).thenReturn("player");
+    when(event.getLoginResult()).thenReturn(AsyncPlayerPreLoginEvent.Result.ALLOWED);
+    return event;
+  }
+
+  private static PlayerJoinEvent join() {
+    Player player = mock(Player.class);
+    when(player.getUniqueId()).thenReturn(PLAYER);
+    when(player.getName()).thenReturn("player");
+    when(player.isOnline()).thenReturn(true);
+
+    PlayerJoinEvent event = mock(PlayerJoinEvent.class);
+    when(event.getPlayer()).thenReturn(player);
+    return event;
+  }
+}
@@ -0,0 +1,79 @@
+package pl.openmc.paper.core.models.player;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerDataTest {
+  private static final UUID PLAYER = new UUID(0L, 1L);
+
+  @Test
+  void takesOverHandoffsOfNewData() {
+    PlayerData playerData = new PlayerData(PLAYER, "player");
+
+    assertTrue(playerData.applyHandoff(snapshot(50, 1L)));
+    assertEquals(50, playerData.getPoints());
+  }
+
+  @Test
+  void keepsPointsAddedSinceTheLastSave() {
+    PlayerData playerData = stored(10);
+    playerData.addPoints(5);
+
+    assertTrue(playerData.applyHandoff(snapshot(50, 1L)));
+    assertEquals(55, playerData.getPoints());
+    assertEquals(5, playerData.takePointsChange().getValue());
+  }
+
+  @Test
+  void refusesHandoffsOverUnsavedData() {
+    PlayerData playerData = stored(10);
+    playerData.setData("rank", "vip");
+
+    assertFalse(playerData.applyHandoff(snapshot(50, 1L)));
+    assertEquals("vip", playerData.getData("rank"));
+
+    playerData.markSaved(playerData.getVersion());
+    assertTrue(playerData.applyHandoff(snapshot(50, 1L)));
+  }
+
+  @Test
+  void refusesHandoffsOverPointsSetHere() {
+    PlayerData playerData = stored(10);
+    playerData.setPoints(3);
+
+    assertFalse(playerData.applyHandoff(snapshot(50, 1L)));
+    assertEquals(3, playerData.getPoints());
+  }
+
+  @Test
+  void refusesHandoffsWhileADeltaIsUnconfirmed() {
+    PlayerData playerData = stored(10);
+    playerData.addPoints(5);
+    PointsChange change = playerData.takePointsChange();
+
+    assertFalse(playerData.applyHandoff(snapshot(50, 1L)));
+
+    playerData.confirmPointsChange(change);
+    playerData.markSaved(playerData.getVersion());
+    assertTrue(playerData.applyHandoff(snapshot(50, 1L)));
+    assertEquals(50, playerData.getPoints());
+  }
+
+  private static PlayerData snapshot(int points, long stamp) {
+    PlayerData snapshot = stored(points);
+    snapshot.loadHandoffStamp(stamp);
+    return snapshot;
+  }
+
+  private static PlayerData stored(int points) {
+    PlayerData playerData = new PlayerData(PLAYER, "player");
+    playerData.loadPoints(points);
+    playerData.markSaved(playerData.getVersion());
+    return playerData;
+  }
+}